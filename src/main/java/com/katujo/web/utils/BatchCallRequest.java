@@ -0,0 +1,89 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * The request a call in a batch request is invoked with.
+ * <p>
+ * The calls in a batch are invoked in parallel and the request is not thread safe, so every call
+ * gets its own request. The attributes set by the call are kept in the call request, the attributes 
+ * of the batch request are read through (not changed).
+ * </p>
+ * @author Johan Hertz
+ */
+class BatchCallRequest extends HttpServletRequestWrapper
+{
+	//The attributes set by the call (null values are removed attributes)
+	private final Map<String, Object> attributes = new HashMap<String, Object>();
+	
+	/**
+	 * Create the object.
+	 * @param request the batch request
+	 */
+	public BatchCallRequest(HttpServletRequest request)
+	{
+		super(request);
+	}
+	
+	/*
+	 * Get the attribute set by the call or else the batch request attribute.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#getAttribute(java.lang.String)
+	 */
+	@Override
+	public synchronized Object getAttribute(String name)
+	{
+		return attributes.containsKey(name) ? attributes.get(name) : super.getAttribute(name);
+	}
+	
+	/*
+	 * Get the names of the attributes.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#getAttributeNames()
+	 */
+	@Override
+	public synchronized Enumeration<String> getAttributeNames()
+	{
+		//Get the batch request attributes
+		Set<String> names = new HashSet<String>(Collections.list(super.getAttributeNames()));
+		
+		//Add and remove the attributes set by the call
+		for(Map.Entry<String, Object> attribute : attributes.entrySet())
+			if(attribute.getValue() != null) names.add(attribute.getKey());
+			else names.remove(attribute.getKey());
+		
+		//Return the names
+		return Collections.enumeration(names);
+	}
+	
+	/*
+	 * Set the attribute for the call.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#setAttribute(java.lang.String, java.lang.Object)
+	 */
+	@Override
+	public synchronized void setAttribute(String name, Object value)
+	{
+		attributes.put(name, value);
+	}
+	
+	/*
+	 * Remove the attribute for the call.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#removeAttribute(java.lang.String)
+	 */
+	@Override
+	public synchronized void removeAttribute(String name)
+	{
+		attributes.put(name, null);
+	}
+}
@@ -0,0 +1,77 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * The response a call in a batch request is invoked with.
+ * <p>
+ * The result of the call is added to the batch response by the router filter, so the headers and 
+ * the status set by the call are dropped (the batch response is not thread safe and is shared by the 
+ * calls) and writing to the response is not allowed.
+ * </p>
+ * @author Johan Hertz
+ */
+class BatchCallResponse extends HttpServletResponseWrapper
+{
+	/**
+	 * Create the object.
+	 * @param response the batch response
+	 */
+	public BatchCallResponse(HttpServletResponse response)
+	{
+		super(response);
+	}
+	
+	/*
+	 * Writing is not allowed.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+	 */
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException
+	{
+		throw new IllegalStateException("A call in a batch request can't write to the response");
+	}
+	
+	/*
+	 * Writing is not allowed.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletResponseWrapper#getWriter()
+	 */
+	@Override
+	public PrintWriter getWriter() throws IOException
+	{
+		throw new IllegalStateException("A call in a batch request can't write to the response");
+	}
+	
+	//The headers, status and settings of the call are dropped
+	@Override public void addCookie(Cookie cookie) {}
+	@Override public void setHeader(String name, String value) {}
+	@Override public void addHeader(String name, String value) {}
+	@Override public void setDateHeader(String name, long date) {}
+	@Override public void addDateHeader(String name, long date) {}
+	@Override public void setIntHeader(String name, int value) {}
+	@Override public void addIntHeader(String name, int value) {}
+	@Override public void setStatus(int status) {}
+	@Override @Deprecated public void setStatus(int status, String message) {}
+	@Override public void sendError(int status) {}
+	@Override public void sendError(int status, String message) {}
+	@Override public void sendRedirect(String location) {}
+	@Override public void setContentType(String type) {}
+	@Override public void setCharacterEncoding(String charset) {}
+	@Override public void setContentLength(int length) {}
+	@Override public void setContentLengthLong(long length) {}
+	@Override public void setLocale(Locale locale) {}
+	@Override public void setBufferSize(int size) {}
+	@Override public void flushBuffer() {}
+	@Override public void reset() {}
+	@Override public void resetBuffer() {}
+}
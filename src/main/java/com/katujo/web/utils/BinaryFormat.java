@@ -0,0 +1,337 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * A binary wire format that is read into and written from the JSON element model, so the routes
+ * don't change when a client sends or accepts a binary format instead of JSON.
+ * <p>
+ * The formats are CBOR (application/cbor) and MessagePack (application/msgpack). The byte strings
+ * of the formats are read as base64 strings and the numbers are written as integers when the number
+ * is an integer that fits a long, otherwise as a double.
+ * </p>
+ * @author Johan Hertz
+ */
+abstract class BinaryFormat
+{
+	//The CBOR format
+	static final BinaryFormat CBOR = new CborFormat();
+	
+	//The MessagePack format
+	static final BinaryFormat MESSAGE_PACK = new MessagePackFormat();
+	
+	//The content type of the format
+	final String contentType;
+	
+	/**
+	 * Create the object.
+	 * @param contentType
+	 */
+	protected BinaryFormat(String contentType)
+	{
+		this.contentType = contentType;
+	}
+	
+	/**
+	 * Read the JSON element from the bytes.
+	 * @param input
+	 * @return
+	 */
+	protected abstract JsonElement read(Input input);
+	
+	/**
+	 * Write the JSON element.
+	 * @param element
+	 * @param out
+	 * @throws IOException
+	 */
+	protected abstract void write(JsonElement element, DataOutputStream out) throws IOException;
+	
+	/**
+	 * Decode the JSON element from the bytes.
+	 * <p>
+	 * Reading stops as soon as the data is nested deeper than the max depth or an array or map
+	 * has more members than the max members (-1 is not checked).
+	 * </p>
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param maxDepth
+	 * @param maxMembers
+	 * @return the JSON element (JSON null for no bytes)
+	 */
+	JsonElement decode(byte[] bytes, int offset, int length, int maxDepth, int maxMembers)
+	{
+		//Create the input
+		Input input = new Input(ByteBuffer.wrap(bytes, offset, length), maxDepth, maxMembers);
+		
+		//No data
+		if(!input.buffer.hasRemaining())
+			return JsonNull.INSTANCE;
+		
+		//Try to read the element
+		try
+		{
+			//Read the element
+			JsonElement element = read(input);
+			
+			//Check that all the bytes are read
+			if(input.buffer.hasRemaining())
+				throw new JsonSyntaxException("The " + contentType + " data has " + input.buffer.remaining() + " bytes after the value");
+			
+			//Return the element
+			return element;
+		}
+		
+		//The data ends before the value
+		catch(BufferUnderflowException ex)
+		{
+			throw new JsonSyntaxException("The " + contentType + " data ends before the value is complete", ex);
+		}
+	}
+	
+	/**
+	 * Encode the JSON element to bytes.
+	 * @param element
+	 * @return
+	 * @throws IOException
+	 */
+	byte[] encode(JsonElement element) throws IOException
+	{
+		//Create the output
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		//Write the element
+		write(element, out);
+		
+		//Return the bytes
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Get the binary format of the content type.
+	 * @param contentType
+	 * @return the format or null if not a binary format
+	 */
+	static BinaryFormat forContentType(String contentType)
+	{
+		//Get the media type without the parameters
+		String media = contentType.split(";")[0].trim().toLowerCase();
+		
+		//Get the format
+		if(media.equals("application/cbor")) return CBOR;
+		if(media.equals("application/msgpack") || media.equals("application/x-msgpack")) return MESSAGE_PACK;
+		return null;
+	}
+	
+	/**
+	 * Get the binary format accepted by the client.
+	 * <p>
+	 * The format with the highest quality is used, JSON is used when it has the same quality
+	 * as a binary format or no binary format is accepted.
+	 * </p>
+	 * @param accept
+	 * @return the format or null if JSON should be sent
+	 */
+	static BinaryFormat accepted(String accept)
+	{
+		//Nothing accepted
+		if(accept == null)
+			return null;
+		
+		//Fields
+		BinaryFormat format = null;
+		double formatQuality = 0;
+		double jsonQuality = 0;
+		
+		//Check the accepted types
+		for(String item : accept.split(","))
+		{
+			//Get the type and the quality
+			String[] split = item.split(";");
+			String media = split[0].trim().toLowerCase();
+			double quality = 1;
+			for(int i=1; i<split.length; i++)
+				if(split[i].trim().startsWith("q="))
+					try {quality = Double.parseDouble(split[i].trim().substring(2));} catch(NumberFormatException ex) {}
+			
+			//JSON
+			if(media.equals("application/json") || media.equals("application/*") || media.equals("*/*"))
+				jsonQuality = Math.max(jsonQuality, quality);
+			
+			//The binary format with the highest quality
+			else if(quality > formatQuality && forContentType(media) != null)
+			{
+				format = forContentType(media);
+				formatQuality = quality;
+			}
+		}
+		
+		//Return the format
+		return format != null && formatQuality > jsonQuality ? format : null;
+	}
+	
+	/**
+	 * Get the number as a long if it is an integer that fits a long.
+	 * @param number
+	 * @return the long or null if the number is not a long
+	 */
+	protected static Long asLong(Number number)
+	{
+		//The integer types
+		if(number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte)
+			return number.longValue();
+		
+		//The floating point types
+		if(number instanceof Double || number instanceof Float)
+			return null;
+		
+		//The parsed numbers (integers without a fraction or exponent)
+		String text = number.toString();
+		if(text.indexOf('.') != -1 || text.indexOf('e') != -1 || text.indexOf('E') != -1)
+			return null;
+		
+		//Try to parse the long
+		try {return Long.parseLong(text);}
+		catch(NumberFormatException ex) {return null;}
+	}
+	
+	/**
+	 * Create the number primitive for the unsigned 64 bit integer.
+	 * @param value
+	 * @return
+	 */
+	protected static JsonPrimitive unsigned(long value)
+	{
+		return new JsonPrimitive(value >= 0 ? (Number) value : new BigInteger(Long.toUnsignedString(value)));
+	}
+	
+	/**
+	 * Create the string primitive for a byte string (base64).
+	 * @param bytes
+	 * @return
+	 */
+	protected static JsonPrimitive base64(byte[] bytes)
+	{
+		return new JsonPrimitive(Base64.getEncoder().encodeToString(bytes));
+	}
+	
+	/*
+	 * The bytes being read with the nesting depth and the member limits.
+	 */
+	protected static class Input
+	{
+		//The bytes (big endian)
+		final ByteBuffer buffer;
+		
+		//The max nesting depth
+		private final int maxDepth;
+		
+		//The max number of members in an array or map
+		private final int maxMembers;
+		
+		//The current depth
+		private int depth;
+		
+		/**
+		 * Create the object.
+		 * @param buffer
+		 * @param maxDepth
+		 * @param maxMembers
+		 */
+		Input(ByteBuffer buffer, int maxDepth, int maxMembers)
+		{
+			this.buffer = buffer;
+			this.maxDepth = maxDepth;
+			this.maxMembers = maxMembers;
+		}
+		
+		/**
+		 * Enter an array or map with the number of members (-1 if not known).
+		 * @param members
+		 */
+		void enter(long members)
+		{
+			//Check the depth
+			if(++depth > maxDepth && maxDepth != -1)
+				throw LimitedJsonReader.tooDeep(maxDepth);
+			
+			//Check the number of members
+			checkMembers(members);
+		}
+		
+		/**
+		 * Exit an array or map.
+		 */
+		void exit()
+		{
+			depth--;
+		}
+		
+		/**
+		 * Check the number of members in an array or map.
+		 * @param members
+		 */
+		void checkMembers(long members)
+		{
+			//Too many members
+			if(members > maxMembers && maxMembers != -1)
+				throw LimitedJsonReader.tooManyMembers(maxMembers);
+			
+			//More members than bytes (each member is at least one byte)
+			if(members > buffer.remaining())
+				throw new BufferUnderflowException();
+		}
+		
+		/**
+		 * Read the bytes.
+		 * @param length
+		 * @return
+		 */
+		byte[] bytes(long length)
+		{
+			//Check the length
+			if(length < 0 || length > buffer.remaining())
+				throw new BufferUnderflowException();
+			
+			//Read the bytes
+			byte[] bytes = new byte[(int) length];
+			buffer.get(bytes);
+			return bytes;
+		}
+		
+		/**
+		 * Read the UTF-8 string.
+		 * @param length
+		 * @return
+		 */
+		String string(long length)
+		{
+			//Check the length
+			if(length < 0 || length > buffer.remaining())
+				throw new BufferUnderflowException();
+			
+			//Read the string
+			String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + (int) length);
+			return string;
+		}
+	}
+}
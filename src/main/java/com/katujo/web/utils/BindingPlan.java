@@ -0,0 +1,257 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * The plan to bind the members of the request data to the parameters of a route method.
+ * <p>
+ * The plan is created once for the route with the member name, the converter and the default
+ * value for every parameter. The request data is bound in a single pass over the members of the 
+ * JSON object.
+ * </p>
+ * @author Johan Hertz
+ */
+class BindingPlan
+{
+	//The position of the parameter for the member names <String=member, Integer=position>
+	private final Map<String, Integer> positions = new HashMap<String, Integer>();
+	
+	//The member names per position (used in the error message)
+	private final String[] names;
+	
+	//The converters per position (null for the request and response parameters)
+	private final Converter[] converters;
+	
+	//The values per position used when the member is not set
+	private final Object[] defaults;
+	
+	//The position of the request and response parameters (-1 if not set)
+	private int requestPosition = -1;
+	private int responsePosition = -1;
+	
+	/**
+	 * Create the plan for the method.
+	 * @param method
+	 * @throws Exception
+	 */
+	public BindingPlan(Method method) throws Exception
+	{
+		//Get the parameters
+		Parameter[] parameters = method.getParameters();
+		
+		//Create the arrays
+		names = new String[parameters.length];
+		converters = new Converter[parameters.length];
+		defaults = new Object[parameters.length];
+		
+		//Create the binding for every parameter
+		for(int i = 0; i < parameters.length; i++)
+		{
+			//Get the parameter
+			Parameter parameter = parameters[i];
+			
+			//Set the request
+			if(parameter.getType() == HttpServletRequest.class)
+			{
+				requestPosition = i;
+				continue;
+			}
+			
+			//Set the response
+			if(parameter.getType() == HttpServletResponse.class)
+			{
+				responsePosition = i;
+				continue;
+			}
+			
+			//Get the annotation
+			Param param = parameter.getAnnotation(Param.class);
+			
+			//Set the name
+			if(param != null && !"".equals(param.value())) names[i] = param.value();
+			else if(parameter.isNamePresent()) names[i] = parameter.getName();
+			else throw new Exception("The name of parameter " + i + " on method " + method.getName() + " is not known, use @Param or compile with -parameters");
+			
+			//Check that the name is unique
+			if(positions.containsKey(names[i]))
+				throw new Exception("The parameter name " + names[i] + " is not unique on method " + method.getName());
+			
+			//Set the position and the converter
+			positions.put(names[i], i);
+			converters[i] = converter(parameter.getType(), parameter.getParameterizedType());
+			
+			//Set the default value
+			if(param != null && !"".equals(param.defaultValue()))
+				defaults[i] = converters[i].convert(JsonParser.parseString(param.defaultValue()));
+			
+			//Set the default value for a primitive (zero or false)
+			else if(parameter.getType().isPrimitive())
+				defaults[i] = Array.get(Array.newInstance(parameter.getType(), 1), 0);
+		}
+	}
+	
+	/**
+	 * Check if the parameters of the method should be bound by name.
+	 * <p>
+	 * The parameters are bound if any parameter has the param annotation, or if the parameter names
+	 * are used (bind-parameter-names) and the method has more than one parameter compiled with names.
+	 * </p>
+	 * @param method
+	 * @param parameterNames
+	 * @return
+	 */
+	public static boolean applies(Method method, boolean parameterNames)
+	{
+		//Get the parameters
+		Parameter[] parameters = method.getParameters();
+		
+		//Bind if a parameter is annotated
+		for(Parameter parameter : parameters)
+			if(parameter.isAnnotationPresent(Param.class))
+				return true;
+		
+		//Only bind methods with several parameters by the compiled names
+		if(!parameterNames || parameters.length < 2)
+			return false;
+		
+		//The request and response route
+		if(parameters.length == 2 && parameters[0].getType() == HttpServletRequest.class && parameters[1].getType() == HttpServletResponse.class)
+			return false;
+		
+		//Check that the names are compiled
+		for(Parameter parameter : parameters)
+			if(!parameter.isNamePresent() && parameter.getType() != HttpServletRequest.class && parameter.getType() != HttpServletResponse.class)
+				return false;
+		
+		//Bind the parameters
+		return true;
+	}
+	
+	/**
+	 * Bind the request data to the parameter values.
+	 * @param data
+	 * @param request
+	 * @param response
+	 * @return
+	 * @throws Exception
+	 */
+	public Object[] bind(JsonElement data, HttpServletRequest request, HttpServletResponse response) throws Exception
+	{
+		//Create the values
+		Object[] values = new Object[converters.length];
+		
+		//Create the flags for the set values
+		boolean[] set = new boolean[converters.length];
+		
+		//Bind the members
+		if(data != null && data.isJsonObject())
+		{
+			for(Map.Entry<String, JsonElement> member : data.getAsJsonObject().entrySet())
+			{
+				//Get the position
+				Integer position = positions.get(member.getKey());
+				
+				//Skip the members without a parameter and the null members
+				if(position == null || member.getValue().isJsonNull())
+					continue;
+				
+				//Try to convert the value
+				try
+				{
+					values[position] = converters[position].convert(member.getValue());
+					set[position] = true;
+				}
+				
+				//Failed
+				catch(Exception ex)
+				{
+					throw new Exception("Failed to bind the member " + member.getKey() + " to the route parameter", ex);
+				}
+			}
+		}
+		
+		//The request data must be an object
+		else if(data != null && !data.isJsonNull())
+			throw new Exception("The request data must be a JSON object to bind the route parameters");
+		
+		//Set the default values
+		for(int i = 0; i < values.length; i++)
+			if(!set[i])
+				values[i] = defaults[i];
+		
+		//Set the request and the response
+		if(requestPosition != -1) values[requestPosition] = request;
+		if(responsePosition != -1) values[responsePosition] = response;
+		
+		//Return the values
+		return values;
+	}
+	
+	/**
+	 * Create the converter for the parameter type.
+	 * @param type
+	 * @param genericType
+	 * @return
+	 */
+	private static Converter converter(Class<?> type, Type genericType)
+	{
+		//JSON
+		if(type == JsonElement.class) return new Converter() {public Object convert(JsonElement value) {return value;}};
+		if(type == JsonObject.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsJsonObject();}};
+		if(type == JsonArray.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsJsonArray();}};
+		
+		//Primitives
+		if(type == String.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsString();}};
+		if(type == boolean.class || type == Boolean.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsBoolean();}};
+		if(type == int.class || type == Integer.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsInt();}};
+		if(type == long.class || type == Long.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsLong();}};
+		if(type == double.class || type == Double.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsDouble();}};
+		if(type == float.class || type == Float.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsFloat();}};
+		if(type == short.class || type == Short.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsShort();}};
+		if(type == byte.class || type == Byte.class) return new Converter() {public Object convert(JsonElement value) {return value.getAsByte();}};
+		
+		//Date (sent as the time in milliseconds)
+		if(type == Date.class) return new Converter() {public Object convert(JsonElement value) {return new Date(value.getAsLong());}};
+		
+		//Any other type is converted with the type adapter
+		final TypeAdapter<?> adapter = JsonStreams.GSON.getAdapter(TypeToken.get(genericType));
+		return new Converter()
+		{
+			public Object convert(JsonElement value)
+			{
+				return adapter.fromJsonTree(value);
+			}
+		};
+	}
+	
+	/*
+	 * Converts a member value to the parameter type.
+	 */
+	private static abstract class Converter
+	{
+		/**
+		 * Convert the value.
+		 * @param value
+		 * @return
+		 */
+		public abstract Object convert(JsonElement value);
+	}
+}
@@ -0,0 +1,88 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of byte buffers of the same size.
+ * <p>
+ * Buffers are created when the pool is empty and dropped when the pool is full, so the pool
+ * never blocks and only keeps the buffers needed by the concurrent requests.
+ * </p>
+ * @author Johan Hertz
+ */
+class BufferPool
+{
+	//The pooled buffers
+	private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	
+	//The number of pooled buffers (the queue size is not constant time)
+	private final AtomicInteger count = new AtomicInteger();
+	
+	//The size of the buffers
+	private final int size;
+	
+	//The maximum number of pooled buffers
+	private final int max;
+	
+	/**
+	 * Create the object.
+	 * @param size
+	 * @param max
+	 */
+	public BufferPool(int size, int max)
+	{
+		this.size = size;
+		this.max = max;
+	}
+	
+	/**
+	 * Take a buffer from the pool (creates a new buffer if the pool is empty).
+	 * @return
+	 */
+	public byte[] take()
+	{
+		//Get a pooled buffer
+		byte[] buffer = buffers.poll();
+		
+		//Create a new buffer if the pool is empty
+		if(buffer == null)
+			return new byte[size];
+		
+		//Return the pooled buffer
+		count.decrementAndGet();
+		return buffer;
+	}
+	
+	/**
+	 * Return the buffer to the pool.
+	 * @param buffer
+	 */
+	public void release(byte[] buffer)
+	{
+		//Only pool buffers of the pool size
+		if(buffer == null || buffer.length != size)
+			return;
+		
+		//Drop the buffer if the pool is full
+		if(count.incrementAndGet() > max)
+		{
+			count.decrementAndGet();
+			return;
+		}
+		
+		//Add the buffer
+		buffers.offer(buffer);
+	}
+	
+	/**
+	 * Get the size of the buffers.
+	 * @return
+	 */
+	public int size()
+	{
+		return size;
+	}
+}
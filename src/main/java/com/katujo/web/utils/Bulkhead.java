@@ -0,0 +1,48 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the number of concurrent calls to the route.
+ * <p>
+ * When the limit is reached a call waits in the queue (if set) for at most the queue timeout, 
+ * calls that can't be queued or time out in the queue are rejected with 503 service unavailable
+ * and Retry-After. Routes with the same group share the limit. The limit can be overridden with
+ * the bulkheads init parameter on the router filter.
+ * </p>
+ * @author Johan Hertz
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkhead 
+{
+	/**
+	 * The maximum number of concurrent calls.
+	 * @return
+	 */
+	int value();
+	
+	/**
+	 * The maximum number of calls waiting when the limit is reached.
+	 * @return
+	 */
+	int queue() default 0;
+	
+	/**
+	 * The time in milliseconds a call waits in the queue before it is rejected.
+	 * @return
+	 */
+	long queueTimeout() default 100;
+	
+	/**
+	 * The group that shares the limit (if not set the limit is for the route only).
+	 * @return
+	 */
+	String group() default "";
+}
@@ -0,0 +1,35 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the response of the route.
+ * <p>
+ * The response is cached per request data (the JSON sent by the client), on a cache hit the cached
+ * response is sent and the route is not invoked. Only use on routes where the response only depends
+ * on the request data.
+ * </p>
+ * @author Johan Hertz
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached 
+{
+	/**
+	 * The time in milliseconds a cached response is used.
+	 * @return
+	 */
+	long ttlMillis() default 60000;
+	
+	/**
+	 * The maximum number of cached responses (the least recently used response is removed).
+	 * @return
+	 */
+	int maxEntries() default 1000;
+}
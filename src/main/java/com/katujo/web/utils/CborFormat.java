@@ -0,0 +1,343 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * The CBOR format (RFC 8949).
+ * <p>
+ * Reads the definite and indefinite length items, the tags are ignored except the big number
+ * tags and map keys that are not strings are read as their JSON text. Writes definite length items.
+ * </p>
+ * @author Johan Hertz
+ */
+class CborFormat extends BinaryFormat
+{
+	//The major types
+	private static final int UNSIGNED = 0;
+	private static final int NEGATIVE = 1;
+	private static final int BYTES = 2;
+	private static final int TEXT = 3;
+	private static final int ARRAY = 4;
+	private static final int MAP = 5;
+	private static final int TAG = 6;
+	private static final int SIMPLE = 7;
+	
+	//The additional information for an indefinite length
+	private static final int INDEFINITE = 31;
+	
+	//The break that ends an indefinite length item
+	private static final int BREAK = 0xFF;
+	
+	//The big number tags
+	private static final long POSITIVE_BIG_NUMBER = 2;
+	private static final long NEGATIVE_BIG_NUMBER = 3;
+	
+	/**
+	 * Create the object.
+	 */
+	CborFormat()
+	{
+		super("application/cbor");
+	}
+	
+	/*
+	 * Read the JSON element.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.BinaryFormat#read(com.katujo.web.utils.BinaryFormat.Input)
+	 */
+	@Override
+	protected JsonElement read(Input input)
+	{
+		//Get the initial byte
+		int initial = input.buffer.get() & 0xFF;
+		
+		//Skip the tags in a loop so a run of tags is not read recursively (only the big number tags are read)
+		while(initial >>> 5 == TAG)
+		{
+			//Get the tag
+			long tag = argument(input, initial & 0x1F);
+			
+			//Big number
+			if(tag == POSITIVE_BIG_NUMBER || tag == NEGATIVE_BIG_NUMBER)
+			{
+				//Get the number bytes
+				int next = input.buffer.get() & 0xFF;
+				if(next >>> 5 != BYTES)
+					throw new JsonSyntaxException("The CBOR big number is not a byte string");
+				BigInteger number = new BigInteger(1, byteString(input, next & 0x1F));
+				
+				//Return the number
+				return new JsonPrimitive(tag == POSITIVE_BIG_NUMBER ? number : number.negate().subtract(BigInteger.ONE));
+			}
+			
+			//Get the initial byte of the tagged item
+			initial = input.buffer.get() & 0xFF;
+		}
+		
+		//Get the major type and the additional information
+		int major = initial >>> 5;
+		int info = initial & 0x1F;
+		
+		//Unsigned integer
+		if(major == UNSIGNED)
+			return unsigned(argument(input, info));
+		
+		//Negative integer (-1 - argument)
+		if(major == NEGATIVE)
+		{
+			long argument = argument(input, info);
+			return new JsonPrimitive(argument >= 0 ? (Number) (-1 - argument) : new BigInteger(Long.toUnsignedString(argument)).negate().subtract(BigInteger.ONE));
+		}
+		
+		//Byte string (base64)
+		if(major == BYTES)
+			return base64(byteString(input, info));
+		
+		//Text string
+		if(major == TEXT)
+			return new JsonPrimitive(new String(byteString(input, info), StandardCharsets.UTF_8));
+		
+		//Array
+		if(major == ARRAY)
+		{
+			//Get the length (-1 if indefinite)
+			long length = info == INDEFINITE ? -1 : argument(input, info);
+			input.enter(length);
+			
+			//Read the elements
+			JsonArray array = new JsonArray();
+			for(long i=0; length == -1 ? !isBreak(input) : i < length; i++)
+			{
+				if(length == -1) input.checkMembers(i + 1);
+				array.add(read(input));
+			}
+			
+			//Return the array
+			input.exit();
+			return array;
+		}
+		
+		//Map
+		if(major == MAP)
+		{
+			//Get the length (-1 if indefinite)
+			long length = info == INDEFINITE ? -1 : argument(input, info);
+			input.enter(length);
+			
+			//Read the members (keys that are not strings are read as their JSON text)
+			JsonObject object = new JsonObject();
+			for(long i=0; length == -1 ? !isBreak(input) : i < length; i++)
+			{
+				if(length == -1) input.checkMembers(i + 1);
+				JsonElement key = read(input);
+				object.add(key.isJsonPrimitive() && key.getAsJsonPrimitive().isString() ? key.getAsString() : key.toString(), read(input));
+			}
+			
+			//Return the object
+			input.exit();
+			return object;
+		}
+		
+		//Simple values and floats
+		switch(info)
+		{
+			case 20: return new JsonPrimitive(false);
+			case 21: return new JsonPrimitive(true);
+			case 22: return JsonNull.INSTANCE;
+			case 23: return JsonNull.INSTANCE;
+			case 25: return new JsonPrimitive(halfToFloat(input.buffer.getShort() & 0xFFFF));
+			case 26: return new JsonPrimitive(input.buffer.getFloat());
+			case 27: return new JsonPrimitive(input.buffer.getDouble());
+			default: throw new JsonSyntaxException("The CBOR simple value " + info + " is not supported");
+		}
+	}
+	
+	/*
+	 * Write the JSON element.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.BinaryFormat#write(com.google.gson.JsonElement, java.io.DataOutputStream)
+	 */
+	@Override
+	protected void write(JsonElement element, DataOutputStream out) throws IOException
+	{
+		//Null
+		if(element == null || element.isJsonNull())
+			out.writeByte(SIMPLE << 5 | 22);
+		
+		//Array
+		else if(element.isJsonArray())
+		{
+			writeHead(out, ARRAY, element.getAsJsonArray().size());
+			for(JsonElement item : element.getAsJsonArray())
+				write(item, out);
+		}
+		
+		//Object
+		else if(element.isJsonObject())
+		{
+			writeHead(out, MAP, element.getAsJsonObject().size());
+			for(Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet())
+			{
+				writeText(out, member.getKey());
+				write(member.getValue(), out);
+			}
+		}
+		
+		//Boolean
+		else if(element.getAsJsonPrimitive().isBoolean())
+			out.writeByte(SIMPLE << 5 | (element.getAsBoolean() ? 21 : 20));
+		
+		//String
+		else if(element.getAsJsonPrimitive().isString())
+			writeText(out, element.getAsString());
+		
+		//Number
+		else
+		{
+			//Get the number as a long (null if not an integer that fits a long)
+			Long value = asLong(element.getAsNumber());
+			
+			//Integer
+			if(value != null)
+			{
+				if(value >= 0) writeHead(out, UNSIGNED, value);
+				else writeHead(out, NEGATIVE, -1 - value);
+			}
+			
+			//Double
+			else
+			{
+				out.writeByte(SIMPLE << 5 | 27);
+				out.writeDouble(element.getAsDouble());
+			}
+		}
+	}
+	
+	/**
+	 * Write the text string.
+	 * @param out
+	 * @param text
+	 * @throws IOException
+	 */
+	private static void writeText(DataOutputStream out, String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		writeHead(out, TEXT, bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Write the head of an item with the shortest argument.
+	 * @param out
+	 * @param major
+	 * @param argument
+	 * @throws IOException
+	 */
+	private static void writeHead(DataOutputStream out, int major, long argument) throws IOException
+	{
+		if(argument < 24) out.writeByte(major << 5 | (int) argument);
+		else if(argument <= 0xFF) {out.writeByte(major << 5 | 24); out.writeByte((int) argument);}
+		else if(argument <= 0xFFFF) {out.writeByte(major << 5 | 25); out.writeShort((int) argument);}
+		else if(argument <= 0xFFFFFFFFL) {out.writeByte(major << 5 | 26); out.writeInt((int) argument);}
+		else {out.writeByte(major << 5 | 27); out.writeLong(argument);}
+	}
+	
+	/**
+	 * Read the argument of the item (the unsigned 64 bit value as a long).
+	 * @param input
+	 * @param info
+	 * @return
+	 */
+	private static long argument(Input input, int info)
+	{
+		if(info < 24) return info;
+		if(info == 24) return input.buffer.get() & 0xFF;
+		if(info == 25) return input.buffer.getShort() & 0xFFFF;
+		if(info == 26) return input.buffer.getInt() & 0xFFFFFFFFL;
+		if(info == 27) return input.buffer.getLong();
+		throw new JsonSyntaxException("The CBOR additional information " + info + " is not supported");
+	}
+	
+	/**
+	 * Read the bytes of a byte or text string (the chunks of an indefinite length string are joined).
+	 * @param input
+	 * @param info
+	 * @return
+	 */
+	private static byte[] byteString(Input input, int info)
+	{
+		//Definite length
+		if(info != INDEFINITE)
+			return input.bytes(argument(input, info));
+		
+		//Join the chunks
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		while(!isBreak(input))
+		{
+			int chunk = input.buffer.get() & 0xFF;
+			byte[] part = input.bytes(argument(input, chunk & 0x1F));
+			bytes.write(part, 0, part.length);
+		}
+		
+		//Return the bytes
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Check if the next byte is the break (the break is skipped).
+	 * @param input
+	 * @return
+	 */
+	private static boolean isBreak(Input input)
+	{
+		//The data ends before the break
+		if(!input.buffer.hasRemaining())
+			throw new BufferUnderflowException();
+		
+		//Not the break
+		if((input.buffer.get(input.buffer.position()) & 0xFF) != BREAK)
+			return false;
+		
+		//Skip the break
+		input.buffer.get();
+		return true;
+	}
+	
+	/**
+	 * Convert the half precision float bits to a float.
+	 * @param bits
+	 * @return
+	 */
+	private static float halfToFloat(int bits)
+	{
+		//Get the parts
+		int sign = bits >>> 15;
+		int exponent = (bits >>> 10) & 0x1F;
+		int fraction = bits & 0x3FF;
+		
+		//Get the value
+		float value;
+		if(exponent == 0) value = (float) (fraction * Math.pow(2, -24));
+		else if(exponent == 31) value = fraction == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		else value = (float) ((fraction + 1024) * Math.pow(2, exponent - 25));
+		
+		//Return the value with the sign
+		return sign == 0 ? value : -value;
+	}
+}
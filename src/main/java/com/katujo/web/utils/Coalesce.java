@@ -0,0 +1,25 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Coalesces identical concurrent invocations of the route.
+ * <p>
+ * Requests with the same request data (the JSON sent by the client) that arrive while the route 
+ * is already being invoked for that data wait for the invocation in progress and are sent the same
+ * response, the route is only invoked once. Only use on routes where the response only depends
+ * on the request data.
+ * </p>
+ * @author Johan Hertz
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Coalesce 
+{
+}
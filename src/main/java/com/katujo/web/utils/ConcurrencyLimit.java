@@ -0,0 +1,106 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The limit of concurrent calls for a route or a group of routes (see the bulkhead annotation).
+ * @author Johan Hertz
+ */
+class ConcurrencyLimit
+{
+	//The permits for the calls
+	private final Semaphore permits;
+	
+	//The maximum number of calls waiting for a permit
+	private final int queue;
+	
+	//The time in milliseconds a call waits for a permit
+	private final long queueTimeout;
+	
+	//The number of calls waiting for a permit
+	private final AtomicInteger waiting = new AtomicInteger();
+	
+	/**
+	 * Create the object.
+	 * @param limit
+	 * @param queue
+	 * @param queueTimeout
+	 */
+	public ConcurrencyLimit(int limit, int queue, long queueTimeout)
+	{
+		this.permits = new Semaphore(limit);
+		this.queue = queue;
+		this.queueTimeout = queueTimeout;
+	}
+	
+	/**
+	 * Create the limit from the text limit[:queue[:queueTimeout]].
+	 * @param text
+	 * @return
+	 * @throws Exception
+	 */
+	public static ConcurrencyLimit parse(String text) throws Exception
+	{
+		//Try to parse the limit
+		try
+		{
+			//Split the text
+			String[] parts = text.trim().split(":");
+			
+			//Create the limit
+			return new ConcurrencyLimit(
+					Integer.parseInt(parts[0].trim()), 
+					parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0, 
+					parts.length > 2 ? Long.parseLong(parts[2].trim()) : 100);
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to parse the bulkhead limit " + text, ex);
+		}
+	}
+	
+	/**
+	 * Acquire a permit for a call, waits in the queue if the limit is reached.
+	 * @return false if the call is rejected
+	 * @throws InterruptedException
+	 */
+	public boolean acquire() throws InterruptedException
+	{
+		//Get a permit without waiting
+		if(permits.tryAcquire())
+			return true;
+		
+		//Reject the call if the queue is full
+		if(waiting.incrementAndGet() > queue)
+		{
+			waiting.decrementAndGet();
+			return false;
+		}
+		
+		//Wait in the queue
+		try
+		{
+			return permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS);
+		}
+		
+		//Leave the queue
+		finally
+		{
+			waiting.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Release the permit when the call is done.
+	 */
+	public void release()
+	{
+		permits.release();
+	}
+}
@@ -7,10 +7,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -25,8 +27,8 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 	//The cache to hold the query results
 	private final ConcurrentHashMap<String, CachedResult> cache = new ConcurrentHashMap<String, CachedResult>();
 	
-	//The cache locks used when loading new data to the cache
-	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+	//The cache locks used when loading new data to the cache (not synchronized to not pin virtual threads)
+	private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
 			
 	//The maximum size of the cache
 	private final int size;
@@ -181,7 +183,7 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 			String key = createQueryKey(sql, parameters);
 			
 			//Get the lock
-			Object lock = getLock(key);
+			ReentrantLock lock = getLock(key);
 						
 			//Get the cached result
 			CachedResult cached = cache.get(key);
@@ -193,7 +195,8 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 			if(cached == null || cached.getTimestamp() + expiry < currentTime)		
 			{
 				//Lock the call for a new result so only one call at a time can be made
-				synchronized(lock)
+				lock.lock();
+				try
 				{					
 					//Get the cached result again
 					cached = cache.get(key);	
@@ -202,6 +205,7 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 					if(cached == null || cached.getTimestamp() + expiry < currentTime)										
 						cache.put(key, cached = new CachedResult(this.getArray(sql, parameters)));
 				}
+				finally {lock.unlock();}
 			}
 			
 			//Update the hit time
@@ -217,6 +221,9 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 			//Return null if not set
 			if(element == null)
 				return null;
+			
+			//Set the hash of the result (used for the ETag if the result is returned by the route)
+			setResultHash(element, cached);
 							
 			//Return the cached result
 			return element.getAsJsonArray();				
@@ -297,6 +304,9 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 			//Return null if not set
 			if(element == null)
 				return null;
+			
+			//Set the hash of the result (used for the ETag if the result is returned by the route)
+			setResultHash(element, cached);
 							
 			//Return the cached result
 			return element.getAsJsonObject();				
@@ -389,18 +399,35 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 		return builder.toString();
 	}	
 	
+	/**
+	 * Set the hash of the cached result for the returned element if ETags are turned on in 
+	 * the router filter for the current request.
+	 * @param element
+	 * @param cached
+	 * @throws Exception
+	 */
+	private static void setResultHash(JsonElement element, CachedResult cached) throws Exception
+	{
+		//Get the hashes for the current request
+		Map<JsonElement, RouterFilter.ResultHash> hashes = RouterFilter.getResultHashes();
+		
+		//Set the hash (only used if the route returns the copy unchanged)
+		if(hashes != null)
+			hashes.put(element, new RouterFilter.ResultHash(cached.result, cached.getHash()));
+	}
+	
 	/**
 	 * Get the lock used when refreshing the cache.
 	 * @param queryKey
 	 * @return
 	 */
-	private Object getLock(String queryKey)
+	private ReentrantLock getLock(String queryKey)
 	{	
 		//Create the lock
-		Object lock = new Object();
+		ReentrantLock lock = new ReentrantLock();
 		
 		//Add the lock if not already set
-		Object retrieved = locks.putIfAbsent(queryKey, lock);
+		ReentrantLock retrieved = locks.putIfAbsent(queryKey, lock);
 		
 		//Set the lock to the retrieved lock if set
 		if(retrieved != null)
@@ -424,6 +451,9 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 		//The timestamp for when the cached result were last hit
 		private final AtomicLong hit;
 		
+		//The hash of the result JSON (created when first used)
+		private volatile Long hash;
+		
 		/**
 		 * Create the object.
 		 * @param result
@@ -454,6 +484,21 @@ public class DatabaseCacheManager extends com.katujo.web.utils.DatabaseManager
 			return result.deepCopy();
 		}
 
+		/**
+		 * Get the hash of the result JSON as sent by the router filter.
+		 * @return the hash
+		 * @throws Exception
+		 */
+		public long getHash() throws Exception
+		{
+			//Create the hash if not set
+			if(hash == null)
+				hash = JsonStreams.hash(result);
+			
+			//Return the hash
+			return hash;
+		}
+		
 		/**
 		 * Get the timestamp.
 		 * @return the timestamp
@@ -8,6 +8,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,7 +18,9 @@ import javax.naming.InitialContext;
 import javax.sql.DataSource;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 /**
  * Helps with database communication. 
@@ -28,6 +31,9 @@ public class DatabaseManager
 	//This map holds the data sources
 	private final static Map<String, DataSource> dataSources = new ConcurrentHashMap<String, DataSource>();
 	
+	//The number of rows fetched at a time when streaming a result set
+	private static final int STREAM_FETCH_SIZE = 500;
+	
 	//The default data source look up that is used when calling methods without the data source specified
 	private final String defaultLookup;	
 	
@@ -506,6 +512,92 @@ public class DatabaseManager
 		}				
 	}	
 	
+	/**
+	 * Create a response stream that sends a JSON object for every row read from the database 
+	 * using the SQL and the parameters.
+	 * <p>
+	 * The query is run when the stream is written to the response, the rows are read with a cursor 
+	 * (fetch size) and sent as they are read so the result is never held in memory. The connection 
+	 * is closed when the rows have been sent or the client has disconnected.
+	 * </p>
+	 * @param sql
+	 * @param parameters
+	 * @return
+	 */
+	protected ResponseStream getStream(final String sql, final Object... parameters)
+	{
+		return new ResponseStream()
+		{
+			@Override
+			public void writeTo(JsonSink sink) throws Exception
+			{
+				//Fields
+				Connection connection = null;
+				PreparedStatement statement = null;
+				ResultSet result = null;
+				boolean autoCommit = true;
+				
+				//Try to send the data
+				try
+				{
+					//Get a connection (some drivers only use a cursor in a transaction)
+					connection = getConnection();
+					autoCommit = connection.getAutoCommit();
+					connection.setAutoCommit(false);
+					
+					//Create the statement
+					statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+					statement.setFetchSize(STREAM_FETCH_SIZE);
+					
+					//Set the parameters if set 
+					if(parameters != null)
+					{
+						//Set the parameters
+						for(int i=0; i<parameters.length; i++)
+						{
+							//Set null parameters
+							if(parameters[i] == null)
+								statement.setString(i+1, null);
+							
+							//Set the timestamp to avoid being shadowed by below date check
+							else if(parameters[i] instanceof Timestamp)
+								statement.setObject(i+1, (Timestamp) parameters[i]);							
+							
+							//Convert to SQL date when using java.util.Date parameter
+							else if(parameters[i] instanceof Date)
+								statement.setObject(i+1, new java.sql.Date(((Date) parameters[i]).getTime()));
+		
+							//Set the parameter
+							else statement.setObject(i+1, parameters[i]);
+						}
+					}
+					
+					//Run the statement
+					result = statement.executeQuery();
+					
+					//Send the rows
+					JsonUtils.sendJsonObjects(result, sink);
+				}
+				
+				//Failed
+				catch(Exception ex)
+				{
+					throw new Exception("Failed to stream JSON objects from database result set", ex);
+				}
+				
+				//Clean up
+				finally
+				{
+					try {result.close();} catch(Throwable t) {}
+					try {statement.close();} catch(Throwable t) {}
+					try {connection.rollback();} catch(Throwable t) {}
+					try {connection.setAutoCommit(autoCommit);} catch(Throwable t) {}
+					try {connection.close();} catch(Throwable t) {}
+				}
+			}
+		};
+	}
+	
 	/**
 	 * Execute the SQL with the parameter.
 	 * @param sql
@@ -618,5 +710,149 @@ public class DatabaseManager
 		}					
 	}
 	
-
+	/**
+	 * Execute the SQL for every row in JDBC batches of the batch size.
+	 * <p>
+	 * The parameters of a row are the values of the members (in order) of the JSON object. The rows
+	 * are read as the batches are executed so the rows can be streamed from the request (an iterator
+	 * route parameter) without holding them in memory. All the rows are executed in one transaction
+	 * that is rolled back if a batch fails.
+	 * </p>
+	 * @param sql
+	 * @param rows
+	 * @param batchSize
+	 * @param members
+	 * @return the number of rows executed
+	 * @throws Exception
+	 */
+	protected long executeBatch(String sql, Iterator<JsonObject> rows, int batchSize, String... members) throws Exception
+	{
+		//Fields
+		Connection connection = null;
+		boolean autoCommit = true;
+		
+		//Try to execute the batches
+		try
+		{
+			//Get a connection
+			connection = getConnection();
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			
+			//Execute the batches using the connection
+			long count = executeBatch(connection, sql, rows, batchSize, members);
+			
+			//Commit the rows
+			connection.commit();
+			return count;
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			try {connection.rollback();} catch(Throwable t) {}
+			throw ex;
+		}
+		
+		//Clean up
+		finally
+		{
+			try {connection.setAutoCommit(autoCommit);} catch(Throwable t) {}
+			try {connection.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Execute the SQL for every row in JDBC batches of the batch size on the connection.
+	 * <p>
+	 * The parameters of a row are the values of the members (in order) of the JSON object, strings,
+	 * numbers and booleans are set as the value and arrays and objects as the JSON text. The next 
+	 * rows are not read until the batch has been executed. 
+	 * </p>
+	 * @param connection
+	 * @param sql
+	 * @param rows
+	 * @param batchSize
+	 * @param members
+	 * @return the number of rows executed
+	 * @throws Exception
+	 */
+	protected long executeBatch(Connection connection, String sql, Iterator<JsonObject> rows, int batchSize, String... members) throws Exception
+	{
+		//Fields
+		PreparedStatement statement = null;
+		long count = 0;
+		int batched = 0;
+		
+		//Try to execute the batches
+		try
+		{
+			//Create the statement
+			statement = connection.prepareStatement(sql);
+			
+			//Add the rows
+			while(rows.hasNext())
+			{
+				//Get the row
+				JsonObject row = rows.next();
+				
+				//Set the parameters
+				for(int i=0; i<members.length; i++)
+				{
+					//Get the value
+					JsonElement value = row != null ? row.get(members[i]) : null;
+					
+					//Set null parameters
+					if(value == null || value.isJsonNull())
+						statement.setString(i+1, null);
+					
+					//Set the boolean
+					else if(value.isJsonPrimitive() && ((JsonPrimitive) value).isBoolean())
+						statement.setBoolean(i+1, value.getAsBoolean());
+					
+					//Set the number
+					else if(value.isJsonPrimitive() && ((JsonPrimitive) value).isNumber())
+						statement.setBigDecimal(i+1, value.getAsBigDecimal());
+					
+					//Set the string
+					else if(value.isJsonPrimitive())
+						statement.setString(i+1, value.getAsString());
+					
+					//Set the array or object as JSON
+					else statement.setString(i+1, value.toString());
+				}
+				
+				//Add the row to the batch
+				statement.addBatch();
+				count++;
+				
+				//Execute the full batch
+				if(++batched == batchSize)
+				{
+					statement.executeBatch();
+					batched = 0;
+				}
+			}
+			
+			//Execute the last batch
+			if(batched > 0)
+				statement.executeBatch();
+			
+			//Return the number of rows
+			return count;
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to execute the SQL batch (row " + count + ")", ex);
+		}
+		
+		//Clean up
+		finally
+		{
+			try {statement.close();} catch(Throwable t) {}
+		}
+	}
+	
 }
@@ -0,0 +1,104 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of deflaters with the same wrapping (gzip or zlib).
+ * <p>
+ * A deflater holds a native zlib stream that is only freed by end() (or by the finalizer), so
+ * the deflaters are reused across requests instead of per thread (with virtual threads every
+ * request runs on a new thread). Deflaters are created when the pool is empty, reset when
+ * returned and ended when the pool is full.
+ * </p>
+ * @author Johan Hertz
+ */
+class DeflaterPool
+{
+	//The pooled deflaters
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+	
+	//The number of pooled deflaters (the queue size is not constant time)
+	private final AtomicInteger count = new AtomicInteger();
+	
+	//The flag if the deflaters are created without the zlib wrapper (gzip)
+	private final boolean nowrap;
+	
+	//The maximum number of pooled deflaters
+	private final int max;
+	
+	/**
+	 * Create the object.
+	 * @param nowrap
+	 * @param max
+	 */
+	public DeflaterPool(boolean nowrap, int max)
+	{
+		this.nowrap = nowrap;
+		this.max = max;
+	}
+	
+	/**
+	 * Take a deflater with the compression level from the pool (creates a new deflater if the pool is empty).
+	 * @param level
+	 * @return
+	 */
+	public Deflater take(int level)
+	{
+		//Get a pooled deflater
+		Deflater deflater = deflaters.poll();
+		
+		//Create a new deflater if the pool is empty
+		if(deflater == null)
+			return new Deflater(level, nowrap);
+		
+		//Set the level of the pooled deflater (used from the next deflate call)
+		count.decrementAndGet();
+		deflater.setLevel(level);
+		return deflater;
+	}
+	
+	/**
+	 * Reset the deflater and return it to the pool (ends the deflater if the pool is full).
+	 * @param deflater
+	 */
+	public void release(Deflater deflater)
+	{
+		//Nothing to return
+		if(deflater == null)
+			return;
+		
+		//End the deflater if the pool is full
+		if(count.incrementAndGet() > max)
+		{
+			count.decrementAndGet();
+			deflater.end();
+			return;
+		}
+		
+		//Reset the deflater (it can be left in any state by a failed request) and add it
+		deflater.reset();
+		deflaters.offer(deflater);
+	}
+	
+	/**
+	 * End the pooled deflaters.
+	 * <p>
+	 * Deflaters that are in use are ended when they are returned if the pool is full, otherwise
+	 * they are pooled again.
+	 * </p>
+	 */
+	public void clear()
+	{
+		//End the deflaters
+		Deflater deflater;
+		while((deflater = deflaters.poll()) != null)
+		{
+			count.decrementAndGet();
+			deflater.end();
+		}
+	}
+}
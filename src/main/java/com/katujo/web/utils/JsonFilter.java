@@ -4,8 +4,8 @@ package com.katujo.web.utils;
 
 //Java imports
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -13,26 +13,89 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 //Google imports
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
 
 /**
  * Parse the JSON data sent by the client and makes it available to other filters and servlets
  * via the thread safe getJson method.
+ * <p>
+ * The JSON is parsed the first time getJson is called, requests where the JSON is never asked
+ * for (e.g. routes without a data parameter) are not parsed. The body is read from the request 
+ * and buffered once in a pooled buffer, UTF-8 bodies are parsed straight from the bytes. The 
+ * charset is read from the content type and is UTF-8 if not set.
+ * </p>
+ * <p>
+ * Bodies sent as CBOR (application/cbor) or MessagePack (application/msgpack) are decoded to
+ * the same JSON element, so the routes read them the same way as JSON. Newline delimited JSON
+ * (application/x-ndjson) is accepted for the routes that stream the elements of the body.
+ * </p>
+ * <p>
+ * The body is limited by the init parameters, a limit of -1 is not checked:<br>
+ * max-body-size: the max size of the body in bytes (default 16 MB), checked against the 
+ * content length before the body is read and while it is read, rejected with 413.<br>
+ * max-stream-size: the max size in bytes of a body streamed to a route one element at a time 
+ * (default not limited, the streamed body is not held in memory), checked the same way.<br>
+ * max-depth: the max nesting depth of the JSON (default 256), rejected with 400.<br>
+ * max-members: the max number of members in a JSON array or object (default 1000000), rejected with 400.<br>
+ * The JSON is rejected as soon as a limit is reached, before the JSON element has been built.
+ * </p>
+ * <p>
+ * Note that max-body-size, max-depth and max-members are limited by default, earlier versions did not
+ * limit the body so bodies that were accepted before (e.g. larger than 16 MB or an array with more than 
+ * 1000000 elements) are now rejected. Set a limit to -1 to accept these bodies, or use an Iterator route
+ * parameter to stream a large array (limited by max-stream-size only).
+ * </p>
+ * <p>
+ * Bodies sent with Content-Encoding gzip or deflate are inflated as they are read, the max body
+ * size is checked against the inflated size. Other content encodings are rejected with 415.
+ * </p>
  * @author Johan Hertz
  */
 public class JsonFilter implements Filter
 {
-	//The thread local field to hold the JSON data
-	private static ThreadLocal<JsonElement> json = new ThreadLocal<>();
+	//The thread local field to hold the request body
+	private static ThreadLocal<RequestBody> body = new ThreadLocal<>();
+	
+	//The request attribute to hold the request body (available to asynchronous requests on any thread)
+	private static final String BODY_ATTRIBUTE = JsonFilter.class.getName() + ".body";
+	
+	//The max size of the body in bytes
+	private long maxBodySize;
+	
+	//The max size of a streamed body in bytes
+	private long maxStreamSize;
+	
+	//The max nesting depth of the JSON
+	private int maxDepth;
+	
+	//The max number of members in a JSON array or object
+	private int maxMembers;
 		
 	/**
 	 * Init the filter.
 	 */
 	@Override
-	public void init(FilterConfig config) throws ServletException {}	
+	public void init(FilterConfig config) throws ServletException
+	{
+		//Try to init the filter
+		try
+		{
+			//Set the limits
+			maxBodySize = config.getInitParameter("max-body-size") != null ? Long.parseLong(config.getInitParameter("max-body-size")) : 16 * 1024 * 1024;
+			maxStreamSize = config.getInitParameter("max-stream-size") != null ? Long.parseLong(config.getInitParameter("max-stream-size")) : -1;
+			maxDepth = config.getInitParameter("max-depth") != null ? Integer.parseInt(config.getInitParameter("max-depth")) : 256;
+			maxMembers = config.getInitParameter("max-members") != null ? Integer.parseInt(config.getInitParameter("max-members")) : 1000000;
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new ServletException("Failed to init JsonFilter", ex);
+		}
+	}	
 	
 	/**
 	 * Destroy the filter (clean up).
@@ -52,23 +115,26 @@ public class JsonFilter implements Filter
 			//Parse data from HTTP Request
 			if(request instanceof HttpServletRequest)
 			{				
-				//Get the content type
+				//Get the content type and the binary format (null if not a binary format)
 				String contentType = request.getContentType();
+				BinaryFormat format = contentType != null ? BinaryFormat.forContentType(contentType) : null;
 				
-				//Parse the JSON data from the request
-				if(contentType != null && contentType.startsWith("application/json"))
+				//Set the JSON body of the request (parsed when first used)
+				if(contentType != null && (contentType.startsWith("application/json") || contentType.startsWith(StreamingOutput.NDJSON_CONTENT_TYPE) || format != null))
 				{
-					//Get the charset
-					String charset = contentType.split(";")[1].split("=")[1];
-										
-					//Get the input stream
-					InputStream input = request.getInputStream();
+					//Reject the content encoding that can't be inflated
+					if(!RequestBody.isDecodable(request))
+					{
+						((HttpServletResponse) response).sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+						return;
+					}
 					
-					//Create the reader
-					InputStreamReader reader = new InputStreamReader(input, charset);
+					//Create the body (the size is checked when read since a streamed body has its own limit)
+					RequestBody body = new RequestBody(request, charset(contentType), format, maxBodySize, maxStreamSize, maxDepth, maxMembers);
 					
-					//Create the JSON and set it to the thread local field
-					JsonFilter.json.set(new JsonParser().parse(reader));								
+					//Set the body to the thread local field and the request
+					JsonFilter.body.set(body);
+					request.setAttribute(BODY_ATTRIBUTE, body);
 				}								
 			}
 															
@@ -79,11 +145,79 @@ public class JsonFilter implements Filter
 		//Failed
 		catch(Exception ex) 
 		{
+			//Send the status for the rejected request body
+			RequestBodyException rejected = RequestBodyException.find(ex);
+			if(rejected != null && !response.isCommitted())
+			{
+				((HttpServletResponse) response).sendError(rejected.getStatus(), rejected.getMessage());
+				return;
+			}
+			
+			//Throw the exception
 			throw new ServletException(ex);
 		}
 		
-		//Clear the JSON
-		finally {JsonFilter.json.set(null);}
+		//Clean up
+		finally
+		{
+			//Clear the body
+			JsonFilter.body.set(null);
+			
+			//Return the body buffer to the pool (when the asynchronous request is done)
+			release(request);
+		}
+	}
+	
+	/**
+	 * Return the buffer of the request body to the pool.
+	 * <p>
+	 * The buffer is returned when the asynchronous request completes if the request is asynchronous.
+	 * </p>
+	 * @param request
+	 */
+	private static void release(ServletRequest request)
+	{
+		//Get the body
+		final RequestBody body = getBody(request);
+		
+		//No body
+		if(body == null)
+			return;
+		
+		//Return the buffer now
+		if(!request.isAsyncStarted())
+		{
+			body.release();
+			return;
+		}
+		
+		//Return the buffer when the asynchronous request is done
+		request.getAsyncContext().addListener(new AsyncListener()
+		{
+			public void onComplete(AsyncEvent event) {body.release();}
+			public void onError(AsyncEvent event) {body.release();}
+			public void onTimeout(AsyncEvent event) {}
+			public void onStartAsync(AsyncEvent event) {}
+		});
+	}
+	
+	/**
+	 * Get the charset from the content type.
+	 * @param contentType
+	 * @return the charset or UTF-8 if not set (the JSON default)
+	 */
+	private static String charset(String contentType)
+	{
+		//Find the charset parameter
+		for(String parameter : contentType.split(";"))
+		{
+			int index = parameter.indexOf('=');
+			if(index != -1 && parameter.substring(0, index).trim().equalsIgnoreCase("charset"))
+				return parameter.substring(index + 1).trim().replace("\"", "");
+		}
+		
+		//Default to UTF-8
+		return "UTF-8";
 	}
 
 	/**
@@ -92,7 +226,90 @@ public class JsonFilter implements Filter
 	 */
 	public static JsonElement getJson()
 	{
-		return json.get();
+		//Get the body
+		RequestBody body = JsonFilter.body.get();
+		
+		//Return the JSON
+		return body != null ? body.getJson() : null;
+	}
+	
+	/**
+	 * Set the JSON for the current thread.
+	 * <p>
+	 * Used by the router filter when the route is invoked on another thread than the request thread.
+	 * </p>
+	 * @param element
+	 */
+	static void setJson(JsonElement element)
+	{
+		body.set(element != null ? new RequestBody(element) : null);
+	}
+	
+	/**
+	 * Set the request body for the current thread.
+	 * <p>
+	 * Used by the router filter when the route is invoked on another thread than the request thread.
+	 * </p>
+	 * @param body
+	 */
+	static void setBody(RequestBody body)
+	{
+		JsonFilter.body.set(body);
+	}
+	
+	/**
+	 * Set the body for the request.
+	 * <p>
+	 * Used by the router filter for the calls in a batch request.
+	 * </p>
+	 * @param request
+	 * @param body
+	 */
+	static void setBody(ServletRequest request, RequestBody body)
+	{
+		request.setAttribute(BODY_ATTRIBUTE, body);
+	}
+	
+	/**
+	 * Get the body for the request.
+	 * @param request
+	 * @return the body or null if the request is not a JSON request
+	 */
+	static RequestBody getBody(ServletRequest request)
+	{
+		return (RequestBody) request.getAttribute(BODY_ATTRIBUTE);
+	}
+	
+	/**
+	 * Get the JSON for the request.
+	 * <p>
+	 * Use this method for asynchronous requests where the thread that handles the request 
+	 * is not the thread the request was received on. 
+	 * </p>
+	 * @param request
+	 * @return
+	 */
+	public static JsonElement getJson(ServletRequest request)
+	{
+		//Get the body
+		RequestBody body = getBody(request);
+		
+		//Return the JSON
+		return body != null ? body.getJson() : null;
+	}
+	
+	/**
+	 * Get the time in nanoseconds it took to parse the JSON for the request.
+	 * @param request
+	 * @return the time or -1 if the JSON has not been parsed
+	 */
+	static long getParseTime(ServletRequest request)
+	{
+		//Get the body
+		RequestBody body = getBody(request);
+		
+		//Return the time
+		return body != null ? body.getParseTime() : -1;
 	}
 
 }
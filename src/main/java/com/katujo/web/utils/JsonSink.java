@@ -0,0 +1,35 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+
+/**
+ * The sink a streamed response is written to, every element is sent to the client as it is
+ * written (see the response stream).
+ * @author Johan Hertz
+ */
+public interface JsonSink 
+{
+	/**
+	 * Send the element to the client as JSON.
+	 * <p>
+	 * Throws an IOException if the client has disconnected, the producer should stop sending elements.
+	 * </p>
+	 * @param element
+	 * @throws IOException
+	 */
+	void send(Object element) throws IOException;
+	
+	/**
+	 * Send the elements written so far to the client.
+	 * @throws IOException
+	 */
+	void flush() throws IOException;
+	
+	/**
+	 * Check if the client is still connected (false when a write has failed).
+	 * @return
+	 */
+	boolean isOpen();
+}
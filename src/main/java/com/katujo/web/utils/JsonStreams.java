@@ -0,0 +1,209 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+//Google imports
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes and hashes JSON the same way as the router filter sends it.
+ * <p>
+ * The hash is the 64 bit FNV-1a hash of the UTF-8 bytes, it is fast and not cryptographic and 
+ * is used for the ETag of the responses.
+ * </p>
+ * @author Johan Hertz
+ */
+class JsonStreams
+{
+	//The Gson instance used to get the type adapters (caches the adapters per type)
+	static final Gson GSON = new Gson();
+	
+	//The adapter used to write JSON elements
+	static final TypeAdapter<JsonElement> JSON_ELEMENT_ADAPTER = GSON.getAdapter(JsonElement.class);
+	
+	//The FNV-1a 64 bit offset basis (the hash of no bytes)
+	static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	
+	//The FNV-1a 64 bit prime
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	/**
+	 * Write the JSON to the output stream as UTF-8.
+	 * <p>
+	 * The JSON is written the same way as JsonElement.toString. The output stream is closed.
+	 * </p>
+	 * @param element
+	 * @param out
+	 * @throws IOException
+	 */
+	static void write(JsonElement element, OutputStream out) throws IOException
+	{
+		//Create the writer (lenient as JsonElement.toString)
+		JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writer.setLenient(true);
+		
+		//Write the JSON
+		JSON_ELEMENT_ADAPTER.write(writer, element);
+		
+		//Close the writer (flushes and closes the output stream)
+		writer.close();
+	}
+	
+	/**
+	 * Write the object to the output stream as UTF-8 JSON using the type adapter.
+	 * <p>
+	 * The JSON is written the same way as Gson.toJson (nulls are not written). The output stream is closed.
+	 * </p>
+	 * @param adapter
+	 * @param value
+	 * @param out
+	 * @throws IOException
+	 */
+	static <T> void write(TypeAdapter<T> adapter, T value, OutputStream out) throws IOException
+	{
+		//Create the writer with the Gson settings (lenient as Gson.toJson)
+		JsonWriter writer = GSON.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writer.setLenient(true);
+		
+		//Write the JSON
+		adapter.write(writer, value);
+		
+		//Close the writer (flushes and closes the output stream)
+		writer.close();
+	}
+	
+	/**
+	 * Get the hash of the JSON as written by the write method.
+	 * @param element
+	 * @return
+	 * @throws IOException
+	 */
+	static long hash(JsonElement element) throws IOException
+	{
+		//Create the output stream that hashes the bytes
+		HashOutput out = new HashOutput();
+		
+		//Write the JSON
+		write(element, out);
+		
+		//Return the hash
+		return out.hash;
+	}
+	
+	/**
+	 * Update the hash with the bytes.
+	 * @param hash
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	static long hash(long hash, byte[] bytes, int offset, int length)
+	{
+		//Add the bytes
+		for(int i=offset; i<offset + length; i++)
+		{
+			hash ^= bytes[i] & 0xff;
+			hash *= FNV_PRIME;
+		}
+		
+		//Return the hash
+		return hash;
+	}
+	
+	/**
+	 * Get the canonical hash of the JSON.
+	 * <p>
+	 * The order of the object members does not change the hash and numbers are hashed by their
+	 * double value, so JSON elements that are equal has the same hash.
+	 * </p>
+	 * @param element
+	 * @return
+	 */
+	static long canonicalHash(JsonElement element)
+	{
+		//Null
+		if(element == null || element.isJsonNull())
+			return mix(1);
+		
+		//Primitive
+		if(element.isJsonPrimitive())
+		{
+			//Get the primitive
+			JsonPrimitive primitive = element.getAsJsonPrimitive();
+			
+			//Boolean
+			if(primitive.isBoolean())
+				return mix(primitive.getAsBoolean() ? 2 : 3);
+			
+			//Number
+			if(primitive.isNumber())
+				return mix(4 * FNV_PRIME + Double.doubleToLongBits(primitive.getAsDouble()));
+			
+			//String
+			return mix(5 * FNV_PRIME + primitive.getAsString().hashCode());
+		}
+		
+		//Array (order matters)
+		if(element.isJsonArray())
+		{
+			long hash = mix(6);
+			for(JsonElement item : element.getAsJsonArray())
+				hash = mix(hash * FNV_PRIME + canonicalHash(item));
+			return hash;
+		}
+		
+		//Object (the sum of the members so the order does not matter)
+		long sum = 0;
+		for(Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet())
+			sum += mix(member.getKey().hashCode() * FNV_PRIME + canonicalHash(member.getValue()));
+		return mix(7 * FNV_PRIME + sum);
+	}
+	
+	/**
+	 * Mix the bits of the value (the finalizer of the 64 bit murmur hash).
+	 * @param value
+	 * @return
+	 */
+	private static long mix(long value)
+	{
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+	
+	/*
+	 * The output stream that only hashes the bytes.
+	 */
+	private static class HashOutput extends OutputStream
+	{
+		//The hash
+		private long hash = FNV_OFFSET;
+		
+		@Override
+		public void write(int b)
+		{
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		
+		@Override
+		public void write(byte[] bytes, int offset, int length)
+		{
+			hash = hash(hash, bytes, offset, length);
+		}
+	}
+}
@@ -474,6 +474,39 @@ public class JsonUtils
 		}
 	}
 	
+	/**
+	 * Send a JSON object for every row in the result set to the sink as the rows are read.
+	 * <p>
+	 * Stops reading when the client has disconnected.
+	 * </p>
+	 * @param result
+	 * @param sink
+	 * @throws Exception
+	 */
+	public static void sendJsonObjects(ResultSet result, JsonSink sink) throws Exception
+	{
+		//Try to send the data
+		try
+		{
+			//Get the meta data
+			ResultSetMetaData meta = result.getMetaData();
+						
+			//Get the column types and the field names
+			DatabaseTypes[] columnTypes = getColumnTypes(meta);
+			String[] fieldNames = getFieldNames(meta);			
+			
+			//Send the rows
+			while(sink.isOpen() && result.next())
+				sink.send(createJsonObject(result, columnTypes, fieldNames));
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to send JSON objects from result set", ex);
+		}
+	}
+	
 	/**
 	 * Create a JSON object from a result set row.
 	 * @param result
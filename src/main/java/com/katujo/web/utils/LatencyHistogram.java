@@ -0,0 +1,179 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in nanoseconds.
+ * <p>
+ * The values are counted in log-linear buckets, four buckets for every power of two, so the 
+ * precision of a value read from the histogram is within 25%. Recording a value does not allocate
+ * and does not lock, it is a couple of atomic increments.
+ * </p>
+ * @author Johan Hertz
+ */
+class LatencyHistogram
+{
+	//The number of buckets for every power of two (as bits)
+	private static final int SUB_BUCKET_BITS = 2;
+	
+	//The number of buckets for every power of two
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	//The number of buckets (covers every positive long)
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	//The counts per bucket
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	//The number of recorded values
+	private final AtomicLong count = new AtomicLong();
+	
+	//The sum of the recorded values
+	private final AtomicLong sum = new AtomicLong();
+	
+	//The largest recorded value
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Record a value.
+	 * @param nanos
+	 */
+	public void record(long nanos)
+	{
+		//Negative values are recorded as zero (the clock is only monotonic per thread on some systems)
+		if(nanos < 0)
+			nanos = 0;
+		
+		//Count the value
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		
+		//Set the max
+		for(long current = max.get(); nanos > current && !max.compareAndSet(current, nanos); current = max.get());
+	}
+	
+	/**
+	 * Get the number of recorded values.
+	 * @return
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+	
+	/**
+	 * Get the sum of the recorded values in nanoseconds.
+	 * @return
+	 */
+	public long getSum()
+	{
+		return sum.get();
+	}
+	
+	/**
+	 * Get the largest recorded value in nanoseconds.
+	 * @return
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+	
+	/**
+	 * Get the count for the bucket.
+	 * @param bucket
+	 * @return
+	 */
+	public long getCount(int bucket)
+	{
+		return counts.get(bucket);
+	}
+	
+	/**
+	 * Get the value at the percentile (0-100) as the upper bound of the bucket it is in.
+	 * <p>
+	 * The buckets are read one by one while values may be recorded so the value is approximate.
+	 * </p>
+	 * @param percentile
+	 * @return
+	 */
+	public long getPercentile(double percentile)
+	{
+		//Get the number of values at or below the percentile
+		long total = count.get();
+		long rank = (long) Math.ceil(total * percentile / 100);
+		
+		//No values recorded
+		if(total == 0)
+			return 0;
+		
+		//Find the bucket that holds the value
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if(seen >= rank && seen > 0)
+				return Math.min(upperBound(i), max.get());
+		}
+		
+		//Recorded while read
+		return max.get();
+	}
+	
+	/**
+	 * Get the bucket for the value.
+	 * @param value
+	 * @return
+	 */
+	static int bucket(long value)
+	{
+		//The first buckets hold a single value
+		if(value < SUB_BUCKETS)
+			return (int) value;
+		
+		//Get the power of two and the bucket within the power of two 
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		
+		//Return the bucket
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	
+	/**
+	 * Get the upper bound (exclusive) of the values in the bucket.
+	 * @param bucket
+	 * @return
+	 */
+	static long upperBound(int bucket)
+	{
+		//The last bucket
+		if(bucket >= BUCKETS - 1)
+			return Long.MAX_VALUE;
+		
+		//Return the lower bound of the next bucket
+		return lowerBound(bucket + 1);
+	}
+	
+	/**
+	 * Get the lower bound (inclusive) of the values in the bucket.
+	 * @param bucket
+	 * @return
+	 */
+	static long lowerBound(int bucket)
+	{
+		//The first buckets hold a single value
+		if(bucket < SUB_BUCKETS)
+			return bucket;
+		
+		//Get the power of two and the bucket within the power of two
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		
+		//Return the lower bound
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+}
@@ -0,0 +1,162 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import javax.servlet.http.HttpServletResponse;
+
+//Google imports
+import com.google.gson.stream.JsonReader;
+
+/**
+ * The JSON reader that stops reading when the JSON is nested deeper than the max depth or an 
+ * array or object has more members than the max members.
+ * <p>
+ * A limit of -1 is not checked.
+ * </p>
+ * @author Johan Hertz
+ */
+class LimitedJsonReader extends JsonReader
+{
+	//The max nesting depth
+	private final int maxDepth;
+	
+	//The max number of members in an array or object
+	private final int maxMembers;
+	
+	//The number of members read for the arrays and objects being read (by depth)
+	private int[] members = new int[32];
+	
+	//The current depth
+	private int depth;
+	
+	/**
+	 * Create the object.
+	 * @param in
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	public LimitedJsonReader(Reader in, int maxDepth, int maxMembers)
+	{
+		super(in);
+		this.maxDepth = maxDepth;
+		this.maxMembers = maxMembers;
+	}
+	
+	/*
+	 * Begin the array.
+	 * (non-Javadoc)
+	 * @see com.google.gson.stream.JsonReader#beginArray()
+	 */
+	@Override
+	public void beginArray() throws IOException
+	{
+		super.beginArray();
+		enter();
+	}
+	
+	/*
+	 * End the array.
+	 * (non-Javadoc)
+	 * @see com.google.gson.stream.JsonReader#endArray()
+	 */
+	@Override
+	public void endArray() throws IOException
+	{
+		super.endArray();
+		depth--;
+	}
+	
+	/*
+	 * Begin the object.
+	 * (non-Javadoc)
+	 * @see com.google.gson.stream.JsonReader#beginObject()
+	 */
+	@Override
+	public void beginObject() throws IOException
+	{
+		super.beginObject();
+		enter();
+	}
+	
+	/*
+	 * End the object.
+	 * (non-Javadoc)
+	 * @see com.google.gson.stream.JsonReader#endObject()
+	 */
+	@Override
+	public void endObject() throws IOException
+	{
+		super.endObject();
+		depth--;
+	}
+	
+	/*
+	 * Check if the array or object has another member (the member is counted).
+	 * (non-Javadoc)
+	 * @see com.google.gson.stream.JsonReader#hasNext()
+	 */
+	@Override
+	public boolean hasNext() throws IOException
+	{
+		//Check if there is another member
+		boolean next = super.hasNext();
+		
+		//Count the member
+		if(next && maxMembers != -1 && ++members[depth] > maxMembers)
+			throw tooManyMembers(maxMembers);
+		
+		//Return the flag
+		return next;
+	}
+	
+	/**
+	 * Check if the array or document being streamed has another element (the element is not 
+	 * counted, the streamed elements are only limited by the body size).
+	 * @return
+	 * @throws IOException
+	 */
+	boolean hasNextElement() throws IOException
+	{
+		return super.hasNext();
+	}
+	
+	/**
+	 * Enter an array or object.
+	 */
+	private void enter()
+	{
+		//Check the depth
+		if(maxDepth != -1 && depth + 1 > maxDepth)
+			throw tooDeep(maxDepth);
+		
+		//Grow the member counts
+		if(++depth == members.length)
+			members = Arrays.copyOf(members, members.length * 2);
+		
+		//Reset the member count
+		members[depth] = 0;
+	}
+	
+	/**
+	 * Create the exception for JSON that is nested too deep.
+	 * @param maxDepth
+	 * @return
+	 */
+	static RequestBodyException tooDeep(int maxDepth)
+	{
+		return new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request JSON is nested deeper than " + maxDepth + " levels");
+	}
+	
+	/**
+	 * Create the exception for an array or object with too many members.
+	 * @param maxMembers
+	 * @return
+	 */
+	static RequestBodyException tooManyMembers(int maxMembers)
+	{
+		return new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request JSON has an array or object with more than " + maxMembers + " members");
+	}
+}
@@ -0,0 +1,261 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * The MessagePack format.
+ * <p>
+ * Reads all the types except the extension types, map keys that are not strings are read as
+ * their JSON text. Writes the smallest type for every value.
+ * </p>
+ * @author Johan Hertz
+ */
+class MessagePackFormat extends BinaryFormat
+{
+	/**
+	 * Create the object.
+	 */
+	MessagePackFormat()
+	{
+		super("application/msgpack");
+	}
+	
+	/*
+	 * Read the JSON element.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.BinaryFormat#read(com.katujo.web.utils.BinaryFormat.Input)
+	 */
+	@Override
+	protected JsonElement read(Input input)
+	{
+		//Get the type byte
+		int type = input.buffer.get() & 0xFF;
+		
+		//Positive fixint
+		if(type <= 0x7F)
+			return new JsonPrimitive(type);
+		
+		//Fixmap
+		if(type <= 0x8F)
+			return map(input, type & 0x0F);
+		
+		//Fixarray
+		if(type <= 0x9F)
+			return array(input, type & 0x0F);
+		
+		//Fixstr
+		if(type <= 0xBF)
+			return new JsonPrimitive(input.string(type & 0x1F));
+		
+		//Negative fixint
+		if(type >= 0xE0)
+			return new JsonPrimitive((byte) type);
+		
+		//The other types
+		switch(type)
+		{
+			case 0xC0: return JsonNull.INSTANCE;
+			case 0xC2: return new JsonPrimitive(false);
+			case 0xC3: return new JsonPrimitive(true);
+			case 0xC4: return base64(input.bytes(input.buffer.get() & 0xFF));
+			case 0xC5: return base64(input.bytes(input.buffer.getShort() & 0xFFFF));
+			case 0xC6: return base64(input.bytes(input.buffer.getInt() & 0xFFFFFFFFL));
+			case 0xCA: return new JsonPrimitive(input.buffer.getFloat());
+			case 0xCB: return new JsonPrimitive(input.buffer.getDouble());
+			case 0xCC: return new JsonPrimitive(input.buffer.get() & 0xFF);
+			case 0xCD: return new JsonPrimitive(input.buffer.getShort() & 0xFFFF);
+			case 0xCE: return new JsonPrimitive(input.buffer.getInt() & 0xFFFFFFFFL);
+			case 0xCF: return unsigned(input.buffer.getLong());
+			case 0xD0: return new JsonPrimitive(input.buffer.get());
+			case 0xD1: return new JsonPrimitive(input.buffer.getShort());
+			case 0xD2: return new JsonPrimitive(input.buffer.getInt());
+			case 0xD3: return new JsonPrimitive(input.buffer.getLong());
+			case 0xD9: return new JsonPrimitive(input.string(input.buffer.get() & 0xFF));
+			case 0xDA: return new JsonPrimitive(input.string(input.buffer.getShort() & 0xFFFF));
+			case 0xDB: return new JsonPrimitive(input.string(input.buffer.getInt() & 0xFFFFFFFFL));
+			case 0xDC: return array(input, input.buffer.getShort() & 0xFFFF);
+			case 0xDD: return array(input, input.buffer.getInt() & 0xFFFFFFFFL);
+			case 0xDE: return map(input, input.buffer.getShort() & 0xFFFF);
+			case 0xDF: return map(input, input.buffer.getInt() & 0xFFFFFFFFL);
+			default: throw new JsonSyntaxException("The MessagePack type 0x" + Integer.toHexString(type) + " is not supported");
+		}
+	}
+	
+	/**
+	 * Read the array.
+	 * @param input
+	 * @param length
+	 * @return
+	 */
+	private JsonArray array(Input input, long length)
+	{
+		//Enter the array
+		input.enter(length);
+		
+		//Read the elements
+		JsonArray array = new JsonArray();
+		for(long i=0; i<length; i++)
+			array.add(read(input));
+		
+		//Return the array
+		input.exit();
+		return array;
+	}
+	
+	/**
+	 * Read the map (keys that are not strings are read as their JSON text).
+	 * @param input
+	 * @param length
+	 * @return
+	 */
+	private JsonObject map(Input input, long length)
+	{
+		//Enter the map
+		input.enter(length);
+		
+		//Read the members
+		JsonObject object = new JsonObject();
+		for(long i=0; i<length; i++)
+		{
+			JsonElement key = read(input);
+			object.add(key.isJsonPrimitive() && key.getAsJsonPrimitive().isString() ? key.getAsString() : key.toString(), read(input));
+		}
+		
+		//Return the object
+		input.exit();
+		return object;
+	}
+	
+	/*
+	 * Write the JSON element.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.BinaryFormat#write(com.google.gson.JsonElement, java.io.DataOutputStream)
+	 */
+	@Override
+	protected void write(JsonElement element, DataOutputStream out) throws IOException
+	{
+		//Null
+		if(element == null || element.isJsonNull())
+			out.writeByte(0xC0);
+		
+		//Array
+		else if(element.isJsonArray())
+		{
+			//Write the length
+			int size = element.getAsJsonArray().size();
+			if(size <= 0x0F) out.writeByte(0x90 | size);
+			else if(size <= 0xFFFF) {out.writeByte(0xDC); out.writeShort(size);}
+			else {out.writeByte(0xDD); out.writeInt(size);}
+			
+			//Write the elements
+			for(JsonElement item : element.getAsJsonArray())
+				write(item, out);
+		}
+		
+		//Object
+		else if(element.isJsonObject())
+		{
+			//Write the length
+			int size = element.getAsJsonObject().size();
+			if(size <= 0x0F) out.writeByte(0x80 | size);
+			else if(size <= 0xFFFF) {out.writeByte(0xDE); out.writeShort(size);}
+			else {out.writeByte(0xDF); out.writeInt(size);}
+			
+			//Write the members
+			for(Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet())
+			{
+				writeString(out, member.getKey());
+				write(member.getValue(), out);
+			}
+		}
+		
+		//Boolean
+		else if(element.getAsJsonPrimitive().isBoolean())
+			out.writeByte(element.getAsBoolean() ? 0xC3 : 0xC2);
+		
+		//String
+		else if(element.getAsJsonPrimitive().isString())
+			writeString(out, element.getAsString());
+		
+		//Number
+		else
+		{
+			//Get the number as a long (null if not an integer that fits a long)
+			Long value = asLong(element.getAsNumber());
+			
+			//Integer
+			if(value != null)
+				writeInteger(out, value);
+			
+			//Double
+			else
+			{
+				out.writeByte(0xCB);
+				out.writeDouble(element.getAsDouble());
+			}
+		}
+	}
+	
+	/**
+	 * Write the string.
+	 * @param out
+	 * @param string
+	 * @throws IOException
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException
+	{
+		//Get the bytes
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		
+		//Write the length
+		if(bytes.length <= 0x1F) out.writeByte(0xA0 | bytes.length);
+		else if(bytes.length <= 0xFF) {out.writeByte(0xD9); out.writeByte(bytes.length);}
+		else if(bytes.length <= 0xFFFF) {out.writeByte(0xDA); out.writeShort(bytes.length);}
+		else {out.writeByte(0xDB); out.writeInt(bytes.length);}
+		
+		//Write the bytes
+		out.write(bytes);
+	}
+	
+	/**
+	 * Write the integer with the smallest type.
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	private static void writeInteger(DataOutputStream out, long value) throws IOException
+	{
+		//Positive
+		if(value >= 0)
+		{
+			if(value <= 0x7F) out.writeByte((int) value);
+			else if(value <= 0xFF) {out.writeByte(0xCC); out.writeByte((int) value);}
+			else if(value <= 0xFFFF) {out.writeByte(0xCD); out.writeShort((int) value);}
+			else if(value <= 0xFFFFFFFFL) {out.writeByte(0xCE); out.writeInt((int) value);}
+			else {out.writeByte(0xCF); out.writeLong(value);}
+		}
+		
+		//Negative
+		else
+		{
+			if(value >= -32) out.writeByte((int) value);
+			else if(value >= Byte.MIN_VALUE) {out.writeByte(0xD0); out.writeByte((int) value);}
+			else if(value >= Short.MIN_VALUE) {out.writeByte(0xD1); out.writeShort((int) value);}
+			else if(value >= Integer.MIN_VALUE) {out.writeByte(0xD2); out.writeInt((int) value);}
+			else {out.writeByte(0xD3); out.writeLong(value);}
+		}
+	}
+}
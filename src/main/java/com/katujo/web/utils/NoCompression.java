@@ -0,0 +1,20 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Turns off the response compression for the route.
+ * <p>
+ * Use on routes that returns data that is already compressed (e.g. images or zip files).
+ * </p>
+ * @author Johan Hertz
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NoCompression {}
@@ -0,0 +1,35 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the route method parameter to a member of the request data (JSON object).
+ * <p>
+ * Makes it possible for a route to take several parameters, e.g. 
+ * getOrders(@Param("customerId") long customerId, @Param(value = "limit", defaultValue = "100") int limit).
+ * Parameters of the type HttpServletRequest and HttpServletResponse are set to the request and the response.
+ * </p>
+ * @author Johan Hertz
+ *
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Param 
+{
+	/**
+	 * The name of the member (if not set the parameter name compiled with -parameters is used).
+	 * @return
+	 */
+	String value() default "";
+	
+	/**
+	 * The value (as JSON) used when the member is not set.
+	 * @return
+	 */
+	String defaultValue() default "";
+}
@@ -0,0 +1,1060 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * The body of a JSON (or binary JSON format) request that is read and parsed when first used.
+ * <p>
+ * The bytes are read from the request once and buffered, the JSON element is parsed from the
+ * buffered bytes the first time it is asked for. Routes that don't use the request data never
+ * parse the body and typed parameters are read with the type adapter straight from the bytes
+ * without building the JSON element.
+ * </p>
+ * <p>
+ * The bytes are read into a pooled buffer when the body fits one (the size is known from the
+ * content length) and the buffer is returned to the pool when the request is done. UTF-8 bodies 
+ * are parsed straight from the bytes, other charsets (and JSON that is not strict) are decoded and
+ * parsed by the Gson parser.
+ * </p>
+ * <p>
+ * Bodies sent with Content-Encoding gzip or deflate are inflated as they are read into the buffer,
+ * the max size is checked against the inflated bytes so a small compressed body can't inflate to
+ * more than the max size.
+ * </p>
+ * <p>
+ * The body is rejected with a request body exception before it is read if the content length is
+ * larger than the max size and while it is read if it is larger than the max size (413) or the compressed data is not valid (400) and while it is parsed if the JSON is nested deeper than the max depth or an array
+ * or object has more members than the max members (400). A limit of -1 is not checked.
+ * </p>
+ * <p>
+ * The elements of a large body (a JSON array or newline delimited JSON values) can be streamed
+ * from the request one at a time without buffering the body, see the elements method. The streamed
+ * body is limited to the max stream size instead of the max size.
+ * </p>
+ * <p>
+ * The raw body of an upload (not JSON) is read with the static open, read bytes and save to file
+ * methods without buffering the body in the pools.
+ * </p>
+ * <p>
+ * The bodies in a binary format (CBOR or MessagePack) are decoded to the JSON element and typed
+ * parameters are read from the element.
+ * </p>
+ * <p>
+ * The read and parse errors are thrown as the unchecked Gson exceptions (as the JSON parser).
+ * </p>
+ * @author Johan Hertz
+ */
+class RequestBody
+{
+	//The body of a request without request data
+	static final RequestBody NONE = new RequestBody(null);
+	
+	//The pool of buffers for the bodies too large for the response output buffers
+	private static final BufferPool LARGE_POOL = new BufferPool(256 * 1024, 32);
+	
+	//The max buffer size created from the content length (the header is sent by the client, larger bodies grow the buffer as they are read)
+	private static final int MAX_HINT = 1024 * 1024;
+	
+	//The request to read the body from (null when created from a JSON element)
+	private final ServletRequest request;
+	
+	//The charset of the body
+	private final String charset;
+	
+	//The binary format of the body (null for JSON)
+	private final BinaryFormat format;
+	
+	//The max size of the body in bytes
+	private final long maxSize;
+	
+	//The max size of the streamed body in bytes
+	private final long maxStreamSize;
+	
+	//The max nesting depth of the JSON
+	private final int maxDepth;
+	
+	//The max number of members in a JSON array or object
+	private final int maxMembers;
+	
+	//The buffered bytes (null until read)
+	private byte[] bytes;
+	
+	//The number of buffered bytes
+	private int length;
+	
+	//The flag if the buffer has been returned to the pool
+	private boolean released;
+	
+	//The flag if the body has been streamed (not buffered)
+	private boolean streamed;
+	
+	//The reader of the streamed body (null if not streamed)
+	private Reader stream;
+	
+	//The JSON element
+	private JsonElement json;
+	
+	//The flag if the JSON element has been parsed
+	private boolean parsed;
+	
+	//The time in nanoseconds spent parsing the body (-1 if not parsed)
+	private long parseTime = -1;
+	
+	/**
+	 * Create the body for the request.
+	 * @param request
+	 * @param charset
+	 * @param format the binary format or null for JSON
+	 * @param maxSize
+	 * @param maxStreamSize
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	public RequestBody(ServletRequest request, String charset, BinaryFormat format, long maxSize, long maxStreamSize, int maxDepth, int maxMembers)
+	{
+		this.request = request;
+		this.charset = charset;
+		this.format = format;
+		this.maxSize = maxSize;
+		this.maxStreamSize = maxStreamSize;
+		this.maxDepth = maxDepth;
+		this.maxMembers = maxMembers;
+	}
+	
+	/**
+	 * Create the body from a JSON element that has already been parsed (e.g. a batch call).
+	 * @param json
+	 */
+	public RequestBody(JsonElement json)
+	{
+		this.request = null;
+		this.charset = "UTF-8";
+		this.format = null;
+		this.maxSize = -1;
+		this.maxStreamSize = -1;
+		this.maxDepth = -1;
+		this.maxMembers = -1;
+		this.json = json;
+		this.parsed = true;
+	}
+	
+	/**
+	 * Get the JSON element (parsed the first time it is asked for).
+	 * @return
+	 */
+	public synchronized JsonElement getJson()
+	{
+		//Parse the JSON
+		if(!parsed)
+		{
+			//Get the start time
+			long started = System.nanoTime();
+			
+			//Decode the binary format
+			if(format != null)
+			{
+				buffer();
+				json = format.decode(bytes, 0, length, maxDepth, maxMembers);
+			}
+			
+			//Parse the UTF-8 bytes (null if not strict JSON)
+			else if(isUtf8())
+			{
+				buffer();
+				json = Utf8JsonParser.parse(bytes, 0, length, maxDepth, maxMembers);
+			}
+			
+			//Parse the decoded characters
+			if(json == null)
+				json = parse();
+			
+			//Set the flag
+			parsed = true;
+			
+			//Add the parse time
+			addParseTime(System.nanoTime() - started);
+		}
+		
+		//Return the JSON
+		return json;
+	}
+	
+	/**
+	 * Read the body as the type of the adapter.
+	 * <p>
+	 * Read straight from the bytes if the JSON element has not been parsed, the element is
+	 * not kept so the body is parsed again if the element is asked for.
+	 * </p>
+	 * @param adapter
+	 * @return
+	 */
+	public synchronized <T> T read(TypeAdapter<T> adapter)
+	{
+		//Read from the JSON element
+		if(parsed)
+			return json == null ? null : adapter.fromJsonTree(json);
+		
+		//Read the binary format from the decoded element
+		if(format != null)
+			return adapter.fromJsonTree(getJson());
+		
+		//Buffer the bytes
+		buffer();
+		
+		//Read the empty body as JSON null
+		if(length == 0)
+			return adapter.fromJsonTree(JsonNull.INSTANCE);
+		
+		//Get the start time
+		long started = System.nanoTime();
+		
+		//Try to read the value
+		try
+		{
+			//Create the reader (lenient as the JSON parser)
+			JsonReader reader = new LimitedJsonReader(reader(), maxDepth, maxMembers);
+			reader.setLenient(true);
+			
+			//Read the value
+			return adapter.read(reader);
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new JsonIOException("Failed to read the request body", ex);
+		}
+		
+		//Add the parse time
+		finally
+		{
+			addParseTime(System.nanoTime() - started);
+		}
+	}
+	
+	/**
+	 * Get the elements of the body read as the type of the adapter.
+	 * <p>
+	 * The elements of a JSON array, or the values of newline delimited JSON, are read from the 
+	 * request one at a time as the iterator is used so the body is never held in memory. The 
+	 * body can only be streamed once and can't be parsed after it has been streamed. The depth 
+	 * and members are limited in every element (the number of elements is not limited) and the
+	 * body is limited to the max stream size (not the max size).
+	 * </p>
+	 * <p>
+	 * The elements are iterated from the JSON element if the body has already been parsed or
+	 * buffered or is in a binary format.
+	 * </p>
+	 * @param adapter
+	 * @return
+	 */
+	public synchronized <T> Iterator<T> elements(TypeAdapter<T> adapter)
+	{
+		//Iterate the JSON element
+		if(parsed || bytes != null || format != null)
+			return elements(getJson(), adapter);
+		
+		//The body has already been streamed or released
+		if(streamed || released)
+			throw new JsonIOException("The request body has already been " + (streamed ? "streamed" : "released"));
+		
+		//Try to open the stream
+		try
+		{
+			//Open the reader (inflated if compressed and limited to the max stream size)
+			stream = new InputStreamReader(open(request, maxStreamSize), charset);
+			streamed = true;
+			
+			//Create the JSON reader (lenient to read several values)
+			LimitedJsonReader reader = new LimitedJsonReader(stream, maxDepth, maxMembers);
+			reader.setLenient(true);
+			
+			//Return the elements
+			return new Elements<T>(reader, adapter);
+		}
+		
+		//The compressed data is not valid
+		catch(ZipException | EOFException ex)
+		{
+			throw new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request body is not valid " + contentEncoding(request) + " data", ex);
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new JsonIOException("Failed to read the request body", ex);
+		}
+	}
+	
+	/**
+	 * Get an input stream to the buffered bytes.
+	 * @return
+	 */
+	public synchronized InputStream getInputStream()
+	{
+		//Buffer the bytes
+		buffer();
+		
+		//Return the stream
+		return new ByteArrayInputStream(bytes, 0, length);
+	}
+	
+	/**
+	 * Get the time in nanoseconds spent parsing the body.
+	 * @return the time or -1 if the body has not been parsed
+	 */
+	public synchronized long getParseTime()
+	{
+		return parseTime;
+	}
+	
+	/**
+	 * Return the buffer to the pool (when the request is done).
+	 */
+	public synchronized void release()
+	{
+		//Return the buffer
+		if(bytes != null)
+		{
+			ResponseOutput.POOL.release(bytes);
+			LARGE_POOL.release(bytes);
+		}
+		
+		//Close the streamed body
+		if(stream != null)
+			try {stream.close();} catch(Throwable t) {}
+		
+		//Clear the buffer
+		bytes = null;
+		released = true;
+	}
+	
+	/*
+	 * Get the body as text (the JSON if parsed, otherwise the buffered bytes).
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		//The JSON element
+		if(parsed)
+			return String.valueOf(json);
+		
+		//The streamed body
+		if(streamed)
+			return "(request body streamed)";
+		
+		//The bytes not read
+		if(bytes == null)
+			return released ? "(request body released)" : "(request body not read)";
+		
+		//The binary format
+		if(format != null)
+			return "(" + format.contentType + " request body of " + length + " bytes)";
+		
+		//Try to create the text from the bytes
+		try
+		{
+			return new String(bytes, 0, length, charset);
+		}
+		
+		//Failed
+		catch(UnsupportedEncodingException ex)
+		{
+			return "(request body in unsupported charset " + charset + ")";
+		}
+	}
+	
+	/**
+	 * Parse the decoded characters with the Gson parser (the depth and members are limited).
+	 * @return
+	 */
+	private JsonElement parse()
+	{
+		//Try to parse the JSON
+		try
+		{
+			//Parse the JSON
+			JsonReader reader = new LimitedJsonReader(reader(), maxDepth, maxMembers);
+			JsonElement element = JsonParser.parseReader(reader);
+			
+			//Check that the whole document is parsed (as the Gson parser)
+			if(!element.isJsonNull() && reader.peek() != JsonToken.END_DOCUMENT)
+				throw new JsonSyntaxException("Did not consume the entire document.");
+			
+			//Return the JSON
+			return element;
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new JsonSyntaxException(ex);
+		}
+	}
+	
+	/**
+	 * Create the reader to the buffered bytes.
+	 * @return
+	 */
+	private InputStreamReader reader()
+	{
+		//Try to create the reader
+		try
+		{
+			return new InputStreamReader(getInputStream(), charset);
+		}
+		
+		//Failed
+		catch(UnsupportedEncodingException ex)
+		{
+			throw new JsonIOException("The request charset " + charset + " is not supported", ex);
+		}
+	}
+	
+	/**
+	 * Read the bytes from the request into the buffer (only done once).
+	 */
+	private void buffer()
+	{
+		//Already read
+		if(bytes != null)
+			return;
+		
+		//The buffer has been returned to the pool
+		if(released)
+			throw new JsonIOException("The request body has been released");
+		
+		//The body has been streamed
+		if(streamed)
+			throw new JsonIOException("The request body has been streamed");
+		
+		//Reject the body that is too large (before it is read)
+		if(maxSize != -1 && request.getContentLengthLong() > maxSize)
+			throw tooLarge(maxSize);
+		
+		//Fields
+		InputStream input = null;
+		
+		//Try to read the bytes
+		try
+		{
+			//Get the input stream (inflated if compressed)
+			input = inflate(request, request.getInputStream());
+			
+			//Take the buffer (sized by the content length if set and the body is not compressed)
+			byte[] buffer = take(input instanceof InflaterInputStream ? -1 : request.getContentLength());
+			int read = 0;
+			
+			//The max number of bytes to read before the body is too large
+			long max = maxSize != -1 ? maxSize : Integer.MAX_VALUE - 8;
+			
+			//Read the bytes (grow the buffer when full)
+			for(int count = input.read(buffer, 0, buffer.length); count != -1; count = input.read(buffer, read, buffer.length - read))
+			{
+				//Check the size
+				read += count;
+				if(read > max)
+					throw tooLarge(maxSize);
+				
+				//The buffer is full
+				if(read == buffer.length)
+				{
+					//Check if there are more bytes
+					int next = input.read();
+					if(next == -1)
+						break;
+					
+					//Grow the buffer and add the byte (the pooled buffer is returned)
+					if(read + 1 > max)
+						throw tooLarge(maxSize);
+					byte[] grown = new byte[(int) Math.min((long) buffer.length * 2, max)];
+					System.arraycopy(buffer, 0, grown, 0, read);
+					ResponseOutput.POOL.release(buffer);
+					LARGE_POOL.release(buffer);
+					buffer = grown;
+					buffer[read++] = (byte) next;
+				}
+			}
+			
+			//Set the bytes
+			this.bytes = buffer;
+			this.length = read;
+		}
+		
+		//The compressed data is not valid
+		catch(ZipException | EOFException ex)
+		{
+			throw new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request body is not valid " + contentEncoding(request) + " data", ex);
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new JsonIOException("Failed to read the request body", ex);
+		}
+		
+		//Clean up (ends the inflater)
+		finally
+		{
+			try {input.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Open the raw body of the request (inflated if compressed and limited to the max size).
+	 * @param request
+	 * @param maxSize the max size in bytes (-1 is not checked)
+	 * @return
+	 * @throws IOException
+	 */
+	static InputStream open(ServletRequest request, long maxSize) throws IOException
+	{
+		//Reject the body that is too large (before it is read)
+		if(maxSize != -1 && request.getContentLengthLong() > maxSize)
+			throw tooLarge(maxSize);
+		
+		//Open the body
+		return new LimitedInputStream(inflate(request, request.getInputStream()), maxSize);
+	}
+	
+	/**
+	 * Read the raw body of the request into a byte array.
+	 * <p>
+	 * The content length of a body that is not compressed sizes the buffer up to the max hint, 
+	 * the buffer grows as the bytes are read so a large content length without the bytes is 
+	 * not allocated up front.
+	 * </p>
+	 * @param request
+	 * @param maxSize the max size in bytes (-1 is not checked)
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] readBytes(ServletRequest request, long maxSize) throws IOException
+	{
+		//Fields
+		InputStream input = null;
+		
+		//Try to read the bytes
+		try
+		{
+			//Open the body
+			input = open(request, maxSize);
+			
+			//Create the buffer (sized by the content length if set and the body is not compressed)
+			int contentLength = contentEncoding(request) == null ? request.getContentLength() : -1;
+			byte[] bytes = new byte[contentLength >= 0 ? Math.min(contentLength, MAX_HINT) : 8192];
+			int read = 0;
+			
+			//The max buffer size (the limited stream stops reading beyond the max size)
+			long max = maxSize != -1 ? maxSize : Integer.MAX_VALUE - 8;
+			
+			//Read the bytes (grow the buffer when full)
+			while(true)
+			{
+				//Grow the buffer
+				if(read == bytes.length)
+				{
+					//Check if there are more bytes
+					int next = input.read();
+					if(next == -1)
+						break;
+					
+					//Grow the buffer and add the byte
+					bytes = Arrays.copyOf(bytes, (int) Math.min(Math.max((long) bytes.length * 2, 8192), max));
+					bytes[read++] = (byte) next;
+				}
+				
+				//Read the bytes
+				int count = input.read(bytes, read, bytes.length - read);
+				if(count == -1)
+					break;
+				read += count;
+			}
+			
+			//Check that the whole body has been read
+			if(read < contentLength)
+				throw new EOFException("The request body ended after " + read + " of " + contentLength + " bytes");
+			
+			//Return the bytes
+			return read == bytes.length ? bytes : Arrays.copyOf(bytes, read);
+		}
+		
+		//The compressed data is not valid
+		catch(ZipException ex)
+		{
+			throw new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request body is not valid " + contentEncoding(request) + " data", ex);
+		}
+		
+		//Clean up
+		finally
+		{
+			try {input.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Save the raw body of the request to a temporary file.
+	 * <p>
+	 * The file is created in the directory (the default temporary directory if null) and deleted if
+	 * the body can't be saved. The caller deletes the file when done.
+	 * </p>
+	 * @param request
+	 * @param maxSize the max size in bytes (-1 is not checked)
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	static Path saveToFile(ServletRequest request, long maxSize, Path directory) throws IOException
+	{
+		//Create the file
+		Path file = directory != null ? Files.createTempFile(directory, "upload", ".tmp") : Files.createTempFile("upload", ".tmp");
+		
+		//Fields
+		InputStream input = null;
+		boolean saved = false;
+		
+		//Try to save the body
+		try
+		{
+			//Copy the body to the file
+			input = open(request, maxSize);
+			Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+			
+			//Return the file
+			saved = true;
+			return file;
+		}
+		
+		//The compressed data is not valid
+		catch(ZipException ex)
+		{
+			throw new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request body is not valid " + contentEncoding(request) + " data", ex);
+		}
+		
+		//Clean up
+		finally
+		{
+			try {input.close();} catch(Throwable t) {}
+			if(!saved) try {Files.deleteIfExists(file);} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Create the stream that inflates the body if it is compressed.
+	 * <p>
+	 * Deflate is read as zlib data (RFC 1950) or as raw deflate data if the body doesn't start 
+	 * with a zlib header (sent by some clients).
+	 * </p>
+	 * @param request
+	 * @param input
+	 * @return the inflating stream or the input if the body is not compressed
+	 * @throws IOException
+	 */
+	private static InputStream inflate(ServletRequest request, InputStream input) throws IOException
+	{
+		//Get the content encoding
+		String encoding = contentEncoding(request);
+		
+		//Gzip
+		if("gzip".equals(encoding) || "x-gzip".equals(encoding))
+			return new GZIPInputStream(input, 8192);
+		
+		//Deflate
+		if("deflate".equals(encoding))
+		{
+			//Read the first two bytes
+			PushbackInputStream pushback = new PushbackInputStream(input, 2);
+			int first = pushback.read();
+			int second = first != -1 ? pushback.read() : -1;
+			if(second != -1) pushback.unread(second);
+			if(first != -1) pushback.unread(first);
+			
+			//Check for the zlib header (deflate method and the header check bits)
+			boolean zlib = first != -1 && second != -1 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+			
+			//Create the stream (ends the inflater when closed, the JDK stream only ends its own inflater)
+			return new InflaterInputStream(pushback, new Inflater(!zlib), 8192)
+			{
+				@Override
+				public void close() throws IOException
+				{
+					try {super.close();}
+					finally {inf.end();}
+				}
+			};
+		}
+		
+		//Not compressed
+		return input;
+	}
+	
+	/**
+	 * Get the content encoding of the request (lower case, null if not set or identity).
+	 * @param request
+	 * @return
+	 */
+	static String contentEncoding(ServletRequest request)
+	{
+		//Get the header
+		String encoding = request instanceof HttpServletRequest ? ((HttpServletRequest) request).getHeader("Content-Encoding") : null;
+		
+		//Not compressed
+		if(encoding == null || encoding.trim().isEmpty() || "identity".equalsIgnoreCase(encoding.trim()))
+			return null;
+		
+		//Return the encoding
+		return encoding.trim().toLowerCase();
+	}
+	
+	/**
+	 * Check if the content encoding of the request can be inflated.
+	 * @param request
+	 * @return
+	 */
+	static boolean isDecodable(ServletRequest request)
+	{
+		String encoding = contentEncoding(request);
+		return encoding == null || "gzip".equals(encoding) || "x-gzip".equals(encoding) || "deflate".equals(encoding);
+	}
+	
+	/**
+	 * Get the elements of the JSON (the elements of an array, otherwise the value is the only element).
+	 * @param json
+	 * @param adapter
+	 * @return
+	 */
+	private static <T> Iterator<T> elements(JsonElement json, final TypeAdapter<T> adapter)
+	{
+		//Get the elements
+		final Iterator<JsonElement> items;
+		if(json == null || json.isJsonNull()) items = Collections.<JsonElement>emptyIterator();
+		else if(json.isJsonArray()) items = json.getAsJsonArray().iterator();
+		else items = Collections.singletonList(json).iterator();
+		
+		//Return the elements read as the type of the adapter
+		return new Iterator<T>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return items.hasNext();
+			}
+			
+			@Override
+			public T next()
+			{
+				return adapter.fromJsonTree(items.next());
+			}
+		};
+	}
+	
+	/**
+	 * Create the exception for a body that is too large.
+	 * @param maxSize
+	 * @return
+	 */
+	static RequestBodyException tooLarge(long maxSize)
+	{
+		return new RequestBodyException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "The request body is larger than " + maxSize + " bytes");
+	}
+	
+	/**
+	 * Take a buffer for the content length.
+	 * <p>
+	 * The buffer is taken from the pools if the body fits (or the length is not known), 
+	 * otherwise a buffer of the content length up to the max hint is created (the buffer 
+	 * grows as the body is read, the content length is not trusted for the allocation).
+	 * </p>
+	 * @param contentLength
+	 * @return
+	 */
+	private static byte[] take(int contentLength)
+	{
+		//The body fits the response output buffer
+		if(contentLength <= ResponseOutput.POOL.size())
+			return ResponseOutput.POOL.take();
+		
+		//The body fits the large buffer
+		if(contentLength <= LARGE_POOL.size())
+			return LARGE_POOL.take();
+		
+		//Create the buffer for the body
+		return new byte[Math.min(contentLength, MAX_HINT)];
+	}
+	
+	/**
+	 * Check if the charset is UTF-8.
+	 * @return
+	 */
+	private boolean isUtf8()
+	{
+		return "UTF-8".equalsIgnoreCase(charset) || "UTF8".equalsIgnoreCase(charset);
+	}
+	
+	/**
+	 * Add the time to the parse time.
+	 * @param time
+	 */
+	private void addParseTime(long time)
+	{
+		parseTime = parseTime < 0 ? time : parseTime + time;
+	}
+	
+	/*
+	 * The elements streamed from the JSON reader, the elements of an array or the values of 
+	 * newline delimited JSON. The reader is closed when all the elements have been read.
+	 */
+	private static class Elements<T> implements Iterator<T>
+	{
+		//The reader of the body
+		private final LimitedJsonReader reader;
+		
+		//The adapter to read the elements with
+		private final TypeAdapter<T> adapter;
+		
+		//The flag if reading has started
+		private boolean started;
+		
+		//The flag if the elements are in an array
+		private boolean array;
+		
+		//The flag if the next element is ready to be read
+		private boolean ready;
+		
+		//The flag if all the elements have been read
+		private boolean done;
+		
+		/**
+		 * Create the object.
+		 * @param reader
+		 * @param adapter
+		 */
+		Elements(LimitedJsonReader reader, TypeAdapter<T> adapter)
+		{
+			this.reader = reader;
+			this.adapter = adapter;
+		}
+		
+		/*
+		 * Check if there is another element.
+		 * (non-Javadoc)
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext()
+		{
+			//Find the next element
+			if(!ready && !done)
+			{
+				//Try to find the element
+				try
+				{
+					ready = advance();
+					done = !ready;
+				}
+				
+				//Failed
+				catch(IOException ex)
+				{
+					throw error(ex);
+				}
+				
+				//Close the reader when done
+				if(done)
+					try {reader.close();} catch(Throwable t) {}
+			}
+			
+			//Return the flag
+			return ready;
+		}
+		
+		/*
+		 * Read the next element.
+		 * (non-Javadoc)
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public T next()
+		{
+			//No more elements
+			if(!hasNext())
+				throw new NoSuchElementException();
+			
+			//Try to read the element
+			try
+			{
+				ready = false;
+				return adapter.read(reader);
+			}
+			
+			//Failed
+			catch(IOException ex)
+			{
+				throw error(ex);
+			}
+		}
+		
+		/**
+		 * Move the reader to the next element.
+		 * @return true if there is an element to read
+		 * @throws IOException
+		 */
+		private boolean advance() throws IOException
+		{
+			//Start reading (an empty body has no elements)
+			if(!started)
+			{
+				//Set the flag
+				started = true;
+				
+				//Begin the array
+				try
+				{
+					if(reader.peek() == JsonToken.BEGIN_ARRAY)
+					{
+						reader.beginArray();
+						array = true;
+					}
+				}
+				
+				//The empty body
+				catch(EOFException ex)
+				{
+					return false;
+				}
+			}
+			
+			//The values (newline delimited JSON)
+			if(!array)
+				return reader.peek() != JsonToken.END_DOCUMENT;
+			
+			//The next element in the array
+			if(reader.hasNextElement())
+				return true;
+			
+			//Check that the whole document is read (as the Gson parser)
+			reader.endArray();
+			if(reader.peek() != JsonToken.END_DOCUMENT)
+				throw new JsonSyntaxException("Did not consume the entire document.");
+			
+			//No more elements
+			return false;
+		}
+		
+		/**
+		 * Create the unchecked exception for the read error.
+		 * @param ex
+		 * @return
+		 */
+		private static RuntimeException error(IOException ex)
+		{
+			//The JSON is not valid
+			if(ex instanceof MalformedJsonException || ex instanceof EOFException)
+				return new JsonSyntaxException(ex);
+			
+			//The compressed data is not valid
+			if(ex instanceof ZipException)
+				return new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The request body is not valid compressed data", ex);
+			
+			//Failed to read
+			return new JsonIOException("Failed to read the request body", ex);
+		}
+	}
+	
+	/*
+	 * The input stream that stops reading when more bytes than the max size have been read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream
+	{
+		//The max number of bytes (-1 is not checked)
+		private final long maxSize;
+		
+		//The number of bytes read
+		private long count;
+		
+		/**
+		 * Create the object.
+		 * @param in
+		 * @param maxSize
+		 */
+		LimitedInputStream(InputStream in, long maxSize)
+		{
+			super(in);
+			this.maxSize = maxSize;
+		}
+		
+		/*
+		 * Read a byte.
+		 * (non-Javadoc)
+		 * @see java.io.FilterInputStream#read()
+		 */
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1) count(1);
+			return b;
+		}
+		
+		/*
+		 * Read the bytes.
+		 * (non-Javadoc)
+		 * @see java.io.FilterInputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if(read > 0) count(read);
+			return read;
+		}
+		
+		/**
+		 * Count the bytes read.
+		 * @param read
+		 */
+		private void count(long read)
+		{
+			count += read;
+			if(maxSize != -1 && count > maxSize)
+				throw tooLarge(maxSize);
+		}
+	}
+}
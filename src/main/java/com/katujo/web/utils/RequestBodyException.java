@@ -0,0 +1,67 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Google imports
+import com.google.gson.JsonParseException;
+
+/**
+ * Thrown when the request body is rejected (too large, not valid compressed data or the JSON is nested
+ * too deep or has too many members), the request is sent the status of the exception.
+ * @author Johan Hertz
+ */
+class RequestBodyException extends JsonParseException
+{
+	//The serial version
+	private static final long serialVersionUID = 1L;
+	
+	//The HTTP status to send
+	private final int status;
+	
+	/**
+	 * Create the object.
+	 * @param status
+	 * @param message
+	 */
+	public RequestBodyException(int status, String message)
+	{
+		super(message);
+		this.status = status;
+	}
+	
+	/**
+	 * Create the object.
+	 * @param status
+	 * @param message
+	 * @param cause
+	 */
+	public RequestBodyException(int status, String message, Throwable cause)
+	{
+		super(message, cause);
+		this.status = status;
+	}
+	
+	/**
+	 * Get the HTTP status to send.
+	 * @return
+	 */
+	public int getStatus()
+	{
+		return status;
+	}
+	
+	/**
+	 * Find the request body exception in the causes of the exception.
+	 * @param ex
+	 * @return the exception or null if not found
+	 */
+	static RequestBodyException find(Throwable ex)
+	{
+		//Check the exception and the causes
+		for(Throwable cause = ex; cause != null; cause = cause.getCause())
+			if(cause instanceof RequestBodyException)
+				return (RequestBodyException) cause;
+		
+		//Not found
+		return null;
+	}
+}
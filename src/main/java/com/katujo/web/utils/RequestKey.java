@@ -0,0 +1,91 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+
+/**
+ * The key for the request data of a route call (used by the route cache).
+ * <p>
+ * The hash is the canonical hash of the JSON (the order of the object members does not matter)
+ * and two keys are equal if the JSON is equal.
+ * </p>
+ * @author Johan Hertz
+ */
+class RequestKey
+{
+	//The request data
+	private final JsonElement data;
+	
+	//The canonical hash of the request data
+	private final long hash;
+	
+	/**
+	 * Create the object.
+	 * @param data
+	 */
+	public RequestKey(JsonElement data)
+	{
+		this(data == null ? JsonNull.INSTANCE : data, JsonStreams.canonicalHash(data == null ? JsonNull.INSTANCE : data));
+	}
+	
+	/**
+	 * Create the object.
+	 * @param data
+	 * @param hash
+	 */
+	private RequestKey(JsonElement data, long hash)
+	{
+		this.data = data;
+		this.hash = hash;
+	}
+	
+	/**
+	 * Create a copy of the key that does not change if the request data is changed by the route.
+	 * @return
+	 */
+	public RequestKey copy()
+	{
+		return new RequestKey(data.deepCopy(), hash);
+	}
+	
+	/**
+	 * Get the canonical hash of the request data.
+	 * @return
+	 */
+	public long getHash()
+	{
+		return hash;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		return (int) (hash ^ (hash >>> 32));
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		//Same key
+		if(obj == this)
+			return true;
+		
+		//Not a key
+		if(!(obj instanceof RequestKey))
+			return false;
+		
+		//Compare the hash first and then the data
+		RequestKey other = (RequestKey) obj;
+		return hash == other.hash && data.equals(other.data);
+	}
+}
@@ -0,0 +1,375 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The output stream the router filter writes the response data to.
+ * <p>
+ * The data is written to a pooled buffer. If the response fits in the buffer the content length is set 
+ * and the data is written when the stream is closed, otherwise the data is written to the response 
+ * in chunks of the buffer size (the container then uses chunked transfer encoding).
+ * </p>
+ * <p>
+ * If the content encoding is set (gzip or deflate) the data is compressed when the size of the
+ * response reaches the threshold (a response larger than the buffer is always compressed). The 
+ * deflaters are taken from bounded pools and returned when the stream is closed.
+ * </p>
+ * @author Johan Hertz
+ */
+class ResponseOutput extends OutputStream
+{
+	//The pool of buffers (also used by the router filter to stream binary responses)
+	static final BufferPool POOL = new BufferPool(32 * 1024, 256);
+	
+	//The pools of deflaters for gzip (no zlib wrapper) and deflate (zlib wrapper), cleared when the router filter is destroyed
+	static final DeflaterPool GZIP_DEFLATERS = new DeflaterPool(true, 2 * Runtime.getRuntime().availableProcessors());
+	static final DeflaterPool ZLIB_DEFLATERS = new DeflaterPool(false, 2 * Runtime.getRuntime().availableProcessors());
+	
+	//The output stream used for a not modified response
+	private static final OutputStream NOT_MODIFIED = new OutputStream() {public void write(int b) {}};
+	
+	//The response
+	private final HttpServletResponse response;
+	
+	//The request to check the ETag against (null if no ETag should be created)
+	private HttpServletRequest etagRequest;
+	
+	//The content encoding (null if the response is not compressed)
+	private final String encoding;
+	
+	//The size the response must reach to be compressed
+	private final int threshold;
+	
+	//The compression level
+	private final int level;
+	
+	//The buffer and the number of bytes in the buffer
+	private byte[] buffer;
+	private int count;
+	
+	//The response output stream (set when the first chunk is written)
+	private OutputStream out;
+	
+	//The deflater taken from the pool (null if the response is not compressed)
+	private Deflater deflater;
+	
+	/**
+	 * Create the object.
+	 * @param response
+	 */
+	public ResponseOutput(HttpServletResponse response)
+	{
+		this(response, null, 0, 0);
+	}
+	
+	/**
+	 * Create the object with compression.
+	 * @param response
+	 * @param encoding
+	 * @param threshold
+	 * @param level
+	 */
+	public ResponseOutput(HttpServletResponse response, String encoding, int threshold, int level)
+	{
+		this.response = response;
+		this.encoding = encoding;
+		this.threshold = threshold;
+		this.level = level;
+		this.buffer = POOL.take();
+	}
+	
+	/**
+	 * Create the ETag from the response data when the whole response fits in the buffer and
+	 * send not modified if the ETag matches the request.
+	 * @param request
+	 */
+	public void setETagRequest(HttpServletRequest request)
+	{
+		this.etagRequest = request;
+	}
+	
+	/*
+	 * Write a byte.
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException
+	{
+		//Write the chunk if the buffer is full
+		if(count == buffer.length)
+			writeChunk();
+		
+		//Add the byte
+		buffer[count++] = (byte) b;
+	}
+	
+	/*
+	 * Write the bytes.
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		//Write the chunk if the bytes does not fit in the buffer
+		if(length > buffer.length - count)
+			writeChunk();
+		
+		//Write large arrays directly
+		if(length >= buffer.length)
+		{
+			out.write(bytes, offset, length);
+			return;
+		}
+		
+		//Add the bytes
+		System.arraycopy(bytes, offset, buffer, count, length);
+		count += length;
+	}
+	
+	/*
+	 * Flushing is done in chunks when the buffer is full (or on close).
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#flush()
+	 */
+	@Override
+	public void flush() {}
+	
+	/*
+	 * Write the buffered data to the response.
+	 * (non-Javadoc)
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		//Already closed
+		if(buffer == null)
+			return;
+		
+		//Try to write the data
+		try
+		{
+			//Everything fits in the buffer
+			if(out == null)
+				open(true);
+			
+			//Write the data
+			writeChunk();
+			
+			//Write the end of the compressed data
+			if(out instanceof DeflaterOutputStream)
+				((DeflaterOutputStream) out).finish();
+		}
+		
+		//Clean up
+		finally
+		{
+			release();
+		}
+	}
+	
+	/**
+	 * Return the buffer to the pool (if not closed).
+	 * <p>
+	 * Used when the writing fails, any buffered data is dropped.
+	 * </p>
+	 */
+	public void release()
+	{
+		//Return the buffer
+		POOL.release(buffer);
+		buffer = null;
+		
+		//Return the deflater
+		if(deflater != null)
+			("gzip".equals(encoding) ? GZIP_DEFLATERS : ZLIB_DEFLATERS).release(deflater);
+		deflater = null;
+	}
+	
+	/**
+	 * Write the buffer to the response.
+	 * @throws IOException
+	 */
+	private void writeChunk() throws IOException
+	{
+		//Open the output stream
+		if(out == null)
+			open(false);
+		
+		//Write the buffer
+		if(count > 0)
+			out.write(buffer, 0, count);
+		
+		//Clear the buffer
+		count = 0;
+	}
+	
+	/**
+	 * Open the output stream to the response.
+	 * @param complete true if the whole response is in the buffer
+	 * @throws IOException
+	 */
+	private void open(boolean complete) throws IOException
+	{
+		//Send not modified if the ETag of the response matches the request
+		if(complete && etagRequest != null && notModified(etagRequest, response, JsonStreams.hash(JsonStreams.FNV_OFFSET, buffer, 0, count)))
+		{
+			count = 0;
+			out = NOT_MODIFIED;
+			return;
+		}
+		
+		//Compress the response if the encoding is set and the response is large enough
+		if(encoding != null && (!complete || count >= threshold))
+		{
+			//Set the encoding
+			response.setHeader("Content-Encoding", encoding);
+			
+			//Take the deflater from the pool
+			deflater = ("gzip".equals(encoding) ? GZIP_DEFLATERS : ZLIB_DEFLATERS).take(level);
+			
+			//Create the compressed output stream
+			out = "gzip".equals(encoding) ? new GzipOutput(response.getOutputStream(), deflater) : new DeflaterOutputStream(response.getOutputStream(), deflater, 8 * 1024);
+		}
+		
+		//Send the response as it is
+		else
+		{
+			//Set the content length if the whole response is in the buffer
+			if(complete)
+				response.setContentLength(count);
+			
+			//Get the output stream
+			out = response.getOutputStream();
+		}
+	}
+	
+	/**
+	 * Set the ETag for the hash and send not modified if the ETag matches the If-None-Match
+	 * header of the request.
+	 * <p>
+	 * The ETag is weak since the same data can be sent with different content encodings. 
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @param hash
+	 * @return true if not modified has been sent (no data should be written)
+	 */
+	static boolean notModified(HttpServletRequest request, HttpServletResponse response, long hash)
+	{
+		//Create the ETag
+		String tag = "\"" + Long.toHexString(hash) + "\"";
+		
+		//Set the ETag
+		response.setHeader("ETag", "W/" + tag);
+		
+		//Get the ETags sent by the client
+		String match = request.getHeader("If-None-Match");
+		
+		//No ETags sent
+		if(match == null)
+			return false;
+		
+		//Check the ETags (weak comparison)
+		for(String item : match.split(","))
+		{
+			//Remove the weak prefix
+			item = item.trim();
+			if(item.startsWith("W/"))
+				item = item.substring(2);
+			
+			//Send not modified if matching
+			if(item.equals(tag) || item.equals("*"))
+			{
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
+			}
+		}
+		
+		//Not matching
+		return false;
+	}
+	
+	/*
+	 * The gzip output stream using a reused deflater (the JDK GZIPOutputStream always creates its own).
+	 */
+	private static class GzipOutput extends DeflaterOutputStream
+	{
+		//The gzip header (no file name, no modified time)
+		private static final byte[] HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+		
+		//The checksum of the uncompressed data
+		private final CRC32 crc = new CRC32();
+		
+		//The flag set when the trailer has been written
+		private boolean finished;
+		
+		/**
+		 * Create the object (writes the header).
+		 * @param out
+		 * @param deflater
+		 * @throws IOException
+		 */
+		public GzipOutput(OutputStream out, Deflater deflater) throws IOException
+		{
+			super(out, deflater, 8 * 1024);
+			out.write(HEADER);
+		}
+		
+		/*
+		 * Write the bytes and update the checksum.
+		 * (non-Javadoc)
+		 * @see java.util.zip.DeflaterOutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			super.write(bytes, offset, length);
+			crc.update(bytes, offset, length);
+		}
+		
+		/*
+		 * Write the compressed data and the trailer.
+		 * (non-Javadoc)
+		 * @see java.util.zip.DeflaterOutputStream#finish()
+		 */
+		@Override
+		public void finish() throws IOException
+		{
+			//Already finished
+			if(finished)
+				return;
+			
+			//Write the compressed data
+			super.finish();
+			finished = true;
+			
+			//Write the trailer (checksum and size, little endian)
+			writeInt((int) crc.getValue());
+			writeInt((int) def.getBytesRead());
+		}
+		
+		/**
+		 * Write the int as little endian.
+		 * @param value
+		 * @throws IOException
+		 */
+		private void writeInt(int value) throws IOException
+		{
+			out.write(value & 0xff);
+			out.write((value >> 8) & 0xff);
+			out.write((value >> 16) & 0xff);
+			out.write((value >> 24) & 0xff);
+		}
+	}
+}
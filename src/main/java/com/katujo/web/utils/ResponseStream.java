@@ -0,0 +1,20 @@
+//Namespace
+package com.katujo.web.utils;
+
+/**
+ * A response that is pushed to the client as a stream of JSON elements.
+ * <p>
+ * A route can return a response stream to write the elements as they are produced (e.g. a live feed), 
+ * the elements are sent as newline delimited JSON or as server-sent events.
+ * </p>
+ * @author Johan Hertz
+ */
+public interface ResponseStream 
+{
+	/**
+	 * Write the elements to the sink.
+	 * @param sink
+	 * @throws Exception
+	 */
+	void writeTo(JsonSink sink) throws Exception;
+}
@@ -0,0 +1,101 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cache of serialized responses for a route (see the cached annotation).
+ * <p>
+ * The least recently used response is removed when the cache is full.
+ * </p>
+ * @author Johan Hertz
+ */
+class RouteCache
+{
+	//The cached responses <RequestKey, CachedResponse>
+	private final LinkedHashMap<RequestKey, CachedResponse> entries;
+	
+	//The time in milliseconds a cached response is used
+	private final long ttl;
+	
+	/**
+	 * Create the object.
+	 * @param ttl
+	 * @param maxEntries
+	 */
+	public RouteCache(long ttl, final int maxEntries)
+	{
+		//Set the time to live
+		this.ttl = ttl;
+		
+		//Create the map in access order that removes the least recently used response when full
+		this.entries = new LinkedHashMap<RequestKey, CachedResponse>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RequestKey, CachedResponse> eldest)
+			{
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Get the cached response for the request (null if not cached or expired).
+	 * @param key
+	 * @return
+	 */
+	public synchronized SerializedResult get(RequestKey key)
+	{
+		//Get the entry
+		CachedResponse entry = entries.get(key);
+		
+		//Not cached
+		if(entry == null)
+			return null;
+		
+		//Remove the expired entry
+		if(entry.expires < System.currentTimeMillis())
+		{
+			entries.remove(key);
+			return null;
+		}
+		
+		//Return the cached response
+		return entry.result;
+	}
+	
+	/**
+	 * Add the response to the cache.
+	 * @param key
+	 * @param result
+	 */
+	public synchronized void put(RequestKey key, SerializedResult result)
+	{
+		entries.put(key, new CachedResponse(result, System.currentTimeMillis() + ttl));
+	}
+	
+	/*
+	 * A cached response.
+	 */
+	private static class CachedResponse
+	{
+		//Fields
+		public final SerializedResult result;
+		public final long expires;
+		
+		/**
+		 * Create the object.
+		 * @param result
+		 * @param expires
+		 */
+		public CachedResponse(SerializedResult result, long expires)
+		{
+			this.result = result;
+			this.expires = expires;
+		}
+	}
+}
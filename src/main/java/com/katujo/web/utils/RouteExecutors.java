@@ -0,0 +1,39 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the executor the router filter invokes the routes on.
+ * <p>
+ * This class is replaced in the multi-release JAR for Java 21 and later where the virtual
+ * executor is supported.
+ * </p>
+ * @author Johan Hertz
+ */
+class RouteExecutors
+{
+	/**
+	 * Create the executor with the name set in the executor init parameter.
+	 * <p>
+	 * Returns null if the name is not set (the routes are then invoked on the container thread).
+	 * </p>
+	 * @param name
+	 * @return
+	 * @throws Exception
+	 */
+	static ExecutorService create(String name) throws Exception
+	{
+		//No executor
+		if(name == null || name.trim().equals(""))
+			return null;
+		
+		//Virtual threads are not supported on this Java version
+		if("virtual".equals(name.trim()))
+			throw new Exception("The virtual executor requires Java 21 or later");
+		
+		//Unknown executor
+		throw new Exception("Unknown executor " + name);
+	}
+}
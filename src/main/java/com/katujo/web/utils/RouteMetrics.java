@@ -0,0 +1,112 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics recorded for a route by the router filter.
+ * <p>
+ * The time for a call is split in the JSON parse (recorded from the request body), the route 
+ * invocation (including the wait for asynchronous routes) and the send (serialization of the 
+ * response).
+ * </p>
+ * @author Johan Hertz
+ */
+class RouteMetrics
+{
+	//The time to parse the request JSON
+	final LatencyHistogram parse = new LatencyHistogram();
+	
+	//The time to invoke the route
+	final LatencyHistogram invoke = new LatencyHistogram();
+	
+	//The time to send the response
+	final LatencyHistogram send = new LatencyHistogram();
+	
+	//The number of calls
+	private final AtomicLong calls = new AtomicLong();
+	
+	//The number of failed calls
+	private final AtomicLong errors = new AtomicLong();
+	
+	//The number of calls rejected by the bulkhead
+	private final AtomicLong rejected = new AtomicLong();
+	
+	//The number of calls in progress
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	/**
+	 * Record the start of a call.
+	 */
+	public void begin()
+	{
+		//Count the call
+		calls.incrementAndGet();
+		inFlight.incrementAndGet();
+	}
+	
+	/**
+	 * Record the end of a call.
+	 * @param failed
+	 * @param parseTime the time in nanoseconds to parse the request JSON (-1 if not parsed)
+	 */
+	public void end(boolean failed, long parseTime)
+	{
+		//Count the call as done
+		inFlight.decrementAndGet();
+		
+		//Count the error
+		if(failed)
+			errors.incrementAndGet();
+		
+		//Record the parse time (the body is parsed when first used by the call)
+		if(parseTime >= 0)
+			parse.record(parseTime);
+	}
+	
+	/**
+	 * Record a call rejected by the bulkhead.
+	 */
+	public void reject()
+	{
+		rejected.incrementAndGet();
+	}
+	
+	/**
+	 * Get the number of calls.
+	 * @return
+	 */
+	public long getCalls()
+	{
+		return calls.get();
+	}
+	
+	/**
+	 * Get the number of failed calls.
+	 * @return
+	 */
+	public long getErrors()
+	{
+		return errors.get();
+	}
+	
+	/**
+	 * Get the number of calls rejected by the bulkhead.
+	 * @return
+	 */
+	public long getRejected()
+	{
+		return rejected.get();
+	}
+	
+	/**
+	 * Get the number of calls in progress.
+	 * @return
+	 */
+	public int getInFlight()
+	{
+		return inFlight.get();
+	}
+}
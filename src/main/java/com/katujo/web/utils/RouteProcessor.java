@@ -0,0 +1,272 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes the route index at compile time for the classes annotated
+ * with the route annotation.
+ * <p>
+ * The index is read by the router filter on init so the classes and libraries that has an index
+ * does not have to be scanned for routes. The processor is picked up by the compiler from the
+ * class path, on Java 23 and later annotation processing must be enabled with -proc:full.
+ * </p>
+ * <p>
+ * Every line in the index holds the class, the method and the parameter types separated by tabs.<br>
+ * com.example.orders.Orders&nbsp;&nbsp;&nbsp;&nbsp;getOrder&nbsp;&nbsp;&nbsp;&nbsp;long<br>
+ * The path is not written to the index since it depends on the base-package and extension
+ * init parameters, it is created by the router filter from the class and the method name.
+ * </p>
+ * @author Johan Hertz
+ */
+@SupportedAnnotationTypes("com.katujo.web.utils.Route")
+public class RouteProcessor extends AbstractProcessor
+{
+	//The location of the route index in the class output or archive
+	public static final String INDEX = "META-INF/katujo-web-utils/routes.index";
+
+	//The index lines processed in this compilation <String=class, String=lines>
+	private final Map<String, String> processed = new TreeMap<String, String>();
+
+	/*
+	 * Get the supported source version.
+	 * (non-Javadoc)
+	 * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+
+	/*
+	 * Process the route annotations.
+	 * (non-Javadoc)
+	 * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
+	 */
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment environment)
+	{
+		//Try to process the annotations
+		try
+		{
+			//Write the index when the last round is done
+			if(environment.processingOver())
+			{
+				writeIndex();
+				return false;
+			}
+
+			//Add the route classes
+			for(Element element : environment.getElementsAnnotatedWith(com.katujo.web.utils.Route.class))
+				if(element.getKind() == ElementKind.CLASS)
+					processed.put(binaryName((TypeElement) element), indexLines((TypeElement) element));
+		}
+
+		//Failed
+		catch(Exception ex)
+		{
+			processingEnv.getMessager().printMessage(javax.tools.Diagnostic.Kind.ERROR, "Failed to create route index: " + ex);
+		}
+
+		//Don't claim the annotation
+		return false;
+	}
+
+	/**
+	 * Create the index lines for the route class.
+	 * @param type
+	 * @return
+	 */
+	private String indexLines(TypeElement type)
+	{
+		//Create the builder
+		StringBuilder builder = new StringBuilder();
+
+		//Add the public methods declared in the class
+		for(Element element : type.getEnclosedElements())
+		{
+			//Only add methods
+			if(element.getKind() != ElementKind.METHOD)
+				continue;
+
+			//Only add methods that are only public (same rule as the router filter)
+			if(element.getModifiers().size() != 1 || !element.getModifiers().contains(Modifier.PUBLIC))
+				continue;
+
+			//Add the class and the method
+			builder.append(binaryName(type)).append('\t').append(element.getSimpleName()).append('\t');
+
+			//Add the parameter types
+			boolean first = true;
+			for(VariableElement parameter : ((ExecutableElement) element).getParameters())
+			{
+				if(!first) builder.append(',');
+				builder.append(typeName(parameter.asType()));
+				first = false;
+			}
+
+			//End the line
+			builder.append('\n');
+		}
+
+		//Return the lines
+		return builder.toString();
+	}
+
+	/**
+	 * Write the index to the class output.
+	 * <p>
+	 * Lines for route classes that where not part of this compilation are kept from the
+	 * existing index if the class still exists, this keeps the index whole on incremental builds.
+	 * </p>
+	 * @throws Exception
+	 */
+	private void writeIndex() throws Exception
+	{
+		//Don't write an index if nothing has been processed
+		if(processed.isEmpty())
+			return;
+
+		//Create the index
+		Map<String, String> index = new TreeMap<String, String>(existingIndex());
+
+		//Add the processed lines (replaces the existing lines for the class)
+		index.putAll(processed);
+
+		//Create the resource
+		FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+
+		//Fields
+		Writer writer = null;
+
+		//Write the lines
+		try
+		{
+			writer = resource.openWriter();
+			for(String lines : index.values())
+				writer.write(lines);
+		}
+
+		//Clean up
+		finally
+		{
+			try {writer.close();} catch(Throwable t) {}
+		}
+	}
+
+	/**
+	 * Read the existing index from the class output.
+	 * @return
+	 */
+	private Map<String, String> existingIndex()
+	{
+		//Create the map <String=class, String=lines>
+		Map<String, String> index = new TreeMap<String, String>();
+
+		//Fields
+		BufferedReader reader = null;
+
+		//Try to read the existing index
+		try
+		{
+			//Open the existing index
+			FileObject resource = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+			reader = new BufferedReader(new InputStreamReader(resource.openInputStream(), "UTF-8"));
+
+			//The classes that no longer exists
+			Set<String> removed = new HashSet<String>();
+
+			//Read the lines
+			for(String line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				//Get the class
+				String clazz = line.substring(0, line.indexOf('\t'));
+
+				//Skip classes that has been processed or removed
+				if(processed.containsKey(clazz) || removed.contains(clazz))
+					continue;
+
+				//Check that the class still exists and is a route
+				TypeElement type = processingEnv.getElementUtils().getTypeElement(clazz.replace('$', '.'));
+				if(type == null || type.getAnnotation(com.katujo.web.utils.Route.class) == null)
+				{
+					removed.add(clazz);
+					continue;
+				}
+
+				//Add the line
+				String lines = index.get(clazz);
+				index.put(clazz, (lines == null ? "" : lines) + line + "\n");
+			}
+		}
+
+		//No existing index
+		catch(Exception ex) {}
+
+		//Clean up
+		finally
+		{
+			try {reader.close();} catch(Throwable t) {}
+		}
+
+		//Return the index
+		return index;
+	}
+
+	/**
+	 * Get the binary name of the type (the name used by Class.forName).
+	 * @param type
+	 * @return
+	 */
+	private String binaryName(TypeElement type)
+	{
+		return processingEnv.getElementUtils().getBinaryName(type).toString();
+	}
+
+	/**
+	 * Get the name of the erased type as used by the router filter when reading the index.
+	 * @param type
+	 * @return
+	 */
+	private String typeName(TypeMirror type)
+	{
+		//Get the erased type
+		TypeMirror erased = processingEnv.getTypeUtils().erasure(type);
+
+		//Array
+		if(erased.getKind() == TypeKind.ARRAY)
+			return typeName(((ArrayType) erased).getComponentType()) + "[]";
+
+		//Class
+		if(erased.getKind() == TypeKind.DECLARED)
+			return binaryName((TypeElement) ((DeclaredType) erased).asElement());
+
+		//Primitive
+		return erased.toString();
+	}
+
+}
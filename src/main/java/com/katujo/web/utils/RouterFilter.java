@@ -3,21 +3,81 @@
 package com.katujo.web.utils;
 
 //Java imports
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.stream.BaseStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -31,12 +91,109 @@ import org.scannotation.WarUrlFinder;
 //Google imports
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 
 /**
  * The router filter that routes incoming request to the annotated classes using the package and
  * the method name as the path.
+ * <p>
+ * A route can take a POJO parameter instead of the JSON if the init parameter bind-pojo is set to true (otherwise 
+ * public methods with a POJO parameter are not routes), the request data is bound to it with a Gson type adapter 
+ * resolved once when the route is created. A route can also return a POJO, list or map that is
+ * written directly to the response with the type adapter for the declared return type (no JSON tree is created).
+ * </p>
+ * <p>
+ * A route can take several parameters bound to the members of the request data with the param annotation, 
+ * or by the parameter names if the classes are compiled with -parameters and the init parameter 
+ * bind-parameter-names is set to true.
+ * </p>
+ * <p>
+ * A route can return a CompletionStage to run asynchronously, the container thread is then released
+ * and the result is sent when the stage completes. The filter (and the JSON filter) must be set 
+ * with async-supported in the web.xml for asynchronous routes.
+ * </p>
+ * <p>
+ * Set the init parameter executor to virtual to invoke every route on a virtual thread 
+ * (requires Java 21), this also requires async-supported.
+ * </p>
+ * <p>
+ * Set the init parameter compression to true to compress the responses with gzip or deflate when
+ * accepted by the client. The responses smaller than compression-threshold (default 1024 bytes) are
+ * not compressed, the level is set with compression-level (0-9). 
+ * </p>
+ * <p>
+ * Set the init parameter etag to true to create an ETag for the JSON responses and send 304 not
+ * modified when it matches If-None-Match. The ETag is created from the response if it fits in the 
+ * response buffer, for results from the database cache manager the hash stored with the cached 
+ * result is used (and the JSON is not written at all for a 304).
+ * </p>
+ * <p>
+ * Routes annotated with cached has the serialized responses cached per request data, on a cache hit
+ * the cached bytes are sent without invoking the route.
+ * </p>
+ * <p>
+ * Routes annotated with coalesce are only invoked once for identical concurrent requests, the requests
+ * that arrive while the route is invoked wait and are sent the same response. Coalesced routes are
+ * invoked on the request thread (not on the executor). A request waits at most the route timeout (see 
+ * Timeout and async-timeout) or coalesce-timeout milliseconds if not set (default 30 seconds) and is sent 
+ * 504 gateway timeout if the invocation has not completed, the invocation is still shared with later requests.
+ * </p>
+ * <p>
+ * Set the init parameter batch-path to a path (e.g. /batch) to invoke several routes in one request. 
+ * The request data is an array of calls [{"path": "/orders/getOrder", "data": 10}, ...] that are invoked in 
+ * parallel on batch-threads threads (default the number of processors) and the response is an array with 
+ * {"result": ...} or {"error": "..."} for every call in the same order. A batch can hold at most 
+ * batch-max-calls calls (default 50, rejected with 413), at most batch-queue calls (default 1000) wait for a thread and the calls 
+ * that don't fit are sent an error. The calls are waited for at most batch-timeout milliseconds (default 30 
+ * seconds, or the timeout of an asynchronous route if shorter). Every call gets its own request and response, 
+ * the headers and status set by a call are dropped. Routes with request and response parameters can't be 
+ * invoked in a batch.
+ * </p>
+ * <p>
+ * The calls, errors, calls in progress and the time to parse the JSON, invoke the route and send the response
+ * are recorded for every route. Set the init parameter metrics-path to a path (e.g. /_metrics) to get the 
+ * metrics in the Prometheus text format, or as JSON with Accept: application/json or the parameter format=json.
+ * </p>
+ * <p>
+ * The number of concurrent calls to a route can be limited with the bulkhead annotation or the init parameter
+ * bulkheads (path=limit[:queue[:queueTimeout]];...), a path ending with / sets a limit shared by every route 
+ * under the path. Calls over the limit wait in the queue (if set) and are rejected with 503 service unavailable 
+ * and Retry-After (bulkhead-retry-after, default 1 second) if the queue is full or the wait times out.
+ * </p>
+ * <p>
+ * A route can return a Path, File, FileChannel, ByteBuffer or InputStream to stream binary data without 
+ * loading it in memory. The responses with a known length are sent with Content-Length and support a single 
+ * byte Range (206 partial content), files are sent by the container with sendfile when supported (Tomcat). 
+ * The returned files, channels and streams are closed when sent.
+ * </p>
+ * <p>
+ * A route can return an Iterator, a Stream or a response stream to send the elements as they are produced,
+ * as server-sent events if the client accepts text/event-stream and otherwise as newline delimited JSON. 
+ * The elements are flushed every stream-batch elements (default 64, every event for server-sent events) and 
+ * sending stops when the client disconnects.
+ * </p>
+ * <p>
+ * A route with an Iterator parameter (e.g. Iterator&lt;JsonObject&gt; or Iterator&lt;Order&gt;) is given the elements
+ * of a JSON array or newline delimited JSON request body, read from the request one at a time as the route 
+ * iterates so large imports are never held in memory (see DatabaseManager executeBatch). These routes
+ * can't be cached or coalesced.
+ * </p>
+ * <p>
+ * A route with an InputStream, ReadableByteChannel, byte[], Path or File parameter is given the raw request body
+ * (e.g. an upload), read straight from the request without the JSON filter (inflated if sent with Content-Encoding
+ * gzip or deflate). A Path or File parameter is the body saved to a temporary file in upload-dir (default the
+ * temporary directory) that is deleted when the route is done. The body is limited to max-upload-size bytes 
+ * (default 16 MB, -1 is not limited), rejected with 413. These routes can't be cached, coalesced or invoked in a batch.
+ * </p>
+ * <p>
+ * Request data can be sent as CBOR (application/cbor) or MessagePack (application/msgpack) instead of JSON, 
+ * see the JSON filter. The response is sent as CBOR or MessagePack if the client accepts the format with a 
+ * higher quality than JSON (e.g. Accept: application/cbor), also for cached and coalesced responses.
+ * </p>
  * @author Johan Hertz
  * @author Johanna Sundh
  */
@@ -57,9 +214,75 @@ public class RouterFilter implements Filter
 	//The character encoding to use when sending back JSON data
 	private static final String JSON_CHARACTER_ENCODING = "UTF-8";
 	
+	//The request attribute to hold the known hashes for the route result (used for the ETag)
+	private static final String HASHES_ATTRIBUTE = RouterFilter.class.getName() + ".hashes";
+	
+	//The request attribute to hold the cache key when the response should be cached
+	private static final String CACHE_KEY_ATTRIBUTE = RouterFilter.class.getName() + ".cacheKey";
+	
+	//The pattern for an accepted encoding with quality 0 (not accepted)
+	private static final Pattern ZERO_QUALITY = Pattern.compile("\\s*q\\s*=\\s*0(\\.0*)?\\s*");
+	
+	//The Prometheus text format content type
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	//The powers of two (in nanoseconds) used as the Prometheus histogram buckets (about 1 microsecond to 1 minute) 
+	private static final int[] PROMETHEUS_BUCKETS = {10, 12, 14, 16, 18, 20, 22, 24, 26, 28, 30, 32, 34, 36};
+	
+	//The pattern for a single byte range
+	private static final Pattern BYTE_RANGE = Pattern.compile("\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*");
+	
 	//The binary array content type
 	private static final String BINARY_CONTENT_TYPE = "application/octet-stream"; 
 	
+	//The servlet context (used to log asynchronous route errors)
+	private ServletContext context;
+	
+	//The flag if the responses are compressed (when accepted by the client)
+	private boolean compression;
+	
+	//The size in bytes a response must reach to be compressed
+	private int compressionThreshold;
+	
+	//The compression level (0-9)
+	private int compressionLevel;
+	
+	//The flag if ETags are created for the JSON responses
+	private boolean etag;
+	
+	//The executor to invoke the routes on (if not set the routes are invoked on the container thread)
+	private ExecutorService executor;
+	
+	//The path to send batch requests to (if not set batch requests are turned off)
+	private String batchPath;
+	
+	//The maximum number of calls in a batch request
+	private int batchMaxCalls;
+	
+	//The executor to invoke the batch calls on
+	private ExecutorService batchExecutor;
+	
+	//The time in milliseconds to wait for the calls in a batch
+	private long batchTimeout;
+	
+	//The time in milliseconds to wait for a coalesced invocation in progress (if the route has no timeout)
+	private long coalesceTimeout;
+	
+	//The time in seconds sent in Retry-After when a call is rejected by a bulkhead
+	private String retryAfter;
+	
+	//The number of elements to send before flushing a streamed response
+	private int streamBatch;
+	
+	//The path to send the metrics to (if not set the metrics are not sent)
+	private String metricsPath;
+	
+	//The max size in bytes of a raw request body (-1 is not checked)
+	private long maxUploadSize;
+	
+	//The directory to save the raw request bodies to (if not set the default temporary directory is used)
+	private Path uploadDirectory;
+	
 	//The thread local field to hold the HTTP request data
 	private static ThreadLocal<HttpServletRequest> request = new ThreadLocal<>();
 	
@@ -74,15 +297,72 @@ public class RouterFilter implements Filter
 	@Override
 	public void init(FilterConfig config) throws ServletException
 	{
+		//Create the pool used to scan and create the routes in parallel
+		ForkJoinPool pool = initPool();
+		
 		//Try to init the filter
 		try
 		{		
+			//Set the servlet context
+			context = config.getServletContext();
+			
+			//Create the executor to invoke the routes on
+			executor = RouteExecutors.create(config.getInitParameter("executor"));
+			
+			//Set the ETag flag
+			etag = "true".equals(config.getInitParameter("etag"));
+			
+			//Set the compression settings
+			compression = "true".equals(config.getInitParameter("compression"));
+			compressionThreshold = config.getInitParameter("compression-threshold") != null ? Integer.parseInt(config.getInitParameter("compression-threshold")) : 1024;
+			compressionLevel = config.getInitParameter("compression-level") != null ? Integer.parseInt(config.getInitParameter("compression-level")) : Deflater.DEFAULT_COMPRESSION;
+			
+			//Set the time in seconds the client should wait when rejected by a bulkhead
+			retryAfter = config.getInitParameter("bulkhead-retry-after") != null ? config.getInitParameter("bulkhead-retry-after") : "1";
+			
+			//Set the number of elements to send before flushing a streamed response
+			streamBatch = config.getInitParameter("stream-batch") != null ? Integer.parseInt(config.getInitParameter("stream-batch")) : 64;
+			
+			//Set the metrics path
+			metricsPath = config.getInitParameter("metrics-path");
+			
+			//Set the raw request body settings
+			maxUploadSize = config.getInitParameter("max-upload-size") != null ? Long.parseLong(config.getInitParameter("max-upload-size")) : 16 * 1024 * 1024;
+			uploadDirectory = config.getInitParameter("upload-dir") != null ? Paths.get(config.getInitParameter("upload-dir")) : null;
+			
+			//Set the batch settings
+			batchPath = config.getInitParameter("batch-path");
+			batchMaxCalls = config.getInitParameter("batch-max-calls") != null ? Integer.parseInt(config.getInitParameter("batch-max-calls")) : 50;
+			batchTimeout = config.getInitParameter("batch-timeout") != null ? Long.parseLong(config.getInitParameter("batch-timeout")) : 30000;
+			
+			//Set the time to wait for a coalesced invocation
+			coalesceTimeout = config.getInitParameter("coalesce-timeout") != null ? Long.parseLong(config.getInitParameter("coalesce-timeout")) : 30000;
+			
+			//Create the executor to invoke the batch calls on (calls that don't fit in the queue are rejected)
+			if(batchPath != null)
+			{
+				int threads = config.getInitParameter("batch-threads") != null ? Integer.parseInt(config.getInitParameter("batch-threads")) : Runtime.getRuntime().availableProcessors();
+				int queue = config.getInitParameter("batch-queue") != null ? Integer.parseInt(config.getInitParameter("batch-queue")) : 1000;
+				batchExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory()
+				{
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable, "katujo-web-utils-batch");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+			
 			//Get the path where to mask request data
 			for(String path : maskRequestDataOnError(config))
 				maskOnError.put(path, NO_PARAMETERS);
 			
-			//Get the scanned classes
-			Set<String> classesScanned = scanRoutes(config);
+			//Create the map to hold the route methods read from the route indexes <String=class, List<String[]=class, method, parameter types>>
+			Map<String, List<String[]>> indexed = new HashMap<String, List<String[]>>();
+			
+			//Get the scanned classes (and the indexed classes)
+			Set<String> classesScanned = scanRoutes(config, indexed, pool);
 			
 			//Get the web.xml classes
 			Set<String> classesWebXml = webXmlRoutes(config);
@@ -107,48 +387,45 @@ public class RouterFilter implements Filter
 			//Get the print paths flag
 			boolean printPaths = "true".equals(config.getInitParameter("print-paths"));
 			
+			//Get the flag to bind the route parameters by the names compiled with -parameters
+			boolean bindParameterNames = "true".equals(config.getInitParameter("bind-parameter-names"));
+			
+			//Get the flag to bind the request data to POJO parameters
+			boolean bindPojo = "true".equals(config.getInitParameter("bind-pojo"));
+			
+			//Get the default timeout for asynchronous routes (if not set the container default is used)
+			long asyncTimeout = config.getInitParameter("async-timeout") != null ? Long.parseLong(config.getInitParameter("async-timeout")) : 0;
+			
+			//Get the bulkhead limits set in the web.xml <String=path or path prefix, ConcurrencyLimit>
+			Map<String, ConcurrencyLimit> configuredLimits = bulkheads(config);
+			
+			//Create the map to hold the limits shared by the bulkhead groups <String=group, ConcurrencyLimit>
+			Map<String, ConcurrencyLimit> groupLimits = new HashMap<String, ConcurrencyLimit>();
+			
+			//Resolve the classes and create the route instances <String=class, Object=instance>
+			Map<String, Object> instances = createInstances(classes, basePackages, pool);
+			
 			//Create the route objects
 			for(String clazz : classes)
 			{
-				//Get the routes class
-				Class<?> routeClass = Class.forName(clazz);
+				//Get the instance of the route
+				Object instance = instances.get(clazz);
 				
-				//Get the package name
-				String routePackage = routeClass.getPackage().getName();
+				//Route does not match any of the base packages
+				if(instance == null)
+					continue;
 				
-				//Create the base path
-				String base = routePackage;
-
-				//Set base
-				if(basePackages != null && basePackages.length != 0)
-				{
-					//Found
-					boolean found = false;
-					
-					//Check every base package
-					for(String basePack : basePackages)
-					{
-						//Check if the package match the base package
-						if(routePackage.startsWith(basePack))
-						{
-							//Set base
-							base = routePackage.substring(basePack.length()).replace('.', '/') + "/";
-							
-							//Set found
-							found = true;
-						}						
-					}
-					
-					//Route does not match any of the base packages
-					if(!found)
-						continue;
-				}
-																		
-				//Create an instance of the route
-				Object instance = routeClass.getConstructor(new Class[] {}).newInstance(new Object[]{});
+				//Get the routes class
+				Class<?> routeClass = instance.getClass();
+				
+				//Get the base path
+				String base = routeBase(routeClass, basePackages);
+								
+				//Get the route methods (from the index when the class has been indexed)
+				List<Method> methods = indexed.containsKey(clazz) ? indexedMethods(routeClass, indexed.get(clazz)) : Arrays.asList(routeClass.getMethods());
 								
 				//Add the controller methods
-				for(Method method : routeClass.getMethods())
+				for(Method method : methods)
 				{	
 					//Only add public methods
 					if(!"public".equals(Modifier.toString(method.getModifiers())))
@@ -161,8 +438,12 @@ public class RouterFilter implements Filter
 					//Create the parameter type
 					int type = Route.NO_PARAMETER;					
 										
+					//Bind the parameters by name from the request data (param annotation or compiled names)
+					if(BindingPlan.applies(method, bindParameterNames))
+						type = Route.BOUND;
+					
 					//If the parameters length is 1 only allow JSON parameters and primitives
-					if(method.getParameterTypes().length == 1)
+					else if(method.getParameterTypes().length == 1)
 					{						
 						if(method.getParameterTypes()[0] == JsonObject.class) type = Route.JSON_OBJECT;
 						else if(method.getParameterTypes()[0] == JsonArray.class) type = Route.JSON_ARRAY;
@@ -172,6 +453,12 @@ public class RouterFilter implements Filter
 						else if(method.getParameterTypes()[0] == int.class || method.getParameterTypes()[0] == Integer.class) type = Route.PRIMITIVE_INT;
 						else if(method.getParameterTypes()[0] == long.class || method.getParameterTypes()[0] == Long.class) type = Route.PRIMITIVE_LONG;
 						else if(method.getParameterTypes()[0] == String.class) type = Route.PRIMITIVE_STRING;
+						else if(method.getParameterTypes()[0] == Iterator.class) type = Route.ELEMENTS;
+						else if(method.getParameterTypes()[0] == InputStream.class) type = Route.INPUT_STREAM;
+						else if(method.getParameterTypes()[0] == ReadableByteChannel.class) type = Route.BYTE_CHANNEL;
+						else if(method.getParameterTypes()[0] == byte[].class) type = Route.BYTES;
+						else if(method.getParameterTypes()[0] == Path.class || method.getParameterTypes()[0] == File.class) type = Route.FILE;
+						else if(bindPojo && pojo(method.getParameterTypes()[0])) type = Route.POJO;
 						else continue;
 					}	
 					
@@ -192,8 +479,74 @@ public class RouterFilter implements Filter
 					if(routes.containsKey(path))
 						throw new Exception("Path " + path + " is not unique");
 					
+					//Create the route with the compiled invoker
+					Route route = new Route(instance, method, type, createInvoker(instance, method, type));
+					
+					//Set the type adapter for the return type
+					route.resultAdapter = resultAdapter(method);
+					route.resultType = resultType(method);
+					
+					//Set the compression flag
+					route.compress = !method.isAnnotationPresent(NoCompression.class);
+					
+					//Create the response cache
+					if(method.isAnnotationPresent(Cached.class))
+					{
+						//The response must only depend on the request data
+						if(type == Route.REQUEST_RESPONSE)
+							throw new Exception("The route " + path + " can't be cached since it has request and response parameters");
+						
+						//The raw request body is not part of the cache key
+						if(rawBody(type))
+							throw new Exception("The route " + path + " can't be cached since it reads the raw request body");
+						
+						//The streamed request body would be parsed into memory for the cache key
+						if(type == Route.ELEMENTS)
+							throw new Exception("The route " + path + " can't be cached since it streams the request body elements");
+						
+						//The response must be serialized to be cached
+						if(!serializable(method))
+							throw new Exception("The route " + path + " can't be cached since it returns streamed or binary data");
+						
+						//Create the cache
+						route.cache = new RouteCache(method.getAnnotation(Cached.class).ttlMillis(), method.getAnnotation(Cached.class).maxEntries());
+					}
+					
+					//Create the map for the invocations in progress
+					if(method.isAnnotationPresent(Coalesce.class))
+					{
+						//The response must only depend on the request data
+						if(type == Route.REQUEST_RESPONSE)
+							throw new Exception("The route " + path + " can't be coalesced since it has request and response parameters");
+						
+						//The raw request body is not part of the request key
+						if(rawBody(type))
+							throw new Exception("The route " + path + " can't be coalesced since it reads the raw request body");
+						
+						//The streamed request body would be parsed into memory for the request key
+						if(type == Route.ELEMENTS)
+							throw new Exception("The route " + path + " can't be coalesced since it streams the request body elements");
+						
+						//The response must be sent on the request thread
+						if(CompletionStage.class.isAssignableFrom(method.getReturnType()))
+							throw new Exception("The route " + path + " can't be coalesced since it is asynchronous");
+						
+						//The response must be serialized to be shared
+						if(!serializable(method))
+							throw new Exception("The route " + path + " can't be coalesced since it returns streamed or binary data");
+						
+						//Create the map
+						route.flights = new ConcurrentHashMap<RequestKey, CompletableFuture<SerializedResult>>();
+					}
+					
+					//Set the concurrency limit
+					route.bulkhead = concurrencyLimit(path, method, configuredLimits, groupLimits);
+					
+					//Set the timeout used if the route is asynchronous
+					route.timeout = method.isAnnotationPresent(Timeout.class) ? method.getAnnotation(Timeout.class).value() : asyncTimeout;
+					
 					//Add the path
-					routes.put(path, new Route(instance, method, type));
+					routes.put(path, route);
 				}	
 			}
 			
@@ -217,7 +570,13 @@ public class RouterFilter implements Filter
 		catch(Exception ex)
 		{
 			throw new ServletException("Failed to init RouterFilter", ex);
-		}				
+		}
+		
+		//Clean up
+		finally
+		{
+			pool.shutdown();
+		}
 	}
 	
 	/*
@@ -239,16 +598,50 @@ public class RouterFilter implements Filter
 			RouterFilter.request.set(request);
 			RouterFilter.response.set(response);
 			
-			//Invoke the route
-			Object data = invoke(request, response);
+			//Set the map for the known hashes of the route result
+			if(etag)
+				request.setAttribute(HASHES_ATTRIBUTE, Collections.synchronizedMap(new IdentityHashMap<JsonElement, ResultHash>()));
 			
-			//Send the data as the response
-			send(request, response, data);			
+			//Get the path
+			String path = path(request);
+			
+			//Send the batch response (if the path is the batch path)
+			if(batchPath != null && batchPath.equals(path))
+			{
+				sendBatch(request, response);
+				return;
+			}
+			
+			//Send the metrics (if the path is the metrics path)
+			if(metricsPath != null && metricsPath.equals(path))
+			{
+				sendMetrics(request, response);
+				return;
+			}
+			
+			//Get the route
+			Route route = routes.get(path);
+			
+			//Route the request
+			if(route != null)
+				route(path, route, request, response);
+			
+			//No route for the path (throws the exception)
+			else invoke(path, null, request, response);
 		}
 		
 		//Failed
 		catch(Exception ex)
 		{
+			//Send the status for the rejected request body (e.g. an upload that is too large)
+			RequestBodyException rejected = RequestBodyException.find(ex);
+			if(rejected != null && !servletResponse.isCommitted())
+			{
+				((HttpServletResponse) servletResponse).sendError(rejected.getStatus(), rejected.getMessage());
+				return;
+			}
+			
+			//Throw the exception
 			throw new ServletException("Failed to route request", ex);
 		}
 		
@@ -261,103 +654,190 @@ public class RouterFilter implements Filter
 	}
 	
 	/**
-	 * Invoke a route.
+	 * Invoke the route and send the response, the metrics for the route are recorded.
+	 * @param path
+	 * @param route
 	 * @param request
 	 * @param response
-	 * @return
 	 * @throws Exception
 	 */
-	private Object invoke(HttpServletRequest request, HttpServletResponse response) throws Exception
+	private void route(String path, Route route, HttpServletRequest request, HttpServletResponse response) throws Exception
 	{
-		//Create fields that will be used in the exception message
-		String path = null;
-		JsonElement requestData = null;
+		//Record the start of the call
+		route.metrics.begin();
 		
-		//Try to invoke route
+		//Fields
+		boolean failed = true;
+		boolean asynchronous = false;
+		boolean acquired = false;
+		long started = System.nanoTime();
+		
+		//Try to route the request
 		try
 		{
-			//Get the path
-			path = request.getServletPath();
+			//Send the cached response (if the route is cached)
+			if(route.cache != null && sendCached(route, request, response))
+			{
+				route.metrics.send.record(System.nanoTime() - started);
+				failed = false;
+				return;
+			}
 			
-			//Try to get the path from the URI instead
-			if(path == null || "".equals(path))
+			//Acquire a permit from the bulkhead (if the route is limited)
+			if(route.bulkhead != null)
 			{
-				//Get the URI
-				String uri = request.getRequestURI();
-								
-				//Get the index of the second /
-				int index = uri.indexOf('/', 3);
-				
-				//Clean the path
-				path = uri.substring(index);	
+				//Reject the call when the limit is reached
+				if(!route.bulkhead.acquire())
+				{
+					reject(route, response);
+					failed = false;
+					return;
+				}
 				
-				//Remove the first duplicate /
-				if(path.startsWith("//"))
-					path = path.substring(1);
-			}			
-			
-			//Get the route
-			Route route = routes.get(path);		
-			
-			//Check if there is a route for the path
-			if(route == null)
-				throw new Exception("Could not find a route for path \"" + path + "\"");
-			
-			//Create the return data
-			Object returnData = null;
-			
-			//Get the request data
-			requestData = JsonFilter.getJson();
-			
-			//Invoke the method on the instance with the no parameters
-			if(route.parameterType == Route.NO_PARAMETER) 
-				returnData = route.method.invoke(route.instance, NO_PARAMETERS);
-			
-			//Invoke the method on the instance with a JSON object parameter
-			else if(route.parameterType == Route.JSON_OBJECT) 
-				returnData = route.method.invoke(route.instance, requestData == null ? requestData : requestData.getAsJsonObject());
+				//Set the flag to release the permit
+				acquired = true;
+			}
 			
-			//Invoke the method on the instance with a JSON array parameter
-			else if(route.parameterType == Route.JSON_ARRAY) 
-				returnData = route.method.invoke(route.instance, requestData == null ? requestData : requestData.getAsJsonArray());
+			//Send the response shared with identical requests (if the route is coalesced)
+			if(route.flights != null)
+			{
+				failed = !sendCoalesced(path, route, request, response);
+				return;
+			}
 			
-			//Invoke the method on the instance with a JSON element parameter
-			else if(route.parameterType == Route.JSON_ELEMENT) 
-				returnData = route.method.invoke(route.instance, requestData);
+			//Invoke the route on the executor (if set)
+			if(executor != null)
+			{
+				dispatch(path, route, request, response);
+				asynchronous = true;
+				return;
+			}
 			
-			//Invoke the method on the instance with a boolean as the parameter
-			else if(route.parameterType == Route.PRIMITIVE_BOOLEAN) 
-				returnData = route.method.invoke(route.instance, requestData.getAsBoolean());
+			//Invoke the route
+			started = System.nanoTime();
+			Object data = invoke(path, route, request, response);
 			
-			//Invoke the method on the instance with a double as the parameter
-			else if(route.parameterType == Route.PRIMITIVE_DOUBLE) 
-				returnData = route.method.invoke(route.instance, requestData.getAsDouble());
+			//Send the data when the asynchronous route completes
+			if(data instanceof CompletionStage)
+			{
+				sendAsync(path, route, request, response, (CompletionStage<?>) data, started);
+				asynchronous = true;
+				return;
+			}
 			
-			//Invoke the method on the instance with a integer as the parameter
-			else if(route.parameterType == Route.PRIMITIVE_INT) 
-				returnData = route.method.invoke(route.instance, requestData.getAsInt());
+			//Record the invoke time
+			long invoked = System.nanoTime();
+			route.metrics.invoke.record(invoked - started);
 			
-			//Invoke the method on the instance with a long as the parameter
-			else if(route.parameterType == Route.PRIMITIVE_LONG) 
-				returnData = route.method.invoke(route.instance, requestData.getAsLong());
+			//Send the data as the response
+			send(route, request, response, data);
 			
-			//Invoke the method on the instance with a string as the parameter
-			else if(route.parameterType == Route.PRIMITIVE_STRING) 
-				returnData = route.method.invoke(route.instance, requestData.getAsString());			
+			//Record the send time
+			route.metrics.send.record(System.nanoTime() - invoked);
+			failed = false;
+		}
+		
+		//Record the end of the call and release the permit (done when sent for asynchronous calls)
+		finally
+		{
+			if(!asynchronous)
+			{
+				if(acquired) route.bulkhead.release();
+				route.metrics.end(failed, JsonFilter.getParseTime(request));
+			}
+		}
+	}
+	
+	/**
+	 * Reject the call with 503 service unavailable when the bulkhead limit is reached.
+	 * @param route
+	 * @param response
+	 * @throws Exception
+	 */
+	private void reject(Route route, HttpServletResponse response) throws Exception
+	{
+		//Count the rejected call
+		route.metrics.reject();
+		
+		//Send the error
+		response.setHeader("Retry-After", retryAfter);
+		response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+	
+	/**
+	 * Get the route path for the request.
+	 * @param request
+	 * @return
+	 */
+	private static String path(HttpServletRequest request)
+	{
+		//Get the path
+		String path = request.getServletPath();
+		
+		//Try to get the path from the URI instead
+		if(path == null || "".equals(path))
+		{
+			//Get the URI
+			String uri = request.getRequestURI();
+							
+			//Get the index of the second /
+			int index = uri.indexOf('/', 3);
 			
-			//Invoke the method on the instance with the request and response parameters
-			else if(route.parameterType == Route.REQUEST_RESPONSE) 
-				returnData = route.method.invoke(route.instance, new Object[]{request, response});
+			//Clean the path
+			path = uri.substring(index);	
 			
-			//The parameter type has not been implemented yet
-			else throw new Exception("The parameter type " + route.parameterType + " has not been implemented");
+			//Remove the first duplicate /
+			if(path.startsWith("//"))
+				path = path.substring(1);
+		}
+		
+		//Return the path
+		return path;
+	}
+	
+	/**
+	 * Invoke a route.
+	 * @param path
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @return
+	 * @throws Exception
+	 */
+	private Object invoke(String path, Route route, HttpServletRequest request, HttpServletResponse response) throws Exception
+	{
+		//Get the request body (parsed by the invoker if the route has a data parameter)
+		RequestBody body = JsonFilter.getBody(request);
+		
+		//Invoke the route
+		return invoke(path, route, request, response, body != null ? body : RequestBody.NONE);
+	}
+	
+	/**
+	 * Invoke the route with the request data.
+	 * @param path
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @param requestData
+	 * @return
+	 * @throws Exception
+	 */
+	private Object invoke(String path, Route route, HttpServletRequest request, HttpServletResponse response, RequestBody requestData) throws Exception
+	{
+		//Try to invoke route
+		try
+		{
+			//Check if there is a route for the path
+			if(route == null)
+				throw new Exception("Could not find a route for path \"" + path + "\"");
 			
-			//Return the return data
-			return returnData;
+			//Invoke the route using the compiled invoker
+			return route.invoker.invoke(requestData, request, response);
 		}
 		
 		//Failed
-		catch(Exception ex)
+		catch(Throwable ex)
 		{
 			//Create the message
 			String message = "Failed to invoke route for path " + path;
@@ -367,7 +847,7 @@ public class RouterFilter implements Filter
 				message += "\n\tRequest Data: **MASKED**";
 			
 			//Check if request data is set
-			else if(requestData == null)
+			else if(requestData == null || requestData == RequestBody.NONE)
 				message += " (request data not set)";
 			
 			//Add the request data to the exception
@@ -380,19 +860,55 @@ public class RouterFilter implements Filter
 	
 	/**
 	 * Send the return data as the response.
+	 * @param route
 	 * @param request
 	 * @param response
 	 * @param data
 	 * @throws Exception
 	 */
-	private void send(HttpServletRequest request, HttpServletResponse response, Object data) throws Exception
+	private void send(Route route, HttpServletRequest request, HttpServletResponse response, Object data) throws Exception
 	{
 		//Try to send the data
 		try
 		{				
+			//Get the cache key set if the response should be cached
+			RequestKey key = route != null && route.cache != null ? (RequestKey) request.getAttribute(CACHE_KEY_ATTRIBUTE) : null;
+			
+			//Cache and send the response
+			if(key != null)
+			{
+				//Serialize the data
+				SerializedResult result = serialize(route, data);
+				
+				//Add the response to the cache
+				route.cache.put(key, result);
+				
+				//Send the response
+				sendSerialized(route, request, response, result);
+				return;
+			}
+			
+			//Get the content encoding to compress the response with (null if not compressed)
+			String encoding = encoding(route, request, response);
+			
+			//Get the binary format accepted by the client (null if JSON should be sent)
+			BinaryFormat format = format(request, response);
+			
 			//Don't do anything if the response data is not set
 			if(data == null)
 				;
+			
+			//Send the response back in the binary format accepted by the client
+			else if(format != null && !binary(data.getClass()) && !streamed(data.getClass()))
+			{
+				//Get the data as JSON (with Gson for POJO, list and map)
+				JsonElement element = toJson(data);
+				if(element == null)
+					element = JsonStreams.GSON.toJsonTree(data, route != null && route.resultAdapter != null ? route.resultType : data.getClass());
+				
+				//Send the element
+				sendBinary(response, format, element, encoding);
+			}
 									
 			//Send the response back as JSON data
 			else if(data instanceof JsonElement)					
@@ -401,8 +917,15 @@ public class RouterFilter implements Filter
 				response.setContentType(JSON_CONTENT_TYPE);
 				response.setCharacterEncoding(JSON_CHARACTER_ENCODING);
 																											
-				//Print the JSON to the output stream
-				response.getWriter().print(data.toString());				
+				//Get the hash of the JSON if known (the data is a cached result)
+				Long hash = etag ? resultHash(request, (JsonElement) data) : null;
+				
+				//Send not modified if the ETag of the known hash matches the client ETag
+				if(hash != null && ResponseOutput.notModified(request, response, hash))
+					return;
+				
+				//Write the JSON to the output stream (and create the ETag if not known)
+				writeJson(etag && hash == null ? request : null, response, (JsonElement) data, encoding);				
 			}
 			
 			//Send the response back as a JSON string primitive
@@ -415,8 +938,8 @@ public class RouterFilter implements Filter
 				//Create the primitive
 				JsonPrimitive primitive = new JsonPrimitive((String) data);
 																					
-				//Print the JSON to the output stream
-				response.getWriter().print(primitive.toString());				
+				//Write the JSON to the output stream
+				writeJson(null, response, primitive, encoding);				
 			}
 						
 			//Send the response back as a JSON number primitive
@@ -429,8 +952,8 @@ public class RouterFilter implements Filter
 				//Create the primitive
 				JsonPrimitive primitive = new JsonPrimitive((Number) data);
 																					
-				//Print the JSON to the output stream
-				response.getWriter().print(primitive.toString());			
+				//Write the JSON to the output stream
+				writeJson(null, response, primitive, encoding);			
 			}		
 			
 			//Send the response back as a JSON number primitive that can be cast as a date
@@ -443,8 +966,8 @@ public class RouterFilter implements Filter
 				//Create the primitive
 				JsonPrimitive primitive = new JsonPrimitive(((Date) data).getTime());
 																					
-				//Print the JSON to the output stream
-				response.getWriter().print(primitive.toString());					
+				//Write the JSON to the output stream
+				writeJson(null, response, primitive, encoding);					
 			}
 			
 			//Send the response back as a JSON boolean primitive
@@ -457,8 +980,8 @@ public class RouterFilter implements Filter
 				//Create the primitive
 				JsonPrimitive primitive = new JsonPrimitive((boolean) data);
 																					
-				//Print the JSON to the output stream
-				response.getWriter().print(primitive.toString());					
+				//Write the JSON to the output stream
+				writeJson(null, response, primitive, encoding);					
 			}			
 			
 			//Send the response back as binary data 
@@ -467,12 +990,78 @@ public class RouterFilter implements Filter
 				//Set the response type
 				response.setContentType(BINARY_CONTENT_TYPE);
 				
+				//Write the data compressed
+				if(encoding != null && ((byte[]) data).length >= compressionThreshold)
+					writeBytes(response, (byte[]) data, encoding);
+				
 				//Write the data
-				response.getOutputStream().write((byte[]) data);				
+				else
+				{
+					response.setContentLength(((byte[]) data).length);
+					response.getOutputStream().write((byte[]) data);
+				}
+			}
+			
+			//Send the file
+			else if(data instanceof Path || data instanceof File)
+			{
+				//Get the path
+				Path file = data instanceof File ? ((File) data).toPath() : (Path) data;
+				
+				//Open the file
+				FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				
+				//Send the file
+				try {sendChannel(request, response, channel, 0, channel.size(), file);}
+				
+				//Clean up
+				finally {try {channel.close();} catch(Throwable t) {}}
+			}
+			
+			//Send the file from the current position
+			else if(data instanceof FileChannel)
+			{
+				//Get the channel
+				FileChannel channel = (FileChannel) data;
+				
+				//Send the file
+				try {sendChannel(request, response, channel, channel.position(), channel.size() - channel.position(), null);}
+				
+				//Clean up
+				finally {try {channel.close();} catch(Throwable t) {}}
+			}
+			
+			//Send the remaining bytes in the buffer
+			else if(data instanceof ByteBuffer)
+				sendBuffer(request, response, (ByteBuffer) data);
+			
+			//Send the stream
+			else if(data instanceof InputStream)
+			{
+				//Get the stream
+				InputStream input = (InputStream) data;
+				
+				//Send the stream
+				try {sendStream(response, input);}
+				
+				//Clean up
+				finally {try {input.close();} catch(Throwable t) {}}
 			}
 			
-			//The data type returned by the route is unrecognised
-			else throw new Exception("Unrecognised route return type " + data.getClass().getCanonicalName());	
+			//Send the elements as they are produced
+			else if(data instanceof Iterator || data instanceof BaseStream || data instanceof ResponseStream)
+				sendElements(request, response, data);
+			
+			//Send the response back as JSON written by the type adapter (POJO, list, map)
+			else
+			{
+				//Set the response type
+				response.setContentType(JSON_CONTENT_TYPE);
+				response.setCharacterEncoding(JSON_CHARACTER_ENCODING);
+				
+				//Write the JSON to the output stream (and create the ETag)
+				writeObject(etag ? request : null, response, resultAdapter(route, data), data, encoding);
+			}
 		}
 		
 		//Failed
@@ -481,186 +1070,3065 @@ public class RouterFilter implements Filter
 			throw new Exception("Failed to send data response", ex);
 		}
 	}
-
-	/*
-	 * Destroy the filter.
-	 * (non-Javadoc)
-	 * @see javax.servlet.Filter#destroy()
-	 */
-	@Override
-	public void destroy() {}
 	
 	/**
-	 * Get the request (for the current request thread).
-	 * @return
+	 * Send the elements of the iterator, stream or response stream as they are produced.
+	 * <p>
+	 * The elements are sent as server-sent events if accepted by the client, otherwise as newline 
+	 * delimited JSON. The elements are flushed every stream-batch elements (server-sent events
+	 * every element). Sending stops without an error if the client disconnects, the stream or 
+	 * iterator is closed when done (if closeable).
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @param data
+	 * @throws Exception
 	 */
-	public static HttpServletRequest getRequest()
+	private void sendElements(HttpServletRequest request, HttpServletResponse response, Object data) throws Exception
 	{
-		return request.get();
-	}
-	
-	/**
-	 * Get the response (for the current request thread).
-	 * @return
-	 */
-	public static HttpServletResponse getResponse()
+		//Check if the client accepts server-sent events
+		boolean events = request.getHeader("Accept") != null && request.getHeader("Accept").contains(StreamingOutput.EVENT_STREAM_CONTENT_TYPE);
+		
+		//Create the output
+		StreamingOutput output = new StreamingOutput(response, events, events ? 1 : streamBatch);
+		
+		//Try to send the elements
+		try
+		{
+			//Let the response stream write the elements
+			if(data instanceof ResponseStream)
+				((ResponseStream) data).writeTo(output);
+			
+			//Send the elements of the iterator or the stream
+			else
+			{
+				Iterator<?> iterator = data instanceof BaseStream ? ((BaseStream<?, ?>) data).iterator() : (Iterator<?>) data;
+				while(iterator.hasNext())
+					output.send(iterator.next());
+			}
+			
+			//Send the last batch
+			output.flush();
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			//The client has disconnected (stop sending)
+			if(!output.isOpen())
+				return;
+			
+			//Throw the exception
+			throw ex;
+		}
+		
+		//Clean up
+		finally
+		{
+			if(data instanceof AutoCloseable)
+				try {((AutoCloseable) data).close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Send the bytes in the file channel from the start position (or the requested range).
+	 * <p>
+	 * If the file is set and the container supports sendfile (Tomcat) the file is sent by the
+	 * container without being copied through the JVM, otherwise it is copied to the response 
+	 * using a pooled buffer.
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @param channel
+	 * @param start
+	 * @param size
+	 * @param file
+	 * @throws Exception
+	 */
+	private static void sendChannel(HttpServletRequest request, HttpServletResponse response, FileChannel channel, long start, long size, Path file) throws Exception
+	{
+		//Set the range to send (null if not satisfiable)
+		long[] range = range(request, response, size);
+		if(range == null)
+			return;
+		
+		//Let the container send the file
+		if(file != null && !request.isAsyncStarted() && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support")))
+		{
+			request.setAttribute("org.apache.tomcat.sendfile.filename", file.toAbsolutePath().toString());
+			request.setAttribute("org.apache.tomcat.sendfile.start", start + range[0]);
+			request.setAttribute("org.apache.tomcat.sendfile.end", start + range[0] + range[1]);
+			return;
+		}
+		
+		//Get the output stream and a buffer
+		OutputStream output = response.getOutputStream();
+		byte[] buffer = ResponseOutput.POOL.take();
+		
+		//Try to copy the bytes
+		try
+		{
+			//Wrap the buffer
+			ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+			
+			//Copy the bytes in the range
+			for(long position = start + range[0], end = position + range[1]; position < end;)
+			{
+				//Read from the file
+				wrapped.clear();
+				wrapped.limit((int) Math.min(buffer.length, end - position));
+				int read = channel.read(wrapped, position);
+				
+				//The file has been truncated
+				if(read < 0)
+					throw new Exception("The file ended before the content length was sent");
+				
+				//Write the bytes
+				output.write(buffer, 0, read);
+				position += read;
+			}
+		}
+		
+		//Clean up
+		finally
+		{
+			ResponseOutput.POOL.release(buffer);
+		}
+	}
+	
+	/**
+	 * Send the remaining bytes in the buffer (or the requested range).
+	 * @param request
+	 * @param response
+	 * @param data
+	 * @throws Exception
+	 */
+	private static void sendBuffer(HttpServletRequest request, HttpServletResponse response, ByteBuffer data) throws Exception
+	{
+		//Set the range to send (null if not satisfiable)
+		long[] range = range(request, response, data.remaining());
+		if(range == null)
+			return;
+		
+		//Get the bytes in the range (the position of the buffer is not changed)
+		ByteBuffer bytes = data.duplicate();
+		bytes.position(data.position() + (int) range[0]);
+		bytes.limit(bytes.position() + (int) range[1]);
+		
+		//Write the backing array
+		if(bytes.hasArray())
+		{
+			response.getOutputStream().write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			return;
+		}
+		
+		//Get a buffer
+		byte[] buffer = ResponseOutput.POOL.take();
+		
+		//Copy the bytes (direct buffer)
+		try
+		{
+			while(bytes.hasRemaining())
+			{
+				int length = Math.min(buffer.length, bytes.remaining());
+				bytes.get(buffer, 0, length);
+				response.getOutputStream().write(buffer, 0, length);
+			}
+		}
+		
+		//Clean up
+		finally
+		{
+			ResponseOutput.POOL.release(buffer);
+		}
+	}
+	
+	/**
+	 * Send the stream (the length is not known so the response is chunked and ranges are not supported).
+	 * @param response
+	 * @param input
+	 * @throws Exception
+	 */
+	private static void sendStream(HttpServletResponse response, InputStream input) throws Exception
+	{
+		//Set the response type (if not set by the route)
+		if(response.getContentType() == null)
+			response.setContentType(BINARY_CONTENT_TYPE);
+		
+		//Get the output stream and a buffer
+		OutputStream output = response.getOutputStream();
+		byte[] buffer = ResponseOutput.POOL.take();
+		
+		//Copy the stream
+		try
+		{
+			for(int read = input.read(buffer); read != -1; read = input.read(buffer))
+				output.write(buffer, 0, read);
+		}
+		
+		//Clean up
+		finally
+		{
+			ResponseOutput.POOL.release(buffer);
+		}
+	}
+	
+	/**
+	 * Get the range of the bytes to send and set the response headers for it.
+	 * <p>
+	 * A single byte range (bytes=start-end, bytes=start- or bytes=-suffix) is sent as 206 partial content,
+	 * multiple ranges are not supported and the whole content is sent. If the range can't be satisfied
+	 * 416 is sent and null is returned.
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @param size
+	 * @return the start and the length of the range
+	 * @throws Exception
+	 */
+	private static long[] range(HttpServletRequest request, HttpServletResponse response, long size) throws Exception
+	{
+		//Set the response type (if not set by the route)
+		if(response.getContentType() == null)
+			response.setContentType(BINARY_CONTENT_TYPE);
+		
+		//Ranges are accepted
+		response.setHeader("Accept-Ranges", "bytes");
+		
+		//Get the range
+		Matcher matcher = request.getHeader("Range") != null ? BYTE_RANGE.matcher(request.getHeader("Range")) : null;
+		
+		//Send the whole content
+		if(matcher == null || !matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty()))
+		{
+			response.setContentLengthLong(size);
+			return new long[]{0, size};
+		}
+		
+		//Get the first and the last byte
+		long first;
+		long last;
+		
+		//Suffix range (the last bytes)
+		if(matcher.group(1).isEmpty())
+		{
+			first = Math.max(0, size - Long.parseLong(matcher.group(2)));
+			last = size - 1;
+		}
+		
+		//From the first byte to the last byte (or the end)
+		else
+		{
+			first = Long.parseLong(matcher.group(1));
+			last = matcher.group(2).isEmpty() ? size - 1 : Math.min(Long.parseLong(matcher.group(2)), size - 1);
+		}
+		
+		//The range can't be satisfied
+		if(first >= size || last < first)
+		{
+			response.setHeader("Content-Range", "bytes */" + size);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return null;
+		}
+		
+		//Send the range
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + size);
+		response.setContentLengthLong(last - first + 1);
+		return new long[]{first, last - first + 1};
+	}
+
+	/**
+	 * Invoke the calls in the batch request and send the results.
+	 * <p>
+	 * The request data must be a JSON array of calls with the path and the data for the route
+	 * [{"path": "/orders/getOrder", "data": 10}, ...]. The calls are invoked in parallel on the batch executor
+	 * and the response is a JSON array with the result or the error for every call in the same order
+	 * [{"result": {...}}, {"error": "..."}, ...]. A request that is not an array of calls is rejected with 400 
+	 * and a request with more than the max number of calls with 413.
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @throws Exception
+	 */
+	private void sendBatch(final HttpServletRequest request, final HttpServletResponse response) throws Exception
+	{
+		//Get the calls
+		JsonElement data = JsonFilter.getJson(request);
+		
+		//Check that the calls are set
+		if(data == null || !data.isJsonArray())
+			throw new RequestBodyException(HttpServletResponse.SC_BAD_REQUEST, "The batch request data must be an array of calls");
+		
+		//Check the number of calls
+		if(data.getAsJsonArray().size() > batchMaxCalls)
+			throw new RequestBodyException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "The batch request has more than " + batchMaxCalls + " calls");
+		
+		//Get the time when to stop waiting for the calls
+		final long deadline = System.currentTimeMillis() + batchTimeout;
+		
+		//Create the list to hold the invoked calls (null if rejected)
+		List<Future<JsonObject>> calls = new ArrayList<Future<JsonObject>>();
+		
+		//Invoke the calls on the batch executor
+		for(final JsonElement call : data.getAsJsonArray())
+		{
+			//Try to add the call
+			try
+			{
+				calls.add(batchExecutor.submit(new Callable<JsonObject>()
+				{
+					public JsonObject call()
+					{
+						return invokeBatchCall(call, new BatchCallRequest(request), new BatchCallResponse(response), deadline);
+					}
+				}));
+			}
+			
+			//The queue is full
+			catch(RejectedExecutionException ex)
+			{
+				calls.add(null);
+			}
+		}
+		
+		//Create the results
+		JsonArray results = new JsonArray();
+		
+		//Add the results in the order of the calls
+		for(Future<JsonObject> call : calls)
+		{
+			//The call was rejected
+			if(call == null)
+			{
+				results.add(batchError("The batch executor is busy"));
+				continue;
+			}
+			
+			//Try to get the result
+			try
+			{
+				results.add(call.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			}
+			
+			//The call has not completed in time
+			catch(TimeoutException ex)
+			{
+				call.cancel(true);
+				results.add(batchError("The batch call timed out"));
+			}
+		}
+		
+		//Send the results
+		send(null, request, response, results);
+	}
+	
+	/**
+	 * Create the result for a batch call that failed.
+	 * @param message
+	 * @return
+	 */
+	private static JsonObject batchError(String message)
+	{
+		JsonObject result = new JsonObject();
+		result.addProperty("error", message);
+		return result;
+	}
+	
+	/**
+	 * Invoke a call in the batch request.
+	 * @param call
+	 * @param request the request for the call
+	 * @param response the response for the call
+	 * @param deadline the time when to stop waiting for an asynchronous route
+	 * @return
+	 */
+	private JsonObject invokeBatchCall(JsonElement call, HttpServletRequest request, HttpServletResponse response, long deadline)
+	{
+		//Create the result
+		JsonObject result = new JsonObject();
+		
+		//Fields
+		String path = null;
+		Route route = null;
+		boolean failed = true;
+		boolean acquired = false;
+		
+		//Try to invoke the call
+		try
+		{
+			//Check that the call is set
+			if(call == null || !call.isJsonObject() || !call.getAsJsonObject().has("path"))
+				throw new Exception("The batch call must be an object with the path set");
+			
+			//Get the path and the request data
+			path = call.getAsJsonObject().get("path").getAsString();
+			JsonElement requestData = call.getAsJsonObject().get("data");
+			if(requestData != null && requestData.isJsonNull())
+				requestData = null;
+			
+			//Get the route
+			route = routes.get(path);
+			
+			//Record the start of the call
+			if(route != null)
+				route.metrics.begin();
+			
+			//Check that the route can be invoked in a batch
+			if(route != null && route.parameterType == Route.REQUEST_RESPONSE)
+				throw new Exception("The route for path " + path + " has request and response parameters and can't be invoked in a batch");
+			
+			//Check that the route doesn't read the raw request body (the batch request)
+			if(route != null && rawBody(route.parameterType))
+				throw new Exception("The route for path " + path + " reads the raw request body and can't be invoked in a batch");
+			
+			//Acquire a permit from the bulkhead (if the route is limited)
+			if(route != null && route.bulkhead != null)
+			{
+				//Reject the call when the limit is reached
+				if(!route.bulkhead.acquire())
+				{
+					route.metrics.reject();
+					result.addProperty("error", "The route for path " + path + " is busy");
+					failed = false;
+					return result;
+				}
+				
+				//Set the flag to release the permit
+				acquired = true;
+			}
+			
+			//Create the body of the call
+			RequestBody body = requestData != null ? new RequestBody(requestData) : RequestBody.NONE;
+			
+			//Set the thread local fields and the body of the call request (as if the call was sent as a request)
+			RouterFilter.request.set(request);
+			RouterFilter.response.set(response);
+			JsonFilter.setBody(body);
+			JsonFilter.setBody(request, body);
+			
+			//Invoke the route
+			long started = System.nanoTime();
+			Object data = invoke(path, route, request, response, body);
+			
+			//Wait for the asynchronous route (at most the route timeout)
+			if(data instanceof CompletionStage)
+			{
+				//Get the time to wait
+				long wait = Math.max(0, deadline - System.currentTimeMillis());
+				if(route.timeout > 0)
+					wait = Math.min(wait, route.timeout);
+				
+				//Try to get the result
+				CompletableFuture<?> future = ((CompletionStage<?>) data).toCompletableFuture();
+				try
+				{
+					data = future.get(wait, TimeUnit.MILLISECONDS);
+				}
+				
+				//Timed out (the permit is released when the route completes)
+				catch(TimeoutException ex)
+				{
+					//Release the permit when the route completes
+					if(acquired)
+					{
+						final ConcurrencyLimit bulkhead = route.bulkhead;
+						future.whenComplete(new BiConsumer<Object, Throwable>()
+						{
+							public void accept(Object result, Throwable error)
+							{
+								bulkhead.release();
+							}
+						});
+						acquired = false;
+					}
+					
+					//Cancel the route and fail the call
+					future.cancel(true);
+					throw new Exception("The route for path " + path + " timed out", ex);
+				}
+			}
+			
+			//Record the invoke time
+			route.metrics.invoke.record(System.nanoTime() - started);
+			
+			//The binary data and streams can't be sent in a batch
+			if(data != null && (binary(data.getClass()) || streamed(data.getClass())))
+				throw new Exception("Unrecognised batch route return type " + data.getClass().getCanonicalName());
+			
+			//Get the data as JSON (with Gson for POJO, list and map)
+			JsonElement element = toJson(data);
+			if(data != null && element == null)
+				element = JsonStreams.GSON.toJsonTree(data, route.resultAdapter != null ? route.resultType : data.getClass());
+			
+			//Set the result
+			result.add("result", element != null ? element : JsonNull.INSTANCE);
+			failed = false;
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			//Log the error
+			context.log("Failed to invoke batch call", ex);
+			
+			//Set the error
+			result.addProperty("error", path != null ? "Failed to invoke route for path " + path : "Failed to invoke batch call");
+		}
+		
+		//Clean up
+		finally
+		{
+			RouterFilter.request.set(null);
+			RouterFilter.response.set(null);
+			JsonFilter.setJson(null);
+			
+			//Record the end of the call and release the permit
+			if(acquired) route.bulkhead.release();
+			if(route != null) route.metrics.end(failed, -1);
+		}
+		
+		//Return the result
+		return result;
+	}
+	
+	/**
+	 * Send the metrics for the routes.
+	 * <p>
+	 * The metrics are sent as JSON if the request accepts application/json or has the parameter format=json,
+	 * otherwise they are sent in the Prometheus text format.
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @throws Exception
+	 */
+	private void sendMetrics(HttpServletRequest request, HttpServletResponse response) throws Exception
+	{
+		//Get the paths in order
+		List<String> paths = new ArrayList<String>(routes.keySet());
+		Collections.sort(paths);
+		
+		//Send the metrics as JSON
+		if("json".equals(request.getParameter("format")) || (request.getHeader("Accept") != null && request.getHeader("Accept").contains(JSON_CONTENT_TYPE)))
+		{
+			//Create the metrics
+			JsonObject metrics = new JsonObject();
+			
+			//Add the metrics for every route
+			for(String path : paths)
+			{
+				//Get the route metrics
+				RouteMetrics route = routes.get(path).metrics;
+				
+				//Create the object
+				JsonObject object = new JsonObject();
+				object.addProperty("calls", route.getCalls());
+				object.addProperty("errors", route.getErrors());
+				object.addProperty("rejected", route.getRejected());
+				object.addProperty("inFlight", route.getInFlight());
+				object.add("parse", toJson(route.parse));
+				object.add("invoke", toJson(route.invoke));
+				object.add("send", toJson(route.send));
+				
+				//Add the object
+				metrics.add(path, object);
+			}
+			
+			//Send the metrics
+			send(null, request, response, metrics);
+			return;
+		}
+		
+		//Create the builder for the text
+		StringBuilder builder = new StringBuilder();
+		
+		//Add the call counts
+		builder.append("# HELP katujo_route_calls_total The number of calls to the route.\n");
+		builder.append("# TYPE katujo_route_calls_total counter\n");
+		for(String path : paths)
+			builder.append("katujo_route_calls_total{path=\"").append(label(path)).append("\"} ").append(routes.get(path).metrics.getCalls()).append('\n');
+		
+		//Add the error counts
+		builder.append("# HELP katujo_route_errors_total The number of failed calls to the route.\n");
+		builder.append("# TYPE katujo_route_errors_total counter\n");
+		for(String path : paths)
+			builder.append("katujo_route_errors_total{path=\"").append(label(path)).append("\"} ").append(routes.get(path).metrics.getErrors()).append('\n');
+		
+		//Add the rejected counts
+		builder.append("# HELP katujo_route_rejected_total The number of calls to the route rejected by the bulkhead.\n");
+		builder.append("# TYPE katujo_route_rejected_total counter\n");
+		for(String path : paths)
+			builder.append("katujo_route_rejected_total{path=\"").append(label(path)).append("\"} ").append(routes.get(path).metrics.getRejected()).append('\n');
+		
+		//Add the calls in progress
+		builder.append("# HELP katujo_route_in_flight The number of calls to the route in progress.\n");
+		builder.append("# TYPE katujo_route_in_flight gauge\n");
+		for(String path : paths)
+			builder.append("katujo_route_in_flight{path=\"").append(label(path)).append("\"} ").append(routes.get(path).metrics.getInFlight()).append('\n');
+		
+		//Add the histograms
+		builder.append("# HELP katujo_route_duration_seconds The time spent in each phase of a call to the route.\n");
+		builder.append("# TYPE katujo_route_duration_seconds histogram\n");
+		for(String path : paths)
+		{
+			appendHistogram(builder, path, "parse", routes.get(path).metrics.parse);
+			appendHistogram(builder, path, "invoke", routes.get(path).metrics.invoke);
+			appendHistogram(builder, path, "send", routes.get(path).metrics.send);
+		}
+		
+		//Get the bytes
+		byte[] bytes = builder.toString().getBytes("UTF-8");
+		
+		//Send the text
+		response.setContentType(PROMETHEUS_CONTENT_TYPE);
+		response.setContentLength(bytes.length);
+		response.getOutputStream().write(bytes);
+	}
+	
+	/**
+	 * Append the histogram in the Prometheus text format.
+	 * @param builder
+	 * @param path
+	 * @param phase
+	 * @param histogram
+	 */
+	private static void appendHistogram(StringBuilder builder, String path, String phase, LatencyHistogram histogram)
+	{
+		//Create the labels
+		String labels = "path=\"" + label(path) + "\",phase=\"" + phase + "\"";
+		
+		//Add the cumulative counts for the buckets
+		long count = 0;
+		int bucket = 0;
+		for(int power : PROMETHEUS_BUCKETS)
+		{
+			//Add the counts below the power of two
+			for(int end = LatencyHistogram.bucket(1L << power); bucket < end; bucket++)
+				count += histogram.getCount(bucket);
+			
+			//Add the bucket
+			builder.append("katujo_route_duration_seconds_bucket{").append(labels).append(",le=\"").append(seconds(1L << power)).append("\"} ").append(count).append('\n');
+		}
+		
+		//Add the total count, the last bucket and the sum
+		builder.append("katujo_route_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+		builder.append("katujo_route_duration_seconds_sum{").append(labels).append("} ").append(seconds(histogram.getSum())).append('\n');
+		builder.append("katujo_route_duration_seconds_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+	}
+	
+	/**
+	 * Get the histogram as JSON with the times in milliseconds.
+	 * @param histogram
+	 * @return
+	 */
+	private static JsonObject toJson(LatencyHistogram histogram)
+	{
+		JsonObject object = new JsonObject();
+		object.addProperty("count", histogram.getCount());
+		object.addProperty("totalMillis", histogram.getSum() / 1e6);
+		object.addProperty("maxMillis", histogram.getMax() / 1e6);
+		object.addProperty("p50Millis", histogram.getPercentile(50) / 1e6);
+		object.addProperty("p90Millis", histogram.getPercentile(90) / 1e6);
+		object.addProperty("p99Millis", histogram.getPercentile(99) / 1e6);
+		object.addProperty("p999Millis", histogram.getPercentile(99.9) / 1e6);
+		return object;
+	}
+	
+	/**
+	 * Get the nanoseconds as seconds in plain text.
+	 * @param nanos
+	 * @return
+	 */
+	private static String seconds(long nanos)
+	{
+		return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+	}
+	
+	/**
+	 * Escape the Prometheus label value.
+	 * @param value
+	 * @return
+	 */
+	private static String label(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+	
+	/**
+	 * Send the cached response for the request if the route is cached.
+	 * <p>
+	 * If not cached the key is set on the request so the response is cached when sent.
+	 * </p>
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @return true if the cached response has been sent
+	 * @throws Exception
+	 */
+	private boolean sendCached(Route route, HttpServletRequest request, HttpServletResponse response) throws Exception
+	{
+		//Create the key from the request data
+		RequestKey key = new RequestKey(JsonFilter.getJson(request));
+		
+		//Get the cached response
+		SerializedResult result = route.cache.get(key);
+		
+		//Send the cached response
+		if(result != null)
+		{
+			sendSerialized(route, request, response, result);
+			return true;
+		}
+		
+		//Set the key to cache the response (copied before the route can change the request data)
+		request.setAttribute(CACHE_KEY_ATTRIBUTE, key.copy());
+		return false;
+	}
+	
+	/**
+	 * Invoke the coalesced route and send the response.
+	 * <p>
+	 * If the route is already being invoked for the same request data the result of that
+	 * invocation is waited for and sent instead of invoking the route again. The wait is limited
+	 * to the route timeout (the coalesce timeout if not set), when reached 504 gateway timeout is
+	 * sent to the request and the invocation is left for the other requests.
+	 * </p>
+	 * @param path
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @return false if the wait for the invocation timed out
+	 * @throws Exception
+	 */
+	private boolean sendCoalesced(String path, Route route, HttpServletRequest request, HttpServletResponse response) throws Exception
+	{
+		//Get the key set by the cache or create it (copied before the route can change the request data)
+		RequestKey key = (RequestKey) request.getAttribute(CACHE_KEY_ATTRIBUTE);
+		if(key == null)
+			key = new RequestKey(JsonFilter.getJson(request)).copy();
+		
+		//Get the start time
+		long started = System.nanoTime();
+		
+		//Create the invocation
+		CompletableFuture<SerializedResult> flight = new CompletableFuture<SerializedResult>();
+		
+		//Get the invocation in progress
+		CompletableFuture<SerializedResult> current = route.flights.putIfAbsent(key, flight);
+		
+		//Wait for the invocation in progress and send the result
+		if(current != null)
+		{
+			//Try to get the result
+			try
+			{
+				//Wait for the result (at most the route timeout)
+				SerializedResult shared = current.get(route.timeout > 0 ? route.timeout : coalesceTimeout, TimeUnit.MILLISECONDS);
+				
+				//Record the invoke time
+				long invoked = System.nanoTime();
+				route.metrics.invoke.record(invoked - started);
+				
+				//Send the response
+				sendSerialized(route, request, response, shared);
+				route.metrics.send.record(System.nanoTime() - invoked);
+				return true;
+			}
+			
+			//Failed in the invocation in progress
+			catch(ExecutionException ex)
+			{
+				throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+			}
+			
+			//The invocation in progress has not completed in time (left for the other requests)
+			catch(TimeoutException ex)
+			{
+				context.log("Coalesced route for path " + path + " timed out waiting for the invocation in progress");
+				response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+				return false;
+			}
+		}
+		
+		//Fields
+		SerializedResult result = null;
+		long invoked = 0;
+		
+		//Try to invoke the route
+		try
+		{
+			//Invoke the route
+			Object data = invoke(path, route, request, response);
+			
+			//Record the invoke time
+			invoked = System.nanoTime();
+			route.metrics.invoke.record(invoked - started);
+			
+			//Serialize the data
+			result = serialize(route, data);
+			
+			//Add the response to the cache
+			if(route.cache != null && request.getAttribute(CACHE_KEY_ATTRIBUTE) != null)
+				route.cache.put(key, result);
+			
+			//Complete the invocation
+			flight.complete(result);
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			flight.completeExceptionally(ex);
+			throw ex;
+		}
+		
+		//Clean up
+		finally
+		{
+			route.flights.remove(key, flight);
+		}
+		
+		//Send the response
+		sendSerialized(route, request, response, result);
+		route.metrics.send.record(System.nanoTime() - invoked);
+		return true;
+	}
+	
+	/**
+	 * Send the serialized result as the response.
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @param result
+	 * @throws Exception
+	 */
+	private void sendSerialized(Route route, HttpServletRequest request, HttpServletResponse response, SerializedResult result) throws Exception
+	{
+		//Don't do anything if the response data is not set
+		if(result.bytes == null)
+			return;
+		
+		//Send the JSON in the binary format accepted by the client
+		BinaryFormat format = result.json ? format(request, response) : null;
+		if(format != null)
+		{
+			sendBinary(response, format, result.encode(format), encoding(route, request, response));
+			return;
+		}
+		
+		//Set the response type
+		response.setContentType(result.contentType);
+		if(result.json)
+			response.setCharacterEncoding(JSON_CHARACTER_ENCODING);
+		
+		//Send not modified if the ETag matches the client ETag
+		if(etag && result.json && ResponseOutput.notModified(request, response, result.hash))
+			return;
+		
+		//Get the content encoding to compress the response with (null if not compressed)
+		String encoding = encoding(route, request, response);
+		
+		//Write the data compressed
+		if(encoding != null && result.bytes.length >= compressionThreshold)
+			writeBytes(response, result.bytes, encoding);
+		
+		//Write the data
+		else
+		{
+			response.setContentLength(result.bytes.length);
+			response.getOutputStream().write(result.bytes);
+		}
+	}
+	
+	/**
+	 * Serialize the data returned by a route to the bytes sent as the response.
+	 * @param route
+	 * @param data
+	 * @return
+	 * @throws Exception
+	 */
+	private static SerializedResult serialize(Route route, Object data) throws Exception
+	{
+		//No data
+		if(data == null)
+			return new SerializedResult(null, null, false);
+		
+		//Binary data
+		if(data instanceof byte[])
+			return new SerializedResult((byte[]) data, BINARY_CONTENT_TYPE, false);
+		
+		//The binary data and streams that can't be serialized
+		if(binary(data.getClass()) || streamed(data.getClass()))
+			throw new Exception("Unrecognised route return type " + data.getClass().getCanonicalName());
+		
+		//Get the data as JSON
+		JsonElement element = toJson(data);
+		
+		//Create the output stream
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		//Write the JSON
+		if(element != null)
+			JsonStreams.write(element, out);
+		
+		//Write the JSON with the type adapter (POJO, list, map)
+		else JsonStreams.write(resultAdapter(route, data), data, out);
+		
+		//Return the result
+		return new SerializedResult(out.toByteArray(), JSON_CONTENT_TYPE, true);
+	}
+	
+	/**
+	 * Get the data returned by a route as JSON.
+	 * <p>
+	 * Returns null if the data can't be sent as JSON.
+	 * </p>
+	 * @param data
+	 * @return
+	 */
+	private static JsonElement toJson(Object data)
+	{
+		//JSON
+		if(data instanceof JsonElement) return (JsonElement) data;
+		
+		//Primitives
+		if(data instanceof String) return new JsonPrimitive((String) data);
+		if(data instanceof Number) return new JsonPrimitive((Number) data);
+		if(data instanceof Date) return new JsonPrimitive(((Date) data).getTime());
+		if(data instanceof Boolean) return new JsonPrimitive((Boolean) data);
+		
+		//Not JSON
+		return null;
+	}
+	
+	/**
+	 * Write the JSON to the response output stream.
+	 * <p>
+	 * The JSON is streamed to the response (not created as a string first) using a pooled buffer,
+	 * see the response output class.
+	 * </p>
+	 * @param request the request to check the ETag against (null if no ETag should be created)
+	 * @param response
+	 * @param element
+	 * @param encoding
+	 * @throws Exception
+	 */
+	private void writeJson(HttpServletRequest request, HttpServletResponse response, JsonElement element, String encoding) throws Exception
+	{
+		//Create the output
+		ResponseOutput output = new ResponseOutput(response, encoding, compressionThreshold, compressionLevel);
+		
+		//Create the ETag from the JSON (if it fits in the buffer)
+		if(request != null)
+			output.setETagRequest(request);
+		
+		//Try to write the JSON
+		try {JsonStreams.write(element, output);}
+		
+		//Clean up
+		finally
+		{
+			output.release();
+		}
+	}
+	
+	/**
+	 * Write the object as JSON to the response output stream using the type adapter.
+	 * @param request the request to check the ETag against (null if no ETag should be created)
+	 * @param response
+	 * @param adapter
+	 * @param data
+	 * @param encoding
+	 * @throws Exception
+	 */
+	private void writeObject(HttpServletRequest request, HttpServletResponse response, TypeAdapter<Object> adapter, Object data, String encoding) throws Exception
+	{
+		//Create the output
+		ResponseOutput output = new ResponseOutput(response, encoding, compressionThreshold, compressionLevel);
+		
+		//Create the ETag from the JSON (if it fits in the buffer)
+		if(request != null)
+			output.setETagRequest(request);
+		
+		//Try to write the JSON
+		try {JsonStreams.write(adapter, data, output);}
+		
+		//Clean up
+		finally
+		{
+			output.release();
+		}
+	}
+	
+	/**
+	 * Get the type adapter to write the data returned by the route.
+	 * <p>
+	 * The adapter resolved for the declared return type when the route was created is used, if the 
+	 * return type is not known (e.g. Object) the adapter for the class of the data is used.
+	 * </p>
+	 * @param route
+	 * @param data
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private static TypeAdapter<Object> resultAdapter(Route route, Object data)
+	{
+		//The adapter for the declared return type
+		if(route != null && route.resultAdapter != null)
+			return route.resultAdapter;
+		
+		//The adapter for the class (cached by Gson)
+		return (TypeAdapter<Object>) JsonStreams.GSON.getAdapter(data.getClass());
+	}
+	
+	/**
+	 * Get the hash of the JSON for the data returned by the route if it is known.
+	 * <p>
+	 * The hash is known if the data is a copy of a cached result from the database cache manager
+	 * that the route has not changed. The copy is compared to the cached result (a walk of the 
+	 * elements, no JSON is written), if the route has changed it the hash is created from the 
+	 * JSON that is written.
+	 * </p>
+	 * @param request
+	 * @param data
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private static Long resultHash(HttpServletRequest request, JsonElement data)
+	{
+		//Get the hashes
+		Map<JsonElement, ResultHash> hashes = (Map<JsonElement, ResultHash>) request.getAttribute(HASHES_ATTRIBUTE);
+		
+		//Get the hash of the cached result the data was copied from
+		ResultHash known = hashes == null ? null : hashes.get(data);
+		
+		//Return the hash if the route has not changed the data
+		return known != null && known.result.equals(data) ? known.hash : null;
+	}
+	
+	/**
+	 * Get the map of the known hashes for the JSON elements that can be returned by the route
+	 * of the current request (used to create the ETag without writing the JSON).
+	 * <p>
+	 * Returns null if ETags are not turned on or if not called on the request thread. The map 
+	 * uses the identity of the elements.
+	 * </p>
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<JsonElement, ResultHash> getResultHashes()
+	{
+		//Get the request
+		HttpServletRequest request = RouterFilter.request.get();
+		
+		//Return the hashes
+		return request == null ? null : (Map<JsonElement, ResultHash>) request.getAttribute(HASHES_ATTRIBUTE);
+	}
+	
+	/**
+	 * Write the bytes to the response output stream compressed.
+	 * @param response
+	 * @param bytes
+	 * @param encoding
+	 * @throws Exception
+	 */
+	private void writeBytes(HttpServletResponse response, byte[] bytes, String encoding) throws Exception
+	{
+		//Create the output
+		ResponseOutput output = new ResponseOutput(response, encoding, compressionThreshold, compressionLevel);
+		
+		//Try to write the bytes
+		try
+		{
+			output.write(bytes);
+			output.close();
+		}
+		
+		//Clean up
+		finally
+		{
+			output.release();
+		}
+	}
+	
+	/**
+	 * Send the JSON element in the binary format.
+	 * @param response
+	 * @param format
+	 * @param element
+	 * @param encoding
+	 * @throws Exception
+	 */
+	private void sendBinary(HttpServletResponse response, BinaryFormat format, JsonElement element, String encoding) throws Exception
+	{
+		sendBinary(response, format, format.encode(element), encoding);
+	}
+	
+	/**
+	 * Send the bytes encoded in the binary format.
+	 * @param response
+	 * @param format
+	 * @param bytes
+	 * @param encoding
+	 * @throws Exception
+	 */
+	private void sendBinary(HttpServletResponse response, BinaryFormat format, byte[] bytes, String encoding) throws Exception
+	{
+		//Set the response type
+		response.setContentType(format.contentType);
+		
+		//Write the data compressed
+		if(encoding != null && bytes.length >= compressionThreshold)
+			writeBytes(response, bytes, encoding);
+		
+		//Write the data
+		else
+		{
+			response.setContentLength(bytes.length);
+			response.getOutputStream().write(bytes);
+		}
+	}
+	
+	/**
+	 * Get the binary format to send the response in.
+	 * <p>
+	 * Returns CBOR or MessagePack if accepted by the client with a higher quality than JSON,
+	 * otherwise null.
+	 * </p>
+	 * @param request
+	 * @param response
+	 * @return
+	 */
+	private static BinaryFormat format(HttpServletRequest request, HttpServletResponse response)
+	{
+		//The response depends on the accepted type
+		response.addHeader("Vary", "Accept");
+		
+		//Return the format
+		return BinaryFormat.accepted(request.getHeader("Accept"));
+	}
+	
+	/**
+	 * Get the content encoding to compress the response with.
+	 * <p>
+	 * Returns gzip or deflate if compression is turned on for the route and accepted by the client,
+	 * otherwise null. Gzip is preferred if both are accepted.
+	 * </p>
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @return
+	 */
+	private String encoding(Route route, HttpServletRequest request, HttpServletResponse response)
+	{
+		//Compression is not turned on
+		if(!compression || (route != null && !route.compress))
+			return null;
+		
+		//The response depends on the accepted encoding
+		response.addHeader("Vary", "Accept-Encoding");
+		
+		//Get the accepted encodings
+		String accept = request.getHeader("Accept-Encoding");
+		
+		//No encodings accepted
+		if(accept == null)
+			return null;
+		
+		//Check the accepted encodings
+		boolean gzip = false;
+		boolean deflate = false;
+		for(String item : accept.split(","))
+		{
+			//Get the encoding and the quality
+			String[] split = item.split(";");
+			String name = split[0].trim().toLowerCase();
+			
+			//Don't use encodings with quality 0
+			if(split.length > 1 && ZERO_QUALITY.matcher(split[1]).matches())
+				continue;
+			
+			//Set the accepted encodings
+			if("gzip".equals(name) || "x-gzip".equals(name) || "*".equals(name)) gzip = true;
+			else if("deflate".equals(name)) deflate = true;
+		}
+		
+		//Return the encoding
+		return gzip ? "gzip" : deflate ? "deflate" : null;
+	}
+	
+	/**
+	 * Send the data as the response when the asynchronous route completes.
+	 * <p>
+	 * The request is put in asynchronous mode so the container thread is released while the
+	 * route is running.
+	 * </p>
+	 * @param path
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @param stage
+	 * @throws Exception
+	 */
+	private void sendAsync(String path, Route route, HttpServletRequest request, HttpServletResponse response, CompletionStage<?> stage, long started) throws Exception
+	{
+		//Start the asynchronous request (the route has already been invoked)
+		AsyncRoute async = new AsyncRoute(path, route, request, response);
+		async.begin();
+		
+		//Set the time the route was invoked
+		async.started = started;
+		
+		//Set the stage (cancelled on timeout)
+		if(stage instanceof Future)
+			async.task = (Future<?>) stage;
+		
+		//Send the data when the route completes
+		stage.whenComplete(async);
+	}
+	
+	/**
+	 * Invoke the route on the executor and send the data as the response when done.
+	 * <p>
+	 * The request is put in asynchronous mode so the container thread is released while the
+	 * route is running on the executor. The thread local fields (including the JSON) are set on 
+	 * the executor thread while the route is invoked. If the executor rejects the route (saturated
+	 * or shut down) 503 service unavailable is sent and the request is completed.
+	 * </p>
+	 * @param path
+	 * @param route
+	 * @param request
+	 * @param response
+	 * @throws Exception
+	 */
+	private void dispatch(final String path, final Route route, final HttpServletRequest request, final HttpServletResponse response) throws Exception
+	{
+		//Start the asynchronous request
+		final AsyncRoute async = new AsyncRoute(path, route, request, response);
+		
+		//Try to invoke the route on the executor
+		try
+		{
+			async.task = executor.submit(new Runnable()
+			{
+				public void run()
+				{
+					//The request timed out or failed before the route was invoked
+					if(!async.begin())
+						return;
+					
+					//Set the thread local fields
+					RouterFilter.request.set(request);
+					RouterFilter.response.set(response);
+					JsonFilter.setBody(JsonFilter.getBody(request));
+					
+					//Set the time the route is invoked
+					async.started = System.nanoTime();
+					
+					//Try to invoke the route
+					try
+					{
+						//Invoke the route
+						Object data = invoke(path, route, request, response);
+						
+						//Send the data when the asynchronous route completes
+						if(data instanceof CompletionStage)
+							((CompletionStage<?>) data).whenComplete(async);
+						
+						//Send the data
+						else async.accept(data, null);
+					}
+					
+					//Failed
+					catch(Exception ex)
+					{
+						async.accept(null, ex);
+					}
+					
+					//Clean up
+					finally
+					{
+						RouterFilter.request.set(null);
+						RouterFilter.response.set(null);
+						JsonFilter.setJson(null);
+					}
+				}
+			});
+		}
+		
+		//The executor rejected the route (the route is never invoked)
+		catch(RejectedExecutionException ex)
+		{
+			context.log("Route for path " + path + " rejected by the executor", ex);
+			async.reject();
+		}
+	}
+	
+	/*
+	 * Destroy the filter.
+	 * (non-Javadoc)
+	 * @see javax.servlet.Filter#destroy()
+	 */
+	@Override
+	public void destroy() 
+	{
+		//Shut down the executor
+		if(executor != null)
+			executor.shutdown();
+		
+		//Shut down the batch executor
+		if(batchExecutor != null)
+			batchExecutor.shutdown();
+		
+		//End the pooled deflaters
+		ResponseOutput.GZIP_DEFLATERS.clear();
+		ResponseOutput.ZLIB_DEFLATERS.clear();
+	}
+	
+	/**
+	 * Get the request (for the current request thread).
+	 * @return
+	 */
+	public static HttpServletRequest getRequest()
+	{
+		return request.get();
+	}
+	
+	/**
+	 * Get the response (for the current request thread).
+	 * @return
+	 */
+	public static HttpServletResponse getResponse()
+	{
+		return response.get();
+	}	
+	
+	/**
+	 * Scan for the routes.
+	 * <p>
+	 * The classes and libraries that has a route index (created by the route processor) are not
+	 * scanned, the classes and methods are read from the index and added to the indexed map.
+	 * </p>
+	 * <p>
+	 * The classes and libraries without an index are scanned in parallel, the result of the scan
+	 * is saved to the scan cache file keyed by the checksum of the classes directory or library so 
+	 * an unchanged class directory or library is not scanned again on the next start. 
+	 * </p>
+	 * @param config
+	 * @param indexed
+	 * @param pool
+	 * @return
+	 * @throws Exception
+	 */
+	private static Set<String> scanRoutes(FilterConfig config, Map<String, List<String[]>> indexed, ExecutorService pool) throws Exception
+	{
+		//Try to scan for routes
+		try
+		{			
+			//Get the URL
+			URL urlClasses = WarUrlFinder.findWebInfClassesPath(config.getServletContext());
+			URL[] urlLib = WarUrlFinder.findWebInfLibClasspaths(config.getServletContext());
+			
+			//Could not find the URL
+			if(urlClasses == null)
+				return new HashSet<String>();
+			
+			//Set the libraries to scan
+			String[] libraries = config.getInitParameter("scan-library") != null ? config.getInitParameter("scan-library").split(";") : new String[0];
+			
+			//Create empty list for URLs
+			List<URL> list = new ArrayList<URL>();
+			
+			//Add urlClasses
+			list.add(urlClasses);
+
+			//Search library
+			for(URL url : urlLib)
+			{
+				for(String library : libraries)
+				{
+					//Get name of file
+					String name = url.getFile().substring(url.getFile().lastIndexOf("/") +1);
+					
+					//Add to list if name matches library
+					if(library.toLowerCase().equals(name.toLowerCase()))
+						list.add(url);
+				}
+				
+			}
+			
+			//Create the set to hold the classes
+			Set<String> classes = new HashSet<String>();
+			
+			//Create the list of URLs that does not have an index
+			List<URL> scan = new ArrayList<URL>();
+			
+			//Read the indexes
+			for(URL url : list)
+			{
+				//Read the index
+				List<String[]> lines = readIndex(url);
+				
+				//Scan the URL if the index is not set
+				if(lines == null)
+				{
+					scan.add(url);
+					continue;
+				}
+				
+				//Add the indexed classes and methods
+				for(String[] line : lines)
+				{
+					//Add the class
+					classes.add(line[0]);
+					
+					//Add the method
+					if(!indexed.containsKey(line[0]))
+						indexed.put(line[0], new ArrayList<String[]>());
+					indexed.get(line[0]).add(line);
+				}
+			}
+			
+			//Everything was indexed
+			if(scan.isEmpty())
+				return classes;
+			
+			//Get the scan cache file
+			File cacheFile = scanCacheFile(config);
+			
+			//Read the scan cache <String=checksum, Set<String>=classes>
+			final Map<String, Set<String>> cache = readScanCache(cacheFile);
+			
+			//Create the scan tasks
+			List<Callable<Object[]>> tasks = new ArrayList<Callable<Object[]>>(scan.size());
+			for(final URL url : scan)
+			{
+				tasks.add(new Callable<Object[]>()
+				{
+					public Object[] call() throws Exception
+					{
+						//Get the checksum 
+						String checksum = checksum(url);
+						
+						//Get the cached classes
+						Set<String> scanned = checksum == null ? null : cache.get(checksum);
+						
+						//Scan the URL if not in the cache
+						if(scanned == null)
+						{
+							//Create the annotation database
+							AnnotationDB database = new AnnotationDB();
+							
+							//Scan the URL
+							database.scanArchives(url);
+							
+							//Get the classes marked with the controller annotation
+							scanned = database.getAnnotationIndex().get(com.katujo.web.utils.Route.class.getCanonicalName());
+							
+							//Set to empty if not set
+							if(scanned == null)
+								scanned = new HashSet<String>();
+						}
+						
+						//Return the checksum and the classes
+						return new Object[]{checksum, scanned};
+					}
+				});
+			}
+			
+			//Create the scan cache to save <String=checksum, Set<String>=classes>
+			Map<String, Set<String>> save = new HashMap<String, Set<String>>();
+			
+			//Scan the URLs in parallel and add the classes
+			for(Future<Object[]> future : pool.invokeAll(tasks))
+			{
+				//Get the result
+				Object[] result = result(future);
+				
+				//Add the classes
+				@SuppressWarnings("unchecked")
+				Set<String> scanned = (Set<String>) result[1];
+				classes.addAll(scanned);
+				
+				//Add the classes to the cache
+				if(result[0] != null)
+					save.put((String) result[0], scanned);
+			}
+			
+			//Save the scan cache if it has changed
+			if(!save.equals(cache))
+				writeScanCache(cacheFile, save);
+			
+			//Return the classes
+			return classes;			
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to scan for routes", ex);
+		}
+	}
+	
+	/**
+	 * Read the route index in the classes directory or library.
+	 * <p>
+	 * Returns null if the index is not set.
+	 * </p>
+	 * @param url
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<String[]> readIndex(URL url) throws Exception
+	{
+		//Fields
+		BufferedReader reader = null;
+		
+		//Try to read the index
+		try
+		{
+			//Create the URL to the index
+			URL index = url.getFile().endsWith("/") ? new URL(url, RouteProcessor.INDEX) : new URL("jar:" + url.toExternalForm() + "!/" + RouteProcessor.INDEX);
+			
+			//Open the connection (not cached to not lock the library file)
+			URLConnection connection = index.openConnection();
+			connection.setUseCaches(false);
+			
+			//Create the reader
+			reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+			
+			//Create the list
+			List<String[]> lines = new ArrayList<String[]>();
+			
+			//Read the lines <class, method, parameter types>
+			for(String line = reader.readLine(); line != null; line = reader.readLine())
+				if(!line.trim().equals(""))
+					lines.add(line.split("\t", -1));
+			
+			//Return the lines
+			return lines;
+		}
+		
+		//The index is not set
+		catch(FileNotFoundException ex)
+		{
+			return null;
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to read the route index for " + url, ex);
+		}
+		
+		//Clean up
+		finally
+		{
+			try {reader.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Get the route methods from the lines read from the route index.
+	 * @param routeClass
+	 * @param lines
+	 * @return
+	 * @throws Exception
+	 */
+	private static List<Method> indexedMethods(Class<?> routeClass, List<String[]> lines) throws Exception
+	{
+		//Create the list
+		List<Method> methods = new ArrayList<Method>(lines.size());
+		
+		//Get the methods
+		for(String[] line : lines)
+		{
+			//Get the parameter type names
+			String[] names = line[2].isEmpty() ? new String[0] : line[2].split(",");
+			
+			//Create the parameter types
+			Class<?>[] types = new Class<?>[names.length];
+			
+			//Get the parameter types
+			for(int i=0; i<names.length; i++)
+				types[i] = indexedType(names[i], routeClass.getClassLoader());
+			
+			//Add the method
+			try {methods.add(routeClass.getMethod(line[1], types));}
+			
+			//The index is not in sync with the class
+			catch(NoSuchMethodException ex)
+			{
+				throw new Exception("The route index does not match the class " + routeClass.getName() + " (method " + line[1] + "), rebuild the project", ex);
+			}
+		}
+		
+		//Return the methods
+		return methods;
+	}
+	
+	/**
+	 * Get the class for a type name in the route index.
+	 * @param name
+	 * @param loader
+	 * @return
+	 * @throws Exception
+	 */
+	private static Class<?> indexedType(String name, ClassLoader loader) throws Exception
+	{
+		//Array
+		if(name.endsWith("[]"))
+			return java.lang.reflect.Array.newInstance(indexedType(name.substring(0, name.length() - 2), loader), 0).getClass();
+		
+		//Primitives
+		if("boolean".equals(name)) return boolean.class;
+		if("byte".equals(name)) return byte.class;
+		if("char".equals(name)) return char.class;
+		if("short".equals(name)) return short.class;
+		if("int".equals(name)) return int.class;
+		if("long".equals(name)) return long.class;
+		if("float".equals(name)) return float.class;
+		if("double".equals(name)) return double.class;
+		
+		//Class
+		return Class.forName(name, false, loader);
+	}
+	
+	/**
+	 * Get the scan cache file.
+	 * <p>
+	 * The file is set with the scan-cache init parameter, if not set the file is created in the
+	 * temporary directory of the servlet context. Set scan-cache to none to not use a cache.
+	 * </p>
+	 * @param config
+	 * @return
+	 */
+	private static File scanCacheFile(FilterConfig config)
+	{
+		//Get the file set in the web.xml
+		String path = config.getInitParameter("scan-cache");
+		
+		//The cache is turned off
+		if("none".equals(path))
+			return null;
+		
+		//Use the file set in the web.xml
+		if(path != null)
+			return new File(path);
+		
+		//Get the temporary directory
+		Object directory = config.getServletContext().getAttribute("javax.servlet.context.tempdir");
+		
+		//Use the temporary directory
+		if(directory instanceof File)
+			return new File((File) directory, "katujo-web-utils-routes.cache");
+		
+		//No cache
+		return null;
+	}
+	
+	/**
+	 * Read the scan cache.
+	 * <p>
+	 * Returns an empty map if the cache could not be read.
+	 * </p>
+	 * @param file
+	 * @return
+	 */
+	private static Map<String, Set<String>> readScanCache(File file)
+	{
+		//Create the cache <String=checksum, Set<String>=classes>
+		Map<String, Set<String>> cache = new HashMap<String, Set<String>>();
+		
+		//No cache
+		if(file == null || !file.isFile())
+			return cache;
+		
+		//Fields
+		BufferedReader reader = null;
+		
+		//Try to read the cache
+		try
+		{
+			//Create the reader
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			
+			//Read the lines <checksum, classes>
+			for(String line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				//Split the line
+				String[] split = line.split("\\t", -1);
+				
+				//Create the set of classes
+				Set<String> classes = new HashSet<String>();
+				for(String clazz : split[1].split(";"))
+					if(!clazz.isEmpty())
+						classes.add(clazz);
+				
+				//Add the classes
+				cache.put(split[0], classes);
+			}
+			
+			//Return the cache
+			return cache;
+		}
+		
+		//Ignore a broken cache (everything will be scanned)
+		catch(Exception ex)
+		{
+			return new HashMap<String, Set<String>>();
+		}
+		
+		//Clean up
+		finally
+		{
+			try {reader.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Write the scan cache.
+	 * <p>
+	 * The scan cache is only an optimisation so failing to write it does not fail the init.
+	 * </p>
+	 * @param file
+	 * @param cache
+	 */
+	private static void writeScanCache(File file, Map<String, Set<String>> cache)
+	{
+		//No cache
+		if(file == null)
+			return;
+		
+		//Fields
+		Writer writer = null;
+		
+		//Try to write the cache
+		try
+		{
+			//Create the temporary file (renamed when written so a partial cache is never read)
+			File temp = new File(file.getPath() + ".tmp");
+			
+			//Create the writer
+			writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+			
+			//Write the lines <checksum, classes>
+			for(String checksum : cache.keySet())
+			{
+				//Write the checksum
+				writer.write(checksum);
+				writer.write('\t');
+				
+				//Write the classes
+				for(String clazz : cache.get(checksum))
+				{
+					writer.write(clazz);
+					writer.write(';');
+				}
+				
+				//End the line
+				writer.write('\n');
+			}
+			
+			//Close the writer
+			writer.close();
+			
+			//Replace the cache file
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		
+		//Ignore, the scan will be done again on the next start
+		catch(Exception ex) {}
+		
+		//Clean up
+		finally
+		{
+			try {writer.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Create the checksum for a classes directory or a library.
+	 * <p>
+	 * A library checksum is the CRC32 of the file content, a directory checksum is the CRC32 of
+	 * the name, size and modified time of every file in the directory. Returns null if the URL
+	 * is not a local file (it will be scanned but not cached).
+	 * </p>
+	 * @param url
+	 * @return
+	 * @throws Exception
+	 */
+	private static String checksum(URL url) throws Exception
+	{
+		//Only local files has a checksum
+		if(!"file".equals(url.getProtocol()))
+			return null;
+		
+		//Get the file
+		File file = new File(url.toURI());
+		
+		//Create the checksum
+		CRC32 crc = new CRC32();
+		
+		//Add the directory listing to the checksum
+		if(file.isDirectory())
+			return "D" + Long.toHexString(checksum(file, "", crc).getValue()) + "-" + file.getPath();
+		
+		//Fields
+		InputStream input = null;
+		
+		//Add the file content to the checksum
+		try
+		{
+			//Open the file
+			input = new FileInputStream(file);
+			
+			//Read the file
+			byte[] buffer = new byte[64 * 1024];
+			for(int read = input.read(buffer); read != -1; read = input.read(buffer))
+				crc.update(buffer, 0, read);
+			
+			//Return the checksum
+			return "F" + Long.toHexString(crc.getValue()) + "-" + file.length();
+		}
+		
+		//Clean up
+		finally
+		{
+			try {input.close();} catch(Throwable t) {}
+		}
+	}
+	
+	/**
+	 * Add the name, size and modified time of the files in the directory to the checksum.
+	 * @param directory
+	 * @param prefix
+	 * @param crc
+	 * @return
+	 * @throws Exception
+	 */
+	private static CRC32 checksum(File directory, String prefix, CRC32 crc) throws Exception
+	{
+		//Get the files (sorted so the checksum does not depend on the listing order)
+		File[] files = directory.listFiles();
+		if(files == null) return crc;
+		Arrays.sort(files);
+		
+		//Add the files
+		for(File file : files)
+		{
+			//Add the sub directory
+			if(file.isDirectory())
+				checksum(file, prefix + file.getName() + "/", crc);
+			
+			//Add the file
+			else crc.update((prefix + file.getName() + ":" + file.length() + ":" + file.lastModified() + "\n").getBytes("UTF-8"));
+		}
+		
+		//Return the checksum
+		return crc;
+	}
+	
+	/**
+	 * Create the pool used to scan and create the routes in parallel.
+	 * <p>
+	 * The worker threads get the context class loader of the thread running the init (the web
+	 * application class loader) so route constructors that look up JNDI resources or use the 
+	 * ServiceLoader work as they do when created on the init thread.
+	 * </p>
+	 * @return
+	 */
+	private static ForkJoinPool initPool()
+	{
+		//Get the context class loader of the init thread
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		
+		//Create the pool
+		return new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory()
+		{
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+			{
+				//Create the worker with the class loader
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setContextClassLoader(loader);
+				return thread;
+			}
+		}, null, false);
+	}
+	
+	/**
+	 * Resolve the route classes and create the instances in parallel.
+	 * <p>
+	 * Classes that does not match any of the base packages are not in the returned map.
+	 * </p>
+	 * @param classes
+	 * @param basePackages
+	 * @param pool
+	 * @return
+	 * @throws Exception
+	 */
+	private static Map<String, Object> createInstances(Set<String> classes, final String[] basePackages, ExecutorService pool) throws Exception
+	{
+		//Create the list of classes (the order of the tasks)
+		List<String> list = new ArrayList<String>(classes);
+		
+		//Create the tasks
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(list.size());
+		for(final String clazz : list)
+		{
+			tasks.add(new Callable<Object>()
+			{
+				public Object call() throws Exception
+				{
+					//Get the routes class
+					Class<?> routeClass = Class.forName(clazz);
+					
+					//Route does not match any of the base packages
+					if(routeBase(routeClass, basePackages) == null)
+						return null;
+					
+					//Create an instance of the route
+					return routeClass.getConstructor().newInstance();
+				}
+			});
+		}
+		
+		//Create the map <String=class, Object=instance>
+		Map<String, Object> instances = new HashMap<String, Object>();
+		
+		//Run the tasks and add the instances
+		List<Future<Object>> futures = pool.invokeAll(tasks);
+		for(int i=0; i<tasks.size(); i++)
+		{
+			Object instance = result(futures.get(i));
+			if(instance != null)
+				instances.put(list.get(i), instance);
+		}
+		
+		//Return the instances
+		return instances;
+	}
+	
+	/**
+	 * Get the base path for the route class.
+	 * <p>
+	 * Returns null if the route class does not match any of the base packages.
+	 * </p>
+	 * @param routeClass
+	 * @param basePackages
+	 * @return
+	 */
+	private static String routeBase(Class<?> routeClass, String[] basePackages)
+	{
+		//Get the package name
+		String routePackage = routeClass.getPackage().getName();
+		
+		//Create the base path
+		String base = routePackage;
+
+		//Set base
+		if(basePackages != null && basePackages.length != 0)
+		{
+			//Found
+			boolean found = false;
+			
+			//Check every base package
+			for(String basePack : basePackages)
+			{
+				//Check if the package match the base package
+				if(routePackage.startsWith(basePack))
+				{
+					//Set base
+					base = routePackage.substring(basePack.length()).replace('.', '/') + "/";
+					
+					//Set found
+					found = true;
+				}						
+			}
+			
+			//Route does not match any of the base packages
+			if(!found)
+				return null;
+		}
+		
+		//Return the base
+		return base;
+	}
+	
+	/**
+	 * Get the result of a task run on the pool (unwrapping the task exception).
+	 * @param future
+	 * @return
+	 * @throws Exception
+	 */
+	private static <T> T result(Future<T> future) throws Exception
+	{
+		//Try to get the result
+		try {return future.get();}
+		
+		//The task failed
+		catch(ExecutionException ex)
+		{
+			if(ex.getCause() instanceof Exception) throw (Exception) ex.getCause();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Read the routes from the web.xml file.
+	 * @param config
+	 * @return
+	 * @throws Exception
+	 */
+	private static Set<String> webXmlRoutes(FilterConfig config) throws Exception
 	{
-		return response.get();
-	}	
+		//Try to read the routes from the web.xml file
+		try
+		{
+			//Get the routes
+			String routes = config.getInitParameter("routes");
+			
+			//Check if routes is set
+			if(routes == null)
+				return new HashSet<String>();
+			
+			//Split the routes
+			String[] split = routes.split(";");
+			
+			//Create the set
+			Set<String> classes = new HashSet<String>();
+			
+			//Add the classes
+			for(String item : split)
+				if(!item.trim().equals(""))
+					classes.add(item.trim());
+			
+			//Return the set
+			return classes;			
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to read web.xml routes", ex);
+		}
+	}
 	
 	/**
-	 * Scan for the routes.
+	 * Read the bulkhead limits from the web.xml file (path=limit[:queue[:queueTimeout]];...).
 	 * @param config
 	 * @return
 	 * @throws Exception
 	 */
-	private static Set<String> scanRoutes(FilterConfig config) throws Exception
+	private static Map<String, ConcurrencyLimit> bulkheads(FilterConfig config) throws Exception
 	{
-		//Try to scan for routes
+		//Try to read the limits from the web.xml file
 		try
-		{			
-			//Get the URL
-			URL urlClasses = WarUrlFinder.findWebInfClassesPath(config.getServletContext());
-			URL[] urlLib = WarUrlFinder.findWebInfLibClasspaths(config.getServletContext());
+		{
+			//Create the map
+			Map<String, ConcurrencyLimit> limits = new HashMap<String, ConcurrencyLimit>();
 			
-			//Could not find the URL
-			if(urlClasses == null)
+			//Get the limits
+			String bulkheads = config.getInitParameter("bulkheads");
+			
+			//Check if the limits are set
+			if(bulkheads == null)
+				return limits;
+			
+			//Add the limits
+			for(String item : bulkheads.split(";"))
+				if(!item.trim().equals(""))
+					limits.put(item.substring(0, item.indexOf('=')).trim(), ConcurrencyLimit.parse(item.substring(item.indexOf('=') + 1)));
+			
+			//Return the limits
+			return limits;
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to read web.xml bulkheads", ex);
+		}
+	}
+	
+	/**
+	 * Get the concurrency limit for the route.
+	 * <p>
+	 * The limit set in the web.xml for the path is used first, then the limit for the longest path 
+	 * prefix (ending with /) and last the limit set with the bulkhead annotation. Routes matching 
+	 * the same prefix or with the same group share the limit.
+	 * </p>
+	 * @param path
+	 * @param method
+	 * @param configuredLimits
+	 * @param groupLimits
+	 * @return the limit or null if the route is not limited
+	 * @throws Exception
+	 */
+	private static ConcurrencyLimit concurrencyLimit(String path, Method method, Map<String, ConcurrencyLimit> configuredLimits, Map<String, ConcurrencyLimit> groupLimits) throws Exception
+	{
+		//The limit set for the path
+		if(configuredLimits.containsKey(path))
+			return configuredLimits.get(path);
+		
+		//The limit set for the longest path prefix
+		String prefix = null;
+		for(String key : configuredLimits.keySet())
+			if(key.endsWith("/") && path.startsWith(key) && (prefix == null || key.length() > prefix.length()))
+				prefix = key;
+		
+		//Return the prefix limit
+		if(prefix != null)
+			return configuredLimits.get(prefix);
+		
+		//Not limited
+		if(!method.isAnnotationPresent(Bulkhead.class))
+			return null;
+		
+		//Get the annotation
+		Bulkhead bulkhead = method.getAnnotation(Bulkhead.class);
+		
+		//Create the limit for the route only
+		if("".equals(bulkhead.group()))
+			return new ConcurrencyLimit(bulkhead.value(), bulkhead.queue(), bulkhead.queueTimeout());
+		
+		//Create the limit for the group (the first route in the group sets the limit)
+		if(!groupLimits.containsKey(bulkhead.group()))
+			groupLimits.put(bulkhead.group(), new ConcurrencyLimit(bulkhead.value(), bulkhead.queue(), bulkhead.queueTimeout()));
+		
+		//Return the group limit
+		return groupLimits.get(bulkhead.group());
+	}
+	
+	/**
+	 * Read the routes from the web.xml file.
+	 * @param config
+	 * @return
+	 * @throws Exception
+	 */
+	private static Set<String> maskRequestDataOnError(FilterConfig config) throws Exception
+	{
+		//Try to read the routes from the web.xml file
+		try
+		{
+			//Get the routes
+			String paths = config.getInitParameter("mask-request-data-on-error");
+			
+			//Check if routes is set
+			if(paths == null)
 				return new HashSet<String>();
 			
-			//Set the libraries to scan
-			String[] libraries = config.getInitParameter("scan-library") != null ? config.getInitParameter("scan-library").split(";") : new String[0];
+			//Split the routes
+			String[] split = paths.split(";");
 			
-			//Create the annotation database
-			AnnotationDB database = new AnnotationDB();
+			//Create the set of paths
+			Set<String> set = new HashSet<String>();
 			
-			//Create empty list for URLs
-			List<URL> list = new ArrayList<URL>();
+			//Add the classes
+			for(String item : split)
+				if(!item.trim().equals(""))
+					set.add(item.trim());
+			
+			//Return the set
+			return set;			
+		}
+		
+		//Failed
+		catch(Exception ex)
+		{
+			throw new Exception("Failed to read web.xml mask-request-data-on-error", ex);
+		}
+	}	
+
+	/**
+	 * Resolve the type adapter for the declared return type of the route method.
+	 * <p>
+	 * For asynchronous routes the adapter is resolved for the result type of the CompletionStage.
+	 * Returns null for the types sent without an adapter (JSON, primitives, binary data) and for 
+	 * types that are not known until the route returns (e.g. Object).
+	 * </p>
+	 * @param method
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private static TypeAdapter<Object> resultAdapter(Method method)
+	{
+		//Get the return type
+		Type type = resultType(method);
+		
+		//Get the class
+		Class<?> raw = TypeToken.get(type).getRawType();
+		
+		//The types sent without an adapter
+		if(raw == Object.class || raw == void.class || raw == Void.class || raw.isPrimitive() || raw == String.class || raw == Boolean.class || 
+				JsonElement.class.isAssignableFrom(raw) || Number.class.isAssignableFrom(raw) || Date.class.isAssignableFrom(raw) || binary(raw) || streamed(raw))
+			return null;
+		
+		//Try to resolve the adapter
+		try
+		{
+			return (TypeAdapter<Object>) JsonStreams.GSON.getAdapter(TypeToken.get(type));
+		}
+		
+		//Not supported by Gson (resolved when the route returns)
+		catch(Exception ex)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Get the declared type of the data returned by the route method (the result type for asynchronous routes).
+	 * @param method
+	 * @return
+	 */
+	private static Type resultType(Method method)
+	{
+		//Get the return type
+		Type type = method.getGenericReturnType();
+		
+		//Use the result type of the asynchronous route
+		if(CompletionStage.class.isAssignableFrom(method.getReturnType()))
+			return type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments()[0] : Object.class;
+		
+		//Return the type
+		return type;
+	}
+	
+	/**
+	 * Check if the declared return type of the route method can be serialized (cached or shared).
+	 * <p>
+	 * Streams and binary data other than byte arrays are written to the response as they are read. 
+	 * Types not known until the route returns (e.g. Object) are checked when serialized.
+	 * </p>
+	 * @param method
+	 * @return
+	 */
+	private static boolean serializable(Method method)
+	{
+		//Get the class of the result
+		Class<?> raw = TypeToken.get(resultType(method)).getRawType();
+		
+		//Check the class
+		return raw == byte[].class || !(binary(raw) || streamed(raw));
+	}
+	
+	/**
+	 * Check if the parameter type of the route reads the raw request body.
+	 * @param parameterType
+	 * @return
+	 */
+	private static boolean rawBody(int parameterType)
+	{
+		return parameterType == Route.INPUT_STREAM || parameterType == Route.BYTE_CHANNEL || parameterType == Route.BYTES || parameterType == Route.FILE;
+	}
+	
+	/**
+	 * Get the type of the elements of the iterator parameter (JSON element if not declared).
+	 * @param method
+	 * @return
+	 */
+	private static Type elementType(Method method)
+	{
+		//Get the declared type
+		Type type = method.getGenericParameterTypes()[0];
+		type = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments()[0] : Object.class;
+		
+		//Use the upper bound of a wildcard
+		if(type instanceof WildcardType)
+			type = ((WildcardType) type).getUpperBounds()[0];
+		
+		//Return the type (JSON element for objects and type variables)
+		return type == Object.class || type instanceof TypeVariable ? JsonElement.class : type;
+	}
+	
+	/**
+	 * Check if the type is sent as a stream of elements.
+	 * @param type
+	 * @return
+	 */
+	private static boolean streamed(Class<?> type)
+	{
+		return Iterator.class.isAssignableFrom(type) || BaseStream.class.isAssignableFrom(type) || ResponseStream.class.isAssignableFrom(type);
+	}
+	
+	/**
+	 * Check if the type is sent as binary data.
+	 * @param type
+	 * @return
+	 */
+	private static boolean binary(Class<?> type)
+	{
+		return type == byte[].class || Path.class.isAssignableFrom(type) || File.class.isAssignableFrom(type) || 
+				FileChannel.class.isAssignableFrom(type) || ByteBuffer.class.isAssignableFrom(type) || InputStream.class.isAssignableFrom(type);
+	}
+	
+	/**
+	 * Check if the parameter type is a POJO that the request data can be bound to.
+	 * <p>
+	 * Primitives, arrays, interfaces, abstract classes and the Java, servlet and Gson classes are not
+	 * bound so public methods taking those types are still not added as routes.
+	 * </p>
+	 * @param type
+	 * @return
+	 */
+	private static boolean pojo(Class<?> type)
+	{
+		//Only concrete classes can be created
+		if(type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+			return false;
+		
+		//Don't bind the platform and library classes
+		return !type.getName().startsWith("java.") && !type.getName().startsWith("javax.") && !type.getName().startsWith("com.google.gson.");
+	}
+	
+	/**
+	 * Compile the route method into an invoker.
+	 * <p>
+	 * The invoker reads the route parameter from the request and calls the compiled call to the method,
+	 * without the reflection argument array and without boxing the primitives. 
+	 * </p>
+	 * @param instance
+	 * @param method
+	 * @param parameterType
+	 * @return
+	 * @throws Exception
+	 */
+	private Invoker createInvoker(Object instance, Method method, int parameterType) throws Exception
+	{
+		//Try to create the invoker
+		try
+		{
+			//Create the invoker for a method without parameters
+			if(parameterType == Route.NO_PARAMETER)
+			{
+				//Compile the call
+				final Call0 call = compile(Call0.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call();
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a JSON object parameter
+			else if(parameterType == Route.JSON_OBJECT)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						//Get the request data
+						JsonElement data = body.getJson();
+						
+						return call.call(data == null ? null : data.getAsJsonObject());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a JSON array parameter
+			else if(parameterType == Route.JSON_ARRAY)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						//Get the request data
+						JsonElement data = body.getJson();
+						
+						return call.call(data == null ? null : data.getAsJsonArray());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a JSON element parameter
+			else if(parameterType == Route.JSON_ELEMENT)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.getJson());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a boolean parameter
+			else if(parameterType == Route.PRIMITIVE_BOOLEAN)
+			{
+				//Compile the call
+				final BooleanCall call = compile(BooleanCall.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.getJson().getAsBoolean());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a double parameter
+			else if(parameterType == Route.PRIMITIVE_DOUBLE)
+			{
+				//Compile the call
+				final DoubleCall call = compile(DoubleCall.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.getJson().getAsDouble());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with an integer parameter
+			else if(parameterType == Route.PRIMITIVE_INT)
+			{
+				//Compile the call
+				final IntCall call = compile(IntCall.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.getJson().getAsInt());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a long parameter
+			else if(parameterType == Route.PRIMITIVE_LONG)
+			{
+				//Compile the call
+				final LongCall call = compile(LongCall.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.getJson().getAsLong());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a string parameter
+			else if(parameterType == Route.PRIMITIVE_STRING)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.getJson().getAsString());
+					}
+				};
+			}
+			
+			//Create the invoker for a method with a POJO parameter
+			else if(parameterType == Route.POJO)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Get the type adapter for the parameter (resolved once for the route)
+				final TypeAdapter<?> adapter = JsonStreams.GSON.getAdapter(TypeToken.get(method.getGenericParameterTypes()[0]));
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.read(adapter));
+					}
+				};
+			}
 			
-			//Add urlClasses
-			list.add(urlClasses);
-
-			//Search library
-			for(URL url : urlLib)
+			//Create the invoker for a method with an iterator of the request data elements
+			else if(parameterType == Route.ELEMENTS)
 			{
-				for(String library : libraries)
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Get the type adapter for the elements (resolved once for the route)
+				final TypeAdapter<?> adapter = JsonStreams.GSON.getAdapter(TypeToken.get(elementType(method)));
+				
+				//Create the invoker
+				return new Invoker()
 				{
-					//Get name of file
-					String name = url.getFile().substring(url.getFile().lastIndexOf("/") +1);
-					
-					//Add to list if name matches library
-					if(library.toLowerCase().equals(name.toLowerCase()))
-						list.add(url);
-				}
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(body.elements(adapter));
+					}
+				};
+			}
+			
+			//Create the invoker for a method with an input stream to the raw request body
+			else if(parameterType == Route.INPUT_STREAM)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
 				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(RequestBody.open(request, maxUploadSize));
+					}
+				};
 			}
 			
-			//Create array
-			URL[] allUrls = new URL[list.size()];
+			//Create the invoker for a method with a channel to the raw request body
+			else if(parameterType == Route.BYTE_CHANNEL)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(Channels.newChannel(RequestBody.open(request, maxUploadSize)));
+					}
+				};
+			}
 			
-			//Fill array
-			for(int i = 0; i < list.size(); i++)
-				allUrls[i] = list.get(i);
+			//Create the invoker for a method with the raw request body bytes
+			else if(parameterType == Route.BYTES)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(RequestBody.readBytes(request, maxUploadSize));
+					}
+				};
+			}
 			
-			//Scan the URL
-			database.scanArchives(allUrls);
+			//Create the invoker for a method with the raw request body saved to a temporary file
+			else if(parameterType == Route.FILE)
+			{
+				//Compile the call
+				final Call1 call = compile(Call1.class, instance, method);
+				
+				//Get the flag if the parameter is a file (otherwise a path)
+				final boolean file = method.getParameterTypes()[0] == File.class;
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						//Save the body to the file
+						final Path upload = RequestBody.saveToFile(request, maxUploadSize, uploadDirectory);
+						
+						//Fields
+						boolean asynchronous = false;
+						
+						//Try to invoke the route
+						try
+						{
+							//Invoke the route
+							Object data = call.call(file ? (Object) upload.toFile() : (Object) upload);
+							
+							//Delete the file when the asynchronous route completes
+							if(data instanceof CompletionStage)
+							{
+								((CompletionStage<?>) data).whenComplete(new BiConsumer<Object, Throwable>()
+								{
+									public void accept(Object result, Throwable error)
+									{
+										try {Files.deleteIfExists(upload);} catch(Throwable t) {}
+									}
+								});
+								asynchronous = true;
+							}
+							
+							//Return the data
+							return data;
+						}
+						
+						//Delete the file
+						finally
+						{
+							if(!asynchronous)
+								try {Files.deleteIfExists(upload);} catch(Throwable t) {}
+						}
+					}
+				};
+			}
 			
-			//Get the classes marked with the controller annotation
-			Set<String> classes = database.getAnnotationIndex().get(com.katujo.web.utils.Route.class.getCanonicalName());
+			//Create the invoker for a method with parameters bound by name
+			else if(parameterType == Route.BOUND)
+			{
+				//Adapt the handle to take the parameter values as an array (spreading can't be done by a spun class)
+				final Call1 call = new HandleCall(MethodHandles.publicLookup().unreflect(method).bindTo(instance)
+						.asSpreader(Object[].class, method.getParameterCount()).asType(MethodType.methodType(Object.class, Object.class)));
+				
+				//Create the binding plan
+				final BindingPlan plan = new BindingPlan(method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(plan.bind(body.getJson(), request, response));
+					}
+				};
+			}
 			
-			//Return empty if not set
-			if(classes == null)
-				return new HashSet<String>();
+			//Create the invoker for a method with the request and response parameters
+			else if(parameterType == Route.REQUEST_RESPONSE)
+			{
+				//Compile the call
+				final Call2 call = compile(Call2.class, instance, method);
+				
+				//Create the invoker
+				return new Invoker()
+				{
+					public Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable
+					{
+						return call.call(request, response);
+					}
+				};
+			}
 			
-			//Return the classes
-			return classes;			
+			//The parameter type has not been implemented yet
+			else throw new Exception("The parameter type " + parameterType + " has not been implemented");
 		}
 		
 		//Failed
-		catch(Exception ex)
+		catch(Throwable t)
 		{
-			throw new Exception("Failed to scan for routes", ex);
+			throw new Exception("Failed to create invoker for method " + method.getName() + " on " + method.getDeclaringClass().getName(), t);
 		}
 	}
 	
 	/**
-	 * Read the routes from the web.xml file.
-	 * @param config
+	 * Compile the call to the route method bound to the instance.
+	 * <p>
+	 * A class that calls the method directly is spun with the lambda metafactory so the call in
+	 * the class has a single target that the JIT can inline. Methods that return void and methods 
+	 * with types that can't be loaded from the class loader of the filter (the spun class is defined 
+	 * there) are called through a method handle instead. 
+	 * </p>
+	 * @param type
+	 * @param instance
+	 * @param method
 	 * @return
-	 * @throws Exception
+	 * @throws Throwable
 	 */
-	private static Set<String> webXmlRoutes(FilterConfig config) throws Exception
+	private static <T> T compile(Class<T> type, Object instance, Method method) throws Throwable
 	{
-		//Try to read the routes from the web.xml file
-		try
+		//Get the type of the call method (the only method on the interface)
+		MethodType call = MethodType.methodType(Object.class, type.getMethods()[0].getParameterTypes());
+		
+		//Get the method handle
+		MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+		
+		//Spin the class that calls the method
+		if(method.getReturnType() != void.class && visible(method))
 		{
-			//Get the routes
-			String routes = config.getInitParameter("routes");
-			
-			//Check if routes is set
-			if(routes == null)
-				return new HashSet<String>();
+			//The parameter types the method is called with (primitives are boxed for wrapper parameters)
+			Class<?>[] parameters = method.getParameterTypes();
+			for(int i=0; i<parameters.length; i++)
+				if(call.parameterType(i).isPrimitive())
+					parameters[i] = call.parameterType(i);
 			
-			//Split the routes
-			String[] split = routes.split(";");
+			//Create the call site
+			CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), "call", MethodType.methodType(type, method.getDeclaringClass()), 
+					call, handle, MethodType.methodType(Object.class, parameters));
 			
-			//Create the set
-			Set<String> classes = new HashSet<String>();
+			//Create the call bound to the instance
+			return type.cast(site.getTarget().invoke(instance));
+		}
+		
+		//Call through the method handle
+		return type.cast(new HandleCall(handle.bindTo(instance).asType(call)));
+	}
+	
+	/**
+	 * Check if the class loader of the filter loads the same classes as the route method uses.
+	 * @param method
+	 * @return
+	 */
+	private static boolean visible(Method method)
+	{
+		//Get the types the method uses
+		List<Class<?>> types = new ArrayList<>(Arrays.asList(method.getParameterTypes()));
+		types.add(method.getReturnType());
+		types.add(method.getDeclaringClass());
+		
+		//Check the types
+		for(Class<?> type : types)
+		{
+			//Get the component type of arrays
+			while(type.isArray())
+				type = type.getComponentType();
 			
-			//Add the classes
-			for(String item : split)
-				if(!item.trim().equals(""))
-					classes.add(item.trim());
+			//Primitives are always visible
+			if(type.isPrimitive())
+				continue;
 			
-			//Return the set
-			return classes;			
+			//Check that the same class is loaded
+			try
+			{
+				if(Class.forName(type.getName(), false, RouterFilter.class.getClassLoader()) != type)
+					return false;
+			}
+			catch(ClassNotFoundException ex)
+			{
+				return false;
+			}
 		}
 		
-		//Failed
-		catch(Exception ex)
+		//All the types are visible
+		return true;
+	}
+	
+	/*
+	 * The known hash of a cached result that a copy returned by the route was made from.
+	 */
+	static class ResultHash
+	{
+		//Fields
+		private final JsonElement result;
+		private final long hash;
+		
+		/**
+		 * Create the object.
+		 * @param result the cached result (not the copy)
+		 * @param hash
+		 */
+		public ResultHash(JsonElement result, long hash)
 		{
-			throw new Exception("Failed to read web.xml routes", ex);
+			this.result = result;
+			this.hash = hash;
 		}
 	}
 	
-	/**
-	 * Read the routes from the web.xml file.
-	 * @param config
-	 * @return
-	 * @throws Exception
+	/*
+	 * A request in asynchronous mode that sends the route data when the route completes.
 	 */
-	private static Set<String> maskRequestDataOnError(FilterConfig config) throws Exception
+	private class AsyncRoute implements AsyncListener, BiConsumer<Object, Throwable>
 	{
-		//Try to read the routes from the web.xml file
-		try
+		//Fields
+		private final String path;
+		private final Route route;
+		private final HttpServletRequest request;
+		private final HttpServletResponse response;
+		private final AsyncContext async;
+		
+		//The flag set when the response is done (by the route, the timeout or an error)
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		
+		//The flag set when the asynchronous context has been completed (by the filter or the container)
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		
+		//The flag set when the route is invoked (or will never be invoked since the request is done)
+		private final AtomicBoolean invoked = new AtomicBoolean(false);
+		
+		//The flag set when the bulkhead permit has been released
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		
+		//The task running the route (cancelled on timeout)
+		public volatile Future<?> task;
+		
+		//The time the route was invoked (used for the metrics)
+		public volatile long started = System.nanoTime();
+		
+		/**
+		 * Start the asynchronous request.
+		 * @param path
+		 * @param route
+		 * @param request
+		 * @param response
+		 */
+		public AsyncRoute(String path, Route route, HttpServletRequest request, HttpServletResponse response)
 		{
-			//Get the routes
-			String paths = config.getInitParameter("mask-request-data-on-error");
+			//Set the fields
+			this.path = path;
+			this.route = route;
+			this.request = request;
+			this.response = response;
 			
-			//Check if routes is set
-			if(paths == null)
-				return new HashSet<String>();
+			//Start the asynchronous request
+			this.async = request.startAsync(request, response);
 			
-			//Split the routes
-			String[] split = paths.split(";");
+			//Set the timeout
+			if(route.timeout > 0)
+				async.setTimeout(route.timeout);
 			
-			//Create the set of paths
-			Set<String> set = new HashSet<String>();
+			//Listen for the timeout
+			async.addListener(this);
+		}
+		
+		/**
+		 * Send the data (or the error) and complete the request.
+		 * @param data
+		 * @param error
+		 */
+		public void accept(Object data, Throwable error)
+		{
+			//The route has timed out (the route is done so the permit is released)
+			if(!done.compareAndSet(false, true))
+			{
+				release();
+				return;
+			}
 			
-			//Add the classes
-			for(String item : split)
-				if(!item.trim().equals(""))
-					set.add(item.trim());
+			//Set the thread local fields
+			RouterFilter.request.set(request);
+			RouterFilter.response.set(response);
 			
-			//Return the set
-			return set;			
+			//Record the invoke time
+			long invoked = System.nanoTime();
+			route.metrics.invoke.record(invoked - started);
+			
+			//Fields
+			boolean failed = true;
+			
+			//Try to send the data
+			try
+			{
+				//The route failed
+				if(error != null)
+					throw new Exception("Failed to run route for path " + path, error);
+				
+				//Send the data
+				send(route, request, response, data);
+				
+				//Record the send time
+				route.metrics.send.record(System.nanoTime() - invoked);
+				failed = false;
+			}
+			
+			//Failed
+			catch(Exception ex)
+			{
+				//Get the rejected request body (sent with the status of the rejection)
+				RequestBodyException rejected = RequestBodyException.find(ex);
+				
+				//Log the error
+				if(rejected == null)
+					context.log("Failed to route request", ex);
+				
+				//Send the error
+				try {if(!response.isCommitted()) response.sendError(rejected != null ? rejected.getStatus() : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);}
+				catch(Exception e) {}
+			}
+			
+			//Clean up
+			finally
+			{
+				RouterFilter.request.set(null);
+				RouterFilter.response.set(null);
+				release();
+				route.metrics.end(failed, JsonFilter.getParseTime(request));
+				complete();
+			}
 		}
 		
-		//Failed
-		catch(Exception ex)
+		/**
+		 * Send a service unavailable if the route times out.
+		 */
+		public void onTimeout(AsyncEvent event) throws IOException
 		{
-			throw new Exception("Failed to read web.xml mask-request-data-on-error", ex);
+			//The route has already completed
+			if(!done.compareAndSet(false, true))
+				return;
+			
+			//Try to cancel the route
+			if(task != null)
+				task.cancel(true);
+			
+			//Log the timeout
+			context.log("Route for path " + path + " timed out");
+			
+			//Record the end of the call and release the permit if the route was never invoked
+			//(otherwise it's released when the route completes, cancel does not stop a running route)
+			if(begin()) release();
+			route.metrics.end(true, JsonFilter.getParseTime(request));
+			
+			//Send the error and complete
+			try {response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);}
+			finally {complete();}
 		}
-	}	
+		
+		/**
+		 * End the call if the request fails (the client disconnected) before the route completes.
+		 */
+		public void onError(AsyncEvent event)
+		{
+			//The route has already completed
+			if(!done.compareAndSet(false, true))
+				return;
+			
+			//Log the error
+			context.log("Request for path " + path + " failed before the route completed", event.getThrowable());
+			
+			//Record the end of the call and release the permit if the route was never invoked
+			if(begin()) release();
+			route.metrics.end(true, JsonFilter.getParseTime(request));
+			
+			//Complete the request
+			complete();
+		}
+		
+		/**
+		 * Mark the request as completed (the route data can't be sent after this).
+		 */
+		public void onComplete(AsyncEvent event)
+		{
+			//Set the flag
+			completed.set(true);
+			
+			//Record the end of the call and release the permit if the container completed the request first
+			if(done.compareAndSet(false, true))
+			{
+				if(begin()) release();
+				route.metrics.end(true, JsonFilter.getParseTime(request));
+			}
+		}
+		
+		public void onStartAsync(AsyncEvent event) {}
+		
+		/**
+		 * Reject the request with 503 service unavailable when the route can't be invoked.
+		 * @throws Exception
+		 */
+		public void reject() throws Exception
+		{
+			//The request is already done
+			if(!done.compareAndSet(false, true))
+				return;
+			
+			//Release the permit and record the end of the call (the route is never invoked)
+			begin();
+			release();
+			route.metrics.end(false, JsonFilter.getParseTime(request));
+			
+			//Send the error and complete
+			try {RouterFilter.this.reject(route, response);}
+			finally {complete();}
+		}
+		
+		/**
+		 * Mark the route as invoked.
+		 * @return false if the request is already done (the route must not be invoked)
+		 */
+		public boolean begin()
+		{
+			return invoked.compareAndSet(false, true);
+		}
+		
+		/**
+		 * Release the bulkhead permit (if the route is limited and not already released).
+		 */
+		private void release()
+		{
+			if(route.bulkhead != null && released.compareAndSet(false, true))
+				route.bulkhead.release();
+		}
+		
+		/**
+		 * Complete the asynchronous context if it has not already been completed.
+		 */
+		private void complete()
+		{
+			//Already completed
+			if(!completed.compareAndSet(false, true))
+				return;
+			
+			//Complete (the container may have completed the request at the same time)
+			try {async.complete();}
+			catch(IllegalStateException ex) {}
+		}
+	}
+	
+	/*
+	 * The compiled calls to a route method by the parameters of the method.
+	 */
+	private interface Call0 {Object call() throws Throwable;}
+	private interface Call1 {Object call(Object a) throws Throwable;}
+	private interface Call2 {Object call(Object a, Object b) throws Throwable;}
+	private interface BooleanCall {Object call(boolean a) throws Throwable;}
+	private interface DoubleCall {Object call(double a) throws Throwable;}
+	private interface IntCall {Object call(int a) throws Throwable;}
+	private interface LongCall {Object call(long a) throws Throwable;}
+	
+	/*
+	 * The call to a route method through a method handle adapted to the call method.
+	 */
+	private static class HandleCall implements Call0, Call1, Call2, BooleanCall, DoubleCall, IntCall, LongCall
+	{
+		//Fields
+		private final MethodHandle handle;
+		
+		/**
+		 * Create the object.
+		 * @param handle
+		 */
+		public HandleCall(MethodHandle handle)
+		{
+			this.handle = handle;
+		}
+		
+		public Object call() throws Throwable {return (Object) handle.invokeExact();}
+		public Object call(Object a) throws Throwable {return (Object) handle.invokeExact(a);}
+		public Object call(Object a, Object b) throws Throwable {return (Object) handle.invokeExact(a, b);}
+		public Object call(boolean a) throws Throwable {return (Object) handle.invokeExact(a);}
+		public Object call(double a) throws Throwable {return (Object) handle.invokeExact(a);}
+		public Object call(int a) throws Throwable {return (Object) handle.invokeExact(a);}
+		public Object call(long a) throws Throwable {return (Object) handle.invokeExact(a);}
+	}
+	
+	/*
+	 * The compiled call to a route method.
+	 */
+	private static abstract class Invoker
+	{
+		/**
+		 * Invoke the route method.
+		 * @param body
+		 * @param request
+		 * @param response
+		 * @return
+		 * @throws Throwable
+		 */
+		public abstract Object invoke(RequestBody body, HttpServletRequest request, HttpServletResponse response) throws Throwable;
+	}
 
 	/*
 	 * Class to hold a route.
@@ -671,6 +4139,15 @@ public class RouterFilter implements Filter
 		public Object instance;
 		public Method method;
 		public int parameterType;
+		public final Invoker invoker;
+		public long timeout;
+		public boolean compress;
+		public RouteCache cache;
+		public TypeAdapter<Object> resultAdapter;
+		public Type resultType;
+		public ConcurrencyLimit bulkhead;
+		public final RouteMetrics metrics = new RouteMetrics();
+		public ConcurrentHashMap<RequestKey, CompletableFuture<SerializedResult>> flights;
 		
 		//Parameter types 
 		public static final int NO_PARAMETER = 1;
@@ -683,17 +4160,27 @@ public class RouterFilter implements Filter
 		public static final int PRIMITIVE_LONG = 8;
 		public static final int PRIMITIVE_STRING = 9;		
 		public static final int REQUEST_RESPONSE = 10;
+		public static final int POJO = 11;
+		public static final int BOUND = 12;
+		public static final int ELEMENTS = 13;
+		public static final int INPUT_STREAM = 14;
+		public static final int BYTE_CHANNEL = 15;
+		public static final int BYTES = 16;
+		public static final int FILE = 17;
 				
 		/**
 		 * Create the object.
 		 * @param instance
 		 * @param method
+		 * @param parameterType
+		 * @param invoker
 		 */
-		public Route(Object instance, Method method, int parameterType)
+		public Route(Object instance, Method method, int parameterType, Invoker invoker)
 		{
 			this.instance = instance;
 			this.method = method;
 			this.parameterType = parameterType;
+			this.invoker = invoker;
 		}
 	}
 	
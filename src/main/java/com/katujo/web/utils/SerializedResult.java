@@ -0,0 +1,83 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * The result of a route serialized to the bytes sent as the response.
+ * @author Johan Hertz
+ */
+class SerializedResult
+{
+	//The bytes (null if the route did not return any data)
+	public final byte[] bytes;
+	
+	//The content type
+	public final String contentType;
+	
+	//The flag if the bytes are JSON (UTF-8)
+	public final boolean json;
+	
+	//The hash of the bytes (used for the ETag)
+	public final long hash;
+	
+	//The JSON encoded as CBOR (encoded the first time it is sent as CBOR)
+	private volatile byte[] cbor;
+	
+	//The JSON encoded as MessagePack (encoded the first time it is sent as MessagePack)
+	private volatile byte[] messagePack;
+	
+	/**
+	 * Create the object.
+	 * @param bytes
+	 * @param contentType
+	 * @param json
+	 */
+	public SerializedResult(byte[] bytes, String contentType, boolean json)
+	{
+		this.bytes = bytes;
+		this.contentType = contentType;
+		this.json = json;
+		this.hash = bytes == null ? JsonStreams.FNV_OFFSET : JsonStreams.hash(JsonStreams.FNV_OFFSET, bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * Get the JSON encoded in the binary format.
+	 * <p>
+	 * The JSON is parsed and encoded the first time the format is asked for and the bytes are 
+	 * kept with the result, so a cached or shared result is not parsed again for every response. 
+	 * Two threads asking for the same format at the same time can both encode the bytes.
+	 * </p>
+	 * @param format
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] encode(BinaryFormat format) throws IOException
+	{
+		//Get the encoded bytes
+		byte[] encoded = format == BinaryFormat.CBOR ? cbor : messagePack;
+		if(encoded != null)
+			return encoded;
+		
+		//Parse the JSON (with the Gson parser if not strict JSON)
+		JsonElement element = Utf8JsonParser.parse(bytes, 0, bytes.length, -1, -1);
+		if(element == null)
+			element = JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8));
+		
+		//Encode the JSON
+		encoded = format.encode(element);
+		
+		//Keep the bytes
+		if(format == BinaryFormat.CBOR) cbor = encoded;
+		else messagePack = encoded;
+		
+		//Return the bytes
+		return encoded;
+	}
+}
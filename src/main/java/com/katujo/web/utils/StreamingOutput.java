@@ -0,0 +1,170 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import javax.servlet.http.HttpServletResponse;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes the elements of a streamed response as newline delimited JSON or server-sent events.
+ * <p>
+ * The elements are flushed to the client every batch of elements. When a write fails (the client
+ * has disconnected) the output is closed and every following send throws an IOException.
+ * </p>
+ * @author Johan Hertz
+ */
+class StreamingOutput implements JsonSink
+{
+	//The newline delimited JSON content type
+	static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+	
+	//The server-sent events content type
+	static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream";
+	
+	//The response output stream
+	private final OutputStream output;
+	
+	//The writer to the output stream
+	private final Writer writer;
+	
+	//The JSON writer for the JSON elements (written as JsonElement.toString)
+	private final JsonWriter elementWriter;
+	
+	//The JSON writer for the other objects (written as Gson.toJson)
+	private final JsonWriter objectWriter;
+	
+	//The flag if the elements are sent as server-sent events
+	private final boolean events;
+	
+	//The number of elements to write before flushing
+	private final int batch;
+	
+	//The number of elements written since the last flush
+	private int pending;
+	
+	//The flag if the client is connected
+	private volatile boolean open = true;
+	
+	/**
+	 * Create the object.
+	 * @param response
+	 * @param events
+	 * @param batch
+	 * @throws IOException
+	 */
+	public StreamingOutput(HttpServletResponse response, boolean events, int batch) throws IOException
+	{
+		//Set the fields
+		this.events = events;
+		this.batch = batch;
+		
+		//Set the response type
+		response.setContentType(events ? EVENT_STREAM_CONTENT_TYPE : NDJSON_CONTENT_TYPE);
+		response.setCharacterEncoding("UTF-8");
+		
+		//Don't cache the events
+		if(events)
+			response.setHeader("Cache-Control", "no-cache");
+		
+		//Create the writers (lenient to write several top level values)
+		this.output = response.getOutputStream();
+		this.writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		this.elementWriter = new JsonWriter(writer);
+		this.elementWriter.setLenient(true);
+		this.objectWriter = JsonStreams.GSON.newJsonWriter(writer);
+		this.objectWriter.setLenient(true);
+	}
+	
+	/*
+	 * Send the element.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.JsonSink#send(java.lang.Object)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized void send(Object element) throws IOException
+	{
+		//The client has disconnected
+		if(!open)
+			throw new IOException("The client has disconnected");
+		
+		//Try to write the element
+		try
+		{
+			//Start the event
+			if(events)
+				writer.write("data: ");
+			
+			//Write the JSON element
+			if(element == null || element instanceof JsonElement)
+				JsonStreams.JSON_ELEMENT_ADAPTER.write(elementWriter, element == null ? JsonNull.INSTANCE : (JsonElement) element);
+			
+			//Write the date as the time (as the router filter)
+			else if(element instanceof Date)
+				elementWriter.value(((Date) element).getTime());
+			
+			//Write the object with the type adapter (cached by Gson)
+			else ((TypeAdapter<Object>) JsonStreams.GSON.getAdapter(element.getClass())).write(objectWriter, element);
+			
+			//End the element
+			writer.write(events ? "\n\n" : "\n");
+			
+			//Flush the batch
+			if(++pending >= batch)
+				flush();
+		}
+		
+		//The client has disconnected
+		catch(IOException ex)
+		{
+			open = false;
+			throw ex;
+		}
+	}
+	
+	/*
+	 * Flush the elements written to the client.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.JsonSink#flush()
+	 */
+	@Override
+	public synchronized void flush() throws IOException
+	{
+		//Try to flush
+		try
+		{
+			writer.flush();
+			output.flush();
+			pending = 0;
+		}
+		
+		//The client has disconnected
+		catch(IOException ex)
+		{
+			open = false;
+			throw ex;
+		}
+	}
+	
+	/*
+	 * Check if the client is connected.
+	 * (non-Javadoc)
+	 * @see com.katujo.web.utils.JsonSink#isOpen()
+	 */
+	@Override
+	public boolean isOpen()
+	{
+		return open;
+	}
+}
@@ -0,0 +1,28 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets the timeout in milliseconds for an asynchronous route (a route that returns a CompletionStage).
+ * <p>
+ * Overrides the async-timeout init parameter set on the router filter. If the route has not 
+ * completed when the timeout is reached a 503 service unavailable is sent.
+ * </p>
+ * @author Johan Hertz
+ *
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Timeout 
+{
+	/**
+	 * The timeout in milliseconds.
+	 * @return
+	 */
+	long value();
+}
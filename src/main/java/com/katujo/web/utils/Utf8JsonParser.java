@@ -0,0 +1,471 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+
+/**
+ * Parses strict JSON straight from UTF-8 bytes without decoding the bytes to characters first.
+ * <p>
+ * The elements are created the same way as the Gson JSON parser (numbers are lazily parsed).
+ * Anything that is not strict JSON or valid UTF-8 is not parsed (null is returned) and should be
+ * parsed by the Gson parser, that is lenient and creates the error messages.
+ * </p>
+ * <p>
+ * The parsing is stopped as soon as the JSON is nested deeper than the max depth or an array or
+ * object has more members than the max members (-1 is not checked).
+ * </p>
+ * @author Johan Hertz
+ */
+class Utf8JsonParser
+{
+	//The exception thrown when the bytes can't be parsed (no stack trace, only used to stop parsing)
+	private static final RuntimeException NOT_PARSED = new RuntimeException("Not strict JSON", null, false, false) {};
+	
+	//The bytes to parse
+	private final byte[] bytes;
+	
+	//The end of the bytes
+	private final int end;
+	
+	//The position in the bytes
+	private int position;
+	
+	//The buffer for the decoded strings
+	private char[] chars = new char[64];
+	
+	//The max nesting depth
+	private final int maxDepth;
+	
+	//The max number of members in an array or object
+	private final int maxMembers;
+	
+	//The current depth
+	private int depth;
+	
+	/**
+	 * Create the object.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	private Utf8JsonParser(byte[] bytes, int offset, int length, int maxDepth, int maxMembers)
+	{
+		this.bytes = bytes;
+		this.position = offset;
+		this.end = offset + length;
+		this.maxDepth = maxDepth;
+		this.maxMembers = maxMembers;
+	}
+	
+	/**
+	 * Parse the JSON in the bytes.
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param maxDepth
+	 * @param maxMembers
+	 * @return the JSON element (JSON null for no JSON) or null if the bytes are not strict JSON
+	 */
+	static JsonElement parse(byte[] bytes, int offset, int length, int maxDepth, int maxMembers)
+	{
+		//Create the parser
+		Utf8JsonParser parser = new Utf8JsonParser(bytes, offset, length, maxDepth, maxMembers);
+		
+		//Try to parse the bytes
+		try
+		{
+			//Parse no JSON as JSON null (as the Gson parser)
+			parser.skipWhitespace();
+			if(parser.position == parser.end)
+				return JsonNull.INSTANCE;
+			
+			//Parse the value
+			JsonElement element = parser.value();
+			
+			//Check that all the bytes are parsed
+			parser.skipWhitespace();
+			return parser.position == parser.end ? element : null;
+		}
+		
+		//Not strict JSON
+		catch(RuntimeException ex)
+		{
+			if(ex == NOT_PARSED) return null;
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Parse the value at the position.
+	 * @return
+	 */
+	private JsonElement value()
+	{
+		//Parse the value by the first byte
+		switch(peek())
+		{
+			case '{': return object();
+			case '[': return array();
+			case '"': position++; return new JsonPrimitive(string());
+			case 't': literal("true"); return new JsonPrimitive(Boolean.TRUE);
+			case 'f': literal("false"); return new JsonPrimitive(Boolean.FALSE);
+			case 'n': literal("null"); return JsonNull.INSTANCE;
+			default: return number();
+		}
+	}
+	
+	/**
+	 * Parse the object at the position.
+	 * @return
+	 */
+	private JsonObject object()
+	{
+		//Create the object
+		JsonObject object = new JsonObject();
+		
+		//Skip the start
+		enter();
+		skipWhitespace();
+		
+		//Empty object
+		if(peek() == '}')
+		{
+			position++;
+			depth--;
+			return object;
+		}
+		
+		//Parse the members
+		for(int members = 1; ; members++)
+		{
+			//Check the number of members
+			if(members > maxMembers && maxMembers != -1)
+				throw LimitedJsonReader.tooManyMembers(maxMembers);
+			
+			//Parse the name
+			if(next() != '"') throw NOT_PARSED;
+			String name = string();
+			
+			//Parse the value
+			skipWhitespace();
+			if(next() != ':') throw NOT_PARSED;
+			skipWhitespace();
+			object.add(name, value());
+			
+			//Parse the next member or the end
+			skipWhitespace();
+			byte b = next();
+			if(b == '}') {depth--; return object;}
+			if(b != ',') throw NOT_PARSED;
+			skipWhitespace();
+		}
+	}
+	
+	/**
+	 * Parse the array at the position.
+	 * @return
+	 */
+	private JsonArray array()
+	{
+		//Create the array
+		JsonArray array = new JsonArray();
+		
+		//Skip the start
+		enter();
+		skipWhitespace();
+		
+		//Empty array
+		if(peek() == ']')
+		{
+			position++;
+			depth--;
+			return array;
+		}
+		
+		//Parse the elements
+		for(int members = 1; ; members++)
+		{
+			//Check the number of members
+			if(members > maxMembers && maxMembers != -1)
+				throw LimitedJsonReader.tooManyMembers(maxMembers);
+			
+			//Parse the element
+			array.add(value());
+			
+			//Parse the next element or the end
+			skipWhitespace();
+			byte b = next();
+			if(b == ']') {depth--; return array;}
+			if(b != ',') throw NOT_PARSED;
+			skipWhitespace();
+		}
+	}
+	
+	/**
+	 * Skip the start of an array or object and check the depth.
+	 */
+	private void enter()
+	{
+		//Check the depth
+		if(++depth > maxDepth && maxDepth != -1)
+			throw LimitedJsonReader.tooDeep(maxDepth);
+		
+		//Skip the start
+		position++;
+	}
+	
+	/**
+	 * Parse the string after the start quote, the UTF-8 bytes are decoded as they are read.
+	 * @return
+	 */
+	private String string()
+	{
+		//Find the ASCII characters at the start (no escapes)
+		int start = position;
+		while(position < end && bytes[position] >= 0 && bytes[position] != '"' && bytes[position] != '\\')
+			position++;
+		
+		//Create the ASCII string straight from the bytes
+		if(position < end && bytes[position] == '"')
+			return new String(bytes, start, position++ - start, StandardCharsets.ISO_8859_1);
+		
+		//Copy the ASCII characters to the buffer
+		int count = position - start;
+		if(count > chars.length)
+			chars = new char[Integer.highestOneBit(count) * 2];
+		for(int i=0; i<count; i++)
+			chars[i] = (char) bytes[start + i];
+		
+		//Decode the characters
+		while(true)
+		{
+			//Grow the buffer (room for a surrogate pair)
+			if(count + 2 > chars.length)
+				chars = Arrays.copyOf(chars, chars.length * 2);
+			
+			//Get the byte
+			int b = next();
+			
+			//The end of the string
+			if(b == '"')
+				return new String(chars, 0, count);
+			
+			//The escaped character
+			else if(b == '\\')
+				chars[count++] = escape();
+			
+			//The ASCII character
+			else if(b >= 0)
+				chars[count++] = (char) b;
+			
+			//The two byte character
+			else if((b & 0xE0) == 0xC0)
+			{
+				int codePoint = (b & 0x1F) << 6 | continuation();
+				if(codePoint < 0x80) throw NOT_PARSED;
+				chars[count++] = (char) codePoint;
+			}
+			
+			//The three byte character
+			else if((b & 0xF0) == 0xE0)
+			{
+				int codePoint = (b & 0x0F) << 12 | continuation() << 6 | continuation();
+				if(codePoint < 0x800 || Character.isSurrogate((char) codePoint)) throw NOT_PARSED;
+				chars[count++] = (char) codePoint;
+			}
+			
+			//The four byte character (a surrogate pair)
+			else if((b & 0xF8) == 0xF0)
+			{
+				int codePoint = (b & 0x07) << 18 | continuation() << 12 | continuation() << 6 | continuation();
+				if(codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) throw NOT_PARSED;
+				chars[count++] = Character.highSurrogate(codePoint);
+				chars[count++] = Character.lowSurrogate(codePoint);
+			}
+			
+			//Not UTF-8
+			else throw NOT_PARSED;
+		}
+	}
+	
+	/**
+	 * Parse the escaped character after the backslash.
+	 * @return
+	 */
+	private char escape()
+	{
+		//Parse the escape
+		switch(next())
+		{
+			case '"': return '"';
+			case '\\': return '\\';
+			case '/': return '/';
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u': return (char) (hex() << 12 | hex() << 8 | hex() << 4 | hex());
+			default: throw NOT_PARSED;
+		}
+	}
+	
+	/**
+	 * Parse the hex digit at the position.
+	 * @return
+	 */
+	private int hex()
+	{
+		//Get the digit
+		int digit = Character.digit(next(), 16);
+		
+		//Not a hex digit
+		if(digit == -1)
+			throw NOT_PARSED;
+		
+		//Return the digit
+		return digit;
+	}
+	
+	/**
+	 * Parse the continuation byte of a UTF-8 character.
+	 * @return the six bits of the byte
+	 */
+	private int continuation()
+	{
+		//Get the byte
+		int b = next();
+		
+		//Not a continuation byte
+		if((b & 0xC0) != 0x80)
+			throw NOT_PARSED;
+		
+		//Return the bits
+		return b & 0x3F;
+	}
+	
+	/**
+	 * Parse the number at the position (the strict JSON number).
+	 * @return
+	 */
+	private JsonPrimitive number()
+	{
+		//Get the start
+		int start = position;
+		
+		//The sign
+		if(peekOrEnd() == '-')
+			position++;
+		
+		//The integer part (no leading zeros)
+		if(peekOrEnd() == '0')
+			position++;
+		else digits();
+		
+		//The fraction
+		if(peekOrEnd() == '.')
+		{
+			position++;
+			digits();
+		}
+		
+		//The exponent
+		if(peekOrEnd() == 'e' || peekOrEnd() == 'E')
+		{
+			position++;
+			if(peekOrEnd() == '+' || peekOrEnd() == '-')
+				position++;
+			digits();
+		}
+		
+		//Create the number (parsed when used as the Gson parser)
+		return new JsonPrimitive(new LazilyParsedNumber(new String(bytes, start, position - start, StandardCharsets.US_ASCII)));
+	}
+	
+	/**
+	 * Parse one or more digits at the position.
+	 */
+	private void digits()
+	{
+		//Check that there is a digit
+		int start = position;
+		
+		//Skip the digits
+		while(position < end && bytes[position] >= '0' && bytes[position] <= '9')
+			position++;
+		
+		//No digits
+		if(position == start)
+			throw NOT_PARSED;
+	}
+	
+	/**
+	 * Parse the literal at the position.
+	 * @param literal
+	 */
+	private void literal(String literal)
+	{
+		//Check the bytes
+		for(int i=0; i<literal.length(); i++)
+			if(next() != literal.charAt(i))
+				throw NOT_PARSED;
+	}
+	
+	/**
+	 * Skip the whitespace at the position.
+	 */
+	private void skipWhitespace()
+	{
+		while(position < end && (bytes[position] == ' ' || bytes[position] == '\n' || bytes[position] == '\r' || bytes[position] == '\t'))
+			position++;
+	}
+	
+	/**
+	 * Get the byte at the position.
+	 * @return
+	 */
+	private byte peek()
+	{
+		//The end of the bytes
+		if(position >= end)
+			throw NOT_PARSED;
+		
+		//Return the byte
+		return bytes[position];
+	}
+	
+	/**
+	 * Get the byte at the position or 0 at the end of the bytes.
+	 * @return
+	 */
+	private byte peekOrEnd()
+	{
+		return position < end ? bytes[position] : 0;
+	}
+	
+	/**
+	 * Get the byte at the position and move to the next byte.
+	 * @return
+	 */
+	private byte next()
+	{
+		//The end of the bytes
+		if(position >= end)
+			throw NOT_PARSED;
+		
+		//Return the byte
+		return bytes[position++];
+	}
+}
@@ -0,0 +1,36 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor the router filter invokes the routes on (Java 21 and later).
+ * @author Johan Hertz
+ */
+class RouteExecutors
+{
+	/**
+	 * Create the executor with the name set in the executor init parameter.
+	 * <p>
+	 * Returns null if the name is not set (the routes are then invoked on the container thread).
+	 * </p>
+	 * @param name
+	 * @return
+	 * @throws Exception
+	 */
+	static ExecutorService create(String name) throws Exception
+	{
+		//No executor
+		if(name == null || name.trim().equals(""))
+			return null;
+		
+		//Create a virtual thread for every route invocation
+		if("virtual".equals(name.trim()))
+			return Executors.newVirtualThreadPerTaskExecutor();
+		
+		//Unknown executor
+		throw new Exception("Unknown executor " + name);
+	}
+}
@@ -0,0 +1,144 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the asynchronous routes that return a completion stage.
+ * @author Johan Hertz
+ */
+public class AsyncRouteTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public CompletionStage<String> completed() {return CompletableFuture.completedFuture("completed");}
+		public CompletableFuture<String> failed() {CompletableFuture<String> future = new CompletableFuture<String>(); future.completeExceptionally(new IllegalStateException()); return future;}
+		@Timeout(100) public CompletableFuture<String> never() {return new CompletableFuture<String>();}
+		public CompletableFuture<String> defaultTimeout() {return new CompletableFuture<String>();}
+		
+		//Completed on another thread
+		public CompletableFuture<Integer> later(final int value)
+		{
+			return CompletableFuture.supplyAsync(new Supplier<Integer>()
+			{
+				public Integer get()
+				{
+					sleep(50);
+					return value * 2;
+				}
+			});
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "async-timeout", "200");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the data of the completed stage.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsCompletedStage() throws Exception
+	{
+		TestRequest request = new TestRequest("/completed");
+		TestResponse response = router.call(request);
+		assertNotNull(request.async());
+		assertTrue(request.async().isCompleted());
+		assertEquals(200, response.getStatus());
+		assertEquals("\"completed\"", response.text());
+	}
+	
+	/**
+	 * Send the data when the stage is completed on another thread.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsWhenCompleted() throws Exception
+	{
+		TestRequest request = new TestRequest("/later").json("21");
+		TestResponse response = router.call(request);
+		assertFalse(request.async().isTimedOut());
+		assertEquals(200, response.getStatus());
+		assertEquals("42", response.text());
+	}
+	
+	/**
+	 * Send 500 when the stage completes exceptionally.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsErrorWhenFailed() throws Exception
+	{
+		TestRequest request = new TestRequest("/failed");
+		TestResponse response = router.call(request);
+		assertTrue(request.async().isCompleted());
+		assertEquals(500, response.getStatus());
+	}
+	
+	/**
+	 * Send 503 when the route times out (the timeout of the route and the default timeout).
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsServiceUnavailableOnTimeout() throws Exception
+	{
+		//The timeout of the route
+		TestRequest request = new TestRequest("/never");
+		TestResponse response = router.call(request);
+		assertEquals(100, request.async().getTimeout());
+		assertTrue(request.async().isTimedOut());
+		assertEquals(503, response.getStatus());
+		
+		//The default timeout
+		request = new TestRequest("/defaultTimeout");
+		response = router.call(request);
+		assertEquals(200, request.async().getTimeout());
+		assertEquals(503, response.getStatus());
+	}
+	
+	/**
+	 * Sleep without being interrupted.
+	 * @param millis
+	 */
+	static void sleep(long millis)
+	{
+		try {Thread.sleep(millis);}
+		catch(InterruptedException ex) {Thread.currentThread().interrupt();}
+	}
+}
@@ -0,0 +1,126 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+/**
+ * Test the batch path that invokes several routes in one request.
+ * @author Johan Hertz
+ */
+public class BatchTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public int twice(int value) {return value * 2;}
+		public CompletableFuture<String> later() {return CompletableFuture.completedFuture("later");}
+		public void nothing() {}
+		public String fail() {throw new IllegalStateException();}
+		public int upload(byte[] body) {return body.length;}
+		public void write(HttpServletRequest request, HttpServletResponse response) {}
+		public boolean slow() throws InterruptedException {Thread.sleep(5000); return true;}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "batch-path", "/batch", "batch-max-calls", "4", "batch-timeout", "200", "batch-threads", "4");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the results of the calls in the order of the calls.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsResultsInOrder() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/batch").json("[{\"path\": \"/twice\", \"data\": 1}, {\"path\": \"/later\"}, {\"path\": \"/twice\", \"data\": 21}, {\"path\": \"/nothing\"}]"));
+		assertEquals(200, response.getStatus());
+		assertEquals(JsonParser.parseString("[{\"result\": 2}, {\"result\": \"later\"}, {\"result\": 42}, {\"result\": null}]"), response.json());
+	}
+	
+	/**
+	 * Send an error for the calls that fail (the other calls are not affected).
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsErrorsForFailedCalls() throws Exception
+	{
+		//Invoke the calls
+		TestResponse response = router.call(new TestRequest("/batch").json("[{\"path\": \"/fail\"}, {\"data\": 1}, {\"path\": \"/upload\"}, {\"path\": \"/write\"}]"));
+		JsonArray results = response.json().getAsJsonArray();
+		assertEquals(200, response.getStatus());
+		
+		//Every call failed
+		assertEquals("Failed to invoke route for path /fail", results.get(0).getAsJsonObject().get("error").getAsString());
+		assertEquals("Failed to invoke batch call", results.get(1).getAsJsonObject().get("error").getAsString());
+		assertEquals("Failed to invoke route for path /upload", results.get(2).getAsJsonObject().get("error").getAsString());
+		assertEquals("Failed to invoke route for path /write", results.get(3).getAsJsonObject().get("error").getAsString());
+	}
+	
+	/**
+	 * Send an error for the call that does not complete within the batch timeout.
+	 * @throws Exception
+	 */
+	@Test
+	public void timesOutSlowCall() throws Exception
+	{
+		JsonArray results = router.call(new TestRequest("/batch").json("[{\"path\": \"/slow\"}, {\"path\": \"/twice\", \"data\": 2}]")).json().getAsJsonArray();
+		assertEquals("The batch call timed out", results.get(0).getAsJsonObject().get("error").getAsString());
+		assertEquals(4, results.get(1).getAsJsonObject().get("result").getAsInt());
+	}
+	
+	/**
+	 * Reject the batch with more calls than the limit with 413 and the batch that is not an array with 400.
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsInvalidBatch() throws Exception
+	{
+		//Too many calls
+		StringBuilder calls = new StringBuilder("[");
+		for(int i=0; i<5; i++)
+			calls.append(i == 0 ? "" : ", ").append("{\"path\": \"/twice\", \"data\": ").append(i).append("}");
+		TestResponse response = router.call(new TestRequest("/batch").json(calls.append("]").toString()));
+		assertEquals(413, response.getStatus());
+		assertEquals(0, response.bytes().length);
+		
+		//Not an array (an empty array is a batch)
+		assertEquals(400, router.call(new TestRequest("/batch").json("{\"path\": \"/twice\"}")).getStatus());
+		assertEquals(400, router.call("/batch").getStatus());
+		assertEquals(0, router.call(new TestRequest("/batch").json("[]")).json().getAsJsonArray().size());
+	}
+}
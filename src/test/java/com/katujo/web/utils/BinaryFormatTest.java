@@ -0,0 +1,93 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonParser;
+
+/**
+ * Test the content negotiation and the number conversion of the binary formats.
+ * @author Johan Hertz
+ */
+public class BinaryFormatTest
+{
+	/**
+	 * Get the format of the content type.
+	 */
+	@Test
+	public void forContentType()
+	{
+		assertSame(BinaryFormat.CBOR, BinaryFormat.forContentType("application/cbor"));
+		assertSame(BinaryFormat.CBOR, BinaryFormat.forContentType("Application/CBOR; charset=binary"));
+		assertSame(BinaryFormat.MESSAGE_PACK, BinaryFormat.forContentType("application/msgpack"));
+		assertSame(BinaryFormat.MESSAGE_PACK, BinaryFormat.forContentType("application/x-msgpack"));
+		assertNull(BinaryFormat.forContentType("application/json"));
+		assertNull(BinaryFormat.forContentType(""));
+	}
+	
+	/**
+	 * Send the binary format only when it is accepted with a higher quality than JSON.
+	 */
+	@Test
+	public void accepted()
+	{
+		//Nothing or only JSON accepted
+		assertNull(BinaryFormat.accepted(null));
+		assertNull(BinaryFormat.accepted(""));
+		assertNull(BinaryFormat.accepted("application/json"));
+		assertNull(BinaryFormat.accepted("*/*"));
+		assertNull(BinaryFormat.accepted("text/html, image/png"));
+		
+		//The binary format only
+		assertSame(BinaryFormat.CBOR, BinaryFormat.accepted("application/cbor"));
+		assertSame(BinaryFormat.MESSAGE_PACK, BinaryFormat.accepted("APPLICATION/X-MSGPACK"));
+		
+		//The same quality as JSON (JSON is sent)
+		assertNull(BinaryFormat.accepted("application/json, application/cbor"));
+		assertNull(BinaryFormat.accepted("application/cbor, */*"));
+		assertNull(BinaryFormat.accepted("application/cbor;q=0.5, application/*;q=0.5"));
+		
+		//The quality values
+		assertSame(BinaryFormat.CBOR, BinaryFormat.accepted("application/json;q=0.5, application/cbor"));
+		assertSame(BinaryFormat.CBOR, BinaryFormat.accepted("application/cbor; q=0.9, */*; q=0.1"));
+		assertNull(BinaryFormat.accepted("application/cbor;q=0.4, application/json;q=0.5"));
+		assertNull(BinaryFormat.accepted("application/cbor;q=0"));
+		
+		//The binary format with the highest quality
+		assertSame(BinaryFormat.MESSAGE_PACK, BinaryFormat.accepted("application/cbor;q=0.8, application/msgpack;q=0.9"));
+		assertSame(BinaryFormat.CBOR, BinaryFormat.accepted("application/cbor;q=0.9, application/msgpack;q=0.8, application/json;q=0.1"));
+		assertSame(BinaryFormat.CBOR, BinaryFormat.accepted("application/cbor, application/msgpack"));
+		
+		//The quality that is not a number (the default quality)
+		assertSame(BinaryFormat.CBOR, BinaryFormat.accepted("application/cbor;q=high, application/json;q=0.9"));
+	}
+	
+	/**
+	 * Get the numbers that are integers as longs.
+	 */
+	@Test
+	public void asLong()
+	{
+		assertEquals(Long.valueOf(1), BinaryFormat.asLong(1));
+		assertEquals(Long.valueOf(-5), BinaryFormat.asLong((short) -5));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), BinaryFormat.asLong(Long.MAX_VALUE));
+		assertEquals(Long.valueOf(42), BinaryFormat.asLong(JsonParser.parseString("42").getAsNumber()));
+		assertEquals(Long.valueOf(-9223372036854775808L), BinaryFormat.asLong(JsonParser.parseString("-9223372036854775808").getAsNumber()));
+		assertEquals(Long.valueOf(7), BinaryFormat.asLong(new BigInteger("7")));
+		assertNull(BinaryFormat.asLong(1.0));
+		assertNull(BinaryFormat.asLong(1.0f));
+		assertNull(BinaryFormat.asLong(JsonParser.parseString("1.0").getAsNumber()));
+		assertNull(BinaryFormat.asLong(JsonParser.parseString("1e3").getAsNumber()));
+		assertNull(BinaryFormat.asLong(JsonParser.parseString("9223372036854775808").getAsNumber()));
+		assertNull(BinaryFormat.asLong(new BigDecimal("1.5")));
+	}
+}
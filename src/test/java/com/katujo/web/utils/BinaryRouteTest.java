@@ -0,0 +1,118 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Test the CBOR and MessagePack request bodies and responses of the routes.
+ * @author Johan Hertz
+ */
+public class BinaryRouteTest
+{
+	//The data sent in the tests
+	static final JsonElement DATA = JsonParser.parseString("{\"name\": \"caf\\u00e9\", \"count\": 3, \"price\": 1.5, \"tags\": [\"a\", null, true]}");
+	
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public JsonObject echo(JsonObject data) {return data;}
+		public int count(JsonObject data) {return data.get("count").getAsInt();}
+		@Cached(ttlMillis=60000) public JsonElement cached() {return DATA;}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Decode the request body in the binary format.
+	 * @throws Exception
+	 */
+	@Test
+	public void decodesRequestBody() throws Exception
+	{
+		assertEquals("3", router.call(new TestRequest("/count").body("application/cbor", BinaryFormat.CBOR.encode(DATA))).text());
+		assertEquals("3", router.call(new TestRequest("/count").body("application/msgpack", BinaryFormat.MESSAGE_PACK.encode(DATA))).text());
+	}
+	
+	/**
+	 * Send the response in the accepted binary format (JSON when not accepted).
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsAcceptedFormat() throws Exception
+	{
+		for(BinaryFormat format : new BinaryFormat[] {BinaryFormat.CBOR, BinaryFormat.MESSAGE_PACK})
+		{
+			TestResponse response = router.call(new TestRequest("/echo").json(DATA.toString()).header("Accept", format.contentType));
+			assertEquals(200, response.getStatus());
+			assertEquals(format.contentType, response.getContentType());
+			assertTrue(response.getHeaders("Vary").contains("Accept"));
+			assertEquals(DATA, decode(format, response.bytes()));
+		}
+		
+		//JSON
+		TestResponse response = router.call(new TestRequest("/echo").body("application/cbor", BinaryFormat.CBOR.encode(DATA)));
+		assertEquals("application/json", response.getContentType().split(";")[0]);
+		assertEquals(DATA, response.json());
+	}
+	
+	/**
+	 * Cache the response for every format.
+	 * @throws Exception
+	 */
+	@Test
+	public void cachesEveryFormat() throws Exception
+	{
+		for(int i=0; i<2; i++)
+		{
+			assertEquals(DATA, decode(BinaryFormat.CBOR, router.call(new TestRequest("/cached").header("Accept", "application/cbor")).bytes()));
+			assertEquals(DATA, router.call("/cached").json());
+			assertEquals(DATA, decode(BinaryFormat.MESSAGE_PACK, router.call(new TestRequest("/cached").header("Accept", "application/msgpack")).bytes()));
+		}
+	}
+	
+	/**
+	 * Decode the bytes.
+	 * @param format
+	 * @param bytes
+	 * @return
+	 */
+	private static JsonElement decode(BinaryFormat format, byte[] bytes)
+	{
+		return format.decode(bytes, 0, bytes.length, -1, -1);
+	}
+}
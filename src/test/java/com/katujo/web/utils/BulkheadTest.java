@@ -0,0 +1,180 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the bulkheads that limit the concurrent calls to the routes.
+ * @author Johan Hertz
+ */
+public class BulkheadTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The permits released when a route is entered and the latch that holds the routes
+		public static volatile Semaphore entered;
+		public static volatile CountDownLatch release;
+		
+		@Bulkhead(1) public boolean limited() throws InterruptedException {return hold();}
+		@Bulkhead(value=1, queue=1, queueTimeout=5000) public boolean queued() throws InterruptedException {return hold();}
+		@Bulkhead(value=1, group="shared") public boolean first() throws InterruptedException {return hold();}
+		@Bulkhead(value=1, group="shared") public boolean second() throws InterruptedException {return hold();}
+		public boolean configured() throws InterruptedException {return hold();}
+		
+		/**
+		 * Hold the route until released.
+		 * @return
+		 * @throws InterruptedException
+		 */
+		private static boolean hold() throws InterruptedException
+		{
+			entered.release();
+			return release.await(5, TimeUnit.SECONDS);
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	private ExecutorService callers;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		Routes.entered = new Semaphore(0);
+		Routes.release = new CountDownLatch(1);
+		router = new TestRouter(Routes.class, "bulkhead-retry-after", "2", "bulkheads", "/configured=1");
+		callers = Executors.newCachedThreadPool();
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		Routes.release.countDown();
+		callers.shutdownNow();
+		router.destroy();
+	}
+	
+	/**
+	 * Send 503 with Retry-After when the limit is reached (the permit is released when the call is done).
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsWhenLimitReached() throws Exception
+	{
+		//Hold the permit
+		Future<TestResponse> first = hold("/limited");
+		
+		//The call is rejected
+		TestResponse response = router.call("/limited");
+		assertEquals(503, response.getStatus());
+		assertEquals("2", response.getHeader("Retry-After"));
+		
+		//The permit is released
+		Routes.release.countDown();
+		assertEquals("true", first.get(5, TimeUnit.SECONDS).text());
+		assertEquals("true", router.call("/limited").text());
+	}
+	
+	/**
+	 * Wait in the queue for the permit (the call that does not fit in the queue is rejected).
+	 * @throws Exception
+	 */
+	@Test
+	public void queuesUntilPermitReleased() throws Exception
+	{
+		//Hold the permit and queue a call
+		Future<TestResponse> first = hold("/queued");
+		Future<TestResponse> queued = call("/queued");
+		Thread.sleep(100);
+		
+		//The queue is full
+		assertEquals(503, router.call("/queued").getStatus());
+		
+		//The queued call gets the permit
+		Routes.release.countDown();
+		assertEquals("true", first.get(5, TimeUnit.SECONDS).text());
+		assertEquals("true", queued.get(5, TimeUnit.SECONDS).text());
+	}
+	
+	/**
+	 * Share the limit between the routes in the group.
+	 * @throws Exception
+	 */
+	@Test
+	public void sharesGroupLimit() throws Exception
+	{
+		Future<TestResponse> first = hold("/first");
+		assertEquals(503, router.call("/second").getStatus());
+		Routes.release.countDown();
+		assertEquals(200, first.get(5, TimeUnit.SECONDS).getStatus());
+	}
+	
+	/**
+	 * Limit the route with the limit set in the init parameters.
+	 * @throws Exception
+	 */
+	@Test
+	public void limitsConfiguredRoute() throws Exception
+	{
+		Future<TestResponse> first = hold("/configured");
+		assertEquals(503, router.call("/configured").getStatus());
+		Routes.release.countDown();
+		assertEquals(200, first.get(5, TimeUnit.SECONDS).getStatus());
+	}
+	
+	/**
+	 * Call the route on another thread and wait for the route to be entered.
+	 * @param path
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private Future<TestResponse> hold(String path) throws InterruptedException
+	{
+		Future<TestResponse> future = call(path);
+		if(!Routes.entered.tryAcquire(5, TimeUnit.SECONDS))
+			fail("The route " + path + " was not invoked");
+		return future;
+	}
+	
+	/**
+	 * Call the route on another thread.
+	 * @param path
+	 * @return
+	 */
+	private Future<TestResponse> call(final String path)
+	{
+		return callers.submit(new Callable<TestResponse>()
+		{
+			public TestResponse call() throws Exception
+			{
+				return router.call(path);
+			}
+		});
+	}
+}
@@ -0,0 +1,196 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the file, channel, buffer and stream responses and the byte ranges.
+ * @author Johan Hertz
+ */
+public class ByteResponseTest
+{
+	//The bytes sent by the routes (larger than the pooled buffer)
+	static final byte[] BYTES = bytes(100 * 1024);
+	
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The file with the bytes
+		public static volatile Path file;
+		
+		public Path path() {return file;}
+		public File file() {return file.toFile();}
+		public FileChannel channel() throws Exception {return FileChannel.open(file, StandardOpenOption.READ).position(10);}
+		public ByteBuffer buffer() {return (ByteBuffer) ByteBuffer.wrap(BYTES).position(10);}
+		public ByteBuffer direct() {return (ByteBuffer) ByteBuffer.allocateDirect(BYTES.length).put(BYTES).flip();}
+		public InputStream stream() {return new ByteArrayInputStream(BYTES);}
+		public byte[] bytes() {return BYTES;}
+	}
+	
+	//The folder for the file
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters and the file.
+	 * @throws Exception
+	 */
+	@Before
+	public void init() throws Exception
+	{
+		Routes.file = folder.newFile().toPath();
+		Files.write(Routes.file, BYTES);
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the whole content with the content length.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsWholeContent() throws Exception
+	{
+		//The file and the direct buffer
+		for(String path : new String[] {"/path", "/file", "/direct"})
+		{
+			TestResponse response = router.call(path);
+			assertEquals(200, response.getStatus());
+			assertEquals("application/octet-stream", response.getContentType());
+			assertEquals("bytes", response.getHeader("Accept-Ranges"));
+			assertEquals(BYTES.length, response.contentLength());
+			assertArrayEquals(BYTES, response.bytes());
+		}
+		
+		//The channel and the buffer from the position
+		assertArrayEquals(Arrays.copyOfRange(BYTES, 10, BYTES.length), router.call("/channel").bytes());
+		assertArrayEquals(Arrays.copyOfRange(BYTES, 10, BYTES.length), router.call("/buffer").bytes());
+		
+		//The stream without the content length and ranges
+		TestResponse response = router.call(new TestRequest("/stream").header("Range", "bytes=0-9"));
+		assertEquals(200, response.getStatus());
+		assertEquals(-1, response.contentLength());
+		assertNull(response.getHeader("Accept-Ranges"));
+		assertArrayEquals(BYTES, response.bytes());
+		
+		//The bytes
+		assertArrayEquals(BYTES, router.call("/bytes").bytes());
+	}
+	
+	/**
+	 * Send 206 partial content for a single byte range.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsRange() throws Exception
+	{
+		//From the first to the last byte
+		TestResponse response = router.call(new TestRequest("/path").header("Range", "bytes=100-199"));
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 100-199/" + BYTES.length, response.getHeader("Content-Range"));
+		assertEquals(100, response.contentLength());
+		assertArrayEquals(Arrays.copyOfRange(BYTES, 100, 200), response.bytes());
+		
+		//From the first byte to the end (the range starts at the position of the channel)
+		response = router.call(new TestRequest("/channel").header("Range", "bytes=50000-"));
+		assertEquals(206, response.getStatus());
+		assertEquals("bytes 50000-" + (BYTES.length - 11) + "/" + (BYTES.length - 10), response.getHeader("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(BYTES, 50010, BYTES.length), response.bytes());
+		
+		//The last bytes
+		response = router.call(new TestRequest("/buffer").header("Range", "bytes=-5"));
+		assertEquals(206, response.getStatus());
+		assertArrayEquals(Arrays.copyOfRange(BYTES, BYTES.length - 5, BYTES.length), response.bytes());
+		
+		//The last byte is limited to the size
+		response = router.call(new TestRequest("/direct").header("Range", "bytes=10-999999999"));
+		assertEquals(206, response.getStatus());
+		assertArrayEquals(Arrays.copyOfRange(BYTES, 10, BYTES.length), response.bytes());
+		
+		//Multiple ranges send the whole content
+		response = router.call(new TestRequest("/path").header("Range", "bytes=0-1, 5-6"));
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(BYTES, response.bytes());
+	}
+	
+	/**
+	 * Send 416 when the range can't be satisfied.
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsUnsatisfiableRange() throws Exception
+	{
+		for(String range : new String[] {"bytes=" + BYTES.length + "-", "bytes=20-10"})
+		{
+			TestResponse response = router.call(new TestRequest("/path").header("Range", range));
+			assertEquals(416, response.getStatus());
+			assertEquals("bytes */" + BYTES.length, response.getHeader("Content-Range"));
+			assertEquals(0, response.bytes().length);
+		}
+	}
+	
+	/**
+	 * Let the container send the file when sendfile is supported.
+	 * @throws Exception
+	 */
+	@Test
+	public void letsContainerSendFile() throws Exception
+	{
+		//Send the range
+		TestRequest request = new TestRequest("/path").header("Range", "bytes=10-19");
+		request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+		TestResponse response = router.call(request);
+		
+		//The file is set for the container
+		assertEquals(206, response.getStatus());
+		assertEquals(Routes.file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+		assertEquals(10L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+		assertEquals(20L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+		assertEquals(0, response.bytes().length);
+	}
+	
+	/**
+	 * Create the bytes.
+	 * @param length
+	 * @return
+	 */
+	static byte[] bytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		for(int i=0; i<length; i++)
+			bytes[i] = (byte) (i * 31 + i / 256);
+		return bytes;
+	}
+}
@@ -0,0 +1,197 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonObject;
+
+/**
+ * Test the response cache of the cached routes.
+ * @author Johan Hertz
+ */
+public class CachedRouteTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The number of invocations
+		public static final AtomicInteger invocations = new AtomicInteger();
+		
+		@Cached(ttlMillis=60000, maxEntries=2)
+		public JsonObject lookup(JsonObject data)
+		{
+			invocations.incrementAndGet();
+			data.addProperty("invocation", invocations.get());
+			return data;
+		}
+		
+		@Cached(ttlMillis=100)
+		public int expiring()
+		{
+			return invocations.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * The cached route that streams the request elements (not allowed).
+	 */
+	public static class ElementsRoute
+	{
+		@Cached public int count(Iterator<JsonObject> elements) {return 0;}
+	}
+	
+	/**
+	 * The cached route with the request and the response (not allowed).
+	 */
+	public static class RequestResponseRoute
+	{
+		@Cached public void write(HttpServletRequest request, HttpServletResponse response) {}
+	}
+	
+	/**
+	 * The cached route that reads the raw request body (not allowed).
+	 */
+	public static class RawBodyRoute
+	{
+		@Cached public int upload(byte[] body) {return body.length;}
+	}
+	
+	/**
+	 * The cached route that returns a stream (not allowed).
+	 */
+	public static class StreamedRoute
+	{
+		@Cached public InputStream download() {return new ByteArrayInputStream(new byte[0]);}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		Routes.invocations.set(0);
+		router = new TestRouter(Routes.class, "etag", "true");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the cached response for the same request data.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsCachedResponse() throws Exception
+	{
+		//The route is invoked once for the same data (the route changes the data after the key is created)
+		assertEquals(1, router.call(new TestRequest("/lookup").json("{\"id\": 1}")).json().getAsJsonObject().get("invocation").getAsInt());
+		TestResponse response = router.call(new TestRequest("/lookup").json("{\"id\": 1}"));
+		assertEquals(1, response.json().getAsJsonObject().get("invocation").getAsInt());
+		assertEquals(1, Routes.invocations.get());
+		
+		//The cached response has the ETag of the cached data
+		TestResponse notModified = router.call(new TestRequest("/lookup").json("{\"id\": 1}").header("If-None-Match", response.getHeader("ETag")));
+		assertEquals(304, notModified.getStatus());
+		assertEquals(1, Routes.invocations.get());
+		
+		//Other data invokes the route
+		assertEquals(2, router.call(new TestRequest("/lookup").json("{\"id\": 2}")).json().getAsJsonObject().get("invocation").getAsInt());
+	}
+	
+	/**
+	 * Remove the least recently used response when the cache is full.
+	 * @throws Exception
+	 */
+	@Test
+	public void removesLeastRecentlyUsed() throws Exception
+	{
+		//Fill the cache (1 is used after 2 so 2 is removed)
+		router.call(new TestRequest("/lookup").json("{\"id\": 1}"));
+		router.call(new TestRequest("/lookup").json("{\"id\": 2}"));
+		router.call(new TestRequest("/lookup").json("{\"id\": 1}"));
+		router.call(new TestRequest("/lookup").json("{\"id\": 3}"));
+		assertEquals(3, Routes.invocations.get());
+		
+		//1 and 3 are cached
+		router.call(new TestRequest("/lookup").json("{\"id\": 1}"));
+		router.call(new TestRequest("/lookup").json("{\"id\": 3}"));
+		assertEquals(3, Routes.invocations.get());
+		
+		//2 was removed
+		router.call(new TestRequest("/lookup").json("{\"id\": 2}"));
+		assertEquals(4, Routes.invocations.get());
+	}
+	
+	/**
+	 * Invoke the route again when the cached response has expired.
+	 * @throws Exception
+	 */
+	@Test
+	public void expiresCachedResponse() throws Exception
+	{
+		assertEquals("1", router.call("/expiring").text());
+		assertEquals("1", router.call("/expiring").text());
+		Thread.sleep(150);
+		assertEquals("2", router.call("/expiring").text());
+	}
+	
+	/**
+	 * Reject the cached routes that can't be cached when the filter is created.
+	 */
+	@Test
+	public void rejectsRoutesThatCantBeCached()
+	{
+		assertRejected(ElementsRoute.class, "can't be cached since it streams the request body elements");
+		assertRejected(RequestResponseRoute.class, "can't be cached since it has request and response parameters");
+		assertRejected(RawBodyRoute.class, "can't be cached since it reads the raw request body");
+		assertRejected(StreamedRoute.class, "can't be cached since it returns streamed or binary data");
+	}
+	
+	/**
+	 * Check that the filter can't be created with the routes.
+	 * @param routes
+	 * @param message
+	 */
+	static void assertRejected(Class<?> routes, String message)
+	{
+		try
+		{
+			new TestRouter(routes).destroy();
+			fail("The routes " + routes.getSimpleName() + " were not rejected");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(RouteInvokerTest.messages(ex), RouteInvokerTest.messages(ex).contains(message));
+		}
+	}
+}
@@ -0,0 +1,318 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Test the CBOR format (RFC 8949, the byte examples are from appendix A).
+ * @author Johan Hertz
+ */
+public class CborFormatTest
+{
+	/**
+	 * Skip the tags of the tagged item.
+	 */
+	@Test
+	public void skipsTags()
+	{
+		assertEquals(new JsonPrimitive(1), decode(bytes(0xC6, 0xD8, 0x20, 0x01), -1, -1));
+		assertEquals(new JsonPrimitive("a"), decode(bytes(0xC0, 0x61, 'a'), -1, -1));
+	}
+	
+	/**
+	 * Read a long run of tags without recursing once per tag (the regression of the stack overflow).
+	 */
+	@Test
+	public void readsTagRunWithoutRecursion()
+	{
+		//Create the tags followed by the item
+		byte[] bytes = new byte[1000001];
+		Arrays.fill(bytes, (byte) 0xC6);
+		bytes[bytes.length - 1] = 0x01;
+		assertEquals(new JsonPrimitive(1), decode(bytes, 8, -1));
+		
+		//Create the tags without the item (the data ends before the value)
+		Arrays.fill(bytes, (byte) 0xC6);
+		try
+		{
+			decode(bytes, 8, -1);
+			fail("Not rejected");
+		}
+		catch(JsonSyntaxException ex)
+		{
+		}
+	}
+	
+	/**
+	 * Encode and decode the JSON to the same JSON.
+	 * @throws IOException
+	 */
+	@Test
+	public void roundTrips() throws IOException
+	{
+		assertRoundTrip("null");
+		assertRoundTrip("true");
+		assertRoundTrip("false");
+		assertRoundTrip("\"caf\u00e9 \ud83d\ude00\"");
+		assertRoundTrip("[0, 23, 24, 255, 256, 65535, 65536, 4294967295, 4294967296, 9223372036854775807]");
+		assertRoundTrip("[-1, -24, -25, -256, -257, -65537, -4294967297, -9223372036854775808]");
+		assertRoundTrip("[1.5, -0.25, 1e300]");
+		assertRoundTrip("{\"a\": [1, {\"b\": null}], \"c\": {}, \"d\": []}");
+		assertRoundTrip(large());
+	}
+	
+	/**
+	 * Write the integers with the shortest argument.
+	 * @throws IOException
+	 */
+	@Test
+	public void writesShortestIntegers() throws IOException
+	{
+		assertArrayEquals(bytes(0x17), encode("23"));
+		assertArrayEquals(bytes(0x18, 0x18), encode("24"));
+		assertArrayEquals(bytes(0x19, 0x01, 0x00), encode("256"));
+		assertArrayEquals(bytes(0x1A, 0x00, 0x01, 0x00, 0x00), encode("65536"));
+		assertArrayEquals(bytes(0x1B, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00), encode("4294967296"));
+		assertArrayEquals(bytes(0x20), encode("-1"));
+		assertArrayEquals(bytes(0x38, 0x18), encode("-25"));
+		assertArrayEquals(bytes(0xFB, 0x3F, 0xF8, 0, 0, 0, 0, 0, 0), encode("1.5"));
+	}
+	
+	/**
+	 * Read the big numbers and the 64 bit integers beyond a long.
+	 */
+	@Test
+	public void readsBigNumbers()
+	{
+		//The 64 bit integers
+		assertEquals(new JsonPrimitive(new BigInteger("18446744073709551615")), decode(bytes(0x1B, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(new BigInteger("-18446744073709551616")), decode(bytes(0x3B, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(Long.MIN_VALUE), decode(bytes(0x3B, 0x7F, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF), -1, -1));
+		
+		//The big number tags (2^64 and -1 - 2^64)
+		assertEquals(new JsonPrimitive(new BigInteger("18446744073709551616")), decode(bytes(0xC2, 0x49, 0x01, 0, 0, 0, 0, 0, 0, 0, 0), -1, -1));
+		assertEquals(new JsonPrimitive(new BigInteger("-18446744073709551617")), decode(bytes(0xC3, 0x49, 0x01, 0, 0, 0, 0, 0, 0, 0, 0), -1, -1));
+		
+		//The big number that is not a byte string
+		assertSyntaxError(bytes(0xC2, 0x01));
+	}
+	
+	/**
+	 * Read the half, single and double precision floats.
+	 */
+	@Test
+	public void readsFloats()
+	{
+		//Half precision
+		assertEquals(1.0, decode(bytes(0xF9, 0x3C, 0x00), -1, -1).getAsDouble(), 0);
+		assertEquals(-2.0, decode(bytes(0xF9, 0xC0, 0x00), -1, -1).getAsDouble(), 0);
+		assertEquals(65504.0, decode(bytes(0xF9, 0x7B, 0xFF), -1, -1).getAsDouble(), 0);
+		assertEquals(Math.pow(2, -24), decode(bytes(0xF9, 0x00, 0x01), -1, -1).getAsDouble(), 0);
+		assertEquals(Math.pow(2, -14), decode(bytes(0xF9, 0x04, 0x00), -1, -1).getAsDouble(), 0);
+		assertEquals(Double.POSITIVE_INFINITY, decode(bytes(0xF9, 0x7C, 0x00), -1, -1).getAsDouble(), 0);
+		assertEquals(Double.NEGATIVE_INFINITY, decode(bytes(0xF9, 0xFC, 0x00), -1, -1).getAsDouble(), 0);
+		assertTrue(Double.isNaN(decode(bytes(0xF9, 0x7E, 0x00), -1, -1).getAsDouble()));
+		
+		//Single and double precision
+		assertEquals(100000.0, decode(bytes(0xFA, 0x47, 0xC3, 0x50, 0x00), -1, -1).getAsDouble(), 0);
+		assertEquals(1.1, decode(bytes(0xFB, 0x3F, 0xF1, 0x99, 0x99, 0x99, 0x99, 0x99, 0x9A), -1, -1).getAsDouble(), 0);
+		
+		//The simple values
+		assertEquals(JsonNull.INSTANCE, decode(bytes(0xF7), -1, -1));
+		assertSyntaxError(bytes(0xF0));
+	}
+	
+	/**
+	 * Read the indefinite length arrays, maps and strings.
+	 */
+	@Test
+	public void readsIndefiniteLength()
+	{
+		assertEquals(JsonParser.parseString("[1, [2, 3], []]"), decode(bytes(0x9F, 0x01, 0x82, 0x02, 0x03, 0x9F, 0xFF, 0xFF), -1, -1));
+		assertEquals(JsonParser.parseString("{\"a\": 1, \"b\": [2]}"), decode(bytes(0xBF, 0x61, 'a', 0x01, 0x61, 'b', 0x9F, 0x02, 0xFF, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive("streaming"), decode(bytes(0x7F, 0x65, 's', 't', 'r', 'e', 'a', 0x64, 'm', 'i', 'n', 'g', 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive("AQID"), decode(bytes(0x5F, 0x42, 0x01, 0x02, 0x41, 0x03, 0xFF), -1, -1));
+		
+		//The missing break
+		assertSyntaxError(bytes(0x9F, 0x01, 0x02));
+		assertSyntaxError(bytes(0x7F, 0x61, 'a'));
+	}
+	
+	/**
+	 * Read the byte strings as base64 and the keys that are not strings as their JSON text.
+	 */
+	@Test
+	public void readsBytesAndKeys()
+	{
+		assertEquals(new JsonPrimitive("AQID"), decode(bytes(0x43, 0x01, 0x02, 0x03), -1, -1));
+		assertEquals(JsonParser.parseString("{\"1\": \"a\", \"[2]\": true}"), decode(bytes(0xA2, 0x01, 0x61, 'a', 0x81, 0x02, 0xF5), -1, -1));
+	}
+	
+	/**
+	 * Reject the data that ends before the value and the bytes after the value.
+	 */
+	@Test
+	public void rejectsTruncatedAndTrailing()
+	{
+		//Truncated
+		assertSyntaxError(bytes(0x82, 0x01));
+		assertSyntaxError(bytes(0x19, 0x01));
+		assertSyntaxError(bytes(0x63, 'a', 'b'));
+		assertSyntaxError(bytes(0xA1, 0x61, 'a'));
+		
+		//The lengths larger than the data (rejected before the members are allocated)
+		assertSyntaxError(bytes(0x9B, 0x7F, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+		assertSyntaxError(bytes(0x5B, 0x7F, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF));
+		
+		//Trailing bytes
+		assertSyntaxError(bytes(0x01, 0x02));
+		assertSyntaxError(bytes(0x80, 0xFF));
+		
+		//No data
+		assertEquals(JsonNull.INSTANCE, decode(new byte[0], -1, -1));
+	}
+	
+	/**
+	 * Limit the depth and the members of the arrays and maps.
+	 */
+	@Test
+	public void limitsDepthAndMembers()
+	{
+		//Within the limits
+		assertEquals(JsonParser.parseString("[[1, 2]]"), decode(bytes(0x81, 0x82, 0x01, 0x02), 2, 2));
+		
+		//Too deep
+		assertRejected(bytes(0x81, 0x81, 0x01), 1, -1);
+		assertRejected(bytes(0x9F, 0xBF, 0xFF, 0xFF), 1, -1);
+		assertRejected(bytes(0xC6, 0x81, 0xC6, 0x81, 0x01), 1, -1);
+		
+		//Too many members
+		assertRejected(bytes(0x83, 0x01, 0x02, 0x03), -1, 2);
+		assertRejected(bytes(0xA3, 0x01, 0x01, 0x02, 0x02, 0x03, 0x03), -1, 2);
+		assertRejected(bytes(0x9F, 0x01, 0x02, 0x03, 0xFF), -1, 2);
+		assertRejected(bytes(0xBF, 0x01, 0x01, 0x02, 0x02, 0x03, 0x03, 0xFF), -1, 2);
+	}
+	
+	/**
+	 * Decode the bytes.
+	 * @param bytes
+	 * @param maxDepth
+	 * @param maxMembers
+	 * @return
+	 */
+	static JsonElement decode(byte[] bytes, int maxDepth, int maxMembers)
+	{
+		return BinaryFormat.CBOR.decode(bytes, 0, bytes.length, maxDepth, maxMembers);
+	}
+	
+	/**
+	 * Encode the JSON.
+	 * @param json
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] encode(String json) throws IOException
+	{
+		return BinaryFormat.CBOR.encode(JsonParser.parseString(json));
+	}
+	
+	/**
+	 * Assert that the JSON is decoded to the same JSON when encoded.
+	 * @param json
+	 * @throws IOException
+	 */
+	private static void assertRoundTrip(String json) throws IOException
+	{
+		assertEquals(JsonParser.parseString(json), decode(encode(json), -1, -1));
+	}
+	
+	/**
+	 * Assert that the bytes are not valid CBOR.
+	 * @param bytes
+	 */
+	private static void assertSyntaxError(byte[] bytes)
+	{
+		//Try to decode the bytes
+		try
+		{
+			decode(bytes, -1, -1);
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(JsonSyntaxException ex)
+		{
+		}
+	}
+	
+	/**
+	 * Assert that the bytes are rejected by the limits.
+	 * @param bytes
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	private static void assertRejected(byte[] bytes, int maxDepth, int maxMembers)
+	{
+		//Try to decode the bytes
+		try
+		{
+			decode(bytes, maxDepth, maxMembers);
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(RequestBodyException ex)
+		{
+			assertEquals(400, ex.getStatus());
+		}
+	}
+	
+	/**
+	 * Create the JSON with the arrays, maps and strings longer than the short lengths.
+	 * @return
+	 */
+	static String large()
+	{
+		//Create the JSON
+		StringBuilder json = new StringBuilder("{\"text\": \"");
+		for(int i=0; i<70000; i++)
+			json.append((char) ('a' + i % 26));
+		json.append("\", \"array\": [");
+		for(int i=0; i<70000; i++)
+			json.append(i == 0 ? "" : ",").append(i);
+		json.append("], \"map\": {");
+		for(int i=0; i<300; i++)
+			json.append(i == 0 ? "" : ",").append("\"k").append(i).append("\": ").append(-i);
+		return json.append("}}").toString();
+	}
+	
+	/**
+	 * Create the bytes.
+	 * @param values
+	 * @return
+	 */
+	static byte[] bytes(int... values)
+	{
+		byte[] bytes = new byte[values.length];
+		for(int i=0; i<values.length; i++)
+			bytes[i] = (byte) values[i];
+		return bytes;
+	}
+}
@@ -0,0 +1,187 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.CachedRouteTest.assertRejected;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonObject;
+
+/**
+ * Test the coalesced routes that share one invocation between identical requests.
+ * @author Johan Hertz
+ */
+public class CoalescedRouteTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The number of invocations
+		public static final AtomicInteger invocations = new AtomicInteger();
+		
+		//The latches used to hold the route
+		public static volatile CountDownLatch entered, release;
+		
+		@Coalesce
+		public int slow(int value) throws InterruptedException
+		{
+			invocations.incrementAndGet();
+			entered.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return value * 2;
+		}
+	}
+	
+	/**
+	 * The coalesced route that streams the request elements (not allowed).
+	 */
+	public static class ElementsRoute
+	{
+		@Coalesce public int count(Iterator<JsonObject> elements) {return 0;}
+	}
+	
+	/**
+	 * The coalesced route that is asynchronous (not allowed).
+	 */
+	public static class AsyncRoute
+	{
+		@Coalesce public CompletableFuture<Integer> later() {return CompletableFuture.completedFuture(1);}
+	}
+	
+	//Fields
+	private TestRouter router;
+	private ExecutorService callers;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		Routes.invocations.set(0);
+		Routes.entered = new CountDownLatch(1);
+		Routes.release = new CountDownLatch(1);
+		router = new TestRouter(Routes.class, "coalesce-timeout", "200");
+		callers = Executors.newCachedThreadPool();
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		Routes.release.countDown();
+		callers.shutdownNow();
+		router.destroy();
+	}
+	
+	/**
+	 * Share the invocation between the identical requests.
+	 * @throws Exception
+	 */
+	@Test
+	public void sharesInvocation() throws Exception
+	{
+		//Send the first request and wait for the invocation
+		List<Future<TestResponse>> responses = new ArrayList<Future<TestResponse>>();
+		responses.add(call("5"));
+		awaitEntered();
+		
+		//Send the identical requests (waiting for the invocation)
+		for(int i=0; i<4; i++)
+			responses.add(call("5"));
+		Thread.sleep(50);
+		
+		//Complete the invocation
+		Routes.release.countDown();
+		for(Future<TestResponse> response : responses)
+			assertEquals("10", response.get(5, TimeUnit.SECONDS).text());
+		assertEquals(1, Routes.invocations.get());
+		
+		//Other data is not shared
+		assertEquals("12", router.call(new TestRequest("/slow").json("6")).text());
+		assertEquals(2, Routes.invocations.get());
+	}
+	
+	/**
+	 * Send 504 to the request that waits longer than the coalesce timeout (the invocation is
+	 * kept for the other requests).
+	 * @throws Exception
+	 */
+	@Test
+	public void timesOutWaitingRequest() throws Exception
+	{
+		//Send the first request and wait for the invocation
+		Future<TestResponse> first = call("5");
+		awaitEntered();
+		
+		//The identical requests time out
+		assertEquals(504, router.call(new TestRequest("/slow").json("5")).getStatus());
+		assertEquals(504, router.call(new TestRequest("/slow").json("5")).getStatus());
+		
+		//The invocation completes
+		Routes.release.countDown();
+		assertEquals("10", first.get(5, TimeUnit.SECONDS).text());
+		assertEquals(1, Routes.invocations.get());
+	}
+	
+	/**
+	 * Reject the coalesced routes that can't be coalesced when the filter is created.
+	 */
+	@Test
+	public void rejectsRoutesThatCantBeCoalesced()
+	{
+		assertRejected(ElementsRoute.class, "can't be coalesced since it streams the request body elements");
+		assertRejected(AsyncRoute.class, "can't be coalesced since it is asynchronous");
+	}
+	
+	/**
+	 * Call the slow route on another thread.
+	 * @param json
+	 * @return
+	 */
+	private Future<TestResponse> call(final String json)
+	{
+		return callers.submit(new Callable<TestResponse>()
+		{
+			public TestResponse call() throws Exception
+			{
+				return router.call(new TestRequest("/slow").json(json));
+			}
+		});
+	}
+	
+	/**
+	 * Wait for the slow route to be invoked.
+	 * @throws InterruptedException
+	 */
+	private static void awaitEntered() throws InterruptedException
+	{
+		if(!Routes.entered.await(5, TimeUnit.SECONDS))
+			fail("The route was not invoked");
+	}
+}
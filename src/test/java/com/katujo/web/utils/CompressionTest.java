@@ -0,0 +1,108 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonArray;
+
+/**
+ * Test the gzip and deflate compression of the route responses.
+ * @author Johan Hertz
+ */
+public class CompressionTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public JsonArray rows(int count) {return JsonResponseTest.rows(count);}
+		@NoCompression public JsonArray plain(int count) {return JsonResponseTest.rows(count);}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "compression", "true", "compression-threshold", "1024");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Compress the response with gzip (preferred) or deflate.
+	 * @throws Exception
+	 */
+	@Test
+	public void compressesAcceptedEncoding() throws Exception
+	{
+		//Gzip
+		TestResponse response = router.call(new TestRequest("/rows").json("100").header("Accept-Encoding", "deflate, gzip"));
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertTrue(response.getHeaders("Vary").contains("Accept-Encoding"));
+		assertEquals(JsonResponseTest.rows(100), response.json());
+		assertTrue(response.bytes().length < JsonResponseTest.rows(100).toString().length());
+		
+		//Deflate
+		response = router.call(new TestRequest("/rows").json("100").header("Accept-Encoding", "deflate"));
+		assertEquals("deflate", response.getHeader("Content-Encoding"));
+		assertEquals(JsonResponseTest.rows(100), response.json());
+		
+		//Streamed response larger than the buffer
+		response = router.call(new TestRequest("/rows").json("5000").header("Accept-Encoding", "gzip"));
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertEquals(JsonResponseTest.rows(5000), response.json());
+	}
+	
+	/**
+	 * Don't compress a response below the threshold, an encoding with quality 0, or a route
+	 * without compression.
+	 * @throws Exception
+	 */
+	@Test
+	public void skipsCompression() throws Exception
+	{
+		//Below the threshold
+		TestResponse response = router.call(new TestRequest("/rows").json("1").header("Accept-Encoding", "gzip"));
+		assertNull(response.getHeader("Content-Encoding"));
+		assertEquals(JsonResponseTest.rows(1), response.json());
+		
+		//Quality 0
+		response = router.call(new TestRequest("/rows").json("100").header("Accept-Encoding", "gzip;q=0, identity"));
+		assertNull(response.getHeader("Content-Encoding"));
+		
+		//No encoding accepted
+		response = router.call(new TestRequest("/rows").json("100"));
+		assertNull(response.getHeader("Content-Encoding"));
+		assertEquals(JsonResponseTest.rows(100), response.json());
+		
+		//Route without compression
+		response = router.call(new TestRequest("/plain").json("100").header("Accept-Encoding", "gzip"));
+		assertNull(response.getHeader("Content-Encoding"));
+		assertFalse(response.getHeaders("Vary").contains("Accept-Encoding"));
+	}
+}
@@ -0,0 +1,112 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonArray;
+
+/**
+ * Test the ETag of the route responses and the 304 not modified response.
+ * @author Johan Hertz
+ */
+public class ETagTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public JsonArray rows(int count) {return JsonResponseTest.rows(count);}
+		public List<String> names() {return Arrays.asList("a", "b");}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "etag", "true");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send 304 not modified when the ETag matches.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsNotModified() throws Exception
+	{
+		//Get the ETag
+		TestResponse response = router.call(new TestRequest("/rows").json("3"));
+		String etag = response.getHeader("ETag");
+		assertNotNull(etag);
+		assertTrue(etag.startsWith("W/\""));
+		assertEquals(200, response.getStatus());
+		
+		//The same data is not modified (weak and strong tags match)
+		for(String match : new String[] {etag, etag.substring(2), "\"other\", " + etag, "*"})
+		{
+			response = router.call(new TestRequest("/rows").json("3").header("If-None-Match", match));
+			assertEquals(304, response.getStatus());
+			assertEquals(0, response.bytes().length);
+		}
+		
+		//Other data is modified
+		response = router.call(new TestRequest("/rows").json("4").header("If-None-Match", etag));
+		assertEquals(200, response.getStatus());
+		assertNotEquals(etag, response.getHeader("ETag"));
+		assertEquals(JsonResponseTest.rows(4), response.json());
+	}
+	
+	/**
+	 * Send the ETag for the data serialized with a type adapter.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsNotModifiedForAdapterData() throws Exception
+	{
+		String etag = router.call("/names").getHeader("ETag");
+		assertNotNull(etag);
+		assertEquals(304, router.call(new TestRequest("/names").header("If-None-Match", etag)).getStatus());
+	}
+	
+	/**
+	 * Don't send the ETag for a streamed response larger than the buffer.
+	 * @throws Exception
+	 */
+	@Test
+	public void skipsStreamedResponse() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/rows").json("5000").header("If-None-Match", "*"));
+		assertNull(response.getHeader("ETag"));
+		assertEquals(200, response.getStatus());
+	}
+}
@@ -0,0 +1,126 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonObject;
+
+/**
+ * Test the routes that iterate the elements streamed from the request body.
+ * @author Johan Hertz
+ */
+public class ElementsRouteTest
+{
+	/**
+	 * The line read from the request body.
+	 */
+	public static class Line
+	{
+		public int quantity;
+		public double price;
+	}
+	
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public int count(Iterator<JsonObject> rows)
+		{
+			int count = 0;
+			for(; rows.hasNext(); rows.next())
+				count++;
+			return count;
+		}
+		
+		public double total(Iterator<Line> lines)
+		{
+			double total = 0;
+			while(lines.hasNext())
+			{
+				Line line = lines.next();
+				total += line.quantity * line.price;
+			}
+			return total;
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "max-body-size", "64", "max-stream-size", "1024");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Iterate the elements of a JSON array and of newline delimited JSON (larger than the max body size).
+	 * @throws Exception
+	 */
+	@Test
+	public void iteratesElements() throws Exception
+	{
+		//The JSON array
+		assertEquals("10", router.call(new TestRequest("/count").json(rows(10, ", ", "[", "]"))).text());
+		assertEquals("0", router.call(new TestRequest("/count").json("[]")).text());
+		
+		//The newline delimited JSON
+		assertEquals("10", router.call(new TestRequest("/count").body("application/x-ndjson", rows(10, "\n", "", "\n").getBytes(StandardCharsets.UTF_8))).text());
+		
+		//The typed elements
+		assertEquals("7.5", router.call(new TestRequest("/total").json("[{\"quantity\": 2, \"price\": 1.5}, {\"quantity\": 3, \"price\": 1.5}]")).text());
+	}
+	
+	/**
+	 * Reject the body larger than the max stream size with 413.
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsBodyOverMaxStreamSize() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/count").json(rows(100, ", ", "[", "]")));
+		assertEquals(413, response.getStatus());
+		assertEquals(0, response.bytes().length);
+	}
+	
+	/**
+	 * Create the rows.
+	 * @param count
+	 * @param separator
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static String rows(int count, String separator, String start, String end)
+	{
+		StringBuilder rows = new StringBuilder(start);
+		for(int i=0; i<count; i++)
+			rows.append(i == 0 ? "" : separator).append("{\"id\": ").append(i).append("}");
+		return rows.append(end).toString();
+	}
+}
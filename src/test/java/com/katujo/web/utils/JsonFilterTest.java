@@ -0,0 +1,172 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.RouteInvokerTest.causes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Test the request bodies read by the JSON filter.
+ * @author Johan Hertz
+ */
+public class JsonFilterTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public String nothing() {return "ok";}
+		public void write(HttpServletRequest request, HttpServletResponse response) {response.setStatus(202);}
+		public String name(JsonObject data) {return data.get("name").getAsString();}
+		public boolean parsed() {return JsonFilter.getJson() != null && JsonFilter.getJson() == JsonFilter.getJson();}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Don't parse the body for the routes that don't use the request data.
+	 * @throws Exception
+	 */
+	@Test
+	public void ignoresBodyNotUsed() throws Exception
+	{
+		assertEquals("\"ok\"", router.call(new TestRequest("/nothing").json("{not json")).text());
+		assertEquals(202, router.call(new TestRequest("/write").json("{not json")).getStatus());
+	}
+	
+	/**
+	 * Parse the body when the route uses the request data (once for the request).
+	 * @throws Exception
+	 */
+	@Test
+	public void parsesBodyWhenUsed() throws Exception
+	{
+		//The parameter and the JSON of the request
+		assertEquals("\"acme\"", router.call(new TestRequest("/name").json("{\"name\": \"acme\"}")).text());
+		assertEquals("true", router.call(new TestRequest("/parsed").json("{\"name\": \"acme\"}")).text());
+		
+		//Not a JSON request
+		assertEquals("false", router.call(new TestRequest("/parsed").body("text/plain", "{}".getBytes(StandardCharsets.UTF_8))).text());
+		
+		//The invalid body fails the route that uses it
+		try
+		{
+			router.call(new TestRequest("/name").json("{not json"));
+			fail("The invalid body was parsed");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(causes(ex, JsonParseException.class));
+		}
+	}
+	
+	/**
+	 * Reject the body that is larger than the max size with 413 and the body that is nested too 
+	 * deep or has too many members with 400.
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsBodyOverLimits() throws Exception
+	{
+		TestRouter limited = new TestRouter(Routes.class, "max-body-size", "64", "max-depth", "3", "max-members", "4");
+		try
+		{
+			//The size
+			assertEquals(413, limited.call(new TestRequest("/name").json("{\"name\": \"" + new String(new char[64]).replace('\0', 'a') + "\"}")).getStatus());
+			
+			//The depth and the members
+			assertEquals(400, limited.call(new TestRequest("/name").json("{\"name\": [[[1]]]}")).getStatus());
+			assertEquals(400, limited.call(new TestRequest("/name").json("{\"name\": [1, 2, 3, 4, 5]}")).getStatus());
+			
+			//Within the limits
+			assertEquals("\"acme\"", limited.call(new TestRequest("/name").json("{\"name\": \"acme\", \"x\": [[1]]}")).text());
+		}
+		finally
+		{
+			limited.destroy();
+		}
+	}
+	
+	/**
+	 * Inflate the compressed body and reject the content encoding that can't be inflated with 415.
+	 * @throws Exception
+	 */
+	@Test
+	public void inflatesCompressedBody() throws Exception
+	{
+		//The gzip body
+		byte[] gzip = gzip("{\"name\": \"acme\"}");
+		assertEquals("\"acme\"", router.call(new TestRequest("/name").body("application/json", gzip).header("Content-Encoding", "gzip")).text());
+		
+		//Not supported
+		assertEquals(415, router.call(new TestRequest("/name").body("application/json", gzip).header("Content-Encoding", "br")).getStatus());
+		
+		//The max size is checked against the inflated body
+		TestRouter limited = new TestRouter(Routes.class, "max-body-size", "64");
+		try
+		{
+			byte[] large = gzip("{\"name\": \"" + new String(new char[1000]).replace('\0', 'a') + "\"}");
+			assertTrue(large.length < 64);
+			assertEquals(413, limited.call(new TestRequest("/name").body("application/json", large).header("Content-Encoding", "gzip")).getStatus());
+		}
+		finally
+		{
+			limited.destroy();
+		}
+	}
+	
+	/**
+	 * Compress the text with gzip.
+	 * @param text
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] gzip(String text) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream output = new GZIPOutputStream(bytes);
+		output.write(text.getBytes(StandardCharsets.UTF_8));
+		output.close();
+		return bytes.toByteArray();
+	}
+}
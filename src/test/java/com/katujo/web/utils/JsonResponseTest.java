@@ -0,0 +1,98 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.utf8;
+import static org.junit.Assert.assertEquals;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Test the JSON responses streamed through the pooled buffer.
+ * @author Johan Hertz
+ */
+public class JsonResponseTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public JsonArray rows(int count) {return JsonResponseTest.rows(count);}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the response that fits in the buffer with the content length.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsContentLength() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/rows").json("3"));
+		assertEquals(rows(3), response.json());
+		assertEquals(response.bytes().length, response.contentLength());
+		assertEquals("UTF-8", response.getCharacterEncoding());
+	}
+	
+	/**
+	 * Stream the response that is larger than the buffer (no content length).
+	 * @throws Exception
+	 */
+	@Test
+	public void streamsLargeResponse() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/rows").json("5000"));
+		assertEquals(-1, response.contentLength());
+		assertEquals(rows(5000), response.json());
+		assertEquals(utf8(rows(5000).toString()).length, response.bytes().length);
+	}
+	
+	/**
+	 * Create the rows (with text that is not ASCII).
+	 * @param count
+	 * @return
+	 */
+	static JsonArray rows(int count)
+	{
+		JsonArray rows = new JsonArray();
+		for(int i=0; i<count; i++)
+		{
+			JsonObject row = new JsonObject();
+			row.addProperty("id", i);
+			row.addProperty("name", "caf\u00e9 \u20ac " + i);
+			row.addProperty("price", i / 4.0);
+			rows.add(row);
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,259 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.request;
+import static com.katujo.web.utils.TestRequests.utf8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+
+/**
+ * Test the depth and member limits of the JSON reader.
+ * @author Johan Hertz
+ */
+public class LimitedJsonReaderTest
+{
+	/**
+	 * Read the JSON within the limits.
+	 */
+	@Test
+	public void readsWithinLimits()
+	{
+		assertEquals(JsonParser.parseString("[[[1]]]"), parse("[[[1]]]", 3, -1));
+		assertEquals(JsonParser.parseString("{\"a\": {\"b\": [1, 2]}}"), parse("{\"a\": {\"b\": [1, 2]}}", 3, 2));
+		assertEquals(JsonParser.parseString("[1, 2, 3]"), parse("[1, 2, 3]", 1, 3));
+		assertEquals(JsonParser.parseString("1"), parse("1", 0, 0));
+	}
+	
+	/**
+	 * Reject the JSON that is nested too deep.
+	 */
+	@Test
+	public void rejectsTooDeep()
+	{
+		assertRejected("[[[1]]]", 2, -1);
+		assertRejected("{\"a\": {\"b\": {}}}", 2, -1);
+		assertRejected("[{\"a\": [1]}]", 2, -1);
+		assertRejected("[]", 0, -1);
+	}
+	
+	/**
+	 * Reject the deeply nested JSON before the parser runs out of stack.
+	 */
+	@Test
+	public void rejectsDeepNesting()
+	{
+		StringBuilder json = new StringBuilder();
+		for(int i=0; i<100000; i++)
+			json.append('[');
+		assertRejected(json.toString(), 64, -1);
+	}
+	
+	/**
+	 * Reject the arrays and objects with too many members.
+	 */
+	@Test
+	public void rejectsTooManyMembers()
+	{
+		assertRejected("[1, 2, 3]", -1, 2);
+		assertRejected("{\"a\": 1, \"b\": 2, \"c\": 3}", -1, 2);
+		assertRejected("[[1], [2, 3, 4]]", -1, 2);
+		assertRejected("{\"a\": [1, 2, 3]}", -1, 2);
+	}
+	
+	/**
+	 * Count the members per array or object (siblings and parents are counted separately).
+	 */
+	@Test
+	public void countsMembersPerLevel()
+	{
+		assertEquals(JsonParser.parseString("[[1, 2], [3, 4]]"), parse("[[1, 2], [3, 4]]", -1, 2));
+		assertEquals(JsonParser.parseString("{\"a\": [1, 2], \"b\": {\"c\": 3, \"d\": 4}}"), parse("{\"a\": [1, 2], \"b\": {\"c\": 3, \"d\": 4}}", -1, 2));
+	}
+	
+	/**
+	 * Don't check the limits of -1.
+	 */
+	@Test
+	public void unlimited()
+	{
+		//Deeply nested
+		StringBuilder json = new StringBuilder();
+		for(int i=0; i<500; i++)
+			json.append('[');
+		for(int i=0; i<500; i++)
+			json.append(']');
+		assertNotNull(parse(json.toString(), -1, -1));
+		
+		//Many members
+		json.setLength(0);
+		json.append('[');
+		for(int i=0; i<10000; i++)
+			json.append(i == 0 ? "" : ",").append(i);
+		json.append(']');
+		assertEquals(10000, parse(json.toString(), -1, -1).getAsJsonArray().size());
+	}
+	
+	/**
+	 * Limit the values read with a type adapter.
+	 * @throws IOException
+	 */
+	@Test
+	public void limitsTypeAdapters() throws IOException
+	{
+		//Get the adapter
+		TypeAdapter<int[][]> adapter = new Gson().getAdapter(int[][].class);
+		
+		//Within the limits
+		assertArrayEquals(new int[][] {{1, 2}, {3}}, adapter.read(new LimitedJsonReader(new StringReader("[[1, 2], [3]]"), 2, 2)));
+		
+		//Too deep
+		try
+		{
+			adapter.read(new LimitedJsonReader(new StringReader("[[1, 2], [3]]"), 1, -1));
+			fail("Not rejected");
+		}
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, status(ex));
+		}
+		
+		//Too many members
+		try
+		{
+			adapter.read(new LimitedJsonReader(new StringReader("[[1, 2, 3]]"), -1, 2));
+			fail("Not rejected");
+		}
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, status(ex));
+		}
+	}
+	
+	/**
+	 * Limit the body read with a type adapter.
+	 */
+	@Test
+	public void limitsRequestBody()
+	{
+		//Get the adapter
+		TypeAdapter<int[]> adapter = new Gson().getAdapter(int[].class);
+		
+		//Within the limits
+		assertArrayEquals(new int[] {1, 2}, body("[1, 2]", 1, 2).read(adapter));
+		
+		//Too many members
+		try
+		{
+			body("[1, 2, 3]", 1, 2).read(adapter);
+			fail("Not rejected");
+		}
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, status(ex));
+		}
+	}
+	
+	/**
+	 * Limit each streamed element but not the number of elements.
+	 */
+	@Test
+	public void limitsStreamedElements()
+	{
+		//Get the adapter
+		TypeAdapter<int[]> adapter = new Gson().getAdapter(int[].class);
+		
+		//The elements are not counted
+		Iterator<int[]> elements = body("[[1, 2], [3, 4], [5, 6]]", 2, 2).elements(adapter);
+		assertArrayEquals(new int[] {1, 2}, elements.next());
+		assertArrayEquals(new int[] {3, 4}, elements.next());
+		assertArrayEquals(new int[] {5, 6}, elements.next());
+		assertFalse(elements.hasNext());
+		
+		//The element with too many members
+		elements = body("[[1, 2], [3, 4, 5]]", 2, 2).elements(adapter);
+		assertArrayEquals(new int[] {1, 2}, elements.next());
+		try
+		{
+			elements.next();
+			fail("Not rejected");
+		}
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, status(ex));
+		}
+	}
+	
+	/**
+	 * Parse the JSON with the Gson parser from the limited reader.
+	 * @param json
+	 * @param maxDepth
+	 * @param maxMembers
+	 * @return
+	 */
+	private static JsonElement parse(String json, int maxDepth, int maxMembers)
+	{
+		return JsonParser.parseReader(new LimitedJsonReader(new StringReader(json), maxDepth, maxMembers));
+	}
+	
+	/**
+	 * Create the request body with the limits.
+	 * @param json
+	 * @param maxDepth
+	 * @param maxMembers
+	 * @return
+	 */
+	private static RequestBody body(String json, int maxDepth, int maxMembers)
+	{
+		return new RequestBody(request(utf8(json), null), "UTF-8", null, -1, -1, maxDepth, maxMembers);
+	}
+	
+	/**
+	 * Assert that the JSON is rejected by the limits.
+	 * @param json
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	private static void assertRejected(String json, int maxDepth, int maxMembers)
+	{
+		//Try to parse the JSON
+		try
+		{
+			parse(json, maxDepth, maxMembers);
+			fail("Not rejected: " + json);
+		}
+		
+		//Rejected
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, status(ex));
+		}
+	}
+	
+	/**
+	 * Get the status of the request body exception in the causes.
+	 * @param ex
+	 * @return
+	 */
+	private static int status(Throwable ex)
+	{
+		RequestBodyException found = RequestBodyException.find(ex);
+		assertNotNull("Not a request body exception: " + ex, found);
+		return found.getStatus();
+	}
+}
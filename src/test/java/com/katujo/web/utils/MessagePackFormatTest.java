@@ -0,0 +1,237 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.CborFormatTest.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Test the MessagePack format.
+ * @author Johan Hertz
+ */
+public class MessagePackFormatTest
+{
+	/**
+	 * Encode and decode the JSON to the same JSON.
+	 * @throws IOException
+	 */
+	@Test
+	public void roundTrips() throws IOException
+	{
+		assertRoundTrip("null");
+		assertRoundTrip("true");
+		assertRoundTrip("false");
+		assertRoundTrip("\"caf\\u00e9 \\ud83d\\ude00\"");
+		assertRoundTrip("[0, 127, 128, 255, 256, 65535, 65536, 4294967295, 4294967296, 9223372036854775807]");
+		assertRoundTrip("[-1, -32, -33, -128, -129, -32768, -32769, -2147483648, -2147483649, -9223372036854775808]");
+		assertRoundTrip("[1.5, -0.25, 1e300]");
+		assertRoundTrip("{\"a\": [1, {\"b\": null}], \"c\": {}, \"d\": []}");
+		assertRoundTrip(CborFormatTest.large());
+	}
+	
+	/**
+	 * Write the smallest type for the integers, strings, arrays and maps.
+	 * @throws IOException
+	 */
+	@Test
+	public void writesSmallestTypes() throws IOException
+	{
+		//Integers
+		assertArrayEquals(bytes(0x7F), encode("127"));
+		assertArrayEquals(bytes(0xCC, 0x80), encode("128"));
+		assertArrayEquals(bytes(0xCD, 0x01, 0x00), encode("256"));
+		assertArrayEquals(bytes(0xCE, 0x00, 0x01, 0x00, 0x00), encode("65536"));
+		assertArrayEquals(bytes(0xE0), encode("-32"));
+		assertArrayEquals(bytes(0xD0, 0xDF), encode("-33"));
+		assertArrayEquals(bytes(0xD1, 0xFF, 0x7F), encode("-129"));
+		assertArrayEquals(bytes(0xCB, 0x3F, 0xF8, 0, 0, 0, 0, 0, 0), encode("1.5"));
+		
+		//Strings, arrays and maps
+		assertArrayEquals(bytes(0xA1, 'a'), encode("\"a\""));
+		assertArrayEquals(bytes(0x92, 0x01, 0x02), encode("[1, 2]"));
+		assertArrayEquals(bytes(0x81, 0xA1, 'a', 0xC0), encode("{\"a\": null}"));
+		assertEquals(0xD9, encode("\"" + repeat('x', 32) + "\"")[0] & 0xFF);
+		assertEquals(0xDA, encode("\"" + repeat('x', 256) + "\"")[0] & 0xFF);
+	}
+	
+	/**
+	 * Read the integer types and the 64 bit unsigned integers beyond a long.
+	 */
+	@Test
+	public void readsIntegers()
+	{
+		assertEquals(new JsonPrimitive(-1), decode(bytes(0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(255), decode(bytes(0xCC, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(65535), decode(bytes(0xCD, 0xFF, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(4294967295L), decode(bytes(0xCE, 0xFF, 0xFF, 0xFF, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(new BigInteger("18446744073709551615")), decode(bytes(0xCF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF), -1, -1));
+		assertEquals(new JsonPrimitive(-128), decode(bytes(0xD0, 0x80), -1, -1));
+		assertEquals(new JsonPrimitive(-32768), decode(bytes(0xD1, 0x80, 0x00), -1, -1));
+		assertEquals(new JsonPrimitive(Integer.MIN_VALUE), decode(bytes(0xD2, 0x80, 0x00, 0x00, 0x00), -1, -1));
+		assertEquals(new JsonPrimitive(Long.MIN_VALUE), decode(bytes(0xD3, 0x80, 0, 0, 0, 0, 0, 0, 0), -1, -1));
+	}
+	
+	/**
+	 * Read the floats, binary data and the keys that are not strings.
+	 */
+	@Test
+	public void readsFloatsBytesAndKeys()
+	{
+		assertEquals(100000.0, decode(bytes(0xCA, 0x47, 0xC3, 0x50, 0x00), -1, -1).getAsDouble(), 0);
+		assertEquals(new JsonPrimitive("AQID"), decode(bytes(0xC4, 0x03, 0x01, 0x02, 0x03), -1, -1));
+		assertEquals(new JsonPrimitive("AQID"), decode(bytes(0xC5, 0x00, 0x03, 0x01, 0x02, 0x03), -1, -1));
+		assertEquals(JsonParser.parseString("{\"1\": \"a\", \"[2]\": true}"), decode(bytes(0x82, 0x01, 0xA1, 'a', 0x91, 0x02, 0xC3), -1, -1));
+		assertEquals(JsonParser.parseString("[1, 2]"), decode(bytes(0xDC, 0x00, 0x02, 0x01, 0x02), -1, -1));
+		assertEquals(JsonParser.parseString("{\"a\": 1}"), decode(bytes(0xDE, 0x00, 0x01, 0xA1, 'a', 0x01), -1, -1));
+	}
+	
+	/**
+	 * Reject the data that ends before the value, the bytes after the value and the extension types.
+	 */
+	@Test
+	public void rejectsTruncatedAndTrailing()
+	{
+		//Truncated
+		assertSyntaxError(bytes(0x92, 0x01));
+		assertSyntaxError(bytes(0xCD, 0x01));
+		assertSyntaxError(bytes(0xA3, 'a', 'b'));
+		assertSyntaxError(bytes(0x81, 0xA1, 'a'));
+		
+		//The lengths larger than the data (rejected before the members are allocated)
+		assertSyntaxError(bytes(0xDD, 0xFF, 0xFF, 0xFF, 0xFF));
+		assertSyntaxError(bytes(0xC6, 0xFF, 0xFF, 0xFF, 0xFF));
+		assertSyntaxError(bytes(0xDB, 0xFF, 0xFF, 0xFF, 0xFF));
+		
+		//Trailing bytes
+		assertSyntaxError(bytes(0x01, 0x02));
+		assertSyntaxError(bytes(0x90, 0xC0));
+		
+		//The extension types and the unused type
+		assertSyntaxError(bytes(0xD4, 0x01, 0x01));
+		assertSyntaxError(bytes(0xC1));
+		
+		//No data
+		assertEquals(JsonNull.INSTANCE, decode(new byte[0], -1, -1));
+	}
+	
+	/**
+	 * Limit the depth and the members of the arrays and maps.
+	 */
+	@Test
+	public void limitsDepthAndMembers()
+	{
+		//Within the limits
+		assertEquals(JsonParser.parseString("[[1, 2]]"), decode(bytes(0x91, 0x92, 0x01, 0x02), 2, 2));
+		
+		//Too deep
+		assertRejected(bytes(0x91, 0x91, 0x01), 1, -1);
+		assertRejected(bytes(0x81, 0xA1, 'a', 0x80), 1, -1);
+		
+		//Too many members
+		assertRejected(bytes(0x93, 0x01, 0x02, 0x03), -1, 2);
+		assertRejected(bytes(0x83, 0x01, 0x01, 0x02, 0x02, 0x03, 0x03), -1, 2);
+		assertRejected(bytes(0xDC, 0x00, 0x03, 0x01, 0x02, 0x03), -1, 2);
+	}
+	
+	/**
+	 * Decode the bytes.
+	 * @param bytes
+	 * @param maxDepth
+	 * @param maxMembers
+	 * @return
+	 */
+	private static JsonElement decode(byte[] bytes, int maxDepth, int maxMembers)
+	{
+		return BinaryFormat.MESSAGE_PACK.decode(bytes, 0, bytes.length, maxDepth, maxMembers);
+	}
+	
+	/**
+	 * Encode the JSON.
+	 * @param json
+	 * @return
+	 * @throws IOException
+	 */
+	private static byte[] encode(String json) throws IOException
+	{
+		return BinaryFormat.MESSAGE_PACK.encode(JsonParser.parseString(json));
+	}
+	
+	/**
+	 * Assert that the JSON is decoded to the same JSON when encoded.
+	 * @param json
+	 * @throws IOException
+	 */
+	private static void assertRoundTrip(String json) throws IOException
+	{
+		assertEquals(JsonParser.parseString(json), decode(encode(json), -1, -1));
+	}
+	
+	/**
+	 * Assert that the bytes are not valid MessagePack.
+	 * @param bytes
+	 */
+	private static void assertSyntaxError(byte[] bytes)
+	{
+		//Try to decode the bytes
+		try
+		{
+			decode(bytes, -1, -1);
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(JsonSyntaxException ex)
+		{
+		}
+	}
+	
+	/**
+	 * Assert that the bytes are rejected by the limits.
+	 * @param bytes
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	private static void assertRejected(byte[] bytes, int maxDepth, int maxMembers)
+	{
+		//Try to decode the bytes
+		try
+		{
+			decode(bytes, maxDepth, maxMembers);
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(RequestBodyException ex)
+		{
+			assertEquals(400, ex.getStatus());
+		}
+	}
+	
+	/**
+	 * Repeat the character.
+	 * @param c
+	 * @param count
+	 * @return
+	 */
+	private static String repeat(char c, int count)
+	{
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<count; i++)
+			text.append(c);
+		return text.toString();
+	}
+}
@@ -0,0 +1,117 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonObject;
+
+/**
+ * Test the route metrics sent on the metrics path.
+ * @author Johan Hertz
+ */
+public class MetricsTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public int twice(int value) {return value * 2;}
+		public String fail() {throw new IllegalStateException();}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "metrics-path", "/metrics");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the calls, errors and latencies of the routes as JSON.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsJsonMetrics() throws Exception
+	{
+		//Call the routes
+		callRoutes();
+		
+		//Get the metrics
+		JsonObject metrics = router.call(new TestRequest("/metrics").parameter("format", "json")).json().getAsJsonObject();
+		
+		//The successful route
+		JsonObject twice = metrics.getAsJsonObject("/twice");
+		assertEquals(3, twice.get("calls").getAsLong());
+		assertEquals(0, twice.get("errors").getAsLong());
+		assertEquals(0, twice.get("inFlight").getAsLong());
+		assertEquals(3, twice.getAsJsonObject("invoke").get("count").getAsLong());
+		assertEquals(3, twice.getAsJsonObject("send").get("count").getAsLong());
+		
+		//The failed route
+		assertEquals(1, metrics.getAsJsonObject("/fail").get("calls").getAsLong());
+		assertEquals(1, metrics.getAsJsonObject("/fail").get("errors").getAsLong());
+		
+		//The accepted type also selects JSON
+		assertEquals(metrics.keySet(), router.call(new TestRequest("/metrics").header("Accept", "application/json")).json().getAsJsonObject().keySet());
+	}
+	
+	/**
+	 * Send the metrics in the Prometheus text format.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsPrometheusMetrics() throws Exception
+	{
+		//Call the routes
+		callRoutes();
+		
+		//Get the metrics
+		TestResponse response = router.call("/metrics");
+		String text = response.text();
+		assertTrue(response.getContentType().startsWith("text/plain; version=0.0.4"));
+		assertTrue(text.contains("katujo_route_calls_total{path=\"/twice\"} 3\n"));
+		assertTrue(text.contains("katujo_route_errors_total{path=\"/fail\"} 1\n"));
+		assertTrue(text.contains("katujo_route_duration_seconds_count{path=\"/twice\",phase=\"invoke\"} 3\n"));
+		assertTrue(text.contains("katujo_route_duration_seconds_bucket{path=\"/twice\",phase=\"invoke\",le=\"+Inf\"} 3\n"));
+	}
+	
+	/**
+	 * Call the routes (three successful calls and one failed call).
+	 * @throws Exception
+	 */
+	private void callRoutes() throws Exception
+	{
+		//Call the successful route
+		for(int i=0; i<3; i++)
+			router.call(new TestRequest("/twice").json(String.valueOf(i)));
+		
+		//Call the failed route
+		try {router.call("/fail");}
+		catch(ServletException ex) {}
+	}
+}
@@ -0,0 +1,138 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.RouteInvokerTest.messages;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the route parameters bound to the members of the request data.
+ * @author Johan Hertz
+ */
+public class ParamBindingTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public String orders(@Param("customerId") long customerId, @Param(value="status", defaultValue="\"open\"") String status, @Param(value="limit", defaultValue="10") int limit)
+		{
+			return customerId + " " + status + " " + limit;
+		}
+		
+		public int sum(@Param("a") int a, @Param("b") int b, @Param("more") List<Integer> more)
+		{
+			int sum = a + b;
+			if(more != null)
+				for(int value : more)
+					sum += value;
+			return sum;
+		}
+		
+		public String path(@Param("name") String name, HttpServletRequest request, HttpServletResponse response)
+		{
+			response.setHeader("X-Name", name);
+			return request.getRequestURI();
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Bind the members to the parameters (the default values are used for the missing and null members).
+	 * @throws Exception
+	 */
+	@Test
+	public void bindsMembers() throws Exception
+	{
+		assertEquals("\"7 closed 5\"", router.call(new TestRequest("/orders").json("{\"limit\": 5, \"status\": \"closed\", \"customerId\": 7}")).text());
+		assertEquals("\"7 open 10\"", router.call(new TestRequest("/orders").json("{\"customerId\": 7, \"status\": null}")).text());
+		assertEquals("\"0 open 10\"", router.call("/orders").text());
+	}
+	
+	/**
+	 * Bind the generic types and use zero for the missing primitives.
+	 * @throws Exception
+	 */
+	@Test
+	public void bindsGenericTypesAndPrimitives() throws Exception
+	{
+		assertEquals("6", router.call(new TestRequest("/sum").json("{\"a\": 1, \"more\": [2, 3]}")).text());
+		assertEquals("0", router.call(new TestRequest("/sum").json("{}")).text());
+	}
+	
+	/**
+	 * Pass the request and the response with the bound parameters.
+	 * @throws Exception
+	 */
+	@Test
+	public void passesRequestAndResponse() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/path").json("{\"name\": \"acme\"}"));
+		assertEquals("\"/path\"", response.text());
+		assertEquals("acme", response.getHeader("X-Name"));
+	}
+	
+	/**
+	 * Fail when the member can't be converted or the request data is not an object.
+	 * @throws Exception
+	 */
+	@Test
+	public void failsForInvalidData() throws Exception
+	{
+		assertFails(new TestRequest("/sum").json("{\"a\": \"one\"}"), "Failed to bind the member a to the route parameter");
+		assertFails(new TestRequest("/sum").json("[1, 2]"), "The request data must be a JSON object to bind the route parameters");
+	}
+	
+	/**
+	 * Check that the call fails with the message.
+	 * @param request
+	 * @param message
+	 * @throws Exception
+	 */
+	private void assertFails(TestRequest request, String message) throws Exception
+	{
+		try
+		{
+			router.call(request);
+			fail("The call did not fail");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(messages(ex), messages(ex).contains(message));
+		}
+	}
+}
@@ -0,0 +1,123 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.RouteInvokerTest.messages;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the POJO parameters bound from the request data.
+ * @author Johan Hertz
+ */
+public class PojoParameterTest
+{
+	/**
+	 * The order bound from the request data.
+	 */
+	public static class Order
+	{
+		public String customer;
+		public List<Line> lines;
+	}
+	
+	/**
+	 * The order line.
+	 */
+	public static class Line
+	{
+		public int quantity;
+		public double price;
+	}
+	
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public String customer(Order order) {return order == null ? "none" : order.customer;}
+		
+		public double total(Order order)
+		{
+			double total = 0;
+			for(Line line : order.lines)
+				total += line.quantity * line.price;
+			return total;
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class, "bind-pojo", "true");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Bind the request data to the POJO (including the nested list).
+	 * @throws Exception
+	 */
+	@Test
+	public void bindsRequestData() throws Exception
+	{
+		assertEquals("\"acme\"", router.call(new TestRequest("/customer").json("{\"customer\": \"acme\", \"unknown\": true}")).text());
+		assertEquals("7.5", router.call(new TestRequest("/total").json("{\"lines\": [{\"quantity\": 2, \"price\": 1.5}, {\"quantity\": 3, \"price\": 1.5}]}")).text());
+	}
+	
+	/**
+	 * Pass null to the route when there is no request data.
+	 * @throws Exception
+	 */
+	@Test
+	public void bindsNullWithoutRequestData() throws Exception
+	{
+		assertEquals("\"none\"", router.call("/customer").text());
+	}
+	
+	/**
+	 * Don't add the routes with a POJO parameter when bind-pojo is not set.
+	 * @throws Exception
+	 */
+	@Test
+	public void ignoresPojoRoutesWhenNotEnabled() throws Exception
+	{
+		TestRouter plain = new TestRouter(Routes.class);
+		try
+		{
+			plain.call(new TestRequest("/customer").json("{\"customer\": \"acme\"}"));
+			fail("The route was added");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(messages(ex).contains("Could not find a route for path \"/customer\""));
+		}
+		finally
+		{
+			plain.destroy();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonParser;
+
+/**
+ * Test the POJO, list and map responses written with the type adapters.
+ * @author Johan Hertz
+ */
+public class PojoResponseTest
+{
+	/**
+	 * The customer sent by the routes.
+	 */
+	public static class Customer
+	{
+		public String name;
+		public int orders;
+		
+		public Customer(String name, int orders)
+		{
+			this.name = name;
+			this.orders = orders;
+		}
+	}
+	
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		public Customer customer() {return new Customer("acme", 3);}
+		public List<Customer> customers() {return Arrays.asList(new Customer("acme", 3), new Customer("initech", 0));}
+		public Object any() {return new Customer("acme", 3);}
+		public CompletableFuture<Customer> later() {return CompletableFuture.completedFuture(new Customer("acme", 3));}
+		
+		public Map<String, Integer> counts()
+		{
+			Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+			counts.put("acme", 3);
+			counts.put("initech", 0);
+			return counts;
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the POJO as a JSON object.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsPojo() throws Exception
+	{
+		TestResponse response = router.call("/customer");
+		assertEquals(200, response.getStatus());
+		assertEquals("application/json", response.getContentType().split(";")[0]);
+		assertEquals(JsonParser.parseString("{\"name\": \"acme\", \"orders\": 3}"), response.json());
+	}
+	
+	/**
+	 * Send the list and the map as JSON.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsCollections() throws Exception
+	{
+		assertEquals(JsonParser.parseString("[{\"name\": \"acme\", \"orders\": 3}, {\"name\": \"initech\", \"orders\": 0}]"), router.call("/customers").json());
+		assertEquals(JsonParser.parseString("{\"acme\": 3, \"initech\": 0}"), router.call("/counts").json());
+	}
+	
+	/**
+	 * Send the POJO that is only known when the route returns and the result of the asynchronous route.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsUndeclaredAndAsyncPojo() throws Exception
+	{
+		assertEquals(JsonParser.parseString("{\"name\": \"acme\", \"orders\": 3}"), router.call("/any").json());
+		assertEquals(JsonParser.parseString("{\"name\": \"acme\", \"orders\": 3}"), router.call("/later").json());
+	}
+}
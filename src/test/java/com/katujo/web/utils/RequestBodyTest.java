@@ -0,0 +1,298 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.deflate;
+import static com.katujo.web.utils.TestRequests.gzip;
+import static com.katujo.web.utils.TestRequests.request;
+import static com.katujo.web.utils.TestRequests.utf8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+
+/**
+ * Test the compressed request bodies (inflated and limited by the inflated size).
+ * @author Johan Hertz
+ */
+public class RequestBodyTest
+{
+	//The JSON sent in the tests
+	private static final String JSON = "{\"name\": \"caf\u00e9\", \"values\": [1, 2, 3]}";
+	
+	//The max size of the bodies in the limit tests
+	private static final int MAX_SIZE = 64 * 1024;
+	
+	/**
+	 * Inflate the gzip body.
+	 */
+	@Test
+	public void inflatesGzip()
+	{
+		assertEquals(JsonParser.parseString(JSON), body(request(gzip(utf8(JSON)), "gzip"), -1, -1).getJson());
+		assertEquals(JsonParser.parseString(JSON), body(request(gzip(utf8(JSON)), "x-gzip"), -1, -1).getJson());
+		assertEquals(JsonParser.parseString(JSON), body(request(gzip(utf8(JSON)), "GZIP", -1), -1, -1).getJson());
+	}
+	
+	/**
+	 * Inflate the deflate body as zlib data and as raw deflate data.
+	 */
+	@Test
+	public void inflatesDeflate()
+	{
+		assertEquals(JsonParser.parseString(JSON), body(request(deflate(utf8(JSON), true), "deflate"), -1, -1).getJson());
+		assertEquals(JsonParser.parseString(JSON), body(request(deflate(utf8(JSON), false), "deflate"), -1, -1).getJson());
+	}
+	
+	/**
+	 * Inflate the body that is read as raw bytes.
+	 * @throws IOException
+	 */
+	@Test
+	public void inflatesRawBytes() throws IOException
+	{
+		assertArrayEquals(utf8(JSON), RequestBody.readBytes(request(gzip(utf8(JSON)), "gzip"), -1));
+		assertArrayEquals(utf8(JSON), RequestBody.readBytes(request(deflate(utf8(JSON), false), "deflate"), -1));
+	}
+	
+	/**
+	 * Read the raw bytes into a growing buffer (the content length is only a hint).
+	 * @throws IOException
+	 */
+	@Test
+	public void readsRawBytesLargerThanHint() throws IOException
+	{
+		//The body larger than the max hint
+		byte[] body = bomb(3 * 1024 * 1024 + 7);
+		assertArrayEquals(body, RequestBody.readBytes(request(body, null), -1));
+		assertArrayEquals(body, RequestBody.readBytes(request(body, null, -1), -1));
+		assertArrayEquals(body, RequestBody.readBytes(request(gzip(body), "gzip"), -1));
+	}
+	
+	/**
+	 * Don't allocate the content length sent without the body.
+	 */
+	@Test
+	public void rejectsMissingBody()
+	{
+		//Try to read the body that is shorter than the content length
+		try
+		{
+			RequestBody.readBytes(request(utf8(JSON), null, 2000000000L), -1);
+			fail("Not rejected");
+		}
+		
+		//Rejected without allocating the content length
+		catch(IOException ex)
+		{
+			assertTrue(ex instanceof EOFException);
+		}
+	}
+	
+	/**
+	 * Accept the inflated body of the max size.
+	 */
+	@Test
+	public void acceptsMaxSize()
+	{
+		byte[] json = bomb(MAX_SIZE);
+		assertEquals(MAX_SIZE, json.length);
+		assertNotNull(body(request(gzip(json), "gzip"), MAX_SIZE, -1).getJson());
+	}
+	
+	/**
+	 * Reject the small gzip body that inflates beyond the max size (a zip bomb).
+	 */
+	@Test
+	public void rejectsGzipBomb()
+	{
+		//Create the bomb (the compressed body is well within the max size)
+		byte[] compressed = gzip(bomb(16 * 1024 * 1024));
+		assertTrue(compressed.length < MAX_SIZE);
+		
+		//Buffered with a known and an unknown content length
+		assertTooLarge(body(request(compressed, "gzip"), MAX_SIZE, -1));
+		assertTooLarge(body(request(compressed, "gzip", -1), MAX_SIZE, -1));
+		
+		//Just over the max size
+		assertTooLarge(body(request(gzip(bomb(MAX_SIZE + 1)), "gzip"), MAX_SIZE, -1));
+	}
+	
+	/**
+	 * Reject the small deflate body that inflates beyond the max size (a zip bomb).
+	 */
+	@Test
+	public void rejectsDeflateBomb()
+	{
+		assertTooLarge(body(request(deflate(bomb(16 * 1024 * 1024), true), "deflate"), MAX_SIZE, -1));
+		assertTooLarge(body(request(deflate(bomb(16 * 1024 * 1024), false), "deflate"), MAX_SIZE, -1));
+	}
+	
+	/**
+	 * Reject the zip bomb read as raw bytes.
+	 */
+	@Test
+	public void rejectsRawBytesBomb()
+	{
+		//Try to read the bytes
+		try
+		{
+			RequestBody.readBytes(request(gzip(bomb(16 * 1024 * 1024)), "gzip"), MAX_SIZE);
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(IOException | RuntimeException ex)
+		{
+			assertEquals(413, status(ex));
+		}
+	}
+	
+	/**
+	 * Limit the inflated streamed body to the max stream size (not the max size).
+	 */
+	@Test
+	public void limitsStreamedBomb()
+	{
+		//Get the adapter
+		TypeAdapter<Integer> adapter = new Gson().getAdapter(Integer.class);
+		byte[] compressed = gzip(bomb(4 * 1024 * 1024));
+		
+		//Streamed beyond the max size (the max stream size is not set)
+		Iterator<Integer> elements = new RequestBody(request(compressed, "gzip"), "UTF-8", null, MAX_SIZE, -1, -1, -1).elements(adapter);
+		int count = 0;
+		while(elements.hasNext() && elements.next() != null)
+			count++;
+		assertTrue(count > MAX_SIZE);
+		
+		//Stopped at the max stream size
+		elements = new RequestBody(request(compressed, "gzip"), "UTF-8", null, -1, MAX_SIZE, -1, -1).elements(adapter);
+		try
+		{
+			while(elements.hasNext())
+				elements.next();
+			fail("Not rejected");
+		}
+		catch(RuntimeException ex)
+		{
+			assertEquals(413, status(ex));
+		}
+	}
+	
+	/**
+	 * Reject the body that is not valid compressed data.
+	 */
+	@Test
+	public void rejectsInvalidData()
+	{
+		//Not gzip data
+		assertBadRequest(body(request(utf8(JSON), "gzip"), -1, -1));
+		
+		//Truncated gzip data
+		byte[] compressed = gzip(utf8(JSON));
+		assertBadRequest(body(request(Arrays.copyOf(compressed, compressed.length / 2), "gzip"), -1, -1));
+		
+		//Not deflate data
+		assertBadRequest(body(request(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, "deflate"), -1, -1));
+	}
+	
+	/**
+	 * Create the request body with the limits (UTF-8 JSON).
+	 * @param request
+	 * @param maxSize
+	 * @param maxStreamSize
+	 * @return
+	 */
+	private static RequestBody body(HttpServletRequest request, long maxSize, long maxStreamSize)
+	{
+		return new RequestBody(request, "UTF-8", null, maxSize, maxStreamSize, -1, -1);
+	}
+	
+	/**
+	 * Create the JSON array of zeros of the size (compresses to a fraction of the size).
+	 * @param size the size in bytes (at least 3)
+	 * @return
+	 */
+	private static byte[] bomb(int size)
+	{
+		//Create the array with the elements and pad the end with spaces
+		byte[] bytes = new byte[size];
+		Arrays.fill(bytes, (byte) ' ');
+		bytes[0] = '[';
+		for(int i=1; i + 2 < size; i+=2)
+		{
+			bytes[i] = '0';
+			bytes[i + 1] = ',';
+		}
+		bytes[size - 2] = '0';
+		bytes[size - 1] = ']';
+		return bytes;
+	}
+	
+	/**
+	 * Assert that the body is rejected as too large.
+	 * @param body
+	 */
+	private static void assertTooLarge(RequestBody body)
+	{
+		//Try to parse the body
+		try
+		{
+			body.getJson();
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(RuntimeException ex)
+		{
+			assertEquals(413, status(ex));
+		}
+	}
+	
+	/**
+	 * Assert that the body is rejected as a bad request.
+	 * @param body
+	 */
+	private static void assertBadRequest(RequestBody body)
+	{
+		//Try to parse the body
+		try
+		{
+			body.getJson();
+			fail("Not rejected");
+		}
+		
+		//Rejected
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, status(ex));
+		}
+	}
+	
+	/**
+	 * Get the status of the request body exception in the causes.
+	 * @param ex
+	 * @return
+	 */
+	private static int status(Throwable ex)
+	{
+		RequestBodyException found = RequestBodyException.find(ex);
+		assertNotNull("Not a request body exception: " + ex, found);
+		return found.getStatus();
+	}
+}
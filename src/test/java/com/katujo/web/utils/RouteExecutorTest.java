@@ -0,0 +1,166 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the routes invoked on the route executor.
+ * <p>
+ * The executor is set on the filter since only virtual threads can be configured (Java 21).
+ * </p>
+ * @author Johan Hertz
+ */
+public class RouteExecutorTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The latches used to hold the blocking route
+		public static volatile CountDownLatch entered, release;
+		
+		public String thread() {return Thread.currentThread().getName();}
+		public int echo(int value) {return value;}
+		
+		@Bulkhead(1)
+		public boolean blocking() throws InterruptedException
+		{
+			entered.countDown();
+			return release.await(5, TimeUnit.SECONDS);
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	private ExecutorService executor;
+	
+	/**
+	 * Create the filters with the executor.
+	 * @throws Exception
+	 */
+	@Before
+	public void init() throws Exception
+	{
+		router = new TestRouter(Routes.class);
+		executor = Executors.newFixedThreadPool(2);
+		setExecutor(executor);
+	}
+	
+	/**
+	 * Destroy the filters (shuts down the executor).
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Invoke the route on the executor with the request data.
+	 * @throws Exception
+	 */
+	@Test
+	public void invokesOnExecutor() throws Exception
+	{
+		//The route is invoked on another thread
+		TestRequest request = new TestRequest("/thread");
+		TestResponse response = router.call(request);
+		assertTrue(request.async().isCompleted());
+		assertTrue(response.text().contains("pool-"));
+		
+		//The request data is read on the executor thread
+		assertEquals("7", router.call(new TestRequest("/echo").json("7")).text());
+	}
+	
+	/**
+	 * Send 503 with Retry-After and complete the request when the executor rejects the route.
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsWhenExecutorShutDown() throws Exception
+	{
+		//Shut down the executor
+		executor.shutdown();
+		
+		//The request is rejected and completed
+		TestRequest request = new TestRequest("/blocking");
+		TestResponse response = router.call(request);
+		assertTrue(request.async().isCompleted());
+		assertEquals(503, response.getStatus());
+		assertEquals("1", response.getHeader("Retry-After"));
+		
+		//The permit is released once (only one call gets it)
+		executor = Executors.newFixedThreadPool(2);
+		setExecutor(executor);
+		assertSinglePermit();
+	}
+	
+	/**
+	 * Check that the bulkhead of the blocking route has one permit.
+	 * @throws Exception
+	 */
+	private void assertSinglePermit() throws Exception
+	{
+		//Create the latches
+		Routes.entered = new CountDownLatch(1);
+		Routes.release = new CountDownLatch(1);
+		
+		//Call the blocking route
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+		try
+		{
+			//Hold the permit
+			Future<TestResponse> first = caller.submit(new Callable<TestResponse>()
+			{
+				public TestResponse call() throws Exception
+				{
+					return router.call("/blocking");
+				}
+			});
+			if(!Routes.entered.await(5, TimeUnit.SECONDS))
+				fail("The blocking route was not invoked");
+			
+			//The second call is rejected
+			assertEquals(503, router.call("/blocking").getStatus());
+			
+			//The first call completes
+			Routes.release.countDown();
+			assertEquals("true", first.get(5, TimeUnit.SECONDS).text());
+		}
+		
+		//Clean up
+		finally
+		{
+			caller.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Set the executor the routes are invoked on.
+	 * @param executor
+	 * @throws Exception
+	 */
+	private void setExecutor(ExecutorService executor) throws Exception
+	{
+		Field field = RouterFilter.class.getDeclaredField("executor");
+		field.setAccessible(true);
+		field.set(router.router(), executor);
+	}
+}
@@ -0,0 +1,190 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.RouteInvokerTest.messages;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the route index written by the route processor and read by the router filter.
+ * @author Johan Hertz
+ */
+public class RouteIndexTest
+{
+	/**
+	 * The route class read from the index.
+	 */
+	@Route
+	public static class Indexed
+	{
+		public int twice(int value) {return value * 2;}
+		public String other() {return "other";}
+	}
+	
+	//The folder for the sources and the classes
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Write the public methods of the route classes to the index.
+	 * @throws Exception
+	 */
+	@Test
+	public void writesIndex() throws Exception
+	{
+		//Compile the route classes
+		File classes = folder.newFolder("classes");
+		compile(classes, "Orders",
+				"package com.example;\n" +
+				"import java.util.List;\n" +
+				"@com.katujo.web.utils.Route\n" +
+				"public class Orders\n" +
+				"{\n" +
+				"	public long getOrder(long id) {return id;}\n" +
+				"	public String find(String name, int[] ids, List<String> tags) {return name;}\n" +
+				"	public static void helper() {}\n" +
+				"	void hidden() {}\n" +
+				"	@com.katujo.web.utils.Route public static class Lines {public int count() {return 0;}}\n" +
+				"}\n" +
+				"class NotRoute {public void none() {}}\n");
+		
+		//The index
+		assertEquals(
+				"com.example.Orders\tgetOrder\tlong\n" +
+				"com.example.Orders\tfind\tjava.lang.String,int[],java.util.List\n" +
+				"com.example.Orders$Lines\tcount\t\n", index(classes));
+		
+		//Compile another route class (the lines of the existing class are kept)
+		compile(classes, "Invoices", "package com.example;\n@com.katujo.web.utils.Route\npublic class Invoices {public void send() {}}\n");
+		assertTrue(index(classes).startsWith("com.example.Invoices\tsend\t\ncom.example.Orders\tgetOrder\tlong\n"));
+	}
+	
+	/**
+	 * Add the routes from the index without scanning the classes (only the indexed methods are routes).
+	 * @throws Exception
+	 */
+	@Test
+	public void readsIndex() throws Exception
+	{
+		//Write the index (the classes directory has no classes to scan)
+		File classes = writeIndex(Indexed.class.getName() + "\ttwice\tint\n");
+		
+		//Create the filters
+		TestRouter router = new TestRouter(classes);
+		try
+		{
+			//The indexed method
+			assertEquals("4", router.call(new TestRequest("/twice").json("2")).text());
+			
+			//The method not in the index
+			try
+			{
+				router.call("/other");
+				fail("The method not in the index was added");
+			}
+			catch(ServletException ex)
+			{
+				assertTrue(messages(ex).contains("Could not find a route for path \"/other\""));
+			}
+		}
+		finally
+		{
+			router.destroy();
+		}
+	}
+	
+	/**
+	 * Fail the init when the index does not match the class.
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsIndexNotMatchingClass() throws Exception
+	{
+		try
+		{
+			new TestRouter(writeIndex(Indexed.class.getName() + "\ttwice\tlong\n"));
+			fail("The index was read");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(messages(ex).contains("The route index does not match the class " + Indexed.class.getName()));
+		}
+	}
+	
+	/**
+	 * Compile the source with the route processor.
+	 * @param classes
+	 * @param name
+	 * @param source
+	 * @throws Exception
+	 */
+	private void compile(File classes, String name, String source) throws Exception
+	{
+		//Get the compiler (not set when running on a JRE)
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(compiler);
+		
+		//Write the source
+		File file = new File(folder.newFolder(), name + ".java");
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		
+		//Create the class path (the route annotation and the compiled classes)
+		String classPath = new File(Route.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath() + File.pathSeparator + classes.getPath();
+		
+		//Compile the source
+		StandardJavaFileManager files = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8);
+		try
+		{
+			JavaCompiler.CompilationTask task = compiler.getTask(null, files, null, Arrays.asList("-d", classes.getPath(), "-classpath", classPath), null, files.getJavaFileObjects(file));
+			task.setProcessors(Arrays.asList(new RouteProcessor()));
+			assertTrue(task.call());
+		}
+		finally
+		{
+			files.close();
+		}
+	}
+	
+	/**
+	 * Read the index in the classes directory.
+	 * @param classes
+	 * @return
+	 * @throws Exception
+	 */
+	private static String index(File classes) throws Exception
+	{
+		return new String(Files.readAllBytes(new File(classes, RouteProcessor.INDEX).toPath()), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Write the index to a classes directory.
+	 * @param lines
+	 * @return the classes directory
+	 * @throws Exception
+	 */
+	private File writeIndex(String lines) throws Exception
+	{
+		File classes = folder.newFolder();
+		File index = new File(classes, RouteProcessor.INDEX);
+		index.getParentFile().mkdirs();
+		Files.write(index.toPath(), lines.getBytes(StandardCharsets.UTF_8));
+		return classes;
+	}
+}
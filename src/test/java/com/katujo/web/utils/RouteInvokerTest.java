@@ -0,0 +1,193 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Test the compiled invokers of the route methods by the parameter types.
+ * @author Johan Hertz
+ */
+public class RouteInvokerTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The data set by the void route
+		public static volatile String saved;
+		
+		public String hello() {return "hello";}
+		public JsonObject object(JsonObject data) {data.addProperty("seen", true); return data;}
+		public int array(JsonArray data) {return data.size();}
+		public JsonElement element(JsonElement data) {return data;}
+		public boolean not(boolean value) {return !value;}
+		public double half(double value) {return value / 2;}
+		public int increment(int value) {return value + 1;}
+		public long square(long value) {return value * value;}
+		public Integer boxed(Integer value) {return value * 10;}
+		public String upper(String value) {return value.toUpperCase();}
+		public void save(String value) {saved = value;}
+		public void status(HttpServletRequest request, HttpServletResponse response) {response.setStatus(Integer.parseInt(request.getHeader("X-Status")));}
+		public String fail() {throw new IllegalStateException("Route failed");}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		router = new TestRouter(Routes.class);
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Invoke the route without parameters.
+	 * @throws Exception
+	 */
+	@Test
+	public void invokesWithoutParameters() throws Exception
+	{
+		TestResponse response = router.call("/hello");
+		assertEquals(200, response.getStatus());
+		assertEquals("application/json", response.getContentType());
+		assertEquals("\"hello\"", response.text());
+	}
+	
+	/**
+	 * Invoke the routes with the JSON parameters.
+	 * @throws Exception
+	 */
+	@Test
+	public void invokesWithJson() throws Exception
+	{
+		assertEquals(JsonParser.parseString("{\"a\": 1, \"seen\": true}"), router.call(new TestRequest("/object").json("{\"a\": 1}")).json());
+		assertEquals("3", router.call(new TestRequest("/array").json("[1, 2, 3]")).text());
+		assertEquals(JsonParser.parseString("[null, {}]"), router.call(new TestRequest("/element").json("[null, {}]")).json());
+	}
+	
+	/**
+	 * Invoke the routes with the primitive parameters (and the boxed parameters).
+	 * @throws Exception
+	 */
+	@Test
+	public void invokesWithPrimitives() throws Exception
+	{
+		assertEquals("false", router.call(new TestRequest("/not").json("true")).text());
+		assertEquals("1.25", router.call(new TestRequest("/half").json("2.5")).text());
+		assertEquals("42", router.call(new TestRequest("/increment").json("41")).text());
+		assertEquals("10000000000", router.call(new TestRequest("/square").json("100000")).text());
+		assertEquals("70", router.call(new TestRequest("/boxed").json("7")).text());
+		assertEquals("\"ABC\"", router.call(new TestRequest("/upper").json("\"abc\"")).text());
+	}
+	
+	/**
+	 * Invoke the void route (nothing is sent).
+	 * @throws Exception
+	 */
+	@Test
+	public void invokesVoidRoute() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/save").json("\"saved\""));
+		assertEquals("saved", Routes.saved);
+		assertEquals(200, response.getStatus());
+		assertEquals(0, response.bytes().length);
+	}
+	
+	/**
+	 * Invoke the route with the request and the response.
+	 * @throws Exception
+	 */
+	@Test
+	public void invokesWithRequestAndResponse() throws Exception
+	{
+		assertEquals(202, router.call(new TestRequest("/status").header("X-Status", "202")).getStatus());
+	}
+	
+	/**
+	 * Throw the exception of the route (and for a path without a route).
+	 * @throws Exception
+	 */
+	@Test
+	public void throwsRouteException() throws Exception
+	{
+		//The route throws
+		try
+		{
+			router.call("/fail");
+			fail("The route exception was not thrown");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(causes(ex, IllegalStateException.class));
+		}
+		
+		//No route for the path
+		try
+		{
+			router.call("/missing");
+			fail("The missing route was not reported");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(messages(ex).contains("Could not find a route for path \"/missing\""));
+		}
+	}
+	
+	/**
+	 * Check if the exception is caused by the type.
+	 * @param ex
+	 * @param type
+	 * @return
+	 */
+	static boolean causes(Throwable ex, Class<? extends Throwable> type)
+	{
+		for(Throwable cause = ex; cause != null; cause = cause.getCause())
+			if(type.isInstance(cause))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Get the messages of the exception and the causes.
+	 * @param ex
+	 * @return
+	 */
+	static String messages(Throwable ex)
+	{
+		StringBuilder messages = new StringBuilder();
+		for(Throwable cause = ex; cause != null; cause = cause.getCause())
+			messages.append(cause.getMessage()).append('\n');
+		return messages.toString();
+	}
+}
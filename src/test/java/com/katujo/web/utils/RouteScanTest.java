@@ -0,0 +1,150 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.RouteInvokerTest.messages;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.servlet.ServletException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the scan for the route classes in the classes directory and the scan cache.
+ * @author Johan Hertz
+ */
+public class RouteScanTest
+{
+	/**
+	 * The route class found by the scan.
+	 */
+	@Route
+	public static class Scanned
+	{
+		public String scanned() {return "scanned";}
+	}
+	
+	/**
+	 * The route class only set in the scan cache.
+	 */
+	@Route
+	public static class Cached
+	{
+		public String cached() {return "cached";}
+	}
+	
+	//The folder for the classes and the cache
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	//Fields
+	private File classes;
+	private File cache;
+	
+	/**
+	 * Copy the scanned class to the classes directory.
+	 * @throws Exception
+	 */
+	@Before
+	public void init() throws Exception
+	{
+		//Create the directories
+		classes = folder.newFolder("classes");
+		cache = new File(folder.getRoot(), "routes.cache");
+		File directory = new File(classes, Scanned.class.getPackage().getName().replace('.', '/'));
+		directory.mkdirs();
+		
+		//Copy the class
+		String name = Scanned.class.getName().substring(Scanned.class.getName().lastIndexOf('.') + 1) + ".class";
+		InputStream input = Scanned.class.getResourceAsStream(name);
+		try {Files.copy(input, new File(directory, name).toPath());}
+		finally {input.close();}
+	}
+	
+	/**
+	 * Add the routes found by the scan and save the scan result to the cache.
+	 * @throws Exception
+	 */
+	@Test
+	public void scansClasses() throws Exception
+	{
+		assertEquals("\"scanned\"", call("/scanned"));
+		assertTrue(new String(Files.readAllBytes(cache.toPath()), StandardCharsets.UTF_8).contains(Scanned.class.getName() + ";"));
+	}
+	
+	/**
+	 * Use the classes in the cache when the classes directory has not changed (scan again when changed).
+	 * @throws Exception
+	 */
+	@Test
+	public void reusesCacheForUnchangedClasses() throws Exception
+	{
+		//Scan the classes
+		call("/scanned");
+		
+		//Replace the class in the cache (the scan is not done again)
+		String lines = new String(Files.readAllBytes(cache.toPath()), StandardCharsets.UTF_8);
+		Files.write(cache.toPath(), lines.replace(Scanned.class.getName(), Cached.class.getName()).getBytes(StandardCharsets.UTF_8));
+		assertEquals("\"cached\"", call("/cached"));
+		assertNotRouted("/scanned");
+		
+		//Change the classes (scanned again)
+		assertTrue(new File(classes, "changed.txt").createNewFile());
+		assertEquals("\"scanned\"", call("/scanned"));
+	}
+	
+	/**
+	 * Don't write the cache when turned off.
+	 * @throws Exception
+	 */
+	@Test
+	public void skipsCacheWhenTurnedOff() throws Exception
+	{
+		TestRouter router = new TestRouter(classes, "scan-cache", "none");
+		try {assertEquals("\"scanned\"", router.call("/scanned").text());}
+		finally {router.destroy();}
+		assertFalse(cache.exists());
+	}
+	
+	/**
+	 * Create the filters with the scan cache and call the route.
+	 * @param path
+	 * @return
+	 * @throws Exception
+	 */
+	private String call(String path) throws Exception
+	{
+		TestRouter router = new TestRouter(classes, "scan-cache", cache.getPath());
+		try {return router.call(path).text();}
+		finally {router.destroy();}
+	}
+	
+	/**
+	 * Check that the path is not routed.
+	 * @param path
+	 * @throws Exception
+	 */
+	private void assertNotRouted(String path) throws Exception
+	{
+		try
+		{
+			call(path);
+			fail("The path " + path + " was routed");
+		}
+		catch(ServletException ex)
+		{
+			assertTrue(messages(ex).contains("Could not find a route for path \"" + path + "\""));
+		}
+	}
+}
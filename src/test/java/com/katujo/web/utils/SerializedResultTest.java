@@ -0,0 +1,55 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.utf8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonParser;
+
+/**
+ * Test the serialized result sent in the binary formats.
+ * @author Johan Hertz
+ */
+public class SerializedResultTest
+{
+	/**
+	 * Encode the JSON once per format and keep the bytes.
+	 * @throws IOException
+	 */
+	@Test
+	public void keepsEncodedBytes() throws IOException
+	{
+		//Create the result
+		String json = "{\"a\": [1, 2.5, \"caf\\u00e9\"], \"b\": null}";
+		SerializedResult result = new SerializedResult(utf8(json), "application/json", true);
+		
+		//Encode the formats
+		byte[] cbor = result.encode(BinaryFormat.CBOR);
+		byte[] messagePack = result.encode(BinaryFormat.MESSAGE_PACK);
+		assertEquals(JsonParser.parseString(json), BinaryFormat.CBOR.decode(cbor, 0, cbor.length, -1, -1));
+		assertEquals(JsonParser.parseString(json), BinaryFormat.MESSAGE_PACK.decode(messagePack, 0, messagePack.length, -1, -1));
+		
+		//The bytes are kept
+		assertSame(cbor, result.encode(BinaryFormat.CBOR));
+		assertSame(messagePack, result.encode(BinaryFormat.MESSAGE_PACK));
+	}
+	
+	/**
+	 * Encode the JSON that is not strict JSON (parsed with the Gson parser).
+	 * @throws IOException
+	 */
+	@Test
+	public void encodesLenientJson() throws IOException
+	{
+		SerializedResult result = new SerializedResult(utf8("[NaN]"), "application/json", true);
+		byte[] cbor = result.encode(BinaryFormat.CBOR);
+		assertEquals(Double.NaN, BinaryFormat.CBOR.decode(cbor, 0, cbor.length, -1, -1).getAsJsonArray().get(0).getAsDouble(), 0);
+	}
+}
@@ -0,0 +1,140 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.servlet.ServletException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Test the iterator, stream and response stream routes sent as newline delimited JSON or server-sent events.
+ * @author Johan Hertz
+ */
+public class StreamedResponseTest
+{
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The flag set when the stream is closed
+		public static final AtomicBoolean closed = new AtomicBoolean();
+		
+		//The number of elements sent by the feed and the client disconnected by the feed
+		public static final AtomicInteger sent = new AtomicInteger();
+		public static volatile TestResponse client;
+		
+		public Iterator<JsonElement> iterator() {return Arrays.<JsonElement>asList(new JsonPrimitive(1), new JsonPrimitive("two")).iterator();}
+		
+		public Stream<int[]> stream()
+		{
+			return Stream.of(new int[] {1, 2}, new int[] {3}).onClose(new Runnable()
+			{
+				public void run()
+				{
+					closed.set(true);
+				}
+			});
+		}
+		
+		public ResponseStream feed()
+		{
+			return new ResponseStream()
+			{
+				public void writeTo(JsonSink sink) throws Exception
+				{
+					for(int i=0; i<1000 && sink.isOpen(); i++)
+					{
+						sink.send(i);
+						if(sent.incrementAndGet() == 5)
+							client.disconnect();
+					}
+				}
+			};
+		}
+	}
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws ServletException
+	 */
+	@Before
+	public void init() throws ServletException
+	{
+		Routes.closed.set(false);
+		Routes.sent.set(0);
+		router = new TestRouter(Routes.class, "stream-batch", "2");
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Send the elements as newline delimited JSON (the stream is closed when sent).
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsNewlineDelimitedJson() throws Exception
+	{
+		//The iterator
+		TestResponse response = router.call("/iterator");
+		assertEquals(200, response.getStatus());
+		assertEquals("application/x-ndjson", response.getContentType());
+		assertEquals(-1, response.contentLength());
+		assertEquals("1\n\"two\"\n", response.text());
+		
+		//The stream
+		assertEquals("[1,2]\n[3]\n", router.call("/stream").text());
+		assertTrue(Routes.closed.get());
+	}
+	
+	/**
+	 * Send the elements as server-sent events when accepted by the client.
+	 * @throws Exception
+	 */
+	@Test
+	public void sendsServerSentEvents() throws Exception
+	{
+		TestResponse response = router.call(new TestRequest("/iterator").header("Accept", "text/event-stream"));
+		assertEquals("text/event-stream", response.getContentType());
+		assertEquals("no-cache", response.getHeader("Cache-Control"));
+		assertEquals("data: 1\n\ndata: \"two\"\n\n", response.text());
+	}
+	
+	/**
+	 * Stop sending the elements when the client disconnects.
+	 * @throws Exception
+	 */
+	@Test
+	public void stopsWhenClientDisconnects() throws Exception
+	{
+		Routes.client = new TestResponse();
+		router.call(new TestRequest("/feed"), Routes.client);
+		assertTrue(String.valueOf(Routes.sent.get()), Routes.sent.get() < 10);
+		assertEquals("0\n1\n2\n3\n", Routes.client.text());
+	}
+}
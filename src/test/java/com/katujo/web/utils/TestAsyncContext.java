@@ -0,0 +1,136 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * The asynchronous context of the test requests.
+ * <p>
+ * The context times out like the container does when it's not completed within the timeout
+ * while the test waits for it (the listeners are told and the context is completed).
+ * </p>
+ * @author Johan Hertz
+ */
+class TestAsyncContext implements AsyncContext
+{
+	//The timeout used when not set (the container default)
+	private static final long DEFAULT_TIMEOUT = 30000;
+	
+	//Fields
+	private final ServletRequest request;
+	private final ServletResponse response;
+	private final List<AsyncListener> listeners = new CopyOnWriteArrayList<AsyncListener>();
+	private final CountDownLatch completed = new CountDownLatch(1);
+	private volatile long timeout = DEFAULT_TIMEOUT;
+	private volatile boolean timedOut;
+	
+	/**
+	 * Create the object.
+	 * @param request
+	 * @param response
+	 */
+	public TestAsyncContext(ServletRequest request, ServletResponse response)
+	{
+		this.request = request;
+		this.response = response;
+	}
+	
+	/**
+	 * Wait for the context to be completed, the context times out if not completed within the timeout.
+	 * @throws Exception
+	 */
+	public void await() throws Exception
+	{
+		//Completed within the timeout
+		if(completed.await(timeout > 0 ? timeout : DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS))
+			return;
+		
+		//Tell the listeners about the timeout
+		timedOut = true;
+		for(AsyncListener listener : listeners)
+			listener.onTimeout(new AsyncEvent(this, request, response));
+		
+		//Complete the context if the listeners did not
+		if(!isCompleted())
+			complete();
+	}
+	
+	/**
+	 * Check if the context has been completed.
+	 * @return
+	 */
+	public boolean isCompleted()
+	{
+		return completed.getCount() == 0;
+	}
+	
+	/**
+	 * Check if the context timed out.
+	 * @return
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+	
+	/*
+	 * Complete the context and tell the listeners.
+	 * (non-Javadoc)
+	 * @see javax.servlet.AsyncContext#complete()
+	 */
+	@Override
+	public synchronized void complete()
+	{
+		//Already completed
+		if(isCompleted())
+			throw new IllegalStateException("The asynchronous context is already completed");
+		
+		//Complete
+		completed.countDown();
+		
+		//Tell the listeners
+		for(AsyncListener listener : listeners)
+		{
+			try {listener.onComplete(new AsyncEvent(this, request, response));}
+			catch(IOException ex) {throw new IllegalStateException(ex);}
+		}
+	}
+	
+	/*
+	 * Run the task on a new thread.
+	 * (non-Javadoc)
+	 * @see javax.servlet.AsyncContext#start(java.lang.Runnable)
+	 */
+	@Override
+	public void start(Runnable run)
+	{
+		new Thread(run).start();
+	}
+	
+	@Override public ServletRequest getRequest() {return request;}
+	@Override public ServletResponse getResponse() {return response;}
+	@Override public boolean hasOriginalRequestAndResponse() {return true;}
+	@Override public void addListener(AsyncListener listener) {listeners.add(listener);}
+	@Override public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) {listeners.add(listener);}
+	@Override public void setTimeout(long timeout) {this.timeout = timeout;}
+	@Override public long getTimeout() {return timeout;}
+	
+	//Dispatching is not used by the filters
+	@Override public void dispatch() {throw new UnsupportedOperationException();}
+	@Override public void dispatch(String path) {throw new UnsupportedOperationException();}
+	@Override public void dispatch(ServletContext context, String path) {throw new UnsupportedOperationException();}
+	@Override public <T extends AsyncListener> T createListener(Class<T> type) throws ServletException {throw new UnsupportedOperationException();}
+}
@@ -0,0 +1,178 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.stream;
+import static com.katujo.web.utils.TestRequests.unsupported;
+import static com.katujo.web.utils.TestRequests.utf8;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * The request sent to the filters by the tests.
+ * <p>
+ * Only the methods used by the filters are implemented, the other methods throw an unsupported
+ * operation exception.
+ * </p>
+ * @author Johan Hertz
+ */
+class TestRequest extends HttpServletRequestWrapper
+{
+	//Fields
+	private final String path;
+	private final Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<String, String> parameters = new HashMap<String, String>();
+	private final Map<String, Object> attributes = Collections.synchronizedMap(new HashMap<String, Object>());
+	private String contentType;
+	private byte[] body;
+	
+	//The asynchronous context (null if the request is not asynchronous)
+	private volatile TestAsyncContext async;
+	
+	/**
+	 * Create the request for the path.
+	 * @param path
+	 */
+	public TestRequest(String path)
+	{
+		super(unsupported(HttpServletRequest.class));
+		this.path = path;
+	}
+	
+	/**
+	 * Set the header.
+	 * @param name
+	 * @param value
+	 * @return
+	 */
+	public TestRequest header(String name, String value)
+	{
+		headers.put(name, value);
+		return this;
+	}
+	
+	/**
+	 * Set the query parameter.
+	 * @param name
+	 * @param value
+	 * @return
+	 */
+	public TestRequest parameter(String name, String value)
+	{
+		parameters.put(name, value);
+		return this;
+	}
+	
+	/**
+	 * Set the body.
+	 * @param contentType
+	 * @param body
+	 * @return
+	 */
+	public TestRequest body(String contentType, byte[] body)
+	{
+		this.contentType = contentType;
+		this.body = body;
+		return this;
+	}
+	
+	/**
+	 * Set the JSON body.
+	 * @param json
+	 * @return
+	 */
+	public TestRequest json(String json)
+	{
+		return body("application/json", utf8(json));
+	}
+	
+	/**
+	 * Get the asynchronous context.
+	 * @return the context or null if the request has not been put in asynchronous mode
+	 */
+	public TestAsyncContext async()
+	{
+		return async;
+	}
+	
+	@Override public String getServletPath() {return path;}
+	@Override public String getRequestURI() {return path;}
+	@Override public String getMethod() {return body != null ? "POST" : "GET";}
+	@Override public String getHeader(String name) {return headers.get(name);}
+	@Override public String getParameter(String name) {return parameters.get(name);}
+	@Override public String getContentType() {return contentType;}
+	@Override public int getContentLength() {return body != null ? body.length : -1;}
+	@Override public long getContentLengthLong() {return getContentLength();}
+	@Override public Object getAttribute(String name) {return attributes.get(name);}
+	@Override public Enumeration<String> getAttributeNames() {synchronized(attributes) {return Collections.enumeration(attributes.keySet());}}
+	@Override public void removeAttribute(String name) {attributes.remove(name);}
+	@Override public boolean isAsyncSupported() {return true;}
+	@Override public boolean isAsyncStarted() {return async != null && !async.isCompleted();}
+	
+	/*
+	 * Set the attribute (removed if the value is null).
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#setAttribute(java.lang.String, java.lang.Object)
+	 */
+	@Override
+	public void setAttribute(String name, Object value)
+	{
+		if(value == null) attributes.remove(name);
+		else attributes.put(name, value);
+	}
+	
+	/*
+	 * Get the stream that reads the body.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#getInputStream()
+	 */
+	@Override
+	public ServletInputStream getInputStream()
+	{
+		return stream(body != null ? body : new byte[0]);
+	}
+	
+	/*
+	 * Put the request in asynchronous mode.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#startAsync(javax.servlet.ServletRequest, javax.servlet.ServletResponse)
+	 */
+	@Override
+	public AsyncContext startAsync(ServletRequest request, ServletResponse response)
+	{
+		//Only start once
+		if(async != null)
+			throw new IllegalStateException("The request is already asynchronous");
+		
+		//Create the context
+		async = new TestAsyncContext(request, response);
+		return async;
+	}
+	
+	/*
+	 * Get the asynchronous context.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletRequestWrapper#getAsyncContext()
+	 */
+	@Override
+	public AsyncContext getAsyncContext()
+	{
+		//Not asynchronous
+		if(async == null)
+			throw new IllegalStateException("The request is not asynchronous");
+		
+		//Return the context
+		return async;
+	}
+}
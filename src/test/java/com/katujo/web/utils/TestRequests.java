@@ -0,0 +1,204 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * The requests with a body used by the tests.
+ * @author Johan Hertz
+ */
+class TestRequests
+{
+	/**
+	 * Create the request with the body (the content length is the length of the body).
+	 * @param body
+	 * @param contentEncoding the content encoding or null if not compressed
+	 * @return
+	 */
+	static HttpServletRequest request(byte[] body, String contentEncoding)
+	{
+		return request(body, contentEncoding, body.length);
+	}
+	
+	/**
+	 * Create the request with the body and the content length.
+	 * @param body
+	 * @param contentEncoding the content encoding or null if not compressed
+	 * @param contentLength the content length (-1 if not known)
+	 * @return
+	 */
+	static HttpServletRequest request(final byte[] body, final String contentEncoding, final long contentLength)
+	{
+		//Create the handler
+		InvocationHandler handler = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				//The body
+				if("getInputStream".equals(method.getName()))
+					return stream(body);
+				
+				//The content encoding
+				if("getHeader".equals(method.getName()))
+					return "Content-Encoding".equalsIgnoreCase((String) args[0]) ? contentEncoding : null;
+				
+				//The content length
+				if("getContentLength".equals(method.getName()))
+					return (int) Math.min(contentLength, Integer.MAX_VALUE);
+				if("getContentLengthLong".equals(method.getName()))
+					return contentLength;
+				
+				//Not used by the tests
+				throw new UnsupportedOperationException(method.getName());
+			}
+		};
+		
+		//Create the request
+		return (HttpServletRequest) Proxy.newProxyInstance(TestRequests.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, handler);
+	}
+	
+	/**
+	 * Create the object of the interface that throws an unsupported operation exception when any
+	 * method is called (wrapped by the test requests and responses).
+	 * @param type
+	 * @return
+	 */
+	static <T> T unsupported(Class<T> type)
+	{
+		//Create the handler
+		InvocationHandler handler = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				throw new UnsupportedOperationException(method.getName());
+			}
+		};
+		
+		//Create the object
+		return type.cast(Proxy.newProxyInstance(TestRequests.class.getClassLoader(), new Class<?>[] {type}, handler));
+	}
+	
+	/**
+	 * Create the servlet stream that reads the bytes.
+	 * @param bytes
+	 * @return
+	 */
+	static ServletInputStream stream(byte[] bytes)
+	{
+		//Create the stream
+		final ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+		
+		//Wrap the stream
+		return new ServletInputStream()
+		{
+			@Override
+			public int read()
+			{
+				return input.read();
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len)
+			{
+				return input.read(b, off, len);
+			}
+			
+			@Override
+			public boolean isFinished()
+			{
+				return input.available() == 0;
+			}
+			
+			@Override
+			public boolean isReady()
+			{
+				return true;
+			}
+			
+			@Override
+			public void setReadListener(ReadListener listener)
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/**
+	 * Get the UTF-8 bytes of the text.
+	 * @param text
+	 * @return
+	 */
+	static byte[] utf8(String text)
+	{
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Compress the bytes as gzip data.
+	 * @param bytes
+	 * @return
+	 */
+	static byte[] gzip(byte[] bytes)
+	{
+		//Try to compress the bytes
+		try
+		{
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try(GZIPOutputStream gzip = new GZIPOutputStream(output)) {gzip.write(bytes);}
+			return output.toByteArray();
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new UncheckedIOException(ex);
+		}
+	}
+	
+	/**
+	 * Compress the bytes as deflate data.
+	 * @param bytes
+	 * @param zlib true for zlib data (RFC 1950), false for raw deflate data
+	 * @return
+	 */
+	static byte[] deflate(byte[] bytes, boolean zlib)
+	{
+		//Try to compress the bytes
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib);
+		try
+		{
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try(DeflaterOutputStream deflate = new DeflaterOutputStream(output, deflater)) {deflate.write(bytes);}
+			return output.toByteArray();
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new UncheckedIOException(ex);
+		}
+		
+		//Clean up
+		finally
+		{
+			deflater.end();
+		}
+	}
+}
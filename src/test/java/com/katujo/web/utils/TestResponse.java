@@ -0,0 +1,262 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.unsupported;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * The response the filters write to in the tests.
+ * <p>
+ * The response records the status, the headers and the body. The response is committed when
+ * an error is sent or the body is flushed.
+ * </p>
+ * @author Johan Hertz
+ */
+class TestResponse extends HttpServletResponseWrapper
+{
+	//Fields
+	private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private volatile int status = SC_OK;
+	private volatile boolean committed;
+	private volatile String contentType;
+	private volatile String characterEncoding;
+	private volatile long contentLength = -1;
+	private volatile boolean disconnected;
+	
+	/**
+	 * Create the object.
+	 */
+	public TestResponse()
+	{
+		super(unsupported(HttpServletResponse.class));
+	}
+	
+	/**
+	 * Get the bytes written to the body.
+	 * @return
+	 */
+	public byte[] bytes()
+	{
+		synchronized(body) {return body.toByteArray();}
+	}
+	
+	/**
+	 * Get the body as text (inflated if the body has a content encoding).
+	 * @return
+	 */
+	public String text()
+	{
+		//Try to read the body
+		try
+		{
+			//Get the stream that inflates the body
+			InputStream input = new ByteArrayInputStream(bytes());
+			if("gzip".equals(getHeader("Content-Encoding"))) input = new GZIPInputStream(input);
+			else if("deflate".equals(getHeader("Content-Encoding"))) input = new InflaterInputStream(input);
+			
+			//Read the body
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for(int length; (length = input.read(buffer)) != -1;)
+				output.write(buffer, 0, length);
+			
+			//Return the text
+			return new String(output.toByteArray(), StandardCharsets.UTF_8);
+		}
+		
+		//Failed
+		catch(IOException ex)
+		{
+			throw new UncheckedIOException(ex);
+		}
+	}
+	
+	/**
+	 * Get the body as JSON.
+	 * @return
+	 */
+	public JsonElement json()
+	{
+		return JsonParser.parseString(text());
+	}
+	
+	/**
+	 * Disconnect the client (every following write to the body fails).
+	 */
+	public void disconnect()
+	{
+		disconnected = true;
+	}
+	
+	/**
+	 * Get the content length set by the filters.
+	 * @return the content length or -1 if not set
+	 */
+	public long contentLength()
+	{
+		return contentLength;
+	}
+	
+	/*
+	 * Send the error and commit the response.
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int)
+	 */
+	@Override
+	public synchronized void sendError(int status)
+	{
+		//The response can't be changed when committed
+		if(committed)
+			throw new IllegalStateException("The response is committed");
+		
+		//Set the status
+		this.status = status;
+		committed = true;
+	}
+	
+	/*
+	 * Get the stream that writes to the body.
+	 * (non-Javadoc)
+	 * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+	 */
+	@Override
+	public ServletOutputStream getOutputStream()
+	{
+		return new ServletOutputStream()
+		{
+			@Override
+			public void write(int b) throws IOException
+			{
+				check();
+				synchronized(body) {body.write(b);}
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				check();
+				synchronized(body) {body.write(b, off, len);}
+			}
+			
+			@Override
+			public void flush() throws IOException
+			{
+				check();
+				committed = true;
+			}
+			
+			/**
+			 * Check that the client is connected.
+			 * @throws IOException
+			 */
+			private void check() throws IOException
+			{
+				if(disconnected)
+					throw new IOException("The client has disconnected");
+			}
+			
+			@Override
+			public boolean isReady()
+			{
+				return true;
+			}
+			
+			@Override
+			public void setWriteListener(WriteListener listener)
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	/*
+	 * Set the header (replacing the values set).
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#setHeader(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setHeader(String name, String value)
+	{
+		synchronized(headers)
+		{
+			headers.put(name, new ArrayList<String>());
+			headers.get(name).add(value);
+		}
+	}
+	
+	/*
+	 * Add the header value.
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#addHeader(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void addHeader(String name, String value)
+	{
+		synchronized(headers)
+		{
+			if(!headers.containsKey(name)) headers.put(name, new ArrayList<String>());
+			headers.get(name).add(value);
+		}
+	}
+	
+	/*
+	 * Get the first value of the header.
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#getHeader(java.lang.String)
+	 */
+	@Override
+	public String getHeader(String name)
+	{
+		synchronized(headers) {return headers.containsKey(name) ? headers.get(name).get(0) : null;}
+	}
+	
+	/*
+	 * Get the values of the header.
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#getHeaders(java.lang.String)
+	 */
+	@Override
+	public Collection<String> getHeaders(String name)
+	{
+		synchronized(headers) {return headers.containsKey(name) ? new ArrayList<String>(headers.get(name)) : new ArrayList<String>();}
+	}
+	
+	@Override public void sendError(int status, String message) {sendError(status);}
+	@Override public void setStatus(int status) {this.status = status;}
+	@Override public int getStatus() {return status;}
+	@Override public boolean containsHeader(String name) {return getHeader(name) != null;}
+	@Override public void setIntHeader(String name, int value) {setHeader(name, String.valueOf(value));}
+	@Override public void addIntHeader(String name, int value) {addHeader(name, String.valueOf(value));}
+	@Override public void setContentType(String type) {contentType = type;}
+	@Override public String getContentType() {return contentType;}
+	@Override public void setCharacterEncoding(String charset) {characterEncoding = charset;}
+	@Override public String getCharacterEncoding() {return characterEncoding;}
+	@Override public void setContentLength(int length) {contentLength = length;}
+	@Override public void setContentLengthLong(long length) {contentLength = length;}
+	@Override public boolean isCommitted() {return committed;}
+	@Override public void flushBuffer() {committed = true;}
+}
@@ -0,0 +1,194 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * The JSON filter and the router filter set up with the routes of a test class.
+ * <p>
+ * The routes are added by the class name (no scanning), or scanned in a classes directory, with the
+ * base package of the tests, so the path of a route is the name of the method (e.g. /getOrder) unless
+ * an extension is set.
+ * </p>
+ * @author Johan Hertz
+ */
+class TestRouter
+{
+	//Fields
+	private final JsonFilter jsonFilter = new JsonFilter();
+	private final RouterFilter routerFilter = new RouterFilter();
+	
+	/**
+	 * Create the filters.
+	 * @param routes the class with the routes
+	 * @param parameters the init parameters of the filters (name, value, name, value, ...)
+	 * @throws ServletException
+	 */
+	public TestRouter(Class<?> routes, String... parameters) throws ServletException
+	{
+		this(null, routes.getName(), parameters);
+	}
+	
+	/**
+	 * Create the filters with the routes scanned (or read from the route index) in the classes directory.
+	 * @param classes the WEB-INF/classes directory
+	 * @param parameters the init parameters of the filters (name, value, name, value, ...)
+	 * @throws ServletException
+	 */
+	public TestRouter(File classes, String... parameters) throws ServletException
+	{
+		this(classes, null, parameters);
+	}
+	
+	/**
+	 * Create the filters.
+	 * @param classes the WEB-INF/classes directory (null if nothing is scanned)
+	 * @param routes the class names of the routes (null if not set)
+	 * @param parameters the init parameters of the filters (name, value, name, value, ...)
+	 * @throws ServletException
+	 */
+	private TestRouter(File classes, String routes, String[] parameters) throws ServletException
+	{
+		//Create the init parameters
+		Map<String, String> map = new HashMap<String, String>();
+		if(routes != null) map.put("routes", routes);
+		map.put("base-package", TestRouter.class.getPackage().getName());
+		map.put("extension", "");
+		for(int i=0; i<parameters.length; i+=2)
+			map.put(parameters[i], parameters[i + 1]);
+		
+		//Init the filters
+		FilterConfig config = config(map, classes);
+		jsonFilter.init(config);
+		routerFilter.init(config);
+	}
+	
+	/**
+	 * Get the router filter.
+	 * @return
+	 */
+	public RouterFilter router()
+	{
+		return routerFilter;
+	}
+	
+	/**
+	 * Send the request through the filters and wait for the asynchronous request to complete.
+	 * @param request
+	 * @return
+	 * @throws Exception
+	 */
+	public TestResponse call(TestRequest request) throws Exception
+	{
+		return call(request, new TestResponse());
+	}
+	
+	/**
+	 * Send the request through the filters to the response (e.g. a response the test disconnects).
+	 * @param request
+	 * @param response
+	 * @return
+	 * @throws Exception
+	 */
+	public TestResponse call(TestRequest request, TestResponse response) throws Exception
+	{
+		//Run the filters
+		jsonFilter.doFilter(request, response, new FilterChain()
+		{
+			public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+			{
+				routerFilter.doFilter(request, response, null);
+			}
+		});
+		
+		//Wait for the asynchronous request
+		if(request.async() != null)
+			request.async().await();
+		
+		//Return the response
+		return response;
+	}
+	
+	/**
+	 * Send the request without a body to the path.
+	 * @param path
+	 * @return
+	 * @throws Exception
+	 */
+	public TestResponse call(String path) throws Exception
+	{
+		return call(new TestRequest(path));
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	public void destroy()
+	{
+		routerFilter.destroy();
+		jsonFilter.destroy();
+	}
+	
+	/**
+	 * Create the filter config with the init parameters.
+	 * <p>
+	 * The servlet context has no resources other than the classes directory (nothing is scanned
+	 * if not set) and drops the log messages.
+	 * </p>
+	 * @param parameters
+	 * @param classes
+	 * @return
+	 */
+	static FilterConfig config(final Map<String, String> parameters, final File classes)
+	{
+		//Create the servlet context
+		final ServletContext context = (ServletContext) Proxy.newProxyInstance(TestRouter.class.getClassLoader(), new Class<?>[] {ServletContext.class}, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				//The classes directory
+				if(method.getName().equals("getRealPath") && "/WEB-INF/classes".equals(args[0]))
+					return classes != null ? classes.getPath() : null;
+				
+				//No other resources and no attributes
+				if(method.getName().equals("getRealPath") || method.getName().equals("getResourcePaths") || method.getName().equals("getAttribute"))
+					return null;
+				
+				//Drop the log messages
+				if(method.getName().equals("log"))
+					return null;
+				
+				//Not used by the filters
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+		
+		//Create the config
+		return (FilterConfig) Proxy.newProxyInstance(TestRouter.class.getClassLoader(), new Class<?>[] {FilterConfig.class}, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if(method.getName().equals("getInitParameter")) return parameters.get(args[0]);
+				if(method.getName().equals("getInitParameterNames")) return Collections.enumeration(parameters.keySet());
+				if(method.getName().equals("getServletContext")) return context;
+				if(method.getName().equals("getFilterName")) return "router";
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+}
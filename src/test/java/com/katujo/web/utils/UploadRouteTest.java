@@ -0,0 +1,162 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.ByteResponseTest.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the routes that are given the raw request body.
+ * @author Johan Hertz
+ */
+public class UploadRouteTest
+{
+	//The bytes uploaded in the tests
+	static final byte[] BYTES = bytes(10000);
+	
+	/**
+	 * The routes invoked by the tests.
+	 */
+	public static class Routes
+	{
+		//The last file the body was saved to
+		public static volatile Path saved;
+		
+		public byte[] bytes(byte[] body) {return body;}
+		
+		public long stream(InputStream body) throws Exception
+		{
+			long size = 0;
+			byte[] buffer = new byte[1000];
+			for(int length; (length = body.read(buffer)) != -1;)
+				size += length;
+			return size;
+		}
+		
+		public long channel(ReadableByteChannel body) throws Exception
+		{
+			long size = 0;
+			for(ByteBuffer buffer = ByteBuffer.allocate(1000); body.read(buffer) != -1; buffer.clear())
+				size += buffer.position();
+			return size;
+		}
+		
+		public byte[] path(Path body) throws Exception
+		{
+			saved = body;
+			return Files.readAllBytes(body);
+		}
+		
+		public String file(File body) {return body.getParent();}
+	}
+	
+	//The upload directory
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	//Fields
+	private TestRouter router;
+	
+	/**
+	 * Create the filters.
+	 * @throws Exception
+	 */
+	@Before
+	public void init() throws Exception
+	{
+		router = new TestRouter(Routes.class, "max-upload-size", String.valueOf(BYTES.length), "upload-dir", folder.getRoot().getPath());
+	}
+	
+	/**
+	 * Destroy the filters.
+	 */
+	@After
+	public void destroy()
+	{
+		router.destroy();
+	}
+	
+	/**
+	 * Give the raw body to the routes (the JSON filter does not read the body).
+	 * @throws Exception
+	 */
+	@Test
+	public void readsRawBody() throws Exception
+	{
+		//The bytes
+		assertArrayEquals(BYTES, router.call(new TestRequest("/bytes").body("application/octet-stream", BYTES)).bytes());
+		
+		//The stream and the channel
+		assertEquals(String.valueOf(BYTES.length), router.call(new TestRequest("/stream").body("application/octet-stream", BYTES)).text());
+		assertEquals(String.valueOf(BYTES.length), router.call(new TestRequest("/channel").body("application/json", BYTES)).text());
+		
+		//The compressed body is inflated
+		assertArrayEquals(BYTES, router.call(new TestRequest("/bytes").body("application/octet-stream", gzip(BYTES)).header("Content-Encoding", "gzip")).bytes());
+	}
+	
+	/**
+	 * Save the body to a file in the upload directory that is deleted when the route is done.
+	 * @throws Exception
+	 */
+	@Test
+	public void savesBodyToFile() throws Exception
+	{
+		//The path
+		assertArrayEquals(BYTES, router.call(new TestRequest("/path").body("application/octet-stream", BYTES)).bytes());
+		assertEquals(folder.getRoot().toPath(), Routes.saved.getParent());
+		assertFalse(Files.exists(Routes.saved));
+		
+		//The file
+		assertEquals("\"" + folder.getRoot().getPath().replace("\\", "\\\\") + "\"", router.call(new TestRequest("/file").body("application/octet-stream", BYTES)).text());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+	
+	/**
+	 * Reject the body larger than the max upload size with 413 (also when inflated).
+	 * @throws Exception
+	 */
+	@Test
+	public void rejectsBodyOverMaxUploadSize() throws Exception
+	{
+		//Larger than the max size
+		byte[] large = bytes(BYTES.length + 1);
+		for(String path : new String[] {"/bytes", "/stream", "/channel", "/path"})
+			assertEquals(path, 413, router.call(new TestRequest(path).body("application/octet-stream", large)).getStatus());
+		
+		//Larger when inflated
+		assertEquals(413, router.call(new TestRequest("/stream").body("application/octet-stream", gzip(large)).header("Content-Encoding", "gzip")).getStatus());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+	
+	/**
+	 * Compress the bytes with gzip.
+	 * @param bytes
+	 * @return
+	 * @throws Exception
+	 */
+	private static byte[] gzip(byte[] bytes) throws Exception
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream output = new GZIPOutputStream(compressed);
+		output.write(bytes);
+		output.close();
+		return compressed.toByteArray();
+	}
+}
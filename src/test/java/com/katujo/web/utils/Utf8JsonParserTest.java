@@ -0,0 +1,301 @@
+//Namespace
+package com.katujo.web.utils;
+
+//Java imports
+import static com.katujo.web.utils.TestRequests.request;
+import static com.katujo.web.utils.TestRequests.utf8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+//Google imports
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Test the UTF-8 JSON parser (parses the same as the Gson parser or falls back to it).
+ * @author Johan Hertz
+ */
+public class Utf8JsonParserTest
+{
+	/**
+	 * Parse the values, arrays and objects.
+	 */
+	@Test
+	public void parsesJson()
+	{
+		assertParsed("true");
+		assertParsed("false");
+		assertParsed("null");
+		assertParsed("\"text\"");
+		assertParsed("0");
+		assertParsed("-12");
+		assertParsed("3.25e-4");
+		assertParsed("12345678901234567890");
+		assertParsed("[]");
+		assertParsed("{}");
+		assertParsed(" [1, \"two\", 3.0, true, null, [], {}] ");
+		assertParsed("{\"a\": {\"b\": [1, {\"c\": \"d\"}]}, \"e\": -1.5E10}");
+	}
+	
+	/**
+	 * Parse the escaped characters.
+	 */
+	@Test
+	public void parsesEscapes()
+	{
+		assertParsed("\"\\\" \\\\ \\/ \\b \\f \\n \\r \\t\"");
+		assertParsed("\"\\u0041\\u00e9\\u4E2D\"");
+		assertEquals(new JsonPrimitive("A\u00e9\u4e2d"), parse("\"\\u0041\\u00e9\\u4E2D\""));
+	}
+	
+	/**
+	 * Decode the multi byte UTF-8 characters (in strings and names).
+	 */
+	@Test
+	public void decodesUtf8()
+	{
+		assertEquals(new JsonPrimitive("caf\u00e9"), parse("\"caf\u00e9\""));
+		assertEquals(new JsonPrimitive("\u4e2d\u6587"), parse("\"\u4e2d\u6587\""));
+		assertEquals(new JsonPrimitive("ascii \u00e9 \u4e2d"), parse("\"ascii \u00e9 \u4e2d\""));
+		assertParsed("{\"n\u00e4me\": \"v\u00e4lue\"}");
+	}
+	
+	/**
+	 * Decode the four byte UTF-8 characters to surrogate pairs.
+	 */
+	@Test
+	public void decodesSurrogatePairs()
+	{
+		//The four byte character
+		JsonElement json = parse("\"a\ud83d\ude00b\"");
+		assertEquals(new JsonPrimitive("a\ud83d\ude00b"), json);
+		assertEquals(0x1F600, json.getAsString().codePointAt(1));
+		
+		//The escaped surrogate pair
+		assertEquals(new JsonPrimitive("\ud83d\ude00"), parse("\"\\ud83d\\ude00\""));
+		
+		//The escaped lone surrogate (kept as the Gson parser)
+		assertParsed("\"\\ud800\"");
+		
+		//The long string that grows the buffer
+		StringBuilder text = new StringBuilder();
+		for(int i=0; i<1000; i++)
+			text.append("\ud83d\ude00\u00e9");
+		assertEquals(new JsonPrimitive(text.toString()), parse("\"" + text + "\""));
+	}
+	
+	/**
+	 * Return null (the Gson fallback) for bytes that are not valid UTF-8.
+	 */
+	@Test
+	public void rejectsInvalidUtf8()
+	{
+		//The overlong encodings
+		assertNotParsed(bytes('"', 0xC0, 0x80, '"'));
+		assertNotParsed(bytes('"', 0xC1, 0xBF, '"'));
+		assertNotParsed(bytes('"', 0xE0, 0x80, 0x80, '"'));
+		assertNotParsed(bytes('"', 0xF0, 0x80, 0x80, 0x80, '"'));
+		
+		//The encoded surrogates
+		assertNotParsed(bytes('"', 0xED, 0xA0, 0x80, '"'));
+		assertNotParsed(bytes('"', 0xED, 0xBF, 0xBF, '"'));
+		
+		//The code point above U+10FFFF
+		assertNotParsed(bytes('"', 0xF4, 0x90, 0x80, 0x80, '"'));
+		
+		//The missing and lone continuation bytes
+		assertNotParsed(bytes('"', 0xC3, '"'));
+		assertNotParsed(bytes('"', 0xE4, 0xB8, '"'));
+		assertNotParsed(bytes('"', 0x80, '"'));
+		assertNotParsed(bytes('"', 0xFF, '"'));
+		
+		//The truncated character at the end
+		assertNotParsed(bytes('"', 0xC3));
+	}
+	
+	/**
+	 * Return null (the Gson fallback) for JSON that is not strict.
+	 */
+	@Test
+	public void rejectsLenientJson()
+	{
+		assertNotParsed(utf8("{'a': 1}"));
+		assertNotParsed(utf8("{a: 1}"));
+		assertNotParsed(utf8("[1, 2,]"));
+		assertNotParsed(utf8("[1; 2]"));
+		assertNotParsed(utf8("// comment\n1"));
+		assertNotParsed(utf8("NaN"));
+		assertNotParsed(utf8("01"));
+		assertNotParsed(utf8("1."));
+		assertNotParsed(utf8("unquoted"));
+		assertNotParsed(utf8("\"\\x\""));
+		assertNotParsed(utf8("\"\\u12G4\""));
+		assertNotParsed(utf8("\"unterminated"));
+		assertNotParsed(utf8("[1"));
+		assertNotParsed(utf8("1 2"));
+	}
+	
+	/**
+	 * Parse the empty body as JSON null (as the Gson parser).
+	 */
+	@Test
+	public void parsesEmptyAsNull()
+	{
+		assertEquals(JsonNull.INSTANCE, Utf8JsonParser.parse(new byte[0], 0, 0, -1, -1));
+		assertEquals(JsonNull.INSTANCE, parse(" \r\n\t "));
+	}
+	
+	/**
+	 * Parse the range of the bytes.
+	 */
+	@Test
+	public void parsesRange()
+	{
+		byte[] bytes = utf8("xx[1,\"\u00e9\"]yy");
+		assertEquals(JsonParser.parseString("[1,\"\u00e9\"]"), Utf8JsonParser.parse(bytes, 2, bytes.length - 4, -1, -1));
+	}
+	
+	/**
+	 * Limit the depth of the arrays and objects.
+	 */
+	@Test
+	public void limitsDepth()
+	{
+		//Within the limit
+		assertParsed("[[[1]]]", 3, -1);
+		assertParsed("{\"a\": {\"b\": 1}}", 2, -1);
+		
+		//Too deep
+		assertRejected("[[[1]]]", 2, -1);
+		assertRejected("{\"a\": [{\"b\": 1}]}", 2, -1);
+	}
+	
+	/**
+	 * Limit the members of the arrays and objects.
+	 */
+	@Test
+	public void limitsMembers()
+	{
+		//Within the limit (counted per array or object)
+		assertParsed("[1, 2, 3]", -1, 3);
+		assertParsed("[[1, 2], [3, 4]]", -1, 2);
+		assertParsed("{\"a\": 1, \"b\": 2}", -1, 2);
+		
+		//Too many members
+		assertRejected("[1, 2, 3]", -1, 2);
+		assertRejected("{\"a\": 1, \"b\": 2, \"c\": 3}", -1, 2);
+		assertRejected("[[1, 2, 3]]", -1, 2);
+	}
+	
+	/**
+	 * Parse the body that is not strict JSON with the Gson parser.
+	 */
+	@Test
+	public void fallsBackToGson()
+	{
+		//The lenient JSON
+		RequestBody body = new RequestBody(request(utf8("{'a': [1, 2,], b: 'c'}"), null), "UTF-8", null, -1, -1, -1, -1);
+		assertEquals(JsonParser.parseString("{'a': [1, 2,], b: 'c'}"), body.getJson());
+		
+		//The bytes that are not valid UTF-8 (decoded with replacement characters)
+		body = new RequestBody(request(bytes('"', 0xC0, 0x80, '"'), null), "UTF-8", null, -1, -1, -1, -1);
+		assertEquals(new JsonPrimitive("\ufffd\ufffd"), body.getJson());
+		
+		//The limits of the fallback
+		body = new RequestBody(request(utf8("[[['a']]]"), null), "UTF-8", null, -1, -1, 2, -1);
+		try
+		{
+			body.getJson();
+			fail("The body is too deep");
+		}
+		catch(RuntimeException ex)
+		{
+			assertEquals(400, RequestBodyException.find(ex).getStatus());
+		}
+	}
+	
+	/**
+	 * Parse the JSON (no limits).
+	 * @param json
+	 * @return
+	 */
+	private static JsonElement parse(String json)
+	{
+		byte[] bytes = utf8(json);
+		return Utf8JsonParser.parse(bytes, 0, bytes.length, -1, -1);
+	}
+	
+	/**
+	 * Assert that the JSON is parsed the same as the Gson parser (no limits).
+	 * @param json
+	 */
+	private static void assertParsed(String json)
+	{
+		assertParsed(json, -1, -1);
+	}
+	
+	/**
+	 * Assert that the JSON is parsed the same as the Gson parser.
+	 * @param json
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	private static void assertParsed(String json, int maxDepth, int maxMembers)
+	{
+		byte[] bytes = utf8(json);
+		JsonElement parsed = Utf8JsonParser.parse(bytes, 0, bytes.length, maxDepth, maxMembers);
+		assertNotNull("Not parsed: " + json, parsed);
+		assertEquals(JsonParser.parseString(json), parsed);
+	}
+	
+	/**
+	 * Assert that the bytes are not parsed (left to the Gson parser).
+	 * @param bytes
+	 */
+	private static void assertNotParsed(byte[] bytes)
+	{
+		assertNull(Utf8JsonParser.parse(bytes, 0, bytes.length, -1, -1));
+	}
+	
+	/**
+	 * Assert that the JSON is rejected by the limits.
+	 * @param json
+	 * @param maxDepth
+	 * @param maxMembers
+	 */
+	private static void assertRejected(String json, int maxDepth, int maxMembers)
+	{
+		//Try to parse the JSON
+		try
+		{
+			byte[] bytes = utf8(json);
+			Utf8JsonParser.parse(bytes, 0, bytes.length, maxDepth, maxMembers);
+			fail("Not rejected: " + json);
+		}
+		
+		//Rejected
+		catch(RequestBodyException ex)
+		{
+			assertEquals(400, ex.getStatus());
+		}
+	}
+	
+	/**
+	 * Create the bytes.
+	 * @param values
+	 * @return
+	 */
+	private static byte[] bytes(int... values)
+	{
+		byte[] bytes = new byte[values.length];
+		for(int i=0; i<values.length; i++)
+			bytes[i] = (byte) values[i];
+		return bytes;
+	}
+}